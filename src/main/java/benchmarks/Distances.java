@@ -0,0 +1,143 @@
+package benchmarks;
+
+import java.util.Random;
+
+import lib.parser.aptaplex.distances.BitapDistance;
+import lib.parser.aptaplex.distances.Distance;
+import lib.parser.aptaplex.distances.EditDistance;
+import lib.parser.aptaplex.distances.MaskedBitapDistance;
+import lib.parser.aptaplex.distances.MyersDistance;
+import lib.parser.aptaplex.distances.Result;
+
+/**
+ * Compares the throughput of the primer and barcode matchers in
+ * <code>lib.parser.aptaplex.distances</code> on synthetic contigs. Every
+ * contig consists of random nucleotides with a mutated copy of the pattern
+ * inserted at a random position, resembling the primer search in AptaPlex.
+ */
+public class Distances {
+
+	static char[] alphabet = { 'A', 'C', 'G', 'T' };
+
+	static int warmupRounds = 3;
+	static int measuredRounds = 5;
+
+	/**
+	 * Creates <code>count</code> contigs of length <code>length</code>, each containing the
+	 * pattern with up to <code>mutations</code> substitutions, insertions or deletions
+	 */
+	public static byte[][] generateContigs(Random r, byte[] pattern, int count, int length, int mutations) {
+
+		byte[][] contigs = new byte[count][];
+
+		for (int x = 0; x < count; x++) {
+
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < length; i++) {
+				sb.append(alphabet[r.nextInt(4)]);
+			}
+
+			StringBuilder mutated = new StringBuilder(new String(pattern));
+			for (int i = 0; i < r.nextInt(mutations + 1); i++) {
+				int pos = r.nextInt(mutated.length());
+				switch (r.nextInt(3)) {
+				case 0:
+					mutated.setCharAt(pos, alphabet[r.nextInt(4)]);
+					break;
+				case 1:
+					mutated.insert(pos, alphabet[r.nextInt(4)]);
+					break;
+				default:
+					mutated.deleteCharAt(pos);
+				}
+			}
+
+			sb.insert(r.nextInt(length), mutated);
+			contigs[x] = sb.toString().getBytes();
+
+		}
+
+		return contigs;
+	}
+
+	public static byte[] randomPattern(Random r, int length) {
+
+		byte[] pattern = new byte[length];
+		for (int i = 0; i < length; i++) {
+			pattern[i] = (byte) alphabet[r.nextInt(4)];
+		}
+
+		return pattern;
+	}
+
+	/**
+	 * Runs <code>indexOf</code> and <code>reverseIndexOf</code> on all contigs and prints
+	 * the average time per round together with the number of matches found
+	 */
+	public static void testDistance(Distance distance, byte[][] contigs, byte[] pattern, int tolerance) {
+
+		long matches = 0;
+		long total = 0;
+
+		for (int round = 0; round < warmupRounds + measuredRounds; round++) {
+
+			matches = 0;
+			long start = System.nanoTime();
+
+			for (byte[] contig : contigs) {
+
+				Result forward = distance.indexOf(contig, pattern, tolerance, 0, contig.length);
+				Result reverse = distance.reverseIndexOf(contig, pattern, tolerance, 0, contig.length);
+
+				if (forward != null) matches++;
+				if (reverse != null) matches++;
+
+			}
+
+			if (round >= warmupRounds) {
+				total += System.nanoTime() - start;
+			}
+
+		}
+
+		double millis = total / (measuredRounds * 1000000.0);
+		System.out.printf("%-22s pattern length %4d: %10.2f ms/round  %12.0f searches/s  %d matches%n",
+				distance.getClass().getSimpleName(), pattern.length, millis, 2 * contigs.length / (millis / 1000.0), matches);
+
+	}
+
+	public static void main(String[] args) {
+
+		Random r = new Random(42);
+		int contigs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int tolerance = 3;
+
+		// Primers supported by all matchers
+		for (int length : new int[] { 20, 32 }) {
+
+			byte[] pattern = randomPattern(r, length);
+			byte[][] data = generateContigs(r, pattern, contigs, 120, tolerance);
+
+			testDistance(new BitapDistance(), data, pattern, tolerance);
+			testDistance(new MaskedBitapDistance(), data, pattern, tolerance);
+			testDistance(new EditDistance(), data, pattern, tolerance);
+			testDistance(new MyersDistance(), data, pattern, tolerance);
+			System.out.println();
+
+		}
+
+		// Long primers, beyond the word size of the bitap matchers
+		for (int length : new int[] { 40, 80, 150 }) {
+
+			byte[] pattern = randomPattern(r, length);
+			byte[][] data = generateContigs(r, pattern, contigs, 120, tolerance);
+
+			testDistance(new EditDistance(), data, pattern, tolerance);
+			testDistance(new MyersDistance(), data, pattern, tolerance);
+			System.out.println();
+
+		}
+
+	}
+
+}
@@ -2,6 +2,7 @@ package benchmarks;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -19,6 +20,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -28,11 +31,14 @@ import org.mapdb.Atomic;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.DataOutput2;
+import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
 import org.mapdb.serializer.SerializerCompressionWrapper;
 
 import lib.aptamer.datastructures.AptamerPool;
 import lib.aptamer.datastructures.MapDBAptamerPool;
+import lib.aptamer.datastructures.StructureEncoding;
 import lib.structure.rnafold.MFEData;
 import lib.structure.rnafold.RNAFoldAPI;
 import utilities.Configuration;
@@ -416,6 +422,282 @@ public class MapDB {
 		
 	}
 
+	/**
+	 * Measures the effect of the <code>concurrencyScale</code> setting of the MapDB stores.
+	 * For each scale, <code>threads</code> threads concurrently insert and subsequently
+	 * retrieve <code>itemsPerThread</code> random sequences into a single file, mirroring
+	 * the access pattern of the parser consumers on the aptamer pool.
+	 *
+	 * @param directory location of the temporary database files
+	 * @param threads the number of concurrent writers
+	 * @param itemsPerThread the number of sequences inserted by each thread
+	 * @param scales the concurrency scales to compare
+	 */
+	public static void benchmarkConcurrencyScale(Path directory, int threads, int itemsPerThread, int... scales) {
+
+		for (int scale : scales) {
+
+			File file = Paths.get(directory.toString(), "concurrency_" + scale + ".mapdb").toFile();
+			file.delete();
+
+			DB db = DBMaker
+				    .fileDB(file)
+				    .fileMmapEnableIfSupported()
+				    .fileMmapPreclearDisable()
+				    .concurrencyScale(scale)
+				    .fileChannelEnable()
+				    .make();
+
+			HTreeMap<byte[], Integer> map = db.hashMap("map")
+					.keySerializer(Serializer.BYTE_ARRAY)
+					.valueSerializer(Serializer.INTEGER)
+					.create();
+
+			byte[][][] data = new byte[threads][itemsPerThread][];
+			Random r = new Random(42);
+			byte[] alphabet = { 'A', 'C', 'G', 'T' };
+			for (int t = 0; t < threads; t++) {
+				for (int i = 0; i < itemsPerThread; i++) {
+					data[t][i] = new byte[100];
+					for (int x = 0; x < 100; x++) {
+						data[t][i][x] = alphabet[r.nextInt(4)];
+					}
+				}
+			}
+
+			long tInsert = runConcurrently(threads, t -> {
+				for (int i = 0; i < itemsPerThread; i++) {
+					map.put(data[t][i], t * itemsPerThread + i);
+				}
+			});
+
+			long tLookup = runConcurrently(threads, t -> {
+				for (int i = 0; i < itemsPerThread; i++) {
+					map.get(data[t][i]);
+				}
+			});
+
+			System.out.printf("concurrencyScale %s: %s threads, %s items, insert %s s, lookup %s s%n", scale, threads,
+					map.size(), tInsert / 1000.0, tLookup / 1000.0);
+
+			db.close();
+			file.delete();
+		}
+
+	}
+
+	/**
+	 * Measures the insert and lookup throughput of an <code>AptamerPool</code> backend.
+	 * <code>items</code> random sequences of 100 nucleotides are registered, each of which
+	 * is registered a second time to account for the duplicates found in sequencing data.
+	 * Afterwards, the pool is set to read only and every sequence is looked up by its id
+	 * and by its sequence.
+	 *
+	 * @param pool an empty pool
+	 * @param items the number of unique sequences
+	 */
+	public static void benchmarkAptamerPool(AptamerPool pool, int items) {
+
+		byte[] alphabet = { 'A', 'C', 'G', 'T' };
+		Random r = new Random(42);
+		byte[][] data = new byte[items][100];
+		for (byte[] sequence : data) {
+			for (int x = 0; x < sequence.length; x++) {
+				sequence[x] = alphabet[r.nextInt(4)];
+			}
+		}
+
+		long tStart = System.currentTimeMillis();
+		for (byte[] sequence : data) {
+			pool.registerAptamer(sequence, 10, 90);
+		}
+		for (byte[] sequence : data) {
+			pool.registerAptamer(sequence, 10, 90);
+		}
+		long tInsert = System.currentTimeMillis() - tStart;
+
+		pool.setReadOnly();
+
+		tStart = System.currentTimeMillis();
+		for (int id = 1; id <= items; id++) {
+			pool.getAptamer(id);
+		}
+		long tById = System.currentTimeMillis() - tStart;
+
+		tStart = System.currentTimeMillis();
+		for (byte[] sequence : data) {
+			pool.getIdentifier(sequence);
+		}
+		long tBySequence = System.currentTimeMillis() - tStart;
+
+		System.out.printf("%s: %s unique sequences, register %.0f/s, getAptamer %.0f/s, getIdentifier %.0f/s%n",
+				pool.getClass().getSimpleName(), pool.size(), 2000.0 * items / Math.max(1, tInsert),
+				1000.0 * items / Math.max(1, tById), 1000.0 * items / Math.max(1, tBySequence));
+
+	}
+
+	/**
+	 * Measures how the insert throughput of an <code>AptamerPool</code> backend scales with the
+	 * number of concurrent writers, mirroring the parser consumers. For each thread count, a new
+	 * pool is created and <code>items</code> random sequences of 100 nucleotides are split evenly
+	 * over the threads, each of which registers its sequences twice to account for duplicates.
+	 * The throughput is reported together with the speedup over the first thread count.
+	 *
+	 * @param factory creates a new, empty pool, e.g. <code>() -> new ShardedAptamerPool(path, true)</code>
+	 * @param items the number of unique sequences
+	 * @param threadCounts the numbers of concurrent writers to compare
+	 * @throws IllegalStateException if the pool does not contain every sequence exactly once
+	 */
+	public static void benchmarkAptamerPoolScaling(Callable<AptamerPool> factory, int items, int... threadCounts) throws Exception {
+
+		byte[] alphabet = { 'A', 'C', 'G', 'T' };
+		Random r = new Random(42);
+		byte[][] data = new byte[items][100];
+		for (byte[] sequence : data) {
+			for (int x = 0; x < sequence.length; x++) {
+				sequence[x] = alphabet[r.nextInt(4)];
+			}
+		}
+
+		double baseline = 0;
+		for (int threads : threadCounts) {
+
+			AptamerPool pool = factory.call();
+
+			long tInsert = runConcurrently(threads, t -> {
+				for (int round = 0; round < 2; round++) {
+					for (int i = t; i < items; i += threads) {
+						pool.registerAptamer(data[i], 10, 90);
+					}
+				}
+			});
+
+			double throughput = 2000.0 * items / Math.max(1, tInsert);
+			if (baseline == 0) {
+				baseline = throughput;
+			}
+
+			System.out.printf("%s: %s threads, %s unique sequences, register %.0f/s, speedup %.2fx%n",
+					pool.getClass().getSimpleName(), threads, pool.size(), throughput, throughput / baseline);
+
+			if (pool.size() != items) {
+				throw new IllegalStateException("Expected " + items + " aptamers but the pool contains " + pool.size());
+			}
+
+			pool.clear();
+			pool.close();
+
+		}
+
+	}
+
+	/**
+	 * Compares the <code>StructureEncoding</code>s on <code>items</code> random structure profiles
+	 * of <code>length</code> nucleotides, each holding the probabilities of 5 structural contexts
+	 * which sum to one per position as produced by CapR. For every encoding, the storage per
+	 * profile, the decoding throughput into a reused buffer, and the largest absolute error are
+	 * reported. The storage of the compressed <code>double[]</code>s of pools predating the
+	 * encodings is given for reference.
+	 *
+	 * @param items the number of profiles
+	 * @param length the number of nucleotides per profile
+	 * @throws IllegalStateException if the error of an encoding exceeds its bound
+	 */
+	public static void benchmarkStructureEncoding(int items, int length) throws IOException {
+
+		Random r = new Random(42);
+		double[][] profiles = new double[items][5 * length];
+		for (double[] profile : profiles) {
+			for (int x = 0; x < length; x++) {
+
+				// Most positions are dominated by a single context
+				double total = 0;
+				for (int c = 0; c < 5; c++) {
+					profile[c * length + x] = Math.pow(r.nextDouble(), 4);
+					total += profile[c * length + x];
+				}
+				for (int c = 0; c < 5; c++) {
+					profile[c * length + x] /= total;
+				}
+
+			}
+		}
+
+		SerializerCompressionWrapper<double[]> legacy = new SerializerCompressionWrapper<double[]>(Serializer.DOUBLE_ARRAY);
+		long legacyBytes = 0;
+		for (double[] profile : profiles) {
+			DataOutput2 out = new DataOutput2();
+			legacy.serialize(out, profile);
+			legacyBytes += out.pos;
+		}
+		System.out.printf("legacy: %.1f bytes/profile%n", (double) legacyBytes / items);
+
+		double[] buffer = new double[5 * length];
+		for (StructureEncoding encoding : StructureEncoding.values()) {
+
+			byte[][] encoded = new byte[items][];
+			long bytes = 0;
+			for (int i = 0; i < items; i++) {
+				encoded[i] = encoding.encode(profiles[i]);
+				bytes += encoded[i].length;
+			}
+
+			double maximalError = 0;
+			for (int i = 0; i < items; i++) {
+				StructureEncoding.decode(encoded[i], buffer);
+				for (int x = 0; x < buffer.length; x++) {
+					maximalError = Math.max(maximalError, Math.abs(buffer[x] - profiles[i][x]));
+				}
+			}
+
+			long tStart = System.nanoTime();
+			double checksum = 0;
+			for (int round = 0; round < 10; round++) {
+				for (byte[] structure : encoded) {
+					StructureEncoding.decode(structure, buffer);
+					checksum += buffer[0];
+				}
+			}
+			long tDecode = System.nanoTime() - tStart;
+
+			System.out.printf("%s: %.1f bytes/profile (%.1fx smaller than legacy), decode %.0f profiles/s, maximal error %.3g (bound %.3g), checksum %.1f%n",
+					encoding, (double) bytes / items, (double) legacyBytes / bytes, 10.0 * items / (tDecode / 1e9),
+					maximalError, encoding.getMaximalError(), checksum);
+
+			if (maximalError > encoding.getMaximalError()) {
+				throw new IllegalStateException("Error of encoding " + encoding + " exceeds its bound: " + maximalError);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Runs <code>task</code> on <code>threads</code> threads and returns the wall clock time in milliseconds
+	 */
+	private static long runConcurrently(int threads, IntConsumer task) {
+
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> task.accept(id));
+		}
+
+		long tStart = System.currentTimeMillis();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return System.currentTimeMillis() - tStart;
+	}
+
 	static int iteratedDataSize = 0;
 	static int dataSize = 10;
 	static int currentIteratorPosition;
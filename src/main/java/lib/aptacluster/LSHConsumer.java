@@ -15,6 +15,7 @@ import java.util.logging.Logger;
 
 import org.eclipse.collections.api.iterator.MutableIntIterator;
 import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 import com.milaboratory.core.PairedEndReadsLayout;
 import com.milaboratory.core.alignment.AffineGapAlignmentScoring;
@@ -90,6 +91,11 @@ public class LSHConsumer implements Runnable {
 	 */
 	private Boolean isRunning = true;
 	
+	/**
+	 * Bucket members for which the distance to the seed must be computed
+	 */
+	private IntArrayList candidates = new IntArrayList();
+	
 	
 	public LSHConsumer(
 			BlockingQueue<Object> queue, 
@@ -131,15 +137,31 @@ public class LSHConsumer implements Runnable {
 				// set as processed
 				processed.incrementAndGet();
 				
-				// iterate over the bucket and reassign cluster members if appropriate 
+				// collect the bucket members which are not already in the same cluster...
+				candidates.clear();
 				while ( item.it.hasNext() ){
 					
 					int item_id = item.it.next();
+					if (!visited.contains(item_id) && item.cluster_id!=clusters.getClusterId(item_id)){
+						candidates.add(item_id);
+					}
+					
+				}
+				
+				// ... fetch their sequences in one batch...
+				int[] candidate_ids = candidates.toArray();
+				byte[][] candidate_sequences = new byte[candidate_ids.length][];
+				experiment.getAptamerPool().getAptamers(candidate_ids, candidate_sequences);
+				
+				// ... and reassign them if appropriate
+				for (int x = 0; x < candidate_ids.length; x++){
+					
+					int item_id = candidate_ids[x];
 					// we only want to recompute distances between items that are not already in the same cluster
 					if (!visited.contains(item_id) && item.cluster_id!=clusters.getClusterId(item_id)){
 						
 						double distance = Distances.KmerDistance(
-								experiment.getAptamerPool().getAptamer(item_id), 
+								candidate_sequences[x], 
 								item.aptamer_sequence, 
 								kmer_size);
 						
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * @author Jan Hoinka
+ * Cursor walking the sequences, bounds, and optionally the structures of an
+ * <code>AptamerPool</code> in a single pass in ascending order of the ids. Each
+ * store is traversed sequentially by its own iterator and the three views are merged
+ * on the aptamer id, avoiding a random lookup per aptamer in the bounds and structure
+ * stores.
+ *
+ * Every call to <code>next()</code> updates and returns the same <code>Record</code>
+ * instance. Callers must copy any values they want to keep beyond the current step.
+ *
+ * Eg. <code>AptamerCursor cursor = pool.cursor(structures);
+ * for (AptamerCursor.Record record = cursor.next(); record != null; record = cursor.next()) { }</code>
+ */
+public class AptamerCursor {
+
+	/**
+	 * The content of the cursor at its current position
+	 */
+	public static class Record {
+
+		/**
+		 * The unique identifier of the aptamer
+		 */
+		public int id;
+
+		/**
+		 * The aptamer sequence including the primers, if present in the data
+		 */
+		public byte[] sequence;
+
+		/**
+		 * Start (inclusive) and end (exclusive) of the randomized region
+		 */
+		public int startIndex;
+		public int endIndex;
+
+		/**
+		 * The structure of the aptamer, null if no structure is available
+		 */
+		public double[] structure;
+
+	}
+
+	private AptamerPool pool;
+
+	private Iterator<Entry<Integer, byte[]>> sequences;
+
+	private Iterator<Entry<Integer, int[]>> bounds;
+
+	/**
+	 * Null if no structures are requested
+	 */
+	private Iterator<Entry<Integer, double[]>> structures;
+
+	/**
+	 * The entries of the bounds and structure views following the current id
+	 */
+	private Entry<Integer, int[]> nextBounds = null;
+	private Entry<Integer, double[]> nextStructure = null;
+
+	private Record record = new Record();
+
+	/**
+	 * @param pool the pool providing the sequences and bounds
+	 * @param structurePool the pool providing the structures, or null to omit them
+	 */
+	public AptamerCursor(AptamerPool pool, StructurePool structurePool) {
+
+		this.pool = pool;
+		this.sequences = pool.inverse_view_iterator().iterator();
+		this.bounds = pool.bounds_iterator().iterator();
+		this.structures = structurePool == null ? null : structurePool.sorted_iterator().iterator();
+
+	}
+
+	/**
+	 * Advances the cursor to the next aptamer
+	 * @return the record holding the data of the next aptamer, or null if the pool has been traversed
+	 */
+	public Record next() {
+
+		if (!sequences.hasNext()) {
+			return null;
+		}
+
+		Entry<Integer, byte[]> sequence = sequences.next();
+		int id = sequence.getKey();
+
+		record.id = id;
+		record.sequence = sequence.getValue();
+
+		// Bounds exist for every id. Should the views be out of step, fall back to a lookup
+		while ((nextBounds == null || nextBounds.getKey() < id) && bounds.hasNext()) {
+			nextBounds = bounds.next();
+		}
+		if (nextBounds != null && nextBounds.getKey() == id) {
+			record.startIndex = nextBounds.getValue()[0];
+			record.endIndex = nextBounds.getValue()[1];
+		} else {
+			AptamerBounds ab = pool.getAptamerBounds(id);
+			record.startIndex = ab.startIndex;
+			record.endIndex = ab.endIndex;
+		}
+
+		// Structures may only be present for a subset of the ids
+		record.structure = null;
+		if (structures != null) {
+
+			while ((nextStructure == null || nextStructure.getKey() < id) && structures.hasNext()) {
+				nextStructure = structures.next();
+			}
+			if (nextStructure != null && nextStructure.getKey() == id) {
+				record.structure = nextStructure.getValue();
+			}
+
+		}
+
+		return record;
+	}
+
+}
@@ -5,6 +5,7 @@ package lib.aptamer.datastructures;
 
 import java.io.Serializable;
 import java.util.Map.Entry;
+import java.util.Spliterator;
 
 /**
  * @author Jan Hoinka
@@ -76,6 +77,49 @@ public interface AptamerPool extends Serializable{
 	 */
 	public AptamerBounds getAptamerBounds(int id); 
 	
+	/**
+	 * Batch version of <code>getAptamer(int)</code>. Implementations may reorder the
+	 * lookups internally, e.g. to access each underlying storage unit only once per batch.
+	 * @param ids the unique identifiers of the aptamers
+	 * @param aptamers output array of at least <code>ids.length</code> elements. Position
+	 * <code>i</code> is set to the sequence of <code>ids[i]</code> or null if it does not exist
+	 */
+	public default void getAptamers(int[] ids, byte[][] aptamers) {
+		
+		for (int i = 0; i < ids.length; i++) {
+			aptamers[i] = getAptamer(ids[i]);
+		}
+		
+	}
+	
+	/**
+	 * Batch version of <code>getAptamerBounds(int)</code>
+	 * @param ids the unique identifiers of the aptamers
+	 * @param bounds output array of at least <code>ids.length</code> elements. Position
+	 * <code>i</code> is set to the bounds of <code>ids[i]</code> or null if it does not exist
+	 */
+	public default void getAptamerBounds(int[] ids, AptamerBounds[] bounds) {
+		
+		for (int i = 0; i < ids.length; i++) {
+			bounds[i] = getAptamerBounds(ids[i]);
+		}
+		
+	}
+	
+	/**
+	 * Batch version of <code>getIdentifier(byte[])</code>
+	 * @param aptamers the aptamer sequences
+	 * @param ids output array of at least <code>aptamers.length</code> elements. Position 
+	 * <code>i</code> is set to the identifier of <code>aptamers[i]</code> or -1 if it does not exist
+	 */
+	public default void getIdentifiers(byte[][] aptamers, int[] ids) {
+		
+		for (int i = 0; i < aptamers.length; i++) {
+			ids[i] = getIdentifier(aptamers[i]);
+		}
+		
+	}
+	
 	/**
 	 * Checks for the existence of a specific aptamer <code>a</code> in the pool.
 	 * @param a The aptamer sequence 
@@ -152,4 +196,52 @@ public interface AptamerPool extends Serializable{
 	 * Provides public access to the iterator of the bounds data
 	 */
 	public Iterable<Entry<Integer,int[]>> bounds_iterator();
+	
+	
+	/**
+	 * Splittable version of <code>iterator()</code>, e.g. for use with 
+	 * <code>StreamSupport.stream(pool.spliterator(), true)</code>. Implementations 
+	 * split along the boundaries of their underlying storage units and key ranges
+	 * so that each part can be traversed by a separate thread.
+	 */
+	public default Spliterator<Entry<byte[], Integer>> spliterator() {
+		return iterator().spliterator();
+	}
+	
+	
+	/**
+	 * Splittable version of <code>inverse_view_iterator()</code>
+	 * @see AptamerPool#spliterator()
+	 */
+	public default Spliterator<Entry<Integer,byte[]>> inverse_view_spliterator() {
+		return inverse_view_iterator().spliterator();
+	}
+	
+	
+	/**
+	 * Splittable version of <code>id_iterator()</code>
+	 * @see AptamerPool#spliterator()
+	 */
+	public default Spliterator<Integer> id_spliterator() {
+		return id_iterator().spliterator();
+	}
+	
+	
+	/**
+	 * Splittable version of <code>bounds_iterator()</code>
+	 * @see AptamerPool#spliterator()
+	 */
+	public default Spliterator<Entry<Integer,int[]>> bounds_spliterator() {
+		return bounds_iterator().spliterator();
+	}
+	
+	
+	/**
+	 * Provides a cursor over the id, sequence, bounds, and structure of every aptamer 
+	 * in the pool in ascending order of the ids, reading each view sequentially
+	 * @param structures the pool providing the structures, or null to omit them
+	 */
+	public default AptamerCursor cursor(StructurePool structures) {
+		return new AptamerCursor(this, structures);
+	}
 }
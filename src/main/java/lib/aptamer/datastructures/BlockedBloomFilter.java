@@ -0,0 +1,250 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * @author Jan Hoinka
+ * Cache-line blocked Bloom filter (Putze et al., 2007) on a primitive <code>long[]</code>.
+ * Every key is mapped to a single block of 512 bits, the size of a cache line, and all
+ * probe positions of the key lie within that block. A lookup hence costs one 64 bit hash
+ * and at most one cache miss, independent of the number of probes. The block and the
+ * probe positions are all derived from that single hash.
+ *
+ * Blocks fill unevenly, which increases the false positive rate compared to a standard
+ * Bloom filter of the same size. The filter is therefore sized using the false positive
+ * rate of the blocked layout rather than that of a standard filter.
+ *
+ * Insertions are synchronized, lookups are not. A lookup running concurrently with the
+ * insertion of the same key may not observe that key yet.
+ */
+public class BlockedBloomFilter implements Serializable {
+
+	private static final long serialVersionUID = -6253914751062245315L;
+
+	/**
+	 * Number of 64 bit words per block
+	 */
+	private static final int BLOCK_WORDS = 8;
+
+	/**
+	 * Number of bits per block
+	 */
+	private static final int BLOCK_BITS = BLOCK_WORDS * 64;
+
+	/**
+	 * Upper limit on the number of probes per key
+	 */
+	private static final int MAX_HASHES = 16;
+
+	/**
+	 * Relative increase of the number of bits per key while sizing the filter
+	 */
+	private static final double SIZING_STEP = 1.05;
+
+	/**
+	 * Odd multiplier deriving the probe positions from the hash. The i-th probe is given by
+	 * the upper 9 bits of <code>hash * PROBE_MULTIPLIER^i</code>.
+	 */
+	private static final long PROBE_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The largest number of blocks which can be addressed by a single array
+	 */
+	private static final int MAX_BLOCKS = (Integer.MAX_VALUE - 8) / BLOCK_WORDS;
+
+	private long[] bits;
+
+	private int numberOfBlocks;
+
+	private int numberOfHashes;
+
+
+	private BlockedBloomFilter() {
+	}
+
+	/**
+	 * @param expectedInsertions the number of keys the filter is sized for
+	 * @param falsePositiveProbability the false positive rate once <code>expectedInsertions</code> keys have been added
+	 */
+	public BlockedBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+
+		// Start at the size of a standard Bloom filter and grow until the blocked layout
+		// reaches the requested false positive rate with the best number of probes
+		double ln2 = Math.log(2);
+		double bitsPerKey = -Math.log(falsePositiveProbability) / (ln2 * ln2);
+
+		int hashes = bestNumberOfHashes(bitsPerKey);
+		while (falsePositiveRate(bitsPerKey, hashes) > falsePositiveProbability && bitsPerKey < BLOCK_BITS) {
+			bitsPerKey *= SIZING_STEP;
+			hashes = bestNumberOfHashes(bitsPerKey);
+		}
+
+		long totalBits = (long) Math.ceil(Math.max(1, expectedInsertions) * bitsPerKey);
+
+		this.numberOfBlocks = (int) Math.max(1, Math.min(MAX_BLOCKS, (totalBits + BLOCK_BITS - 1) / BLOCK_BITS));
+		this.numberOfHashes = hashes;
+		this.bits = new long[numberOfBlocks * BLOCK_WORDS];
+
+	}
+
+	/**
+	 * Adds a key given by its 64 bit hash
+	 */
+	public synchronized void add(long hash) {
+
+		int offset = block(hash);
+
+		long x = hash;
+		for (int i = 0; i < numberOfHashes; i++) {
+			x *= PROBE_MULTIPLIER;
+			int position = (int) (x >>> 55);
+			bits[offset + (position >>> 6)] |= 1L << position;
+		}
+
+	}
+
+	/**
+	 * @return false if the key given by its 64 bit hash has certainly not been added,
+	 * true if it probably has been
+	 */
+	public boolean contains(long hash) {
+
+		int offset = block(hash);
+
+		long x = hash;
+		for (int i = 0; i < numberOfHashes; i++) {
+			x *= PROBE_MULTIPLIER;
+			int position = (int) (x >>> 55);
+			if ((bits[offset + (position >>> 6)] & (1L << position)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public void add(byte[] key) {
+		add(MinimalPerfectHash.hash(key));
+	}
+
+	public boolean contains(byte[] key) {
+		return contains(MinimalPerfectHash.hash(key));
+	}
+
+	public void add(int key) {
+		add(hash(key));
+	}
+
+	public boolean contains(int key) {
+		return contains(hash(key));
+	}
+
+	/**
+	 * Removes all keys from the filter
+	 */
+	public synchronized void clear() {
+		Arrays.fill(bits, 0);
+	}
+
+	/**
+	 * @return the size of the filter in bytes
+	 */
+	public long sizeInBytes() {
+		return 8L * bits.length;
+	}
+
+	/**
+	 * 64 bit hash of an integer key (finalizer of MurmurHash3)
+	 */
+	public static long hash(int key) {
+
+		long x = key;
+		x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+		x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+
+		return x;
+	}
+
+	/**
+	 * Writes this instance to <code>out</code>
+	 */
+	public synchronized void write(DataOutputStream out) throws IOException {
+
+		out.writeInt(numberOfBlocks);
+		out.writeInt(numberOfHashes);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+
+	}
+
+	/**
+	 * Reads an instance previously stored with <code>write</code>
+	 */
+	public static BlockedBloomFilter read(DataInputStream in) throws IOException {
+
+		BlockedBloomFilter filter = new BlockedBloomFilter();
+
+		filter.numberOfBlocks = in.readInt();
+		filter.numberOfHashes = in.readInt();
+		filter.bits = new long[filter.numberOfBlocks * BLOCK_WORDS];
+		for (int i = 0; i < filter.bits.length; i++) {
+			filter.bits[i] = in.readLong();
+		}
+
+		return filter;
+	}
+
+	/**
+	 * @return the number of probes minimizing the false positive rate at <code>bitsPerKey</code>
+	 */
+	private static int bestNumberOfHashes(double bitsPerKey) {
+
+		int best = 1;
+		for (int k = 2; k <= MAX_HASHES; k++) {
+			if (falsePositiveRate(bitsPerKey, k) < falsePositiveRate(bitsPerKey, best)) {
+				best = k;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Expected false positive rate of the blocked layout. The number of keys per block
+	 * is Poisson distributed, each block behaves like a standard Bloom filter of
+	 * <code>BLOCK_BITS</code> bits.
+	 */
+	private static double falsePositiveRate(double bitsPerKey, int hashes) {
+
+		double keysPerBlock = BLOCK_BITS / bitsPerKey;
+
+		double rate = 0;
+		double probability = Math.exp(-keysPerBlock);
+		int limit = (int) (keysPerBlock + 10 * Math.sqrt(keysPerBlock) + 10);
+		for (int j = 0; j <= limit; j++) {
+			if (j > 0) {
+				probability *= keysPerBlock / j;
+			}
+			rate += probability * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) hashes * j), hashes);
+		}
+
+		return rate;
+	}
+
+	/**
+	 * @return the index of the first word of the block of <code>hash</code>
+	 */
+	private int block(long hash) {
+		return (int) (((hash >>> 32) * numberOfBlocks) >>> 32) * BLOCK_WORDS;
+	}
+
+}
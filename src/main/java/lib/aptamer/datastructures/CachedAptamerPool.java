@@ -0,0 +1,468 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Wraps any <code>AptamerPool</code> with a bounded cache for <code>getAptamer(int)</code>.
+ * Sequences are stored 2-bit packed in direct (off-heap) memory, so that the cache neither
+ * adds to the garbage collector's workload nor requires repeated deserialization
+ * of frequently accessed aptamers.
+ *
+ * The memory budget is split into segments of fixed size slots, each segment guarded
+ * by its own lock. Slots are reclaimed using the CLOCK (second chance) policy.
+ * Sequences which do not fit into a slot are not cached. Since the sequence of an
+ * identifier never changes, cached entries remain valid until the pool is cleared.
+ */
+public class CachedAptamerPool implements AptamerPool {
+
+	private static final long serialVersionUID = 3019683471207466135L;
+
+	/**
+	 * Bytes per slot, including the 8 byte header (id, length)
+	 */
+	private static final int SLOT_SIZE = 64;
+
+	/**
+	 * Number of independently locked segments
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Statistics are logged after this many lookups
+	 */
+	private static final long LOG_INTERVAL = 1 << 22;
+
+	/**
+	 * The pool serving the cache misses
+	 */
+	private AptamerPool pool;
+
+	private transient Segment[] segments;
+
+	private transient LongAdder hits = new LongAdder();
+	private transient LongAdder misses = new LongAdder();
+
+	/**
+	 * Total number of lookups after which the statistics are logged next
+	 */
+	private transient AtomicLong nextLog = new AtomicLong(LOG_INTERVAL);
+
+	/**
+	 * A part of the cache with its own memory, index, and clock hand
+	 */
+	private static class Segment {
+
+		/**
+		 * Slot memory, allocated on first use
+		 */
+		ByteBuffer arena = null;
+
+		int slots;
+
+		/**
+		 * Number of slots in use, slots are handed out sequentially until the segment is full
+		 */
+		int used = 0;
+
+		/**
+		 * Key: aptamer id, Value: slot
+		 */
+		Int2IntOpenHashMap index = new Int2IntOpenHashMap();
+
+		/**
+		 * Reference bits of the CLOCK policy
+		 */
+		long[] referenced;
+
+		int hand = 0;
+
+		Segment(int slots) {
+
+			this.slots = slots;
+			this.referenced = new long[(slots + 63) / 64];
+			index.defaultReturnValue(-1);
+
+		}
+
+		/**
+		 * @return the binary form of the cached sequence preceded by its length as
+		 * stored in the slot header, or null if <code>id</code> is not cached
+		 */
+		synchronized byte[] get(int id, int[] length) {
+
+			int slot = index.get(id);
+			if (slot == -1) {
+				return null;
+			}
+
+			referenced[slot >>> 6] |= 1L << slot;
+
+			int offset = slot * SLOT_SIZE;
+			length[0] = arena.getInt(offset + 4);
+
+			byte[] binary = new byte[length[0] < 0 ? ~length[0] : PackedSequence.packedSize(length[0])];
+			for (int i = 0; i < binary.length; i++) {
+				binary[i] = arena.get(offset + 8 + i);
+			}
+
+			return binary;
+		}
+
+		synchronized void put(int id, PackedSequence aptamer, byte[] binary) {
+
+			if (index.containsKey(id)) {
+				return;
+			}
+
+			if (arena == null) {
+				arena = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+			}
+
+			int slot = nextSlot();
+			int offset = slot * SLOT_SIZE;
+
+			arena.putInt(offset, id);
+			arena.putInt(offset + 4, aptamer.isPacked() ? aptamer.length() : ~aptamer.length());
+			for (int i = 0; i < binary.length; i++) {
+				arena.put(offset + 8 + i, binary[i]);
+			}
+
+			index.put(id, slot);
+
+		}
+
+		/**
+		 * @return a free slot, evicting the first entry the clock hand finds unreferenced if required
+		 */
+		private int nextSlot() {
+
+			if (used < slots) {
+				return used++;
+			}
+
+			while ((referenced[hand >>> 6] & (1L << hand)) != 0) {
+				referenced[hand >>> 6] &= ~(1L << hand);
+				hand = (hand + 1) % slots;
+			}
+
+			int victim = hand;
+			hand = (hand + 1) % slots;
+
+			index.remove(arena.getInt(victim * SLOT_SIZE));
+
+			return victim;
+		}
+
+		synchronized int size() {
+			return index.size();
+		}
+
+		synchronized void clear() {
+
+			index.clear();
+			Arrays.fill(referenced, 0);
+			used = 0;
+			hand = 0;
+
+		}
+
+	}
+
+
+	/**
+	 * @param pool the pool to cache
+	 * @param capacity the memory budget of the cache in bytes
+	 */
+	public CachedAptamerPool(AptamerPool pool, long capacity) {
+
+		this.pool = pool;
+
+		int slotsPerSegment = (int) Math.max(1, Math.min(Integer.MAX_VALUE / SLOT_SIZE, capacity / SLOT_SIZE / SEGMENTS));
+
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(slotsPerSegment);
+		}
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), String.format("Caching up to %s sequences of at most %s nucleotides in %s bytes of off-heap memory", (long) slotsPerSegment * SEGMENTS, (SLOT_SIZE - 8) * 4, (long) slotsPerSegment * SEGMENTS * SLOT_SIZE));
+
+	}
+
+	/**
+	 * @return the underlying pool
+	 */
+	public AptamerPool getPool() {
+		return pool;
+	}
+
+	private Segment getSegment(int id) {
+
+		int h = id * 0x9E3779B9;
+
+		return segments[(h >>> 16) % SEGMENTS];
+
+	}
+
+	@Override
+	public byte[] getAptamer(int id) {
+
+		byte[] aptamer = getCached(id);
+		if (aptamer != null) {
+			return aptamer;
+		}
+
+		aptamer = pool.getAptamer(id);
+		cache(id, aptamer);
+
+		return aptamer;
+	}
+
+	/**
+	 * Serves the cached sequences directly and retrieves all others from the
+	 * underlying pool in a single batch
+	 */
+	@Override
+	public void getAptamers(int[] ids, byte[][] aptamers) {
+
+		int[] missing = new int[ids.length];
+		int numMissing = 0;
+
+		for (int i = 0; i < ids.length; i++) {
+			aptamers[i] = getCached(ids[i]);
+			if (aptamers[i] == null) {
+				missing[numMissing++] = i;
+			}
+		}
+
+		if (numMissing == 0) {
+			return;
+		}
+
+		int[] missingIds = new int[numMissing];
+		for (int i = 0; i < numMissing; i++) {
+			missingIds[i] = ids[missing[i]];
+		}
+
+		byte[][] missingAptamers = new byte[numMissing][];
+		pool.getAptamers(missingIds, missingAptamers);
+
+		for (int i = 0; i < numMissing; i++) {
+			aptamers[missing[i]] = missingAptamers[i];
+			cache(missingIds[i], missingAptamers[i]);
+		}
+
+	}
+
+	/**
+	 * @return the cached sequence or null if <code>id</code> is not in the cache
+	 */
+	private byte[] getCached(int id) {
+
+		int[] length = new int[1];
+		byte[] binary = getSegment(id).get(id, length);
+
+		countLookup(binary != null);
+
+		if (binary == null) {
+			return null;
+		}
+
+		return length[0] < 0 ? binary : PackedSequence.unpack(length[0], binary);
+	}
+
+	/**
+	 * Adds the sequence to the cache if it fits into a slot
+	 */
+	private void cache(int id, byte[] aptamer) {
+
+		if (aptamer == null) {
+			return;
+		}
+
+		PackedSequence packed = PackedSequence.pack(aptamer);
+		byte[] binary = packed.toByteArray();
+
+		if (binary.length <= SLOT_SIZE - 8) {
+			getSegment(id).put(id, packed, binary);
+		}
+
+	}
+
+	/**
+	 * Updates the statistics and writes them to the log in regular intervals.
+	 * The interval is only checked on misses, which are dominated by the lookup
+	 * in the underlying pool, so that hits do not pay for summing the counters.
+	 */
+	private void countLookup(boolean hit) {
+
+		if (hit) {
+			hits.increment();
+			return;
+		}
+
+		misses.increment();
+
+		long total = hits.sum() + misses.sum();
+		long next = nextLog.get();
+
+		// only the thread advancing the threshold writes the statistics
+		if (total >= next && nextLog.compareAndSet(next, total + LOG_INTERVAL)) {
+			logStatistics();
+		}
+
+	}
+
+	/**
+	 * Writes the hit and miss counts of the cache to the log
+	 */
+	public void logStatistics() {
+
+		long h = hits.sum();
+		long m = misses.sum();
+
+		int entries = 0;
+		for (Segment segment : segments) {
+			entries += segment.size();
+		}
+
+		AptaLogger.log(Level.INFO, this.getClass(), String.format("Sequence cache: %s hits, %s misses (%.1f%% hit rate), %s cached sequences", h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), entries));
+
+	}
+
+	@Override
+	public int registerAptamer(byte[] a, int rr_start, int rr_end) {
+		return pool.registerAptamer(a, rr_start, rr_end);
+	}
+
+	@Override
+	public int registerAptamer(String a, int rr_start, int rr_end) {
+		return pool.registerAptamer(a, rr_start, rr_end);
+	}
+
+	@Override
+	public int getIdentifier(byte[] a) {
+		return pool.getIdentifier(a);
+	}
+
+	@Override
+	public int getIdentifier(String a) {
+		return pool.getIdentifier(a);
+	}
+
+	@Override
+	public void getIdentifiers(byte[][] aptamers, int[] ids) {
+		pool.getIdentifiers(aptamers, ids);
+	}
+
+	@Override
+	public AptamerBounds getAptamerBounds(int id) {
+		return pool.getAptamerBounds(id);
+	}
+
+	@Override
+	public void getAptamerBounds(int[] ids, AptamerBounds[] bounds) {
+		pool.getAptamerBounds(ids, bounds);
+	}
+
+	@Override
+	public Boolean containsAptamer(byte[] a) {
+		return pool.containsAptamer(a);
+	}
+
+	@Override
+	public Boolean containsAptamer(String a) {
+		return pool.containsAptamer(a);
+	}
+
+	@Override
+	public Boolean containsAptamer(int id) {
+		return pool.containsAptamer(id);
+	}
+
+	@Override
+	public int size() {
+		return pool.size();
+	}
+
+	@Override
+	public void clear() {
+
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+		pool.clear();
+
+	}
+
+	@Override
+	public void close() {
+
+		logStatistics();
+		pool.close();
+
+	}
+
+	@Override
+	public void setReadOnly() {
+		pool.setReadOnly();
+	}
+
+	@Override
+	public void setReadWrite() {
+		pool.setReadWrite();
+	}
+
+	@Override
+	public Iterable<Entry<byte[], Integer>> iterator() {
+		return pool.iterator();
+	}
+
+	@Override
+	public Iterable<Entry<Integer, byte[]>> inverse_view_iterator() {
+		return pool.inverse_view_iterator();
+	}
+
+	@Override
+	public Iterable<Integer> id_iterator() {
+		return pool.id_iterator();
+	}
+
+	@Override
+	public Iterable<Entry<Integer, int[]>> bounds_iterator() {
+		return pool.bounds_iterator();
+	}
+
+	@Override
+	public Spliterator<Entry<byte[], Integer>> spliterator() {
+		return pool.spliterator();
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, byte[]>> inverse_view_spliterator() {
+		return pool.inverse_view_spliterator();
+	}
+
+	@Override
+	public Spliterator<Integer> id_spliterator() {
+		return pool.id_spliterator();
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, int[]>> bounds_spliterator() {
+		return pool.bounds_spliterator();
+	}
+
+}
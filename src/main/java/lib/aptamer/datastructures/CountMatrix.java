@@ -0,0 +1,485 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import utilities.AptaLogger;
+import utilities.Configuration;
+
+/**
+ * @author Jan Hoinka
+ * Persisted, memory mapped id x cycle matrix of the counts of every aptamer in every
+ * selection cycle of the experiment. The columns correspond to the cycles in the order of
+ * <code>Experiment.getAllSelectionCycles()</code>, the rows to the aptamer ids. It allows
+ * consumers requiring the counts of an aptamer in all cycles to retrieve them in a single
+ * read instead of querying every <code>SelectionCycle</code> separately.
+ *
+ * The matrix is stored in one of two layouts, whichever is smaller:
+ *
+ * dense: <code>counts.bin</code> holds the counts column-major (int), so that all counts of
+ * a cycle are contiguous.
+ *
+ * sparse (CSR): <code>rows.bin</code> holds, for every id, the index of its first entry in
+ * <code>entries.bin</code> (long). Every entry consists of the column and the count (2 x int),
+ * sorted by column. Only non-zero counts are stored.
+ *
+ * <code>header.bin</code> is written last and records the layout together with the sizes
+ * of the pool and of all cycles at the time the matrix was built, and a fingerprint of the
+ * counts of a sample of ids. The latter detects a pool which was parsed again into the same
+ * project, since the ids are assigned in a different order by every parse while all sizes
+ * stay the same. A matrix which no longer matches the experiment is rebuilt.
+ */
+public class CountMatrix {
+
+	private static final int VERSION = 2;
+
+	/**
+	 * Number of aptamers sampled for the content fingerprint of the matrix
+	 */
+	private static final int FINGERPRINT_SAMPLES = 64;
+
+	/**
+	 * The layout of the matrix on disk
+	 */
+	private boolean sparse;
+
+	/**
+	 * Number of rows, i.e. the largest aptamer id
+	 */
+	private int rows;
+
+	/**
+	 * Name, size and unique size of every column at the time the matrix was built
+	 */
+	private String[] names;
+	private int[] sizes;
+	private int[] uniqueSizes;
+
+	/**
+	 * Fingerprint of the counts of the sampled ids at the time the matrix was built
+	 */
+	private long fingerprint;
+
+	/**
+	 * Dense layout
+	 */
+	private MappedFile counts;
+
+	/**
+	 * Sparse layout
+	 */
+	private MappedFile rowOffsets;
+	private MappedFile entries;
+
+	/**
+	 * Opens the count matrix of the experiment, building it first if it is missing or does
+	 * no longer match <code>pool</code> and <code>cycles</code>
+	 * @param projectPath the project folder
+	 * @param pool the aptamer pool defining the rows
+	 * @param cycles the selection cycles defining the columns
+	 * @throws IOException
+	 */
+	public CountMatrix(Path projectPath, AptamerPool pool, List<SelectionCycle> cycles) throws IOException {
+
+		Path matrixPath = Files.createDirectories(Paths.get(projectPath.toString(), "countmatrix"));
+
+		if (!readHeader(matrixPath) || !matches(pool, cycles)) {
+			build(matrixPath, pool, cycles);
+		}
+
+		map(matrixPath);
+
+	}
+
+	/**
+	 * @return true if the matrix reflects the current content of <code>pool</code> and <code>cycles</code>
+	 */
+	public boolean matches(AptamerPool pool, List<SelectionCycle> cycles) {
+
+		if (pool.size() != rows || cycles.size() != names.length) {
+			return false;
+		}
+
+		for (int x = 0; x < names.length; x++) {
+
+			SelectionCycle cycle = cycles.get(x);
+			if (!cycle.getName().equals(names[x]) || cycle.getSize() != sizes[x] || cycle.getUniqueSize() != uniqueSizes[x]) {
+				return false;
+			}
+
+		}
+
+		return fingerprint == contentFingerprint(cycles);
+	}
+
+	/**
+	 * Hashes the counts in all <code>cycles</code> of up to <code>FINGERPRINT_SAMPLES</code> evenly
+	 * spaced ids, including the first and the last one
+	 * @return the fingerprint of the content of the matrix
+	 */
+	private long contentFingerprint(List<SelectionCycle> cycles) {
+
+		long hash = rows;
+
+		int samples = Math.min(rows, FINGERPRINT_SAMPLES);
+		for (int i = 0; i < samples; i++) {
+
+			int id = samples == 1 ? rows : 1 + (int) ((long) i * (rows - 1) / (samples - 1));
+
+			for (SelectionCycle cycle : cycles) {
+				hash = hash * 31 + cycle.getAptamerCardinality(id);
+			}
+
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Marks the count matrix of the project as outdated, such that it is rebuilt for a newly
+	 * created pool even if the sizes of the pool and of all cycles are unchanged
+	 * @param projectPath the project folder
+	 * @throws IOException
+	 */
+	public static void invalidate(Path projectPath) throws IOException {
+
+		Files.deleteIfExists(Paths.get(projectPath.toString(), "countmatrix", "header.bin"));
+
+	}
+
+	/**
+	 * Restores the layout and dimensions from <code>header.bin</code>
+	 * @return false if there is no valid header
+	 */
+	private boolean readHeader(Path matrixPath) {
+
+		Boolean layout = SidecarFile.read(Paths.get(matrixPath.toString(), "header.bin"), VERSION, in -> {
+
+			boolean isSparse = in.readBoolean();
+			rows = in.readInt();
+
+			int columns = in.readInt();
+			names = new String[columns];
+			sizes = new int[columns];
+			uniqueSizes = new int[columns];
+
+			for (int x = 0; x < columns; x++) {
+				names[x] = in.readUTF();
+				sizes[x] = in.readInt();
+				uniqueSizes[x] = in.readInt();
+			}
+
+			fingerprint = in.readLong();
+
+			return isSparse;
+
+		});
+
+		if (layout == null) {
+			return false;
+		}
+
+		sparse = layout;
+
+		return true;
+	}
+
+	/**
+	 * Computes the matrix from the cycles and writes it to <code>matrixPath</code>
+	 */
+	private void build(Path matrixPath, AptamerPool pool, List<SelectionCycle> cycles) throws IOException {
+
+		long startTime = System.currentTimeMillis();
+
+		// Invalidate the previous matrix before touching its files
+		Path header = Paths.get(matrixPath.toString(), "header.bin");
+		SidecarFile.delete(header);
+		Files.deleteIfExists(Paths.get(matrixPath.toString(), "counts.bin"));
+		Files.deleteIfExists(Paths.get(matrixPath.toString(), "rows.bin"));
+		Files.deleteIfExists(Paths.get(matrixPath.toString(), "entries.bin"));
+
+		rows = pool.size();
+		names = new String[cycles.size()];
+		sizes = new int[cycles.size()];
+		uniqueSizes = new int[cycles.size()];
+
+		long nonZero = 0;
+		for (int x = 0; x < names.length; x++) {
+			names[x] = cycles.get(x).getName();
+			sizes[x] = cycles.get(x).getSize();
+			uniqueSizes[x] = cycles.get(x).getUniqueSize();
+			nonZero += uniqueSizes[x];
+		}
+		fingerprint = contentFingerprint(cycles);
+
+		String layout = Configuration.getParameters().getString("CountMatrix.layout");
+		long denseBytes = 4L * rows * names.length;
+		long sparseBytes = 8L * (rows + 1) + 8L * nonZero;
+		sparse = layout.equalsIgnoreCase("sparse") || (!layout.equalsIgnoreCase("dense") && sparseBytes < denseBytes);
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Building the " + (sparse ? "sparse" : "dense") + " count matrix of " + rows + " aptamers and " + names.length + " selection cycles");
+
+		if (sparse) {
+			buildSparse(matrixPath, cycles, nonZero);
+		} else {
+			buildDense(matrixPath, cycles);
+		}
+
+		SidecarFile.write(header, VERSION, out -> {
+
+			out.writeBoolean(sparse);
+			out.writeInt(rows);
+			out.writeInt(names.length);
+
+			for (int x = 0; x < names.length; x++) {
+				out.writeUTF(names[x]);
+				out.writeInt(sizes[x]);
+				out.writeInt(uniqueSizes[x]);
+			}
+
+			out.writeLong(fingerprint);
+
+		});
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Building the count matrix took " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+	}
+
+	private void buildDense(Path matrixPath, List<SelectionCycle> cycles) throws IOException {
+
+		MappedFile matrix = new MappedFile(Paths.get(matrixPath.toString(), "counts.bin"), 4L * rows * cycles.size(), true);
+
+		for (int x = 0; x < cycles.size(); x++) {
+
+			long column = 4L * rows * x;
+			for (Entry<Integer, Integer> entry : cycles.get(x).iterator()) {
+				matrix.putInt(column + 4L * (entry.getKey() - 1), entry.getValue());
+			}
+
+		}
+
+		matrix.force();
+		matrix.close();
+
+	}
+
+	private void buildSparse(Path matrixPath, List<SelectionCycle> cycles, long nonZero) throws IOException {
+
+		// Number of entries per row
+		int[] fill = new int[rows];
+		for (SelectionCycle cycle : cycles) {
+			for (Integer id : cycle.id_iterator()) {
+				fill[id - 1]++;
+			}
+		}
+
+		MappedFile offsets = new MappedFile(Paths.get(matrixPath.toString(), "rows.bin"), 8L * (rows + 1), true);
+
+		long offset = 0;
+		for (int id = 0; id < rows; id++) {
+			offsets.putLong(8L * id, offset);
+			offset += fill[id];
+			fill[id] = 0;
+		}
+		offsets.putLong(8L * rows, offset);
+
+		// Processing the cycles in column order keeps the entries of each row sorted
+		MappedFile matrix = new MappedFile(Paths.get(matrixPath.toString(), "entries.bin"), 8L * nonZero, true);
+
+		for (int x = 0; x < cycles.size(); x++) {
+
+			for (Entry<Integer, Integer> entry : cycles.get(x).iterator()) {
+
+				int row = entry.getKey() - 1;
+				long position = 8L * (offsets.getLong(8L * row) + fill[row]++);
+
+				matrix.putInt(position, x);
+				matrix.putInt(position + 4, entry.getValue());
+
+			}
+
+		}
+
+		offsets.force();
+		matrix.force();
+
+		// the files are mapped again read only by map()
+		offsets.close();
+		matrix.close();
+
+	}
+
+	/**
+	 * Maps the files of the matrix read only
+	 */
+	private void map(Path matrixPath) throws IOException {
+
+		if (sparse) {
+			rowOffsets = new MappedFile(Paths.get(matrixPath.toString(), "rows.bin"), 8L * (rows + 1), false);
+			entries = new MappedFile(Paths.get(matrixPath.toString(), "entries.bin"), 8L * rowOffsets.getLong(8L * rows), false);
+		} else {
+			counts = new MappedFile(Paths.get(matrixPath.toString(), "counts.bin"), 4L * rows * names.length, false);
+		}
+
+	}
+
+	/**
+	 * @return the number of rows, i.e. the largest aptamer id
+	 */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns, i.e. the number of selection cycles
+	 */
+	public int getNumberOfCycles() {
+		return names.length;
+	}
+
+	/**
+	 * @return true if the matrix is stored in the sparse (CSR) layout
+	 */
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	/**
+	 * @return the names of the selection cycles in column order
+	 */
+	public List<String> getCycleNames() {
+		return new ArrayList<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * @param cycle the selection cycle
+	 * @return the column of <code>cycle</code>, -1 if the cycle is not part of the matrix
+	 */
+	public int getColumnIndex(SelectionCycle cycle) {
+
+		for (int x = 0; x < names.length; x++) {
+			if (names[x].equals(cycle.getName())) {
+				return x;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param id the aptamer id
+	 * @param column the column of the selection cycle
+	 * @return the count of aptamer <code>id</code> in the cycle
+	 */
+	public int getCount(int id, int column) {
+
+		if (id < 1 || id > rows) {
+			return 0;
+		}
+
+		if (!sparse) {
+			return counts.getInt(4L * ((long) rows * column + id - 1));
+		}
+
+		long end = rowOffsets.getLong(8L * id);
+		for (long entry = rowOffsets.getLong(8L * (id - 1)); entry < end; entry++) {
+
+			int x = entries.getInt(8L * entry);
+			if (x == column) {
+				return entries.getInt(8L * entry + 4);
+			}
+			if (x > column) {
+				break;
+			}
+
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @param id the aptamer id
+	 * @return the counts of aptamer <code>id</code> in all cycles, in column order
+	 */
+	public int[] getCounts(int id) {
+
+		int[] destination = new int[names.length];
+		getCounts(id, destination);
+
+		return destination;
+	}
+
+	/**
+	 * Writes the counts of aptamer <code>id</code> in all cycles into <code>destination</code>
+	 * @param id the aptamer id
+	 * @param destination array of at least <code>getNumberOfCycles()</code> elements
+	 */
+	public void getCounts(int id, int[] destination) {
+
+		Arrays.fill(destination, 0, names.length, 0);
+
+		if (id < 1 || id > rows) {
+			return;
+		}
+
+		if (!sparse) {
+
+			for (int x = 0; x < names.length; x++) {
+				destination[x] = counts.getInt(4L * ((long) rows * x + id - 1));
+			}
+			return;
+
+		}
+
+		long end = rowOffsets.getLong(8L * id);
+		for (long entry = rowOffsets.getLong(8L * (id - 1)); entry < end; entry++) {
+			destination[entries.getInt(8L * entry)] = entries.getInt(8L * entry + 4);
+		}
+
+	}
+
+	/**
+	 * Copies the counts of consecutive ids in one cycle into <code>destination</code>, allowing
+	 * tight loops over plain arrays when scanning entire cycles.
+	 * @param column the column of the selection cycle
+	 * @param fromId the first id to copy
+	 * @param destination receives the count of <code>fromId + i</code> at index <code>i</code>
+	 * @return the number of counts copied, less than <code>destination.length</code> only at the end of the column
+	 */
+	public int getColumn(int column, int fromId, int[] destination) {
+
+		int length = Math.max(0, Math.min(destination.length, rows - fromId + 1));
+
+		if (!sparse) {
+			counts.getInts(4L * ((long) rows * column + fromId - 1), destination, 0, length);
+			return length;
+		}
+
+		Arrays.fill(destination, 0, length, 0);
+
+		long entry = length == 0 ? 0 : rowOffsets.getLong(8L * (fromId - 1));
+		for (int i = 0; i < length; i++) {
+
+			long end = rowOffsets.getLong(8L * (fromId + i));
+			for (; entry < end; entry++) {
+				if (entries.getInt(8L * entry) == column) {
+					destination[i] = entries.getInt(8L * entry + 4);
+				}
+			}
+
+		}
+
+		return length;
+	}
+
+}
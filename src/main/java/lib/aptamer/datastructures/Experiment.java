@@ -3,6 +3,7 @@
  */
 package lib.aptamer.datastructures;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
@@ -107,6 +108,11 @@ public class Experiment implements Serializable{
 	 */
 	private Metadata metadata = null;
 	
+	/**
+	 * Counts of all aptamers in all selection cycles, created on first access
+	 */
+	private transient CountMatrix countMatrix = null;
+	
 	/**
 	 * Constructs a new experiment. If <code>configFile</code> is null, an empty
 	 * experiment is created, otherwise the data as defined in the file, will be
@@ -167,6 +173,42 @@ public class Experiment implements Serializable{
 			}
 		}
 		
+		// A new pool outdates any snapshot and count matrix of a previous one, even if no snapshot is used this time
+		if (newdb) {
+			try {
+				SnapshotAptamerPool.invalidate(Paths.get(Configuration.getParameters().getString("Experiment.projectPath")));
+			} catch (IOException e) {
+				AptaLogger.log(Level.WARNING, this.getClass(), "Could not delete the snapshot of the previous AptamerPool");
+				AptaLogger.log(Level.WARNING, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			}
+			try {
+				CountMatrix.invalidate(Paths.get(Configuration.getParameters().getString("Experiment.projectPath")));
+			} catch (IOException e) {
+				AptaLogger.log(Level.WARNING, this.getClass(), "Could not delete the count matrix of the previous AptamerPool");
+				AptaLogger.log(Level.WARNING, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			}
+		}
+		
+		// Serve id based lookups of downstream analyses from a memory mapped snapshot
+		boolean snapshot = false;
+		if (Configuration.getParameters().getBoolean("AptamerPool.snapshot")) {
+			try {
+				pool = new SnapshotAptamerPool(pool, Paths.get(Configuration.getParameters().getString("Experiment.projectPath")));
+				snapshot = true;
+			} catch (IOException e) {
+				AptaLogger.log(Level.WARNING, this.getClass(), "Could not open the snapshot of the AptamerPool, using the backend directly");
+				AptaLogger.log(Level.WARNING, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			}
+		}
+		
+		// Otherwise, keep frequently accessed sequences in memory. The snapshot already 
+		// answers id lookups by direct reads and is built by iterating the backend, 
+		// so a cache beneath it would never be consulted
+		long cacheSize = Configuration.getParameters().getLong("AptamerPool.cacheSize");
+		if (cacheSize > 0 && !snapshot) {
+			pool = new CachedAptamerPool(pool, cacheSize);
+		}
+		
 		// if the data contains only the randomized region, we need to be in isPerFile mode
 		boolean isPerFile = Configuration.getParameters().getBoolean("AptaplexParser.isPerFile");
 		boolean onlyRandomizedRegionInData = Configuration.getParameters().getBoolean("AptaplexParser.OnlyRandomizedRegionInData");
@@ -784,6 +826,28 @@ public class Experiment implements Serializable{
 		return this.metadata;
 	}
 	
+	/**
+	 * Get the count matrix of all aptamers in all selection cycles, with the columns in the 
+	 * order of <code>getAllSelectionCycles()</code>. The matrix is built on first access and
+	 * rebuilt whenever the pool or any cycle has changed since.
+	 * @return
+	 */
+	public synchronized CountMatrix getCountMatrix() {
+		
+		if (countMatrix == null || !countMatrix.matches(this.getAptamerPool(), this.getAllSelectionCycles())) {
+			
+			try {
+				countMatrix = new CountMatrix(Paths.get(Configuration.getParameters().getString("Experiment.projectPath")), this.getAptamerPool(), this.getAllSelectionCycles());
+			} catch (IOException e) {
+				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+				throw new IllegalStateException("Could not create the count matrix", e);
+			}
+			
+		}
+		
+		return countMatrix;
+	}
+	
 	
 	/**
 	 * Closes any handles to the filesystem and take care of garbage 
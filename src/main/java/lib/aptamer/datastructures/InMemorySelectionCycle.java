@@ -0,0 +1,680 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.logging.Level;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import utilities.AptaLogger;
+import utilities.Configuration;
+
+/**
+ * @author Jan Hoinka
+ * Implements the SelectionCycle interface with all counts held in memory. Since the
+ * identifiers of the <code>AptamerPool</code> are dense, the counts are stored in an
+ * <code>int[]</code> indexed by id while the cycle is being filled. Once the cycle is
+ * set to read only, cycles which contain fewer than <code>InMemorySelectionCycle.sparseFraction</code>
+ * of all ids switch to a primitive open addressing map to save memory. Either way, a
+ * count is retrieved without deserialization or a bloom filter.
+ *
+ * The counts are stored in the flat file <code>cycledata/round_name.counts</code> whenever
+ * the cycle is set to read only or closed.
+ *
+ * Select this backend by setting <code>SelectionCycle.backend</code> to <code>InMemorySelectionCycle</code>.
+ */
+public class InMemorySelectionCycle implements SelectionCycle {
+
+	private static final long serialVersionUID = -2860150413298845213L;
+
+	/**
+	 * Suffix of the file storing the counts of this cycle
+	 */
+	private static final String COUNTS_FILE_SUFFIX = ".counts";
+
+	private static final int COUNTS_VERSION = 1;
+
+
+	/**
+	 * The name of this selection cycle as defined in the configuration file
+	 */
+	private String name;
+
+	/**
+	 * The selection cycle number corresponding to this instance. The initial
+	 * pool should have a value of 0.
+	 */
+	private int round;
+
+	/**
+	 * True if this cycle corresponds to a control cycle
+	 */
+	private Boolean isControlSelection = false;
+
+	/**
+	 * True if this cycle corresponds to a counter selection
+	 */
+	private Boolean isCounterSelection = false;
+
+	/**
+	 * Cycles with fewer unique aptamers than this fraction of the largest id are stored sparsely
+	 */
+	private double sparseFraction = Configuration.getParameters().getDouble("InMemorySelectionCycle.sparseFraction");
+
+	/**
+	 * Count of each aptamer indexed by its id, null if the counts are stored in <code>sparseCounts</code>
+	 */
+	private transient volatile int[] counts = new int[0];
+
+	/**
+	 * Count of each aptamer keyed by its id, null if the counts are stored in <code>counts</code>
+	 */
+	private transient volatile Int2IntOpenHashMap sparseCounts = null;
+
+	/**
+	 * True if the counts file reflects the current content of this cycle
+	 */
+	private transient boolean countsPersisted = false;
+
+	/**
+	 * Counts the total number of aptamer molecules belonging to this selection cycle
+	 */
+	private int size = 0;
+
+	/**
+	 * Counts the total number of unique aptamers belonging to this selection cycle
+	 */
+	private int unique_size = 0;
+
+	/**
+	 * The 5' barcode used to demultiplex the cycle data, null if non present
+	 */
+	private byte[] barcodeFive = null;
+
+	/**
+	 * The 3' barcode used to demultiplex the cycle data, null if non present
+	 */
+	private byte[] barcodeThree = null;
+
+
+	public InMemorySelectionCycle(String name, int round, boolean isControlSelection, boolean isCounterSelection, boolean newdb) throws IOException {
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Processing selection cycle " + name);
+
+		this.name = name;
+		this.round = round;
+		this.isControlSelection = isControlSelection;
+		this.isCounterSelection = isCounterSelection;
+
+		Files.createDirectories(getCountsPath().getParent());
+
+		if (newdb) {
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Creating new selection cycle " + name + ".");
+			SidecarFile.delete(getCountsPath());
+		} else if (!readCounts()) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not read the counts of selection cycle " + name + " from " + getCountsPath().toString() + ", the cycle is empty.");
+		}
+
+	}
+
+	/**
+	 * @return the location of the counts file of this cycle
+	 */
+	private Path getCountsPath() {
+
+		Path projectPath = Paths.get(Configuration.getParameters().getString("Experiment.projectPath"));
+
+		return Paths.get(projectPath.toString(), "cycledata", round + "_" + name + COUNTS_FILE_SUFFIX);
+
+	}
+
+	/**
+	 * Restores the counts from the counts file
+	 * @return true if the file was present and valid
+	 */
+	private boolean readCounts() {
+
+		int[] totals = new int[2];
+		Object persisted = SidecarFile.read(getCountsPath(), COUNTS_VERSION, in -> {
+
+			totals[0] = in.readInt();
+			totals[1] = in.readInt();
+
+			if (in.readBoolean()) {
+
+				int[] dense = new int[in.readInt()];
+				for (int i = 0; i < dense.length; i++) {
+					dense[i] = in.readInt();
+				}
+				return dense;
+
+			}
+
+			Int2IntOpenHashMap sparse = new Int2IntOpenHashMap(totals[1]);
+			for (int i = 0; i < totals[1]; i++) {
+				sparse.put(in.readInt(), in.readInt());
+			}
+			return sparse;
+
+		});
+
+		if (persisted == null) {
+			return false;
+		}
+
+		size = totals[0];
+		unique_size = totals[1];
+
+		if (persisted instanceof int[]) {
+			counts = (int[]) persisted;
+		} else {
+			sparseCounts = (Int2IntOpenHashMap) persisted;
+			sparseCounts.defaultReturnValue(0);
+			counts = null;
+		}
+
+		countsPersisted = true;
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Restored " + unique_size + " counts of selection cycle " + name + " from " + getCountsPath().toString());
+
+		return true;
+	}
+
+	/**
+	 * Writes the counts to the counts file
+	 */
+	private synchronized void writeCounts() {
+
+		if (countsPersisted) {
+			return;
+		}
+
+		int[] dense = counts;
+		Int2IntOpenHashMap sparse = sparseCounts;
+
+		try {
+			SidecarFile.write(getCountsPath(), COUNTS_VERSION, out -> {
+
+				out.writeInt(size);
+				out.writeInt(unique_size);
+				out.writeBoolean(dense != null);
+
+				if (dense != null) {
+
+					out.writeInt(dense.length);
+					for (int count : dense) {
+						out.writeInt(count);
+					}
+
+				} else {
+
+					for (Int2IntMap.Entry entry : sparse.int2IntEntrySet()) {
+						out.writeInt(entry.getIntKey());
+						out.writeInt(entry.getIntValue());
+					}
+
+				}
+
+			});
+
+			countsPersisted = true;
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not write the counts of selection cycle " + name + " to " + getCountsPath().toString());
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+		}
+
+	}
+
+	/**
+	 * Switches to the dense representation with room for at least <code>id</code>
+	 */
+	private void ensureDense(int id) {
+
+		int[] dense = counts;
+
+		if (dense == null) {
+
+			int maxId = 0;
+			for (int key : sparseCounts.keySet()) {
+				maxId = Math.max(maxId, key);
+			}
+
+			dense = new int[maxId + 1];
+			for (Int2IntMap.Entry entry : sparseCounts.int2IntEntrySet()) {
+				dense[entry.getIntKey()] = entry.getIntValue();
+			}
+
+			counts = dense;
+			sparseCounts = null;
+
+		}
+
+		if (id >= dense.length) {
+			counts = Arrays.copyOf(dense, Math.max(id + 1, dense.length + (dense.length >> 1)));
+		}
+
+	}
+
+	/**
+	 * Chooses the smaller of the two representations for the final content of the cycle
+	 */
+	private synchronized void compact() {
+
+		int[] dense = counts;
+		if (dense == null) {
+			return;
+		}
+
+		int maxId = dense.length - 1;
+		while (maxId >= 0 && dense[maxId] == 0) {
+			maxId--;
+		}
+
+		if (unique_size < sparseFraction * (maxId + 1)) {
+
+			Int2IntOpenHashMap sparse = new Int2IntOpenHashMap(unique_size);
+			sparse.defaultReturnValue(0);
+			for (int id = 0; id <= maxId; id++) {
+				if (dense[id] != 0) {
+					sparse.put(id, dense[id]);
+				}
+			}
+
+			sparseCounts = sparse;
+			counts = null;
+
+		} else if (maxId + 1 < dense.length) {
+
+			counts = Arrays.copyOf(dense, maxId + 1);
+
+		}
+
+	}
+
+	@Override
+	public String toString() {
+
+		return this.name;
+
+	}
+
+	@Override
+	public synchronized int addToSelectionCycle(byte[] a, int rr_start, int rr_end, int count) {
+
+		// Check if the aptamer is already present in the pool and add it if not
+		int id_a = Configuration.getExperiment().getAptamerPool().registerAptamer(a, rr_start, rr_end);
+
+		// The persisted content no longer matches this cycle
+		if (countsPersisted) {
+			SidecarFile.delete(getCountsPath());
+			countsPersisted = false;
+		}
+
+		ensureDense(id_a);
+
+		int[] dense = counts;
+		if (dense[id_a] == 0) {
+			unique_size++;
+		}
+		dense[id_a] += count;
+		size += count;
+
+		return id_a;
+
+	}
+
+	@Override
+	public synchronized int addToSelectionCycle(byte[] a, int rr_start, int rr_end) {
+		return addToSelectionCycle(a, rr_start, rr_end, 1);
+	}
+
+	@Override
+	public synchronized int addToSelectionCycle(String a, int rr_start, int rr_end) {
+		return addToSelectionCycle(a.getBytes(), rr_start, rr_end, 1);
+	}
+
+	@Override
+	public synchronized int addToSelectionCycle(String a, int rr_start, int rr_end, int count) {
+		return addToSelectionCycle(a.getBytes(), rr_start, rr_end, count);
+	}
+
+	@Override
+	public boolean containsAptamer(byte[] a) {
+
+		return containsAptamer(Configuration.getExperiment().getAptamerPool().getIdentifier(a));
+
+	}
+
+	@Override
+	public boolean containsAptamer(String a) {
+		return containsAptamer(a.getBytes());
+	}
+
+	@Override
+	public boolean containsAptamer(int id_a) {
+		return getAptamerCardinality(id_a) != 0;
+	}
+
+	@Override
+	public int getAptamerCardinality(byte[] a) {
+
+		return getAptamerCardinality(Configuration.getExperiment().getAptamerPool().getIdentifier(a));
+
+	}
+
+	@Override
+	public int getAptamerCardinality(String a) {
+		return getAptamerCardinality(a.getBytes());
+	}
+
+	@Override
+	public int getAptamerCardinality(int id) {
+
+		int[] dense = counts;
+		if (dense != null) {
+			return id >= 0 && id < dense.length ? dense[id] : 0;
+		}
+
+		return sparseCounts.get(id);
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public int getUniqueSize() {
+		return unique_size;
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public int getRound() {
+		return this.round;
+	}
+
+	@Override
+	public SelectionCycle getNextSelectionCycle() {
+
+		ArrayList<SelectionCycle> cycles = Configuration.getExperiment().getSelectionCycles();
+
+		// The element we aim to find
+		SelectionCycle next = null;
+
+		// Create iterator starting at the selection cycle and advance until we find the next element
+		ListIterator<SelectionCycle> li = cycles.listIterator(this.round);
+		while (li.hasNext() && next == null) {
+
+			SelectionCycle current_cycle = li.next();
+			if (current_cycle != null) {
+				next = current_cycle;
+			}
+
+		}
+
+		return next;
+
+	}
+
+	@Override
+	public SelectionCycle getPreviousSelectionCycle() {
+
+		ArrayList<SelectionCycle> cycles = Configuration.getExperiment().getSelectionCycles();
+
+		// The element we aim to find
+		SelectionCycle previous = null;
+
+		// Create iterator starting at the selection cycle and advance until we find the previous element
+		ListIterator<SelectionCycle> li = cycles.listIterator(this.round);
+		while (li.hasPrevious() && previous == null) {
+
+			SelectionCycle current_cycle = li.previous();
+			if (current_cycle != null) {
+				previous = current_cycle;
+			}
+
+		}
+
+		return previous;
+	}
+
+	@Override
+	public ArrayList<SelectionCycle> getControlCycles() {
+
+		// If no control cycle is present, we return an empty list as specified by the interface
+		if (Configuration.getExperiment().getControlSelectionCycles().get(this.round) == null) {
+			return new ArrayList<SelectionCycle>();
+		}
+
+		return Configuration.getExperiment().getControlSelectionCycles().get(this.round);
+
+	}
+
+	@Override
+	public ArrayList<SelectionCycle> getCounterSelectionCycles() {
+
+		// If no counter selection cycle is present, we return an empty list as specified by the interface
+		if (Configuration.getExperiment().getCounterSelectionCycles().get(this.round) == null) {
+			return new ArrayList<SelectionCycle>();
+		}
+
+		return Configuration.getExperiment().getCounterSelectionCycles().get(this.round);
+
+	}
+
+	@Override
+	public boolean isControlSelection() {
+		return isControlSelection;
+	}
+
+	@Override
+	public boolean isCounterSelection() {
+		return isCounterSelection;
+	}
+
+	/**
+	 * Chooses the final representation of the counts and writes them to disk
+	 */
+	@Override
+	public void setReadOnly() {
+
+		compact();
+		writeCounts();
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Selection cycle " + name + " holds " + unique_size + " counts in a " + (counts != null ? "dense array" : "hash map"));
+
+	}
+
+	/**
+	 * Counts are always writable, a sparse cycle switches to the dense representation on the next addition
+	 */
+	@Override
+	public void setReadWrite() {
+	}
+
+	@Override
+	public void close() {
+
+		writeCounts();
+
+	}
+
+	/**
+	 * The counts are not part of the serialized form, they are restored from the counts file
+	 */
+	private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+
+		ois.defaultReadObject();
+
+		counts = new int[0];
+		if (!readCounts()) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not read the counts of selection cycle " + name + " from " + getCountsPath().toString() + ", the cycle is empty.");
+		}
+
+	}
+
+	/**
+	 * Iterates over the ids and counts of this cycle
+	 */
+	private Iterator<Entry<Integer, Integer>> entryIterator() {
+
+		int[] dense = counts;
+		if (dense == null) {
+
+			Iterator<Int2IntMap.Entry> it = sparseCounts.int2IntEntrySet().iterator();
+
+			return new Iterator<Entry<Integer, Integer>>() {
+
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public Entry<Integer, Integer> next() {
+					Int2IntMap.Entry entry = it.next();
+					return new AbstractMap.SimpleEntry<Integer, Integer>(entry.getIntKey(), entry.getIntValue());
+				}
+
+			};
+
+		}
+
+		return new Iterator<Entry<Integer, Integer>>() {
+
+			int id = advance(0);
+
+			private int advance(int from) {
+				while (from < dense.length && dense[from] == 0) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return id < dense.length;
+			}
+
+			@Override
+			public Entry<Integer, Integer> next() {
+
+				if (id >= dense.length) {
+					throw new NoSuchElementException();
+				}
+
+				Entry<Integer, Integer> entry = new AbstractMap.SimpleEntry<Integer, Integer>(id, dense[id]);
+				id = advance(id + 1);
+
+				return entry;
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, Integer>> iterator() {
+		return () -> entryIterator();
+	}
+
+	/**
+	 * Splits the dense representation along id ranges, the sparse one is traversed sequentially
+	 */
+	@Override
+	public Spliterator<Entry<Integer, Integer>> spliterator() {
+
+		int[] dense = counts;
+		if (dense == null) {
+			return iterator().spliterator();
+		}
+
+		return new KeyRangeSpliterator<Entry<Integer, Integer>>().add(KeyRangeSpliterator.ofIds(id -> dense[id] == 0 ? null : new AbstractMap.SimpleEntry<Integer, Integer>(id, dense[id])), 0, dense.length);
+
+	}
+
+	@Override
+	public Iterable<Entry<byte[], Integer>> sequence_iterator() {
+
+		return () -> new Iterator<Entry<byte[], Integer>>() {
+
+			Iterator<Entry<Integer, Integer>> it = entryIterator();
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Entry<byte[], Integer> next() {
+
+				Entry<Integer, Integer> entry = it.next();
+
+				return new AbstractMap.SimpleEntry<byte[], Integer>(Configuration.getExperiment().getAptamerPool().getAptamer(entry.getKey()), entry.getValue());
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Integer> id_iterator() {
+
+		return () -> new Iterator<Integer>() {
+
+			Iterator<Entry<Integer, Integer>> it = entryIterator();
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Integer next() {
+				return it.next().getKey();
+			}
+
+		};
+
+	}
+
+	@Override
+	public void setBarcodeFivePrime(byte[] barcode) {
+		this.barcodeFive = barcode;
+	}
+
+	@Override
+	public byte[] getBarcodeFivePrime() {
+		return this.barcodeFive;
+	}
+
+	@Override
+	public void setBarcodeThreePrime(byte[] barcode) {
+		this.barcodeThree = barcode;
+	}
+
+	@Override
+	public byte[] getBarcodeThreePrime() {
+		return this.barcodeThree;
+	}
+
+}
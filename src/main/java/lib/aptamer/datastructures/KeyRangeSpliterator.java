@@ -0,0 +1,300 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.mapdb.BTreeMap;
+
+/**
+ * @author Jan Hoinka
+ * Spliterator over the content of a store keyed by aptamer id. The content consists of
+ * one or more segments, such as the individual files of a pool, each covering a range of
+ * ids. Splitting first divides the segments between the two halves and, once a single
+ * segment is left, its id range. Since ids are dense, the halves hold similar numbers of
+ * elements. Each part reads its id range independently from the store, allowing parallel
+ * streams or fork/join tasks to traverse a pool with one thread per segment.
+ *
+ * Elements are reported in id order.
+ */
+class KeyRangeSpliterator<T> implements Spliterator<T> {
+
+	/**
+	 * Provides the elements of a segment with ids in <code>[from, to)</code>
+	 */
+	interface Range<T> {
+		Iterator<T> iterator(int from, int to);
+	}
+
+	/**
+	 * Ranges smaller than this are not split any further
+	 */
+	private static final int MIN_SPLIT_SIZE = 1 << 10;
+
+	private static class Segment<T> {
+
+		Range<T> range;
+		int from;
+		int to;
+
+		Segment(Range<T> range, int from, int to) {
+			this.range = range;
+			this.from = from;
+			this.to = to;
+		}
+
+	}
+
+	private List<Segment<T>> segments;
+
+	/**
+	 * The segment currently being traversed
+	 */
+	private int current = 0;
+
+	private Iterator<T> iterator = null;
+
+	KeyRangeSpliterator() {
+		this.segments = new ArrayList<Segment<T>>();
+	}
+
+	private KeyRangeSpliterator(List<Segment<T>> segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * Appends the ids <code>[from, to)</code> of <code>range</code>. Segments must be added in id order.
+	 * @return this instance
+	 */
+	KeyRangeSpliterator<T> add(Range<T> range, int from, int to) {
+
+		if (from < to) {
+			segments.add(new Segment<T>(range, from, to));
+		}
+
+		return this;
+	}
+
+	/**
+	 * A range whose elements are computed from their id. Ids for which <code>element</code>
+	 * returns null are skipped.
+	 */
+	static <T> Range<T> ofIds(IntFunction<T> element) {
+
+		return (from, to) -> new Iterator<T>() {
+
+			int id = from;
+			T next = advance();
+
+			private T advance() {
+
+				T value = null;
+				while (value == null && id < to) {
+					value = element.apply(id++);
+				}
+
+				return value;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public T next() {
+
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+
+				T value = next;
+				next = advance();
+
+				return value;
+			}
+
+		};
+
+	}
+
+	/**
+	 * A range over the entries of <code>map</code>, converted by <code>element</code>
+	 */
+	static <V, T> Range<T> ofMap(BTreeMap<Integer, V> map, BiFunction<Integer, V, T> element) {
+
+		return (from, to) -> {
+
+			Iterator<Entry<Integer, V>> entries = map.subMap(from, true, to, false).entrySet().iterator();
+
+			return new Iterator<T>() {
+
+				@Override
+				public boolean hasNext() {
+					return entries.hasNext();
+				}
+
+				@Override
+				public T next() {
+					Entry<Integer, V> entry = entries.next();
+					return element.apply(entry.getKey(), entry.getValue());
+				}
+
+			};
+
+		};
+
+	}
+
+	/**
+	 * A range over the keys of <code>map</code>
+	 */
+	static <V> Range<Integer> ofKeys(BTreeMap<Integer, V> map) {
+		return (from, to) -> map.subMap(from, true, to, false).keySet().iterator();
+	}
+
+	/**
+	 * A range over the entries of <code>map</code>
+	 */
+	static <V> Range<Entry<Integer, V>> ofMap(BTreeMap<Integer, V> map) {
+		return ofMap(map, (id, value) -> new AbstractMap.SimpleEntry<Integer, V>(id, value));
+	}
+
+	/**
+	 * A spliterator over <code>range</code>, split along the key range of <code>map</code>
+	 */
+	static <V, T> KeyRangeSpliterator<T> of(BTreeMap<Integer, V> map, Range<T> range) {
+
+		KeyRangeSpliterator<T> spliterator = new KeyRangeSpliterator<T>();
+
+		if (!map.isEmpty()) {
+			spliterator.add(range, map.firstKey(), map.lastKey() + 1);
+		}
+
+		return spliterator;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+
+		while (current < segments.size()) {
+
+			if (iterator == null) {
+				Segment<T> segment = segments.get(current);
+				iterator = segment.range.iterator(segment.from, segment.to);
+			}
+
+			if (iterator.hasNext()) {
+				action.accept(iterator.next());
+				return true;
+			}
+
+			iterator = null;
+			current++;
+
+		}
+
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+
+		while (current < segments.size()) {
+
+			if (iterator == null) {
+				Segment<T> segment = segments.get(current);
+				iterator = segment.range.iterator(segment.from, segment.to);
+			}
+
+			iterator.forEachRemaining(action);
+
+			iterator = null;
+			current++;
+
+		}
+
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+
+		// Only parts which have not been started can be handed off
+		if (iterator != null) {
+			return null;
+		}
+
+		int remaining = segments.size() - current;
+
+		if (remaining > 1) {
+
+			// Divide the segments such that both halves cover a similar number of ids
+			long half = estimateSize() / 2;
+			long covered = 0;
+			int split = current;
+			while (split < segments.size() - 1 && covered + size(segments.get(split)) <= half) {
+				covered += size(segments.get(split));
+				split++;
+			}
+			split = Math.max(split, current + 1);
+
+			KeyRangeSpliterator<T> prefix = new KeyRangeSpliterator<T>(new ArrayList<Segment<T>>(segments.subList(current, split)));
+			segments = new ArrayList<Segment<T>>(segments.subList(split, segments.size()));
+			current = 0;
+
+			return prefix;
+		}
+
+		if (remaining == 1) {
+
+			Segment<T> segment = segments.get(current);
+			if (size(segment) < 2 * MIN_SPLIT_SIZE) {
+				return null;
+			}
+
+			int middle = (int) (((long) segment.from + segment.to) >>> 1);
+
+			List<Segment<T>> prefix = new ArrayList<Segment<T>>(1);
+			prefix.add(new Segment<T>(segment.range, segment.from, middle));
+			segments.set(current, new Segment<T>(segment.range, middle, segment.to));
+
+			return new KeyRangeSpliterator<T>(prefix);
+		}
+
+		return null;
+	}
+
+	private static long size(Segment<?> segment) {
+		return (long) segment.to - segment.from;
+	}
+
+	/**
+	 * The number of ids covered by the remaining segments, an upper bound on the number of elements
+	 */
+	@Override
+	public long estimateSize() {
+
+		long size = 0;
+		for (int x = current; x < segments.size(); x++) {
+			size += size(segments.get(x));
+		}
+
+		return size;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+}
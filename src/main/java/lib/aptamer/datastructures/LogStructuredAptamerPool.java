@@ -0,0 +1,1143 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Implements the AptamerPool interface without MapDB, for pools which are written once
+ * during parsing and read many times afterwards. The pool consists of three parts:
+ *
+ * <code>poollog/sequences.log</code> an append-only segment file. Every aptamer is stored
+ * as a single record consisting of its id, the bounds of the randomized region, its length,
+ * and the binary form of its <code>PackedSequence</code>. Records are written in id order.
+ *
+ * The sequence index, an open addressing hash table with linear probing in direct memory.
+ * Each <code>long</code> slot holds the upper bits of the hash of the sequence and the
+ * offset of its record in the log.
+ *
+ * The offsets, a dense array in direct memory mapping each id to the offset of its record,
+ * which serves the inverse view and the bounds.
+ *
+ * The log is the only authoritative data. The index and the offsets are stored in
+ * <code>poollog/index.bin</code> whenever the pool is closed or set to read only, and
+ * are rebuilt from the log if that file is missing or does not match the log, e.g.
+ * after the program terminated during parsing. Once set to read only, the log is
+ * memory mapped and records are read without system calls.
+ *
+ * Select this backend by setting <code>AptamerPool.backend</code> to <code>LogStructuredAptamerPool</code>.
+ */
+public class LogStructuredAptamerPool implements AptamerPool {
+
+	private static final long serialVersionUID = 4718846254925731532L;
+
+	/**
+	 * Identifies the log format, stored in the first 8 bytes of the log
+	 */
+	private static final long MAGIC = 0x4150544C4F47504CL; // APTLOGPL
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final String LOG_FILE = "sequences.log";
+
+	private static final String INDEX_FILE = "index.bin";
+
+	/**
+	 * Size of the log header, records start behind it so that no valid offset is zero
+	 */
+	private static final int LOG_HEADER_SIZE = 8;
+
+	/**
+	 * Size of the record header (id, rr_start, rr_end, length)
+	 */
+	private static final int RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * Records are collected in memory and written to the log in blocks of this size
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Smallest number of slots of the sequence index
+	 */
+	private static final long INITIAL_CAPACITY = 1 << 16;
+
+	/**
+	 * Number of bits of a slot holding the record offset, the remaining bits hold the hash
+	 */
+	private static final int OFFSET_BITS = 40;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+	/**
+	 * Folder in the project path which contains the log and the index
+	 */
+	private Path poolDataPath = null;
+
+	private transient FileChannel channel = null;
+
+	/**
+	 * Records not yet written to the log. Its first byte corresponds to position <code>flushed</code> of the log.
+	 */
+	private transient ByteBuffer writeBuffer = null;
+
+	/**
+	 * The number of bytes written to the log file
+	 */
+	private transient long flushed = 0;
+
+	/**
+	 * Read only mapping of the beginning of the log, null if the log is not mapped
+	 */
+	private transient volatile MappedFile mapped = null;
+
+	/**
+	 * The sequence index
+	 */
+	private transient LongArray table = null;
+
+	/**
+	 * The offset of the record of each aptamer, stored at index <code>id-1</code>
+	 */
+	private transient LongArray offsets = null;
+
+	private transient int size = 0;
+
+	/**
+	 * True if <code>INDEX_FILE</code> corresponds to the current content of the log
+	 */
+	private transient boolean indexPersisted = false;
+
+	/**
+	 * Registrations hold the write lock, all other accesses the read lock
+	 */
+	private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+	/**
+	 * Array of longs in direct memory. It is split into chunks so that it may exceed 2GB.
+	 */
+	private static class LongArray {
+
+		private static final int CHUNK_BITS = 27;
+		private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+		private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+		private LongBuffer[] chunks = new LongBuffer[0];
+
+		private long capacity = 0;
+
+		LongArray(long capacity) {
+			ensureCapacity(capacity);
+		}
+
+		long get(long i) {
+			return chunks[(int) (i >>> CHUNK_BITS)].get((int) (i & CHUNK_MASK));
+		}
+
+		void set(long i, long value) {
+			chunks[(int) (i >>> CHUNK_BITS)].put((int) (i & CHUNK_MASK), value);
+		}
+
+		long capacity() {
+			return capacity;
+		}
+
+		/**
+		 * Grows the array to at least <code>required</code> elements. New elements are zero.
+		 */
+		void ensureCapacity(long required) {
+
+			if (required <= capacity) {
+				return;
+			}
+
+			// Small arrays consist of a single chunk which doubles in size
+			if (required <= CHUNK_SIZE) {
+
+				int newCapacity = (int) Math.min(CHUNK_SIZE, Math.max(required, 2 * capacity));
+				LongBuffer chunk = allocate(newCapacity);
+				if (chunks.length == 1) {
+					chunks[0].clear();
+					chunk.put(chunks[0]);
+				}
+
+				chunks = new LongBuffer[] { chunk };
+				capacity = newCapacity;
+				return;
+			}
+
+			ensureCapacity(CHUNK_SIZE);
+
+			while (capacity < required) {
+				LongBuffer[] grown = new LongBuffer[chunks.length + 1];
+				System.arraycopy(chunks, 0, grown, 0, chunks.length);
+				grown[chunks.length] = allocate((int) CHUNK_SIZE);
+				chunks = grown;
+				capacity += CHUNK_SIZE;
+			}
+
+		}
+
+		private static LongBuffer allocate(int elements) {
+			return ByteBuffer.allocateDirect(elements * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+
+	}
+
+	/**
+	 * Sequential reader over the records of the log. It reads through the channel of the
+	 * pool with positional reads and holds no file handle of its own, hence readers may
+	 * be abandoned at any point.
+	 */
+	private class LogReader {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+		/**
+		 * Position of the log following the content of <code>buffer</code>
+		 */
+		private long filled;
+
+		private long position;
+
+		private long end;
+
+		private byte[] header = new byte[RECORD_HEADER_SIZE];
+
+		/**
+		 * Offset of the current record
+		 */
+		long offset;
+
+		int id;
+		int rrStart;
+		int rrEnd;
+
+		/**
+		 * The number of nucleotides, bitwise negated if the sequence is not packed
+		 */
+		int length;
+
+		byte[] binary;
+
+		/**
+		 * Reads the records in [<code>start</code>, <code>end</code>) of the log
+		 */
+		LogReader(long start, long end) {
+
+			this.position = start;
+			this.filled = start;
+			this.end = end;
+
+			buffer.limit(0);
+
+		}
+
+		/**
+		 * Advances to the next record
+		 * @return false if there is no complete record left before the end of the range
+		 */
+		boolean next() throws IOException {
+
+			if (position + RECORD_HEADER_SIZE > end) {
+				return false;
+			}
+
+			offset = position;
+			readFully(header);
+
+			ByteBuffer h = ByteBuffer.wrap(header);
+			id = h.getInt(0);
+			rrStart = h.getInt(4);
+			rrEnd = h.getInt(8);
+			length = h.getInt(12);
+
+			int binaryLength = binaryLength(length);
+			if (binaryLength < 0 || position + RECORD_HEADER_SIZE + binaryLength > end) {
+				return false;
+			}
+
+			binary = new byte[binaryLength];
+			readFully(binary);
+			position += RECORD_HEADER_SIZE + binaryLength;
+
+			return true;
+		}
+
+		/**
+		 * Copies the next <code>destination.length</code> bytes of the range into <code>destination</code>
+		 */
+		private void readFully(byte[] destination) throws IOException {
+
+			int copied = 0;
+			while (copied < destination.length) {
+
+				if (!buffer.hasRemaining()) {
+
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - filled));
+
+					int read = buffer.hasRemaining() ? channel.read(buffer, filled) : -1;
+					if (read <= 0) {
+						throw new EOFException("Unexpected end of the sequence log at position " + filled);
+					}
+
+					filled += read;
+					buffer.flip();
+
+				}
+
+				int count = Math.min(buffer.remaining(), destination.length - copied);
+				buffer.get(destination, copied, count);
+				copied += count;
+
+			}
+
+		}
+
+		/**
+		 * @return the end of the last complete record read
+		 */
+		long position() {
+			return position;
+		}
+
+		byte[] getAptamer() {
+			return length < 0 ? binary : PackedSequence.unpack(length, binary);
+		}
+
+	}
+
+	/**
+	 * Iterates over all records which were part of the log at construction time
+	 */
+	private abstract class RecordIterator<T> implements Iterator<T> {
+
+		private LogReader reader;
+
+		private boolean hasNext;
+
+		RecordIterator() {
+
+			try {
+				reader = new LogReader(LOG_HEADER_SIZE, flush());
+				advance();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read the sequence log.", e);
+			}
+
+		}
+
+		private void advance() throws IOException {
+
+			hasNext = reader.next();
+
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+
+			if (!hasNext) {
+				throw new NoSuchElementException();
+			}
+
+			T item = get(reader);
+
+			try {
+				advance();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read the sequence log.", e);
+			}
+
+			return item;
+		}
+
+		/**
+		 * @return the element corresponding to the current record of <code>reader</code>
+		 */
+		abstract T get(LogReader reader);
+
+	}
+
+
+	/**
+	 * Opens the pool of the project or creates a new one
+	 * @param projectPath the project folder, the pool is stored in <code>poollog</code>
+	 * @param newdb if true, any existing pool is discarded
+	 * @throws IOException
+	 */
+	public LogStructuredAptamerPool(Path projectPath, boolean newdb) throws IOException {
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Instantiating LogStructuredAptamerPool");
+
+		long tStart = System.currentTimeMillis();
+
+		this.poolDataPath = Files.createDirectories(Paths.get(projectPath.toString(), "poollog"));
+
+		if (newdb) {
+			Files.deleteIfExists(getLogFile());
+			SidecarFile.delete(getIndexFile());
+		}
+
+		channel = FileChannel.open(getLogFile(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+		if (channel.size() < LOG_HEADER_SIZE) {
+
+			initialize();
+
+		} else {
+
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+			channel.read(header, 0);
+			if (header.getLong(0) != MAGIC) {
+				channel.close();
+				throw new IllegalStateException("The file " + getLogFile().toString() + " is not a sequence log.");
+			}
+
+			flushed = channel.size();
+
+			if (!readIndex()) {
+				rebuildIndex();
+			}
+
+		}
+
+		AptaLogger.log(Level.INFO, this.getClass(), String.format("Opened %s aptamers from %s in %s seconds", size, poolDataPath.toString(), (System.currentTimeMillis() - tStart) / 1000.0));
+
+	}
+
+	private Path getLogFile() {
+		return Paths.get(poolDataPath.toString(), LOG_FILE);
+	}
+
+	private Path getIndexFile() {
+		return Paths.get(poolDataPath.toString(), INDEX_FILE);
+	}
+
+	/**
+	 * Resets the log and the index to an empty pool
+	 */
+	private void initialize() throws IOException {
+
+		channel.truncate(0);
+
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+		header.putLong(0, MAGIC);
+		channel.write(header, 0);
+
+		flushed = LOG_HEADER_SIZE;
+		writeBuffer.clear();
+		unmap();
+
+		table = new LongArray(INITIAL_CAPACITY);
+		offsets = new LongArray(0);
+		size = 0;
+
+		SidecarFile.delete(getIndexFile());
+		indexPersisted = false;
+
+	}
+
+	/**
+	 * Restores the index and the offsets from <code>INDEX_FILE</code>
+	 * @return false if the file does not exist or does not match the log
+	 */
+	private boolean readIndex() {
+
+		long logSize = flushed;
+
+		Boolean restored = SidecarFile.read(getIndexFile(), INDEX_VERSION, in -> {
+
+			if (in.readLong() != logSize) {
+				return false;
+			}
+
+			size = in.readInt();
+
+			table = new LongArray(in.readLong());
+			for (long i = 0; i < table.capacity(); i++) {
+				table.set(i, in.readLong());
+			}
+
+			offsets = new LongArray(size);
+			for (int i = 0; i < size; i++) {
+				offsets.set(i, in.readLong());
+			}
+
+			return true;
+		});
+
+		if (restored == null || !restored) {
+			AptaLogger.log(Level.INFO, this.getClass(), "The index in " + poolDataPath.toString() + " is missing or outdated");
+			return false;
+		}
+
+		indexPersisted = true;
+
+		return true;
+	}
+
+	/**
+	 * Writes the index and the offsets to <code>INDEX_FILE</code>. Requires the log to be flushed.
+	 */
+	private void writeIndex() throws IOException {
+
+		SidecarFile.write(getIndexFile(), INDEX_VERSION, out -> {
+
+			out.writeLong(flushed);
+			out.writeInt(size);
+
+			out.writeLong(table.capacity());
+			for (long i = 0; i < table.capacity(); i++) {
+				out.writeLong(table.get(i));
+			}
+
+			for (int i = 0; i < size; i++) {
+				out.writeLong(offsets.get(i));
+			}
+
+		});
+
+		indexPersisted = true;
+
+	}
+
+	/**
+	 * Recomputes the offsets and the index by a scan of the log. An incomplete record
+	 * at the end of the log is removed.
+	 */
+	private void rebuildIndex() throws IOException {
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Rebuilding the index from " + getLogFile().toString());
+
+		offsets = new LongArray(0);
+		size = 0;
+
+		// End of the last record which belongs to the pool
+		long end = LOG_HEADER_SIZE;
+		LogReader reader = new LogReader(LOG_HEADER_SIZE, flushed);
+		while (reader.next() && reader.id == size + 1) {
+			offsets.ensureCapacity(reader.id);
+			offsets.set(size++, reader.offset);
+			end = reader.position();
+		}
+
+		if (end < flushed) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Removing " + (flushed - end) + " bytes of incomplete records from " + getLogFile().toString());
+			channel.truncate(end);
+			flushed = end;
+		}
+
+		rehash(tableCapacity(size));
+
+	}
+
+	/**
+	 * @return the number of slots of the index for <code>n</code> sequences
+	 */
+	private static long tableCapacity(long n) {
+
+		long capacity = INITIAL_CAPACITY;
+		while (capacity < 2 * n + 2) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Replaces the index with one of <code>capacity</code> slots containing all sequences of the log
+	 */
+	private void rehash(long capacity) throws IOException {
+
+		table = new LongArray(capacity);
+
+		LogReader reader = new LogReader(LOG_HEADER_SIZE, flush());
+		for (int i = 0; i < size && reader.next(); i++) {
+			place(hash(reader.binary, reader.length), reader.offset);
+		}
+
+	}
+
+	/**
+	 * Stores the record offset of a sequence in the first free slot of its probe sequence
+	 */
+	private void place(long hash, long offset) {
+
+		long mask = table.capacity() - 1;
+
+		long i = hash & mask;
+		while (table.get(i) != 0) {
+			i = (i + 1) & mask;
+		}
+
+		table.set(i, (hash & ~OFFSET_MASK) | offset);
+
+	}
+
+	/**
+	 * @return the identifier of the sequence or -1 if it is not part of the pool
+	 */
+	private int find(long hash, int length, byte[] binary) throws IOException {
+
+		long mask = table.capacity() - 1;
+		long fingerprint = hash & ~OFFSET_MASK;
+
+		byte[] header = new byte[RECORD_HEADER_SIZE];
+
+		for (long i = hash & mask;; i = (i + 1) & mask) {
+
+			long slot = table.get(i);
+			if (slot == 0) {
+				return -1;
+			}
+
+			if ((slot & ~OFFSET_MASK) != fingerprint) {
+				continue;
+			}
+
+			long offset = slot & OFFSET_MASK;
+			read(offset, header);
+
+			ByteBuffer h = ByteBuffer.wrap(header);
+			if (h.getInt(12) != length) {
+				continue;
+			}
+
+			byte[] stored = new byte[binary.length];
+			read(offset + RECORD_HEADER_SIZE, stored);
+			if (Arrays.equals(stored, binary)) {
+				return h.getInt(0);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Copies <code>destination.length</code> bytes of the log starting at <code>position</code>
+	 * into <code>destination</code>. Requires at least the read lock.
+	 */
+	private void read(long position, byte[] destination) throws IOException {
+
+		MappedFile m = mapped;
+		if (m != null && position + destination.length <= m.size()) {
+			m.get(position, destination);
+			return;
+		}
+
+		// Records are never split between the file and the write buffer
+		if (position >= flushed) {
+			System.arraycopy(writeBuffer.array(), (int) (position - flushed), destination, 0, destination.length);
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(destination);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of the sequence log at position " + position);
+			}
+		}
+
+	}
+
+	/**
+	 * Releases the mapping of the log. Requires the write lock, so that no reader still uses it.
+	 */
+	private void unmap() {
+
+		MappedFile m = mapped;
+		mapped = null;
+
+		if (m != null) {
+			m.close();
+		}
+
+	}
+
+	/**
+	 * Appends a record to the log. Requires the write lock.
+	 * @return the offset of the record
+	 */
+	private long append(int id, int rr_start, int rr_end, int length, byte[] binary) throws IOException {
+
+		int recordSize = RECORD_HEADER_SIZE + binary.length;
+
+		if (writeBuffer.remaining() < recordSize) {
+			flushBuffer();
+		}
+
+		long offset = flushed + writeBuffer.position();
+		if (offset + recordSize > OFFSET_MASK) {
+			throw new IllegalStateException("The sequence log exceeds its maximal size of " + OFFSET_MASK + " bytes.");
+		}
+
+		// Records larger than the buffer bypass it
+		ByteBuffer target = writeBuffer.remaining() < recordSize ? ByteBuffer.allocate(recordSize) : writeBuffer;
+
+		target.putInt(id);
+		target.putInt(rr_start);
+		target.putInt(rr_end);
+		target.putInt(length);
+		target.put(binary);
+
+		if (target != writeBuffer) {
+			target.flip();
+			while (target.hasRemaining()) {
+				flushed += channel.write(target, flushed);
+			}
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Writes the content of the write buffer to the log. Requires the write lock.
+	 */
+	private void flushBuffer() throws IOException {
+
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			flushed += channel.write(writeBuffer, flushed);
+		}
+		writeBuffer.clear();
+
+	}
+
+	/**
+	 * Writes all pending records to the log
+	 * @return the size of the log
+	 */
+	private long flush() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			flushBuffer();
+			return flushed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+	}
+
+	/**
+	 * @return the number of bytes of the binary form of a sequence
+	 */
+	private static int binaryLength(int length) {
+		return length < 0 ? ~length : PackedSequence.packedSize(length);
+	}
+
+	/**
+	 * @return the hash of a sequence, including its length such that sequences
+	 * differing only in trailing A's are distinguished
+	 */
+	private static long hash(byte[] binary, int length) {
+
+		byte[] key = Arrays.copyOf(binary, binary.length + 4);
+		for (int i = 0; i < 4; i++) {
+			key[binary.length + i] = (byte) (length >>> (24 - 8 * i));
+		}
+
+		return MinimalPerfectHash.hash(key);
+	}
+
+	/**
+	 * @return the record header of <code>id</code>, wrapped for absolute reads
+	 */
+	private ByteBuffer readHeader(int id) throws IOException {
+
+		byte[] header = new byte[RECORD_HEADER_SIZE];
+		read(offsets.get(id - 1), header);
+
+		return ByteBuffer.wrap(header);
+	}
+
+	@Override
+	public int registerAptamer(byte[] a, int rr_start, int rr_end) {
+
+		PackedSequence aptamer = PackedSequence.pack(a);
+		byte[] binary = aptamer.toByteArray();
+		int length = aptamer.isPacked() ? aptamer.length() : ~aptamer.length();
+		long hash = hash(binary, length);
+
+		try {
+
+			// Most sequences are registered repeatedly, so try to find them without blocking other readers
+			lock.readLock().lock();
+			try {
+				int id = find(hash, length, binary);
+				if (id != -1) {
+					return id;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			lock.writeLock().lock();
+			try {
+
+				int id = find(hash, length, binary);
+				if (id != -1) {
+					return id;
+				}
+
+				if (indexPersisted) {
+					SidecarFile.delete(getIndexFile());
+					indexPersisted = false;
+				}
+
+				if (2L * (size + 1) > table.capacity()) {
+					rehash(2 * table.capacity());
+				}
+
+				id = size + 1;
+				long offset = append(id, rr_start, rr_end, length, binary);
+
+				offsets.ensureCapacity(id);
+				offsets.set(id - 1, offset);
+				place(hash, offset);
+				size = id;
+
+				return id;
+
+			} finally {
+				lock.writeLock().unlock();
+			}
+
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not write to the sequence log " + getLogFile().toString());
+			throw new IllegalStateException("Could not write to the sequence log.", e);
+		}
+
+	}
+
+	@Override
+	public int registerAptamer(String a, int rr_start, int rr_end) {
+
+		return registerAptamer(a.getBytes(), rr_start, rr_end);
+
+	}
+
+	@Override
+	public int getIdentifier(byte[] a) {
+
+		PackedSequence aptamer = PackedSequence.pack(a);
+		byte[] binary = aptamer.toByteArray();
+		int length = aptamer.isPacked() ? aptamer.length() : ~aptamer.length();
+
+		lock.readLock().lock();
+		try {
+			return find(hash(binary, length), length, binary);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the sequence log.", e);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	@Override
+	public int getIdentifier(String a) {
+
+		return getIdentifier(a.getBytes());
+
+	}
+
+	@Override
+	public byte[] getAptamer(int id) {
+
+		lock.readLock().lock();
+		try {
+
+			if (id < 1 || id > size) {
+				return null;
+			}
+
+			long offset = offsets.get(id - 1);
+			int length = readHeader(id).getInt(12);
+
+			byte[] binary = new byte[binaryLength(length)];
+			read(offset + RECORD_HEADER_SIZE, binary);
+
+			return length < 0 ? binary : PackedSequence.unpack(length, binary);
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the sequence log.", e);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	@Override
+	public AptamerBounds getAptamerBounds(int id) {
+
+		lock.readLock().lock();
+		try {
+
+			if (id < 1 || id > size) {
+				return null;
+			}
+
+			ByteBuffer header = readHeader(id);
+
+			return new AptamerBounds(header.getInt(4), header.getInt(8));
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the sequence log.", e);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	@Override
+	public Boolean containsAptamer(byte[] a) {
+
+		return getIdentifier(a) != -1;
+
+	}
+
+	@Override
+	public Boolean containsAptamer(String a) {
+
+		return containsAptamer(a.getBytes());
+
+	}
+
+	@Override
+	public Boolean containsAptamer(int id) {
+
+		lock.readLock().lock();
+		try {
+			return id > 0 && id <= size;
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	@Override
+	public int size() {
+
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	@Override
+	public void clear() {
+
+		lock.writeLock().lock();
+		try {
+			initialize();
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not clear the sequence log " + getLogFile().toString());
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+	}
+
+	/**
+	 * Writes all pending records and the index to disk and releases the log
+	 */
+	@Override
+	public void close() {
+
+		lock.writeLock().lock();
+		try {
+
+			if (!channel.isOpen()) {
+				return;
+			}
+
+			flushBuffer();
+			if (!indexPersisted) {
+				writeIndex();
+			}
+
+			unmap();
+			channel.close();
+
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not close the sequence log " + getLogFile().toString());
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+	}
+
+	/**
+	 * Writes all pending records and the index to disk and maps the log into memory
+	 */
+	@Override
+	public void setReadOnly() {
+
+		lock.writeLock().lock();
+		try {
+
+			flushBuffer();
+			if (!indexPersisted) {
+				writeIndex();
+			}
+
+			MappedFile m = new MappedFile(getLogFile(), flushed, false);
+			unmap();
+			mapped = m;
+
+		} catch (IOException e) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not map the sequence log " + getLogFile().toString());
+			AptaLogger.log(Level.WARNING, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+	}
+
+	/**
+	 * The log remains mapped, new records are read from the file until the pool is set to read only again
+	 */
+	@Override
+	public void setReadWrite() {
+	}
+
+	@Override
+	public Iterable<Entry<byte[], Integer>> iterator() {
+
+		return () -> new RecordIterator<Entry<byte[], Integer>>() {
+
+			@Override
+			Entry<byte[], Integer> get(LogReader reader) {
+				return new AbstractMap.SimpleEntry<byte[], Integer>(reader.getAptamer(), reader.id);
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, byte[]>> inverse_view_iterator() {
+
+		return () -> new RecordIterator<Entry<Integer, byte[]>>() {
+
+			@Override
+			Entry<Integer, byte[]> get(LogReader reader) {
+				return new AbstractMap.SimpleEntry<Integer, byte[]>(reader.id, reader.getAptamer());
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Integer> id_iterator() {
+
+		return () -> new Iterator<Integer>() {
+
+			int id = 0;
+
+			int last = size();
+
+			@Override
+			public boolean hasNext() {
+				return id < last;
+			}
+
+			@Override
+			public Integer next() {
+				return ++id;
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, int[]>> bounds_iterator() {
+
+		return () -> new RecordIterator<Entry<Integer, int[]>>() {
+
+			@Override
+			Entry<Integer, int[]> get(LogReader reader) {
+				return new AbstractMap.SimpleEntry<Integer, int[]>(reader.id, new int[] { reader.rrStart, reader.rrEnd });
+			}
+
+		};
+
+	}
+
+	/**
+	 * Splits the id range of the pool. Each part seeks to its records through the offsets
+	 * instead of scanning the log.
+	 */
+	@Override
+	public Spliterator<Entry<byte[], Integer>> spliterator() {
+		return spliterator(KeyRangeSpliterator.ofIds(id -> {
+			byte[] aptamer = getAptamer(id);
+			return aptamer == null ? null : new AbstractMap.SimpleEntry<byte[], Integer>(aptamer, id);
+		}));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, byte[]>> inverse_view_spliterator() {
+		return spliterator(KeyRangeSpliterator.ofIds(id -> {
+			byte[] aptamer = getAptamer(id);
+			return aptamer == null ? null : new AbstractMap.SimpleEntry<Integer, byte[]>(id, aptamer);
+		}));
+	}
+
+	@Override
+	public Spliterator<Integer> id_spliterator() {
+		return spliterator(KeyRangeSpliterator.ofIds(id -> id));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, int[]>> bounds_spliterator() {
+		return spliterator(KeyRangeSpliterator.ofIds(id -> {
+			AptamerBounds bounds = getAptamerBounds(id);
+			return bounds == null ? null : new AbstractMap.SimpleEntry<Integer, int[]>(id, new int[] { bounds.startIndex, bounds.endIndex });
+		}));
+	}
+
+	/**
+	 * Creates a spliterator over all ids registered so far
+	 */
+	private <T> Spliterator<T> spliterator(KeyRangeSpliterator.Range<T> range) {
+		return new KeyRangeSpliterator<T>().add(range, 1, size() + 1);
+	}
+
+}
@@ -3,6 +3,10 @@
  */
 package lib.aptamer.datastructures;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -20,20 +24,22 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
 import org.mapdb.serializer.SerializerCompressionWrapper;
 
-import orestes.bloomfilter.BloomFilter;
-import orestes.bloomfilter.FilterBuilder;
 import utilities.AptaLogger;
 import utilities.Configuration;
 import utilities.FileUtilities;
+import utilities.Quicksort;
 
 /**
  * Implements the AptamerPool interface using a non-volatile based storage solution in order
@@ -63,13 +69,13 @@ public class MapDBAptamerPool implements AptamerPool {
 	/**
 	 * The initial space reserved on disk for each map 
 	 */
-	private Integer allocateStartSize = Configuration.getParameters().getInt("MapDBAllocateStartSize");
+	private Integer allocateStartSize = MapDBSettings.getAllocateStartSize("MapDBAptamerPool");
 	
 	
 	/**
 	 * The amount by which each map will be incremented once it is full 
 	 */
-	private Integer allocateIncrement = Configuration.getParameters().getInt("MapDBAllocateIncrement");
+	private Integer allocateIncrement = MapDBSettings.getAllocateIncrement("MapDBAptamerPool");
 	
 	/**
 	 * The maximal number of unique aptamers to store in one TreeMap. The performance of TreeMap decreases
@@ -95,21 +101,21 @@ public class MapDBAptamerPool implements AptamerPool {
 	 * The bloom filter is used in order to provide atomic and space efficient checks on 
 	 * whether a sequence is already contained in the pool.
 	 */
-	private transient BloomFilter<String> bloomFilter = new FilterBuilder(bloomFilterCapacity, bloomFilterCollisionProbability).buildBloomFilter(); 
+	private transient BlockedBloomFilter bloomFilter = new BlockedBloomFilter(bloomFilterCapacity, bloomFilterCollisionProbability); 
 	
 	
 	/**
 	 * List of bloom filters, one per entry in <code>poolData</code>. This will be used to speed up
 	 * retrieval time of sequences.
 	 */
-	private transient List<BloomFilter<String>> poolDataBloomFilter = new ArrayList<BloomFilter<String>>();
+	private transient List<BlockedBloomFilter> poolDataBloomFilter = new ArrayList<BlockedBloomFilter>();
 	
 	
 	/**
 	 * Collection of HashMaps backed by MapDB which stores aptamer data on disk for
 	 * memory efficiency.
 	 */
-	private transient List<HTreeMap<byte[], Integer>> poolData = new ArrayList<HTreeMap<byte[], Integer>>();
+	private transient List<HTreeMap<PackedSequence, Integer>> poolData = new ArrayList<HTreeMap<PackedSequence, Integer>>();
 
 	/**
 	 * HashMap backed by MapDB which stores aptamer boundary data on disk for
@@ -121,7 +127,7 @@ public class MapDBAptamerPool implements AptamerPool {
 	/**
 	 * The inverse view of the <code>poolData</code> mapping ids to aptamers
 	 */
-	private transient List<BTreeMap<Integer, byte[]>> poolDataInverse = new ArrayList<BTreeMap<Integer, byte[]>>();
+	private transient List<BTreeMap<Integer, PackedSequence>> poolDataInverse = new ArrayList<BTreeMap<Integer, PackedSequence>>();
 	
 	
 	/**
@@ -144,6 +150,68 @@ public class MapDBAptamerPool implements AptamerPool {
 	private List<Path> poolDataPaths = new ArrayList<Path>();
 
 	
+	/**
+	 * Whether the sequences of this pool are stored 2-bit packed. Pools created
+	 * before packing was introduced store ASCII and are read in that format.
+	 */
+	private boolean packedSequences = Configuration.getParameters().getBoolean("MapDBAptamerPool.packedSequences");
+	
+	/**
+	 * Presence of this file in <code>poolDataPath</code> marks a pool with packed sequences
+	 */
+	private static final String PACKED_SEQUENCES_MARKER = "packed_sequences";
+	
+	/**
+	 * Sidecar file in <code>poolDataPath</code> holding the bloom filters, bit sets and map sizes
+	 */
+	private static final String FILTERS_FILE = "filters.bin";
+	
+	private static final int FILTERS_VERSION = 1;
+	
+	/**
+	 * If true, the inverse view and the bounds data of new pools are not filled one
+	 * <code>put</code> at a time during parsing. Instead, the (id, sequence, bounds) triples
+	 * are appended to a spill log and the trees are built with a single sorted pump per
+	 * map once parsing is completed.
+	 */
+	private boolean bulkLoad = Configuration.getParameters().getBoolean("MapDBAptamerPool.bulkLoad");
+	
+	/**
+	 * Spill log in <code>poolDataPath</code> used during bulk loading
+	 */
+	private static final String SPILL_LOG_FILE = "spill.log";
+	
+	/**
+	 * The open spill log while bulk loading, null otherwise. The maps in <code>poolData</code>
+	 * beyond <code>poolDataInverse.size()</code> have their inverse view and bounds data in the log.
+	 */
+	private transient volatile DataOutputStream spillLog = null;
+	
+	/**
+	 * Number of records in <code>spillLog</code>
+	 */
+	private transient long spillLogSize = 0;
+	
+	/**
+	 * True if the sidecar file reflects the current content of the pool. It is removed
+	 * on the first modification and rewritten when the pool is closed.
+	 */
+	private transient boolean filtersPersisted = false;
+	
+	/**
+	 * In-memory state of the pool as stored in the sidecar file
+	 */
+	private static class PersistedFilters {
+		
+		List<String> fileNames = new ArrayList<String>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		List<BlockedBloomFilter> bloomFilters = new ArrayList<BlockedBloomFilter>();
+		List<BitSet> inverseFilters = new ArrayList<BitSet>();
+		BlockedBloomFilter bloomFilter;
+		BitSet inverseFilter;
+		
+	}
+	
 	/**
 	 * The number of elements of the tree map that is currently been filled.
 	 * We need to keep this record separately as the .size() function of dbmap
@@ -197,12 +265,34 @@ public class MapDBAptamerPool implements AptamerPool {
 		if (! newdb){ 
 			AptaLogger.log(Level.INFO, this.getClass(), "Searching for existing datasets in " + poolDataPath.toString());
 			
+			// The storage format is defined by the existing data
+			packedSequences = Files.exists(Paths.get(poolDataPath.toString(), PACKED_SEQUENCES_MARKER));
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Sequences are stored " + (packedSequences ? "2-bit packed" : "in ASCII format"));
+			
 								
 			// Get the correct order of the paths
 			List<Path> sorted_paths = FileUtilities.getSortedPaths(Files.newDirectoryStream(Paths.get(poolDataPath.toString()), "data*" ));
 			
 			AptaLogger.log(Level.INFO, this.getClass(), "Found a total of " + sorted_paths.size() + " files on disk.");
 			
+			// Restore the filters from the sidecar file if it matches the data on disk, otherwise they are rebuilt below
+			PersistedFilters persisted = readFilters();
+			if (persisted != null && persisted.fileNames.size() != sorted_paths.size()) {
+				persisted = null;
+			}
+			for (int x=0; persisted != null && x<sorted_paths.size(); x++) {
+				if (!persisted.fileNames.get(x).equals(sorted_paths.get(x).getFileName().toString())) {
+					persisted = null;
+				}
+			}
+			
+			if (persisted != null) {
+				AptaLogger.log(Level.INFO, this.getClass(), "Restored filters from " + Paths.get(poolDataPath.toString(), FILTERS_FILE).toString());
+				bloomFilter = persisted.bloomFilter;
+				poolDataInverseFilter = persisted.inverseFilter;
+				filtersPersisted = true;
+			}
+			
 			// Process them in the correct order
 			for (Path file : sorted_paths) { // this will only get the data*.mapdb 
                 
@@ -212,8 +302,8 @@ public class MapDBAptamerPool implements AptamerPool {
 		
 				DB db = this.getMapDBInstance(file.toFile(),false);
 				
-				HTreeMap<byte[], Integer> dbmap = db.hashMap("map")
-						.keySerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+				HTreeMap<PackedSequence, Integer> dbmap = db.hashMap("map")
+						.keySerializer(getSequenceSerializer(false))
 						.valueSerializer(Serializer.INTEGER)
 						.open();
 				
@@ -221,7 +311,7 @@ public class MapDBAptamerPool implements AptamerPool {
 				poolDataPaths.add(file);
 
 				// Setup helper variables	    				
-				BloomFilter<String> localBloomFilter = new FilterBuilder(maxTreeMapCapacity, bloomFilterCollisionProbability).buildBloomFilter();
+				BlockedBloomFilter localBloomFilter = persisted != null ? persisted.bloomFilters.get(poolData.size()-1) : new BlockedBloomFilter(maxTreeMapCapacity, bloomFilterCollisionProbability);
 				poolDataBloomFilter.add(localBloomFilter);
 				
 				// Now load and initialize the inverse view of the data
@@ -231,31 +321,37 @@ public class MapDBAptamerPool implements AptamerPool {
 				
 				DB db_inverse = this.getMapDBInstance(inverseFile.toFile(),false);
 
-				BTreeMap<Integer, byte[]> inverse_dbmap = db_inverse.treeMap("map")
+				BTreeMap<Integer, PackedSequence> inverse_dbmap = db_inverse.treeMap("map")
 						.valuesOutsideNodesEnable()
 						.keySerializer(Serializer.INTEGER)
-						.valueSerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+						.valueSerializer(getSequenceSerializer(true))
 				        .open();
 				
 				poolDataInverse.add(inverse_dbmap);
 				
 				// Setup helper variables	    				
-				BitSet localBitSet = new BitSet(maxTreeMapCapacity);
+				BitSet localBitSet = persisted != null ? persisted.inverseFilters.get(poolDataInverse.size()-1) : new BitSet(maxTreeMapCapacity);
 				poolDataInverseFilters.add(localBitSet);
 				
 				// Update bloom filter content and determine database size
 				final AtomicInteger currentDBmapSize = new AtomicInteger(0);
-				inverse_dbmap.forEach((key,value) -> {
-					
-					bloomFilter.addRaw(value);
-					localBloomFilter.addRaw(value);
-					
-					this.poolDataInverseFilter.set(key);
-					localBitSet.set(key);
-					
-					currentDBmapSize.getAndIncrement();
-					
-				});
+				if (persisted != null) {
+					currentDBmapSize.set(persisted.sizes.get(poolDataInverse.size()-1));
+				}
+				else {
+					inverse_dbmap.forEach((key,value) -> {
+						
+						long bloomHash = MinimalPerfectHash.hash(value.toKeyBytes());
+						bloomFilter.add(bloomHash);
+						localBloomFilter.add(bloomHash);
+						
+						this.poolDataInverseFilter.set(key);
+						localBitSet.set(key);
+						
+						currentDBmapSize.getAndIncrement();
+						
+					});
+				}
 				
 				// Update values
 				poolSize += currentDBmapSize.intValue();
@@ -291,28 +387,44 @@ public class MapDBAptamerPool implements AptamerPool {
 		}
 		else{ 
 			
+		// Mark the storage format of the new pool
+		writeFormatMarker();
+		SidecarFile.delete(Paths.get(poolDataPath.toString(), FILTERS_FILE));
+			
 		// Create an empty instance of the MapDB Container...
 		Path file = Paths.get(poolDataPath.toString(), "data" + String.format("%04d", poolData.size()) + ".mapdb");
 		DB db = this.getMapDBInstance(file.toFile(),false);
 
-		HTreeMap<byte[], Integer> dbmap = db.hashMap("map")
-				.keySerializer(Serializer.BYTE_ARRAY)
+		HTreeMap<PackedSequence, Integer> dbmap = db.hashMap("map")
+				.keySerializer(getSequenceSerializer(false))
 				.valueSerializer(Serializer.INTEGER)
 		        .create();
 		
 		poolDataPaths.add(file);
 		poolData.add(dbmap);
 		
-		BloomFilter<String> localBloomFilter = new FilterBuilder(maxTreeMapCapacity, bloomFilterCollisionProbability).buildBloomFilter();
+		BlockedBloomFilter localBloomFilter = new BlockedBloomFilter(maxTreeMapCapacity, bloomFilterCollisionProbability);
 		poolDataBloomFilter.add(localBloomFilter);
 		
 		currentTreeMapSize = 0;
 		
 		AptaLogger.log(Level.CONFIG, this.getClass(), "Created new file " + file.toString());
-
 		
+		this.poolDataInverseFilters.add(new BitSet(maxTreeMapCapacity));
+		
+		// Defer the inverse view and the bounds data until parsing is completed...
+		if (bulkLoad) {
+			
+			Path spillLogFile = Paths.get(poolDataPath.toString(), SPILL_LOG_FILE);
+			spillLog = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillLogFile), 1 << 20));
+			spillLogSize = 0;
+			
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Bulk loading inverse view and bounds data through " + spillLogFile.toString());
+			
+		}
+		else {
 		
-		// ... as well as a new bounds file
+		// ... or create a new bounds file
 		Path boundsfile = Paths.get(file.getParent().toString(), "bounds_" + file.getFileName().toString());
 		
 		DB db_bounds = this.getMapDBInstance(boundsfile.toFile(),false);
@@ -333,21 +445,22 @@ public class MapDBAptamerPool implements AptamerPool {
 		Path inverse_file = Paths.get(file.getParent().toString(), "inverse_" + file.getFileName().toString());
 		DB db_inverse = this.getMapDBInstance(inverse_file.toFile(),false);
 
-		BTreeMap<Integer, byte[]> dbmap_inverse = db_inverse.treeMap("map")
+		BTreeMap<Integer, PackedSequence> dbmap_inverse = db_inverse.treeMap("map")
 				.valuesOutsideNodesEnable()
 				.keySerializer(Serializer.INTEGER)
-				.valueSerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+				.valueSerializer(getSequenceSerializer(true))
 		        .create();
 		
 		//add and create filters
 		poolDataInverse.add(dbmap_inverse);
-		this.poolDataInverseFilters.add(new BitSet(maxTreeMapCapacity));
 		
 		
 		AptaLogger.log(Level.CONFIG, this.getClass(), "Created new inverse file " + Paths.get(poolDataPath.toString(), "data_inverse" + ".mapdb").toFile());
 		
 		}
 		
+		}
+		
 		AptaLogger.log(Level.CONFIG, this.getClass(), "AptamerPool instantiation took " + ((System.currentTimeMillis() - tReadFromDisk) / 1000.0) + " seconds");
 		
 	}
@@ -357,8 +470,12 @@ public class MapDBAptamerPool implements AptamerPool {
 	 */
 	public synchronized int registerAptamer(byte[] a, int rr_start, int rr_end){
 		
+		// Sequences are only encoded once, all internal data structures operate on the packed form
+		PackedSequence packed = PackedSequence.pack(a);
+		long bloomHash = MinimalPerfectHash.hash(packed.toKeyBytes());
+		
 		// Check if the item is already registered, and if so, return its identifier
-		int identifier = this.getIdentifier(a);
+		int identifier = this.getIdentifier(packed, bloomHash);
 		if (identifier != -1){
 			return identifier;
 		}
@@ -376,31 +493,41 @@ public class MapDBAptamerPool implements AptamerPool {
 			
 			DB db = this.getMapDBInstance(file.toFile(),false);
 
-			HTreeMap<byte[], Integer> dbmap = db.hashMap("map")
-					.keySerializer(Serializer.BYTE_ARRAY)
+			HTreeMap<PackedSequence, Integer> dbmap = db.hashMap("map")
+					.keySerializer(getSequenceSerializer(false))
 					.valueSerializer(Serializer.INTEGER)
 			        .create();
 
 			poolDataPaths.add(file);
 			poolData.add(dbmap);
 			
-			BloomFilter<String> localBloomFilter = new FilterBuilder(maxTreeMapCapacity, bloomFilterCollisionProbability).buildBloomFilter();
+			BlockedBloomFilter localBloomFilter = new BlockedBloomFilter(maxTreeMapCapacity, bloomFilterCollisionProbability);
 			poolDataBloomFilter.add(localBloomFilter);
+			this.poolDataInverseFilters.add(new BitSet(maxTreeMapCapacity));
+			
+			// Reset current capacity
+			currentTreeMapSize = 0;
+			
+		}
+		
+		// Create the reverse view and bounds of a new map unless they are deferred to the bulk load
+		if (spillLog == null && poolDataInverse.size() < poolData.size()){
+			
+			Path file = poolDataPaths.get(poolData.size()-1);
 			
 			// Reverse View
 			Path inverse_file = Paths.get(file.getParent().toString(), "inverse_" + file.getFileName().toString());
 			
 			DB db_inverse = this.getMapDBInstance(inverse_file.toFile(),false);
 
-			BTreeMap<Integer, byte[]> dbmap_inverse = db_inverse.treeMap("map")
+			BTreeMap<Integer, PackedSequence> dbmap_inverse = db_inverse.treeMap("map")
 					.valuesOutsideNodesEnable()
 					.keySerializer(Serializer.INTEGER)
-					.valueSerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+					.valueSerializer(getSequenceSerializer(true))
 			        .create();
 
-			// Add and create filters
+			// Add
 			poolDataInverse.add(dbmap_inverse);
-			this.poolDataInverseFilters.add(new BitSet(maxTreeMapCapacity));
 			
 			
 			// Bounds
@@ -417,23 +544,46 @@ public class MapDBAptamerPool implements AptamerPool {
 			// Add
 			boundsData.add(dbmap_bounds);
 			
-			// Reset current capacity
-			currentTreeMapSize = 0;
-			
 		}
 
+		// The persisted filters no longer match the pool
+		if (filtersPersisted) {
+			SidecarFile.delete(Paths.get(poolDataPath.toString(), FILTERS_FILE));
+			filtersPersisted = false;
+		}
+		
 		// Now insert the sequence
-		poolData.get(poolData.size()-1).put(a, ++poolSize);
+		poolData.get(poolData.size()-1).put(packed, ++poolSize);
 		currentTreeMapSize++;
-		bloomFilter.addRaw(a);
-		poolDataBloomFilter.get(poolData.size()-1).addRaw(a);
+		bloomFilter.add(bloomHash);
+		poolDataBloomFilter.get(poolData.size()-1).add(bloomHash);
 		
-		poolDataInverse.get(poolDataInverse.size()-1).put(poolSize, a);
 		poolDataInverseFilter.set(poolSize);
 		poolDataInverseFilters.get(poolData.size()-1).set(poolSize);
 		
-		// and the bounds data
-		boundsData.get(boundsData.size()-1).put(poolSize, new int[]{rr_start,rr_end});
+		// and the inverse view and bounds data
+		if (spillLog != null) {
+			
+			try {
+				spillLog.writeInt(poolData.size()-1);
+				spillLog.writeInt(poolSize);
+				spillLog.writeInt(rr_start);
+				spillLog.writeInt(rr_end);
+				spillLog.writeInt(packed.isPacked() ? packed.length() : ~packed.length());
+				spillLog.write(packed.toByteArray());
+				spillLogSize++;
+			} catch (IOException e) {
+				AptaLogger.log(Level.SEVERE, this.getClass(), "Could not write to the spill log. " + e.toString());
+				throw new IllegalStateException("Could not write to the spill log.", e);
+			}
+			
+		}
+		else {
+			
+			poolDataInverse.get(poolDataInverse.size()-1).put(poolSize, packed);
+			boundsData.get(boundsData.size()-1).put(poolSize, new int[]{rr_start,rr_end});
+		
+		}
 		
 		return poolSize;
 	}
@@ -452,28 +602,42 @@ public class MapDBAptamerPool implements AptamerPool {
 	 */
 	public int getIdentifier(byte[] a) {
 		
+		PackedSequence packed = PackedSequence.pack(a);
+		
+		return getIdentifier(packed, MinimalPerfectHash.hash(packed.toKeyBytes()));
+		
+	}
+	
+	/**
+	 * Looks up the identifier of a packed sequence
+	 * @param packed the sequence
+	 * @param bloomHash the hash of <code>packed.toKeyBytes()</code>
+	 * @return the identifier or -1 if the sequence is not part of the pool
+	 */
+	private int getIdentifier(PackedSequence packed, long bloomHash) {
+		
 		// Check for existence using bloom filter. 
-		if (!bloomFilter.contains(a)){
+		if (!bloomFilter.contains(bloomHash)){
 			return -1; // This result is always accurate (no false negatives)
 		}
 		
 		Integer identifier = null;
 		
 		// Iterate over all treeMaps and bloomFilters
-		ListIterator<HTreeMap<byte[], Integer>> lim = poolData.listIterator(poolData.size());
-		ListIterator<BloomFilter<String>> lib = poolDataBloomFilter.listIterator(poolData.size());
+		ListIterator<HTreeMap<PackedSequence, Integer>> lim = poolData.listIterator(poolData.size());
+		ListIterator<BlockedBloomFilter> lib = poolDataBloomFilter.listIterator(poolData.size());
 		
 		// Iterate in reverse
 		while(lim.hasPrevious() && identifier == null) {
 			
 			// Prevent expensive disk lookups by using the bloom filters...
-			if(! lib.previous().contains(a) ){
+			if(! lib.previous().contains(bloomHash) ){
 				lim.previous();
 				continue;
 			}
 			
 			// ... and only look it up when we have to
-			identifier = lim.previous().get(a); //note, in case of a false positive, this returns null
+			identifier = lim.previous().get(packed); //note, in case of a false positive, this returns null
 
 		}
 		
@@ -497,15 +661,20 @@ public class MapDBAptamerPool implements AptamerPool {
 	 */
 	public byte[] getAptamer(int id) {
 		
+		// The inverse view and bounds data must be complete
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
 		// Check if the aptamer is present in the pool via fast lookup
 		if (!containsAptamer(id)){
 			return null;
 		}
 		
 		// find and return the sequence
-		byte[] aptamer = null;
+		PackedSequence aptamer = null;
 		
-		ListIterator<BTreeMap<Integer, byte[]>> lim = poolDataInverse.listIterator(poolDataInverse.size());
+		ListIterator<BTreeMap<Integer, PackedSequence>> lim = poolDataInverse.listIterator(poolDataInverse.size());
 		ListIterator<BitSet> lib = poolDataInverseFilters.listIterator(poolDataInverse.size());
 		
 		// Iterate in reverse
@@ -522,7 +691,7 @@ public class MapDBAptamerPool implements AptamerPool {
 
 		}
 		
-		return aptamer; 
+		return aptamer == null ? null : aptamer.unpack(); 
 	}
 	
 	/* (non-Javadoc)
@@ -530,6 +699,11 @@ public class MapDBAptamerPool implements AptamerPool {
 	 */
 	public AptamerBounds getAptamerBounds(int id) {
 		
+		// The inverse view and bounds data must be complete
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
 		// Check if the aptamer is present in the pool via fast lookup
 		if (!containsAptamer(id)){
 			return null;
@@ -555,6 +729,146 @@ public class MapDBAptamerPool implements AptamerPool {
 		return bounds; 
 	}
 	
+	/**
+	 * Batch lookup of sequences. The ids are processed in ascending order and
+	 * every inverse tree map is visited once per batch.
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamers(int[], byte[][])
+	 */
+	@Override
+	public void getAptamers(int[] ids, byte[][] aptamers) {
+		
+		// The inverse view and bounds data must be complete
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
+		int[] order = getAscendingOrder(ids);
+		Arrays.fill(aptamers, 0, ids.length, null);
+		
+		for (int m = 0; m < poolDataInverse.size(); m++) {
+			
+			BTreeMap<Integer, PackedSequence> map = poolDataInverse.get(m);
+			BitSet filter = poolDataInverseFilters.get(m);
+			
+			for (int i : order) {
+				
+				if (ids[i] >= 0 && filter.get(ids[i])) {
+					PackedSequence aptamer = map.get(ids[i]);
+					if (aptamer != null) {
+						aptamers[i] = aptamer.unpack();
+					}
+				}
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Batch lookup of bounds, see <code>getAptamers(int[], byte[][])</code>
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamerBounds(int[], AptamerBounds[])
+	 */
+	@Override
+	public void getAptamerBounds(int[] ids, AptamerBounds[] bounds) {
+		
+		// The inverse view and bounds data must be complete
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
+		int[] order = getAscendingOrder(ids);
+		Arrays.fill(bounds, 0, ids.length, null);
+		
+		for (int m = 0; m < boundsData.size(); m++) {
+			
+			BTreeMap<Integer, int[]> map = boundsData.get(m);
+			BitSet filter = poolDataInverseFilters.get(m);
+			
+			for (int i : order) {
+				
+				if (ids[i] >= 0 && filter.get(ids[i])) {
+					int[] value = map.get(ids[i]);
+					if (value != null) {
+						bounds[i] = new AptamerBounds(value);
+					}
+				}
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Batch lookup of identifiers. Sequences are packed once, filtered by the global
+	 * bloom filter and then resolved by visiting every hash map once per batch,
+	 * newest first.
+	 * @see lib.aptamer.datastructures.AptamerPool#getIdentifiers(byte[][], int[])
+	 */
+	@Override
+	public void getIdentifiers(byte[][] aptamers, int[] ids) {
+		
+		PackedSequence[] packed = new PackedSequence[aptamers.length];
+		long[] bloomHashes = new long[aptamers.length];
+		
+		// indices of the sequences which have not been resolved yet
+		int[] pending = new int[aptamers.length];
+		int numPending = 0;
+		
+		for (int i = 0; i < aptamers.length; i++) {
+			
+			ids[i] = -1;
+			packed[i] = PackedSequence.pack(aptamers[i]);
+			bloomHashes[i] = MinimalPerfectHash.hash(packed[i].toKeyBytes());
+			
+			if (bloomFilter.contains(bloomHashes[i])) {
+				pending[numPending++] = i;
+			}
+			
+		}
+		
+		for (int m = poolData.size() - 1; m >= 0 && numPending > 0; m--) {
+			
+			HTreeMap<PackedSequence, Integer> map = poolData.get(m);
+			BlockedBloomFilter filter = poolDataBloomFilter.get(m);
+			
+			int stillPending = 0;
+			for (int p = 0; p < numPending; p++) {
+				
+				int i = pending[p];
+				Integer identifier = filter.contains(bloomHashes[i]) ? map.get(packed[i]) : null;
+				
+				if (identifier != null) {
+					ids[i] = identifier;
+				} else {
+					pending[stillPending++] = i;
+				}
+				
+			}
+			numPending = stillPending;
+			
+		}
+		
+	}
+	
+	/**
+	 * @return the indices of <code>ids</code> such that the referenced ids are in ascending order
+	 */
+	private static int[] getAscendingOrder(int[] ids) {
+		
+		int[] order = new int[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		
+		if (ids.length > 1) {
+			Quicksort.sort(order, ids.clone());
+		}
+		
+		return order;
+	}
+	
 	/* (non-Javadoc)
 	 * @see aptamer.pool.AptamerPool#hasAptamer(byte[])
 	 */
@@ -589,6 +903,122 @@ public class MapDBAptamerPool implements AptamerPool {
 	}
 	
 	
+	/**
+	 * Builds the inverse view and the bounds data of all maps filled while bulk loading
+	 * from the spill log. Since the ids in the log are ascending, each tree is created
+	 * with a single sorted pump. Registrations after this call are inserted directly.
+	 */
+	private synchronized void completeBulkLoad() {
+		
+		if (spillLog == null) {
+			return;
+		}
+		
+		long tPump = System.currentTimeMillis();
+		
+		Path spillLogFile = Paths.get(poolDataPath.toString(), SPILL_LOG_FILE);
+		
+		try {
+			
+			spillLog.close();
+			
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillLogFile), 1 << 20))) {
+				
+				DB.TreeMapSink<Integer, PackedSequence> inverseSink = null;
+				DB.TreeMapSink<Integer, int[]> boundsSink = null;
+				
+				// the map whose trees are currently being pumped
+				int current = poolDataInverse.size() - 1;
+				
+				for (long record = 0; record < spillLogSize; record++) {
+					
+					int map = in.readInt();
+					
+					// Maps are visited in order, including maps without records
+					while (current < map) {
+						
+						if (inverseSink != null) {
+							poolDataInverse.add(inverseSink.create());
+							boundsData.add(boundsSink.create());
+						}
+						
+						current++;
+						inverseSink = getInverseSink(current);
+						boundsSink = getBoundsSink(current);
+						
+					}
+					
+					int id = in.readInt();
+					int rr_start = in.readInt();
+					int rr_end = in.readInt();
+					int length = in.readInt();
+					
+					byte[] binary = new byte[length < 0 ? ~length : PackedSequence.packedSize(length)];
+					in.readFully(binary);
+					
+					inverseSink.put(id, PackedSequence.fromByteArray(length < 0 ? ~length : length, length >= 0, binary));
+					boundsSink.put(id, new int[]{rr_start,rr_end});
+					
+				}
+				
+				if (inverseSink != null) {
+					poolDataInverse.add(inverseSink.create());
+					boundsData.add(boundsSink.create());
+				}
+				
+				// Any remaining maps are empty
+				while (poolDataInverse.size() < poolData.size()) {
+					poolDataInverse.add(getInverseSink(poolDataInverse.size()).create());
+					boundsData.add(getBoundsSink(boundsData.size()).create());
+				}
+				
+			}
+			
+			Files.delete(spillLogFile);
+			
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not read the spill log " + spillLogFile.toString() + ". " + e.toString());
+			throw new IllegalStateException("Could not read the spill log.", e);
+		}
+		
+		spillLog = null;
+		
+		AptaLogger.log(Level.INFO, this.getClass(), "Bulk loaded inverse view and bounds data of " + spillLogSize + " aptamers in " + ((System.currentTimeMillis() - tPump) / 1000.0) + " seconds");
+		
+	}
+	
+	/**
+	 * @return a sink creating the inverse view of map <code>index</code> from ascending ids
+	 */
+	private DB.TreeMapSink<Integer, PackedSequence> getInverseSink(int index) {
+		
+		Path file = poolDataPaths.get(index);
+		DB db_inverse = this.getMapDBInstance(Paths.get(file.getParent().toString(), "inverse_" + file.getFileName().toString()).toFile(),false);
+		
+		return db_inverse.treeMap("map")
+				.valuesOutsideNodesEnable()
+				.keySerializer(Serializer.INTEGER)
+				.valueSerializer(getSequenceSerializer(true))
+				.createFromSink();
+		
+	}
+	
+	/**
+	 * @return a sink creating the bounds data of map <code>index</code> from ascending ids
+	 */
+	private DB.TreeMapSink<Integer, int[]> getBoundsSink(int index) {
+		
+		Path file = poolDataPaths.get(index);
+		DB db_bounds = this.getMapDBInstance(Paths.get(file.getParent().toString(), "bounds_" + file.getFileName().toString()).toFile(),false);
+		
+		return db_bounds.treeMap("map")
+				.valuesOutsideNodesEnable()
+				.keySerializer(Serializer.INTEGER)
+				.valueSerializer(Serializer.INT_ARRAY)
+				.createFromSink();
+		
+	}
+	
 	/**
 	 * This function closes all the file handles that where created or opened
 	 * during the lifetime of the class instance. If it is not called, a
@@ -597,10 +1027,15 @@ public class MapDBAptamerPool implements AptamerPool {
 	 */
 	public void close(){
 		
+		// Build the trees still pending from the bulk load before their files are closed
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
 		AptaLogger.log(Level.CONFIG, this.getClass(), "Closing pool file handles.");
 		
 		// Iterate over each TreeMap instance and close it
-		ListIterator<HTreeMap<byte[], Integer>> li = poolData.listIterator(poolData.size());
+		ListIterator<HTreeMap<PackedSequence, Integer>> li = poolData.listIterator(poolData.size());
 		while(li.hasPrevious()) { li.previous().close(); }
 
 		// Close the bounds data
@@ -608,8 +1043,72 @@ public class MapDBAptamerPool implements AptamerPool {
 		while(bi.hasPrevious()) { bi.previous().close(); }
 
 		// Close the inverse view
-		ListIterator<BTreeMap<Integer, byte[]>> lii = poolDataInverse.listIterator(poolDataInverse.size());
+		ListIterator<BTreeMap<Integer, PackedSequence>> lii = poolDataInverse.listIterator(poolDataInverse.size());
 		while(lii.hasPrevious()) { lii.previous().close(); }
+		
+		// Store the filters so that they do not have to be rebuilt on the next start
+		if (!filtersPersisted) {
+			writeFilters();
+		}
+	}
+	
+	/**
+	 * Writes the bloom filters, bit sets and map sizes to the sidecar file
+	 */
+	private void writeFilters() {
+		
+		long tWrite = System.currentTimeMillis();
+		
+		try {
+			SidecarFile.write(Paths.get(poolDataPath.toString(), FILTERS_FILE), FILTERS_VERSION, out -> {
+				
+				out.writeInt(poolDataPaths.size());
+				for (int x=0; x<poolDataPaths.size(); x++) {
+					out.writeUTF(poolDataPaths.get(x).getFileName().toString());
+					out.writeInt(poolDataInverseFilters.get(x).cardinality());
+					poolDataBloomFilter.get(x).write(out);
+					SidecarFile.writeBitSet(out, poolDataInverseFilters.get(x));
+				}
+				
+				bloomFilter.write(out);
+				SidecarFile.writeBitSet(out, poolDataInverseFilter);
+				
+			});
+			
+			filtersPersisted = true;
+			
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Wrote filters to " + Paths.get(poolDataPath.toString(), FILTERS_FILE).toString() + " in " + ((System.currentTimeMillis() - tWrite) / 1000.0) + " seconds");
+		}
+		catch (IOException e) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not write filters, they will be rebuilt on the next start. " + e.toString());
+		}
+		
+	}
+	
+	/**
+	 * @return the content of the sidecar file or null if it is missing or invalid
+	 */
+	private PersistedFilters readFilters() {
+		
+		return SidecarFile.read(Paths.get(poolDataPath.toString(), FILTERS_FILE), FILTERS_VERSION, in -> {
+			
+			PersistedFilters persisted = new PersistedFilters();
+			
+			int numberOfMaps = in.readInt();
+			for (int x=0; x<numberOfMaps; x++) {
+				persisted.fileNames.add(in.readUTF());
+				persisted.sizes.add(in.readInt());
+				persisted.bloomFilters.add(BlockedBloomFilter.read(in));
+				persisted.inverseFilters.add(SidecarFile.readBitSet(in));
+			}
+			
+			persisted.bloomFilter = BlockedBloomFilter.read(in);
+			persisted.inverseFilter = SidecarFile.readBitSet(in);
+			
+			return persisted;
+			
+		});
+		
 	}
 	
 	
@@ -619,6 +1118,14 @@ public class MapDBAptamerPool implements AptamerPool {
 	public void clear(){
 		
 		// Make sure all file handles are closed before deleting the files.
+		// The filters and the spill log are deleted along with the data and need not be processed.
+		filtersPersisted = true;
+		if (spillLog != null) {
+			try {
+				spillLog.close();
+			} catch (IOException e) {}
+			spillLog = null;
+		}
 		this.close();
 		
 		// Now delete all the content in the project folder
@@ -632,6 +1139,12 @@ public class MapDBAptamerPool implements AptamerPool {
 			
         } catch (IOException ex) {}
 		
+		try {
+			writeFormatMarker();
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not write the format marker to " + poolDataPath.toString());
+		}
+		
 		// Reset the pool data
 		this.poolData.clear();
 		this.poolDataPaths.clear();
@@ -651,6 +1164,7 @@ public class MapDBAptamerPool implements AptamerPool {
 		// Reset the counts
 		this.poolSize = 0;
 		this.currentTreeMapSize = 0;
+		filtersPersisted = false;
 		
 	}
 	
@@ -685,7 +1199,7 @@ public class MapDBAptamerPool implements AptamerPool {
 		}
 		
 		this.bloomFilterCapacity = capacity;
-		bloomFilter = new FilterBuilder(bloomFilterCapacity, bloomFilterCollisionProbability).buildBloomFilter();
+		bloomFilter = new BlockedBloomFilter(bloomFilterCapacity, bloomFilterCollisionProbability);
 		
 	}
 	
@@ -716,7 +1230,7 @@ public class MapDBAptamerPool implements AptamerPool {
 		}
 		
 		this.bloomFilterCollisionProbability = prob;
-		bloomFilter = new FilterBuilder(bloomFilterCapacity, bloomFilterCollisionProbability).buildBloomFilter();
+		bloomFilter = new BlockedBloomFilter(bloomFilterCapacity, bloomFilterCollisionProbability);
 		
 	}
 	
@@ -750,8 +1264,8 @@ public class MapDBAptamerPool implements AptamerPool {
 				
 				DB db = this.getMapDBInstance(file.toFile(),true);
 
-				HTreeMap<byte[], Integer> dbmap = db.hashMap("map")
-						.keySerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+				HTreeMap<PackedSequence, Integer> dbmap = db.hashMap("map")
+						.keySerializer(getSequenceSerializer(false))
 						.valueSerializer(Serializer.INTEGER)
 						.open();
 				
@@ -764,10 +1278,10 @@ public class MapDBAptamerPool implements AptamerPool {
 			Path inverse_file = Paths.get(file.getParent().toString(), "inverse_"+ file.getFileName().toString());
 			DB db_inverse = this.getMapDBInstance(inverse_file.toFile(),true);
 
-			BTreeMap<Integer, byte[]> dbmap_inverse = db_inverse.treeMap("map")
+			BTreeMap<Integer, PackedSequence> dbmap_inverse = db_inverse.treeMap("map")
 					.valuesOutsideNodesEnable()
 					.keySerializer(Serializer.INTEGER)
-					.valueSerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+					.valueSerializer(getSequenceSerializer(true))
 			        .open();
 			
 			poolDataInverse.add(dbmap_inverse);
@@ -812,8 +1326,8 @@ public class MapDBAptamerPool implements AptamerPool {
 				
 				DB db = this.getMapDBInstance(file.toFile(),true);
 
-				HTreeMap<byte[], Integer> dbmap = db.hashMap("map")
-						.keySerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+				HTreeMap<PackedSequence, Integer> dbmap = db.hashMap("map")
+						.keySerializer(getSequenceSerializer(false))
 						.valueSerializer(Serializer.INTEGER)
 						.open();
 				
@@ -826,10 +1340,10 @@ public class MapDBAptamerPool implements AptamerPool {
 			Path inverse_file = Paths.get(file.getParent().toString(), "inverse_"+ file.getFileName().toString());
 			DB db_inverse = this.getMapDBInstance(inverse_file.toFile(),true);
 
-			BTreeMap<Integer, byte[]> dbmap_inverse = db_inverse.treeMap("map")
+			BTreeMap<Integer, PackedSequence> dbmap_inverse = db_inverse.treeMap("map")
 					.valuesOutsideNodesEnable()
 					.keySerializer(Serializer.INTEGER)
-					.valueSerializer(new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY))
+					.valueSerializer(getSequenceSerializer(true))
 			        .open();
 			
 			poolDataInverse.add(dbmap_inverse);
@@ -902,7 +1416,7 @@ public class MapDBAptamerPool implements AptamerPool {
 	            // Use the inverse map for iteration as its underlaying BTree structure
 	            // is several orders faster to traverse
 	            private int currentTreeMapIndex = 0;
-	            private Iterator<Entry<Integer, byte[]>> currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
+	            private Iterator<Entry<Integer, PackedSequence>> currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
 	            
 	            @Override
 	            public boolean hasNext() {
@@ -919,8 +1433,8 @@ public class MapDBAptamerPool implements AptamerPool {
 	                	currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
 	                }
 	                
-	                Entry<Integer, byte[]> temp = currentTreeMapIterator.next();
-	                return new AbstractMap.SimpleEntry<byte[], Integer>(temp.getValue(), temp.getKey());
+	                Entry<Integer, PackedSequence> temp = currentTreeMapIterator.next();
+	                return new AbstractMap.SimpleEntry<byte[], Integer>(temp.getValue().unpack(), temp.getKey());
 	            }
 
 	            @Override
@@ -986,7 +1500,7 @@ public class MapDBAptamerPool implements AptamerPool {
 	        Iterator<Map.Entry<Integer, byte[]>> it = new Iterator<Map.Entry<Integer, byte[]>>() {
 
 	            private int currentTreeMapIndex = 0;
-	            private Iterator<Entry<Integer, byte[]>> currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
+	            private Iterator<Entry<Integer, PackedSequence>> currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
 	            
 	            @Override
 	            public boolean hasNext() {
@@ -1003,7 +1517,8 @@ public class MapDBAptamerPool implements AptamerPool {
 	                	currentTreeMapIterator= poolDataInverse.get(currentTreeMapIndex).getEntries().iterator();
 	                }
 	                	
-	                return currentTreeMapIterator.next();
+	                Entry<Integer, PackedSequence> temp = currentTreeMapIterator.next();
+	                return new AbstractMap.SimpleEntry<Integer, byte[]>(temp.getKey(), temp.getValue().unpack());
 	            }
 
 	            @Override
@@ -1065,6 +1580,9 @@ public class MapDBAptamerPool implements AptamerPool {
      * @return Instance of <code>PoolCollection</code>.
      */
     public Iterable<Entry<byte[], Integer>> iterator(){
+    	if (spillLog != null) {
+    		completeBulkLoad();
+    	}
     	return new PoolIterator();
     }
     
@@ -1073,6 +1591,9 @@ public class MapDBAptamerPool implements AptamerPool {
      * @return Instance of <code>PoolCollectionInverse</code>
      */
     public Iterable<Entry<Integer,byte[]>> inverse_view_iterator(){
+    	if (spillLog != null) {
+    		completeBulkLoad();
+    	}
     	return new InverseViewPoolIterator();
     }
 
@@ -1082,6 +1603,9 @@ public class MapDBAptamerPool implements AptamerPool {
      */
 	@Override
 	public Iterable<Entry<Integer, int[]>> bounds_iterator() {
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
 		return new BoundsIterator();
 	}
 
@@ -1089,10 +1613,87 @@ public class MapDBAptamerPool implements AptamerPool {
 	@Override
 	public Iterable<Integer> id_iterator() {
 		
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+		
 		return new IdIterator();
 		
 	}
 
+	/**
+	 * Splits along the files of the pool and then along their id ranges
+	 */
+	@Override
+	public Spliterator<Entry<byte[], Integer>> spliterator() {
+		return spliterator(poolDataInverse, map -> KeyRangeSpliterator.ofMap(map, (id, sequence) -> new AbstractMap.SimpleEntry<byte[], Integer>(sequence.unpack(), id)));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, byte[]>> inverse_view_spliterator() {
+		return spliterator(poolDataInverse, map -> KeyRangeSpliterator.ofMap(map, (id, sequence) -> new AbstractMap.SimpleEntry<Integer, byte[]>(id, sequence.unpack())));
+	}
+
+	@Override
+	public Spliterator<Integer> id_spliterator() {
+		return spliterator(poolDataInverse, map -> KeyRangeSpliterator.ofKeys(map));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, int[]>> bounds_spliterator() {
+		return spliterator(boundsData, map -> KeyRangeSpliterator.ofMap(map));
+	}
+
+	/**
+	 * Creates a spliterator with one segment per file
+	 * @param maps the maps of the individual files
+	 * @param range provides the elements of a map
+	 */
+	private <V, T> Spliterator<T> spliterator(List<BTreeMap<Integer, V>> maps, Function<BTreeMap<Integer, V>, KeyRangeSpliterator.Range<T>> range) {
+
+		if (spillLog != null) {
+			completeBulkLoad();
+		}
+
+		KeyRangeSpliterator<T> spliterator = new KeyRangeSpliterator<T>();
+		for (BTreeMap<Integer, V> map : maps) {
+			if (!map.isEmpty()) {
+				spliterator.add(range.apply(map), map.firstKey(), map.lastKey() + 1);
+			}
+		}
+
+		return spliterator;
+	}
+
+	/**
+	 * Creates or removes the marker file recording the storage format in <code>poolDataPath</code>
+	 */
+	private void writeFormatMarker() throws IOException {
+		
+		Path marker = Paths.get(poolDataPath.toString(), PACKED_SEQUENCES_MARKER);
+		
+		Files.deleteIfExists(marker);
+		if (packedSequences) {
+			Files.createFile(marker);
+		}
+		
+	}
+	
+	/**
+	 * Returns the serializer for sequences according to the storage format of this pool
+	 * @param compressed only relevant for pools in ASCII format. If true, the sequences
+	 * are wrapped into a <code>SerializerCompressionWrapper</code>
+	 */
+	private GroupSerializer<PackedSequence> getSequenceSerializer(boolean compressed) {
+		
+		if (packedSequences) {
+			return PackedSequenceSerializer.INSTANCE;
+		}
+		
+		return new PackedSequenceSerializer.Legacy(compressed ? new SerializerCompressionWrapper<byte[]>(Serializer.BYTE_ARRAY) : Serializer.BYTE_ARRAY);
+		
+	}
+	
 	/**
 	 * Central getter to open a channel to a mapdb on file
 	 * @param file
@@ -1110,8 +1711,7 @@ public class MapDBAptamerPool implements AptamerPool {
 			    .fileMmapPreclearDisable() // Make mmap file faster
 			    //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 			    						//Note that this is not compatible with MacOS and Java 9...
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBAptamerPool", 2) )
 			    .fileChannelEnable() 
 			    .make();
 		}
@@ -1125,8 +1725,7 @@ public class MapDBAptamerPool implements AptamerPool {
 			    .fileMmapPreclearDisable() // Make mmap file faster
 			    //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 										//Note that this is not compatible with MacOS and Java 9...
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBAptamerPool", 2) )
 			    .fileChannelEnable()
 			    .readOnly()
 			    .make();
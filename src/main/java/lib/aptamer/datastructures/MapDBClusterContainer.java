@@ -19,8 +19,6 @@ import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
 import org.mapdb.DBException.WrongConfiguration;
 
-import orestes.bloomfilter.BloomFilter;
-import orestes.bloomfilter.FilterBuilder;
 import utilities.AptaLogger;
 import utilities.Configuration;
 
@@ -38,19 +36,19 @@ public class MapDBClusterContainer implements ClusterContainer {
 	/**
 	 * The initial space reserved on disk for each map 
 	 */
-	private Integer allocateStartSize = Configuration.getParameters().getInt("MapDBAllocateStartSize");
+	private Integer allocateStartSize = MapDBSettings.getAllocateStartSize("MapDBClusterContainer");
 	
 	
 	/**
 	 * The amount by which each map will be incremented once it is full 
 	 */
-	private Integer allocateIncrement = Configuration.getParameters().getInt("MapDBAllocateIncrement");
+	private Integer allocateIncrement = MapDBSettings.getAllocateIncrement("MapDBClusterContainer");
 
 	/**
 	 * Bloom Filter for fast member lookup
 	 * Worst case scenario is we have as many clusters as we have aptamers
 	 */
-	private transient BloomFilter<Integer> containerContent = new FilterBuilder(Configuration.getExperiment().getAptamerPool().size(), Configuration.getParameters().getDouble("MapDBAptamerPool.bloomFilterCollisionProbability")).buildBloomFilter();
+	private transient BlockedBloomFilter containerContent = new BlockedBloomFilter(Configuration.getExperiment().getAptamerPool().size(), Configuration.getParameters().getDouble("MapDBAptamerPool.bloomFilterCollisionProbability"));
 	//containerContent = new FilterBuilder(Configuration.getParameters().getInt("MapDBAptamerPool.bloomFilterCapacity"), Configuration.getParameters().getDouble("MapDBAptamerPool.bloomFilterCollisionProbability")).buildBloomFilter();
 	
 	/**
@@ -92,8 +90,7 @@ public class MapDBClusterContainer implements ClusterContainer {
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBClusterContainer", 1) )
 			    .make();
 		
 		// Creating a new database
@@ -276,8 +273,7 @@ public class MapDBClusterContainer implements ClusterContainer {
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBClusterContainer", 1) )
 			    .readOnly()
 			    .make();
 
@@ -307,8 +303,7 @@ public class MapDBClusterContainer implements ClusterContainer {
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBClusterContainer", 1) )
 			    .make();
 
 		clusterContainer = db.treeMap("map")
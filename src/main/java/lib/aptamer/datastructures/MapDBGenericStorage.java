@@ -52,8 +52,7 @@ public class MapDBGenericStorage<T, U> implements GenericStorage<T, U> {
 					.fileDB(full_qualifier.toFile())
 					.fileMmapEnableIfSupported() // Only enable mmap on supported platforms
 					.fileMmapPreclearDisable() // Make mmap file faster
-					.concurrencyScale(8) // TODO: Number of threads make this a parameter?
-					.executorEnable()
+					.concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBGenericStorage", 1) )
 					.transactionEnable()
 					.make();
 			
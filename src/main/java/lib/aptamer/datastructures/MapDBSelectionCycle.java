@@ -15,13 +15,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.Map.Entry;
+import java.util.Spliterator;
 import java.util.logging.Level;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
-import orestes.bloomfilter.BloomFilter;
-import orestes.bloomfilter.FilterBuilder;
 import utilities.AptaLogger;
 import utilities.Configuration;
 
@@ -75,18 +74,40 @@ public class MapDBSelectionCycle implements SelectionCycle{
 	/**
 	 * The initial space reserved on disk for each map 
 	 */
-	private Integer allocateStartSize = Configuration.getParameters().getInt("MapDBAllocateStartSize");
+	private Integer allocateStartSize = MapDBSettings.getAllocateStartSize("MapDBSelectionCycle");
 	
 	
 	/**
 	 * The amount by which each map will be incremented once it is full 
 	 */
-	private Integer allocateIncrement = Configuration.getParameters().getInt("MapDBAllocateIncrement");
+	private Integer allocateIncrement = MapDBSettings.getAllocateIncrement("MapDBSelectionCycle");
 	
 	/**
 	 * Bloom Filter for fast member lookup
 	 */
-	private transient BloomFilter<Integer> poolContent = new FilterBuilder(Configuration.getParameters().getInt("MapDBAptamerPool.bloomFilterCapacity"), Configuration.getParameters().getDouble("MapDBSelectionCycle.bloomFilterCollisionProbability")).buildBloomFilter();
+	private transient BlockedBloomFilter poolContent = new BlockedBloomFilter(Configuration.getParameters().getInt("MapDBAptamerPool.bloomFilterCapacity"), Configuration.getParameters().getDouble("MapDBSelectionCycle.bloomFilterCollisionProbability"));
+	
+	
+	/**
+	 * True if <code>poolContent</code> is sized for the unique aptamers of this cycle
+	 * rather than for the entire pool
+	 */
+	private transient boolean poolContentCompact = false;
+	
+	
+	/**
+	 * Suffix of the sidecar file storing <code>poolContent</code>, <code>size</code>, and <code>unique_size</code>
+	 */
+	private static final String CONTENT_FILE_SUFFIX = ".filters";
+	
+	private static final int CONTENT_VERSION = 1;
+	
+	
+	/**
+	 * True if the sidecar file reflects the current content of this cycle. It is removed
+	 * on the first modification and rewritten when the cycle is closed or set to read only.
+	 */
+	private transient boolean contentPersisted = false;
 	
 	
 	/**
@@ -144,8 +165,7 @@ public class MapDBSelectionCycle implements SelectionCycle{
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBSelectionCycle", 1) )
 			    .make();
 		
 		// Creating a new database
@@ -158,6 +178,8 @@ public class MapDBSelectionCycle implements SelectionCycle{
 					.keySerializer(Serializer.INTEGER)
 					.valueSerializer(Serializer.INTEGER)
 			        .create();
+			
+			SidecarFile.delete(getContentPath());
 		}
 		else { // we need to read from file and update class members
 			AptaLogger.log(Level.CONFIG, this.getClass(), "Reading from file '" + Paths.get(poolDataPath.toString(), cycleFileName).toFile() + "' for selection cycle " + name + ".");
@@ -178,13 +200,101 @@ public class MapDBSelectionCycle implements SelectionCycle{
 //				unique_size++;
 //			}
 			
-			poolContentCounts.forEach( (key,value) ->{
-				poolContent.add(key);
-				size += value;
-				unique_size++;
+			if (!readContent()) {
+				
+				poolContentCounts.forEach( (key,value) ->{
+					poolContent.add(key);
+					size += value;
+					unique_size++;
+				});
+				
+			}
+			
+		}
+	}
+	
+	/**
+	 * @return the location of the sidecar file of this cycle
+	 */
+	private Path getContentPath() {
+		
+		Path projectPath = Paths.get(Configuration.getParameters().getString("Experiment.projectPath"));
+		
+		return Paths.get(projectPath.toString(), "cycledata", round + "_" + name + CONTENT_FILE_SUFFIX);
+		
+	}
+	
+	/**
+	 * Restores <code>poolContent</code> and the counters from the sidecar file
+	 * @return true if the sidecar file was present and valid
+	 */
+	private boolean readContent() {
+		
+		int[] counts = new int[2];
+		BlockedBloomFilter persisted = SidecarFile.read(getContentPath(), CONTENT_VERSION, in -> {
+			
+			counts[0] = in.readInt();
+			counts[1] = in.readInt();
+			
+			return BlockedBloomFilter.read(in);
+			
+		});
+		
+		if (persisted == null) {
+			return false;
+		}
+		
+		poolContent = persisted;
+		size = counts[0];
+		unique_size = counts[1];
+		
+		poolContentCompact = true;
+		contentPersisted = true;
+		
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Restored content of selection cycle " + name + " from " + getContentPath().toString());
+		
+		return true;
+	}
+	
+	/**
+	 * Writes <code>poolContent</code> and the counters to the sidecar file. A bloom filter
+	 * which was sized for the entire pool is first replaced by one sized for this cycle.
+	 */
+	private synchronized void writeContent() {
+		
+		if (contentPersisted) {
+			return;
+		}
+		
+		if (!poolContentCompact) {
+			
+			BlockedBloomFilter compact = new BlockedBloomFilter(unique_size, Configuration.getParameters().getDouble("MapDBSelectionCycle.bloomFilterCollisionProbability"));
+			
+			Iterator<Integer> keyit = poolContentCounts.keyIterator();
+			while (keyit.hasNext()){
+				compact.add(keyit.next());
+			}
+			
+			poolContent = compact;
+			poolContentCompact = true;
+			
+		}
+		
+		try {
+			SidecarFile.write(getContentPath(), CONTENT_VERSION, out -> {
+				
+				out.writeInt(size);
+				out.writeInt(unique_size);
+				poolContent.write(out);
+				
 			});
 			
+			contentPersisted = true;
+		}
+		catch (IOException e) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not write the content of selection cycle " + name + ", it will be rebuilt on the next start. " + e.toString());
 		}
+		
 	}
 	
 	@Override
@@ -200,6 +310,12 @@ public class MapDBSelectionCycle implements SelectionCycle{
 		// Check if the aptamer is already present in the pool and add it if not
 		int id_a = Configuration.getExperiment().getAptamerPool().registerAptamer(a, rr_start, rr_end);
 		
+		// The persisted content no longer matches this cycle
+		if (contentPersisted) {
+			SidecarFile.delete(getContentPath());
+			contentPersisted = false;
+		}
+		
 		// Update the pool size
 		size+=count;
 				
@@ -217,7 +333,7 @@ public class MapDBSelectionCycle implements SelectionCycle{
 			
 			if (current_count == null){ // catch false positives
 				current_count = 0;
-				poolContent.add(id_a);
+				unique_size++;
 			}
 			poolContentCounts.put(id_a, current_count+count);
 			
@@ -379,6 +495,8 @@ public class MapDBSelectionCycle implements SelectionCycle{
 
 	public void setReadOnly() {
 		
+		writeContent();
+		
 		poolContentCounts.close();
 		
 		Path projectPath = Paths.get(Configuration.getParameters().getString("Experiment.projectPath"));
@@ -390,8 +508,7 @@ public class MapDBSelectionCycle implements SelectionCycle{
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBSelectionCycle", 1) )
 			    .readOnly()
 			    .make();
 
@@ -418,8 +535,7 @@ public class MapDBSelectionCycle implements SelectionCycle{
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBSelectionCycle", 1) )
 			    .make();
 
 		poolContentCounts = db.treeMap("map")
@@ -432,6 +548,9 @@ public class MapDBSelectionCycle implements SelectionCycle{
 	
 	
 	public void close(){
+		
+		writeContent();
+		
 		this.poolContentCounts.close();
 	}
 	
@@ -481,8 +600,7 @@ public class MapDBSelectionCycle implements SelectionCycle{
 			    .allocateStartSize( this.allocateStartSize )
 			    .allocateIncrement( this.allocateIncrement )
 			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-			    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-			    .executorEnable()
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBSelectionCycle", 1) )
 			    .readOnly()
 			    .make();
 
@@ -493,11 +611,16 @@ public class MapDBSelectionCycle implements SelectionCycle{
 	
 		// Fill the bloom filter. Since we know the precise size by now, and the maps are read only
 		// we can save resources by setting the size to the dbmap size
-		poolContent = new FilterBuilder(unique_size, Configuration.getParameters().getDouble("MapDBSelectionCycle.bloomFilterCollisionProbability")).buildBloomFilter();
-		
-		Iterator<Entry<Integer, Integer>> contentit = poolContentCounts.entryIterator();
-		while (contentit.hasNext()){
-			poolContent.add(contentit.next().getKey());
+		if (!readContent()) {
+			
+			poolContent = new BlockedBloomFilter(unique_size, Configuration.getParameters().getDouble("MapDBSelectionCycle.bloomFilterCollisionProbability"));
+			poolContentCompact = true;
+			
+			Iterator<Entry<Integer, Integer>> contentit = poolContentCounts.entryIterator();
+			while (contentit.hasNext()){
+				poolContent.add(contentit.next().getKey());
+			}
+			
 		}
 	}
 
@@ -580,6 +703,14 @@ public class MapDBSelectionCycle implements SelectionCycle{
 		return new IdIterator();
 	}
 
+	/**
+	 * Splits along the key range of the counts
+	 */
+	@Override
+	public Spliterator<Entry<Integer, Integer>> spliterator() {
+		return KeyRangeSpliterator.of(poolContentCounts, KeyRangeSpliterator.ofMap(poolContentCounts));
+	}
+
 	@Override
 	public void setBarcodeFivePrime(byte[] barcode) {
 		this.barcodeFive = barcode;
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.util.logging.Level;
+
+import utilities.AptaLogger;
+import utilities.Configuration;
+
+/**
+ * @author Jan Hoinka
+ * Resolves the <code>DBMaker</code> settings of the MapDB backed stores. Every store
+ * reads its settings from its own configuration keys, prefixed with the name of the
+ * store (e.g. <code>MapDBAptamerPool.concurrencyScale</code>):
+ *
+ * <code>concurrencyScale</code> the number of lock segments of each file, or <code>auto</code>
+ * to derive it from the number of threads feeding the store. MapDB rounds the value up
+ * to the next power of two.
+ *
+ * <code>allocateStartSize</code>, <code>allocateIncrement</code> the initial size and growth
+ * of each file in bytes. If absent, the global <code>MapDBAllocateStartSize</code> and
+ * <code>MapDBAllocateIncrement</code> are used.
+ */
+final class MapDBSettings {
+
+	/**
+	 * Upper limit on the number of lock segments in auto mode
+	 */
+	private static final int MAX_CONCURRENCY_SCALE = 256;
+
+	private MapDBSettings() {
+	}
+
+	/**
+	 * @param store the name of the store, i.e. the prefix of its configuration keys
+	 * @param segmentsPerThread the number of lock segments per thread in auto mode
+	 * @return the concurrency scale to pass to <code>DBMaker</code>
+	 */
+	static int getConcurrencyScale(String store, int segmentsPerThread) {
+
+		String key = store + ".concurrencyScale";
+		String value = Configuration.getParameters().getString(key, "auto").trim();
+
+		if (!value.equalsIgnoreCase("auto")) {
+			try {
+				int scale = Integer.parseInt(value);
+				if (scale > 0) {
+					return scale;
+				}
+			} catch (NumberFormatException e) {
+			}
+			AptaLogger.log(Level.WARNING, MapDBSettings.class, "Invalid value " + value + " for " + key + ", using auto instead.");
+		}
+
+		// Round up to the power of two MapDB will use anyway
+		int segments = Math.min(MAX_CONCURRENCY_SCALE, getThreads() * segmentsPerThread);
+		int scale = Integer.highestOneBit(segments);
+
+		return scale < segments ? scale << 1 : scale;
+	}
+
+	/**
+	 * @return the initial space reserved on disk for each file of <code>store</code>
+	 */
+	static int getAllocateStartSize(String store) {
+		return Configuration.getParameters().getInt(store + ".allocateStartSize", Configuration.getParameters().getInt("MapDBAllocateStartSize"));
+	}
+
+	/**
+	 * @return the amount by which each file of <code>store</code> grows once it is full
+	 */
+	static int getAllocateIncrement(String store) {
+		return Configuration.getParameters().getInt(store + ".allocateIncrement", Configuration.getParameters().getInt("MapDBAllocateIncrement"));
+	}
+
+	/**
+	 * @return the number of threads concurrently accessing the stores, identical to the
+	 * number of consumers started by <code>AptaPlexParser</code>
+	 */
+	static int getThreads() {
+		return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Configuration.getParameters().getInt("Performance.maxNumberOfCores")));
+	}
+
+}
@@ -5,6 +5,8 @@ package lib.aptamer.datastructures;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -16,12 +18,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
 import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
+import org.mapdb.serializer.GroupSerializerObjectArray;
 import org.mapdb.serializer.SerializerCompressionWrapper;
 
 import orestes.bloomfilter.BloomFilter;
@@ -42,6 +49,11 @@ import utilities.FileUtilities;
  * 
  * For RNAfold -p, the base pair probabilities are stored as a linearized upper triangular matrix (without the 
  * diagonal). Index conversion routines are available in the <code>utilities.Index</code> class.
+ * 
+ * Structures are stored in the <code>StructureEncoding</code> configured by <code>MapDBStructurePool.encoding</code>
+ * at the time the pool was created. The encoding is recorded in the file <code>encoding</code> inside the pool 
+ * folder. Pools without this file predate the encodings and store compressed <code>double[]</code>s, which remain 
+ * readable and writable.
  */
 public class MapDBStructurePool implements StructurePool {
 
@@ -82,7 +94,22 @@ public class MapDBStructurePool implements StructurePool {
 	/**
 	 * The structural data of the aptamer 
 	 */
-	private transient List<BTreeMap<Integer, double[]>> structureData = new ArrayList<BTreeMap<Integer, double[]>>();
+	private transient List<BTreeMap<Integer, byte[]>> structureData = new ArrayList<BTreeMap<Integer, byte[]>>();
+	
+	/**
+	 * Name of the file in <code>structureDataPath</code> recording the encoding of the structures
+	 */
+	private static final String ENCODING_FILE = "encoding";
+	
+	/**
+	 * The encoding of newly registered structures
+	 */
+	private StructureEncoding encoding = StructureEncoding.DOUBLE;
+	
+	/**
+	 * True if the pool predates the encodings and stores compressed <code>double[]</code>s
+	 */
+	private boolean legacy = false;
 	
 	
 	/**
@@ -98,13 +125,13 @@ public class MapDBStructurePool implements StructurePool {
 	/**
 	 * The initial space reserved on disk for each map 
 	 */
-	private Integer allocateStartSize = Configuration.getParameters().getInt("MapDBAllocateStartSize");
+	private Integer allocateStartSize = MapDBSettings.getAllocateStartSize("MapDBStructurePool");
 	
 	
 	/**
 	 * The amount by which each map will be incremented once it is full 
 	 */
-	private Integer allocateIncrement = Configuration.getParameters().getInt("MapDBAllocateIncrement");
+	private Integer allocateIncrement = MapDBSettings.getAllocateIncrement("MapDBStructurePool");
 	
 	/**
 	 * Number of element found on disk
@@ -154,7 +181,7 @@ public class MapDBStructurePool implements StructurePool {
 			try {
 				
 				// this will fail if the directory does not exist
-				structureDataDirStream = Files.newDirectoryStream(Paths.get(structureDataPath.toString()));
+				structureDataDirStream = Files.newDirectoryStream(Paths.get(structureDataPath.toString()), "data*");
 				sorted_paths = FileUtilities.getSortedPaths(structureDataDirStream);
 				
 			} catch(Exception e) {
@@ -180,6 +207,17 @@ public class MapDBStructurePool implements StructurePool {
 			
 			AptaLogger.log(Level.INFO, this.getClass(), "Found a total of " + sorted_paths.size() + " files on disk.");
 
+			// Determine the format of the existing data
+			Path encodingFile = Paths.get(structureDataPath.toString(), ENCODING_FILE);
+			if (Files.isRegularFile(encodingFile)) {
+				this.encoding = StructureEncoding.fromString(new String(Files.readAllBytes(encodingFile), StandardCharsets.UTF_8));
+			}
+			else {
+				this.legacy = true;
+			}
+			
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Structure encoding: " + (legacy ? "legacy" : encoding.toString()));
+
 				
 			for (Path file : sorted_paths) {
                 
@@ -188,7 +226,7 @@ public class MapDBStructurePool implements StructurePool {
     				
     				AptaLogger.log(Level.INFO, this.getClass(), "Processing file " + file.toString());
     				
-    				BTreeMap<Integer, double[]> dbmap = null;
+    				BTreeMap<Integer, byte[]> dbmap = null;
     				DB db_structure = null;
     				
     				try {
@@ -200,14 +238,13 @@ public class MapDBStructurePool implements StructurePool {
     						    .fileMmapPreclearDisable() // Make mmap file faster
     						  //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 														//Note that this is not compatible with MacOS and Java 9...
-    						    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-    						    .executorEnable()
+    						    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBStructurePool", 1) )
     						    .make();
     					
     					dbmap = db_structure.treeMap("map")
     								.valuesOutsideNodesEnable()
     								.keySerializer(Serializer.INTEGER)
-    								.valueSerializer(new SerializerCompressionWrapper(Serializer.DOUBLE_ARRAY))
+    								.valueSerializer(valueSerializer())
     						        .open();
     				}
     				
@@ -268,6 +305,12 @@ public class MapDBStructurePool implements StructurePool {
 			// Check if the data path exists, and if not create it
 			this.structureDataPath = Files.createDirectories(Paths.get(this.projectPath.toString(), poolName)); 
 			
+			// Record the encoding used for this pool
+			this.encoding = StructureEncoding.fromString(Configuration.getParameters().getString("MapDBStructurePool.encoding"));
+			Files.write(Paths.get(structureDataPath.toString(), ENCODING_FILE), encoding.name().getBytes(StandardCharsets.UTF_8));
+			
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Structure encoding: " + encoding.toString());
+			
 			DB db_structure = DBMaker
 				    .fileDB(Paths.get(structureDataPath.toString(), "data" + String.format("%04d", structureData.size()) + ".mapdb").toFile())
 				    .allocateStartSize( this.allocateStartSize )
@@ -276,14 +319,13 @@ public class MapDBStructurePool implements StructurePool {
 				    .fileMmapPreclearDisable() // Make mmap file faster
 				  //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 											//Note that this is not compatible with MacOS and Java 9...
-				    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-				    .executorEnable()
+				    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBStructurePool", 1) )
 				    .make();
 	
-			BTreeMap<Integer, double[]> dbmap = db_structure.treeMap("map")
+			BTreeMap<Integer, byte[]> dbmap = db_structure.treeMap("map")
 					.valuesOutsideNodesEnable()
 					.keySerializer(Serializer.INTEGER)
-					.valueSerializer(new SerializerCompressionWrapper(Serializer.DOUBLE_ARRAY))
+					.valueSerializer(valueSerializer())
 			        .create();
 			
 			structureDataPaths.add(Paths.get(structureDataPath.toString(), "data" + String.format("%04d", structureData.size()) + ".mapdb"));
@@ -329,14 +371,13 @@ public class MapDBStructurePool implements StructurePool {
 				  //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 											//Note that this is not compatible with MacOS and Java 9...
 				    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
-				    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-				    .executorEnable()
+				    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBStructurePool", 1) )
 				    .make();
 
-			BTreeMap<Integer, double[]> dbmap = db_structure.treeMap("map")
+			BTreeMap<Integer, byte[]> dbmap = db_structure.treeMap("map")
 					.valuesOutsideNodesEnable()
 					.keySerializer(Serializer.INTEGER)
-					.valueSerializer(new SerializerCompressionWrapper(Serializer.DOUBLE_ARRAY))
+					.valueSerializer(valueSerializer())
 			        .create();
 
 			structureDataPaths.add(Paths.get(structureDataPath.toString(), "data" + String.format("%04d", structureData.size()) + ".mapdb"));
@@ -351,7 +392,7 @@ public class MapDBStructurePool implements StructurePool {
 
 		// Now insert the sequence
 		structureDataSize++;
-		structureData.get(structureDataIndex).put(id,structure);
+		structureData.get(structureDataIndex).put(id,encoding.encode(structure));
 		this.globalStructureDataFilter.add(id);
 		this.structureDataFilter.get(structureDataIndex).add(id);
 		
@@ -363,15 +404,39 @@ public class MapDBStructurePool implements StructurePool {
 	@Override
 	public double[] getStructure(int id) {
 
+		byte[] structure = getEncodedStructure(id);
+		
+		return structure == null ? null : StructureEncoding.decode(structure);
+		
+	}
+	
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.StructurePool#getStructure(int, double[])
+	 */
+	@Override
+	public int getStructure(int id, double[] buffer) {
+		
+		byte[] structure = getEncodedStructure(id);
+		
+		return structure == null ? -1 : StructureEncoding.decode(structure, buffer);
+		
+	}
+	
+	/**
+	 * @param id the unique identifier corresponding to the aptamer in question
+	 * @return the structure of the aptamer as stored on disk, null if the id does not exist in the pool 
+	 */
+	private byte[] getEncodedStructure(int id) {
+
 		// Check for existence using bloom filter. 
 		if (!this.globalStructureDataFilter.contains(id)){
 			return null; // This result is always accurate (no false negatives)
 		}
 		
-		double[] structure = null;
+		byte[] structure = null;
 		
 		// Iterate over all treeMaps and bloomFilters
-		ListIterator<BTreeMap<Integer,double[]>> lim = structureData.listIterator(structureData.size());
+		ListIterator<BTreeMap<Integer,byte[]>> lim = structureData.listIterator(structureData.size());
 		ListIterator<BloomFilter<Integer>> lib = this.structureDataFilter.listIterator(structureData.size());
 		
 		// Iterate in reverse
@@ -399,7 +464,7 @@ public class MapDBStructurePool implements StructurePool {
 	public void close(){
 		
 		// Iterate over each TreeMap instance and close it
-		ListIterator<BTreeMap<Integer, double[]>> li = structureData.listIterator(structureData.size());
+		ListIterator<BTreeMap<Integer, byte[]>> li = structureData.listIterator(structureData.size());
 
 		// Iterate in reverse
 		while(li.hasPrevious()) {
@@ -436,15 +501,14 @@ public class MapDBStructurePool implements StructurePool {
 					    .fileMmapPreclearDisable() // Make mmap file faster
 					  //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 												//Note that this is not compatible with MacOS and Java 9...
-					    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-					    .executorEnable()
+					    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBStructurePool", 1) )
 					    .readOnly()
 					    .make();
 
-				BTreeMap<Integer, double[]> dbmap = db.treeMap("map")
+				BTreeMap<Integer, byte[]> dbmap = db.treeMap("map")
 						.valuesOutsideNodesEnable()
 						.keySerializer(Serializer.INTEGER)
-						.valueSerializer(new SerializerCompressionWrapper(Serializer.DOUBLE_ARRAY))
+						.valueSerializer(valueSerializer())
 				        .open();
 				
 				structureData.add(dbmap);
@@ -482,14 +546,13 @@ public class MapDBStructurePool implements StructurePool {
 					    .fileMmapPreclearDisable() // Make mmap file faster
 					  //.cleanerHackEnable() 	// Unmap (release resources) file when its closed. 
 												//Note that this is not compatible with MacOS and Java 9...
-					    .concurrencyScale(8) // TODO: Number of threads make this a parameter?
-					    .executorEnable()
+					    .concurrencyScale( MapDBSettings.getConcurrencyScale("MapDBStructurePool", 1) )
 					    .make();
 
-				BTreeMap<Integer, double[]> dbmap = db.treeMap("map")
+				BTreeMap<Integer, byte[]> dbmap = db.treeMap("map")
 						.valuesOutsideNodesEnable()
 						.keySerializer(Serializer.INTEGER)
-						.valueSerializer(new SerializerCompressionWrapper(Serializer.DOUBLE_ARRAY))
+						.valueSerializer(valueSerializer())
 				        .open();
 				
 				structureData.add(dbmap);
@@ -590,6 +653,104 @@ public class MapDBStructurePool implements StructurePool {
 	}
 
 
+	/**
+	 * Traverses the files in order. Since each file holds a consecutive range of ids
+	 * in a BTree, this yields the structures in ascending order of their ids.
+	 */
+	@Override
+	public Iterable<Entry<Integer, double[]>> sorted_iterator() {
+		
+		return () -> new Iterator<Entry<Integer, double[]>>() {
+			
+			private int currentTreeMapIndex = 0;
+			private Iterator<Entry<Integer, byte[]>> currentTreeMapIterator = structureData.isEmpty() ? Collections.<Entry<Integer, byte[]>>emptyIterator() : structureData.get(0).entryIterator();
+			
+			@Override
+			public boolean hasNext() {
+				
+				// Move on to the next map if all items from the previous have been iterated over
+				while (!currentTreeMapIterator.hasNext() && currentTreeMapIndex < structureData.size()-1) {
+					currentTreeMapIndex++;
+					currentTreeMapIterator = structureData.get(currentTreeMapIndex).entryIterator();
+				}
+				
+				return currentTreeMapIterator.hasNext();
+			}
+			
+			@Override
+			public Entry<Integer, double[]> next() {
+				
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				Entry<Integer, byte[]> entry = currentTreeMapIterator.next();
+				
+				return new AbstractMap.SimpleEntry<Integer, double[]>(entry.getKey(), StructureEncoding.decode(entry.getValue()));
+			}
+			
+		};
+		
+	}
+
+
+	/**
+	 * @return the serializer for the values of <code>structureData</code> matching the format on disk
+	 */
+	private GroupSerializer<byte[]> valueSerializer() {
+		
+		if (legacy) {
+			return new LegacySerializer(new SerializerCompressionWrapper<double[]>(Serializer.DOUBLE_ARRAY));
+		}
+		
+		return Serializer.BYTE_ARRAY;
+	}
+	
+	
+	/**
+	 * @author Jan Hoinka
+	 * Stores encoded structures in the format of pools which were created before structures were 
+	 * encoded. Structures are converted to and from <code>double[]</code>s, such that the
+	 * records remain compatible with the data on disk.
+	 */
+	private static class LegacySerializer extends GroupSerializerObjectArray<byte[]> implements Serializable {
+		
+		private static final long serialVersionUID = 4962115024834175092L;
+		
+		private GroupSerializer<double[]> serializer;
+		
+		LegacySerializer(GroupSerializer<double[]> serializer) {
+			this.serializer = serializer;
+		}
+
+		@Override
+		public void serialize(DataOutput2 out, byte[] value) throws IOException {
+			serializer.serialize(out, StructureEncoding.decode(value));
+		}
+
+		@Override
+		public byte[] deserialize(DataInput2 in, int available) throws IOException {
+			return StructureEncoding.DOUBLE.encode(serializer.deserialize(in, available));
+		}
+		
+		@Override
+		public boolean isTrusted() {
+			return serializer.isTrusted();
+		}
+		
+		@Override
+		public boolean needsAvailableSizeHint() {
+			return serializer.needsAvailableSizeHint();
+		}
+
+		@Override
+		public int compare(byte[] first, byte[] second) {
+			return Serializer.BYTE_ARRAY.compare(first, second);
+		}
+		
+	}
+	
+	
 	@Override
 	public void commitStructures() {
 
@@ -0,0 +1,222 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Memory mapping of a file of arbitrary size. Since a single <code>MappedByteBuffer</code>
+ * is limited to 2GB, the file is mapped in chunks of <code>CHUNK_SIZE</code> bytes.
+ * Only absolute accessors are used, hence concurrent reads are safe.
+ *
+ * Primitive values must be aligned to their size so that they never span two chunks.
+ *
+ * The JDK releases a mapping only once its buffer is garbage collected, which keeps the
+ * file open and, on Windows, prevents it from being deleted or resized. <code>close()</code>
+ * therefore unmaps the chunks explicitly, similar to MapDB's <code>cleanerHackEnable()</code>.
+ */
+class MappedFile {
+
+	/**
+	 * Size of the individual mappings, a multiple of 8
+	 */
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private MappedByteBuffer[] chunks;
+
+	private long size;
+
+	/**
+	 * Releases the mapping of a buffer
+	 */
+	private interface Unmapper {
+		void unmap(MappedByteBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * Null if the JDK does not permit unmapping
+	 */
+	private static final Unmapper UNMAPPER = createUnmapper();
+
+	/**
+	 * Maps <code>file</code> into memory
+	 * @param file the file to map
+	 * @param size the number of bytes to map. If <code>writable</code> is true, the
+	 * file is created or resized to this size
+	 * @param writable whether the mapping should be writable
+	 * @throws IOException
+	 */
+	MappedFile(Path file, long size, boolean writable) throws IOException {
+
+		this.size = size;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), writable ? "rw" : "r")) {
+
+			if (writable) {
+				raf.setLength(size);
+			}
+
+			FileChannel channel = raf.getChannel();
+
+			chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				long offset = i * CHUNK_SIZE;
+				chunks[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, size - offset));
+			}
+
+		}
+
+	}
+
+	long size() {
+		return size;
+	}
+
+	long getLong(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+	}
+
+	int getInt(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+	}
+
+	/**
+	 * Copies <code>destination.length</code> bytes starting at <code>position</code> into <code>destination</code>
+	 */
+	void get(long position, byte[] destination) {
+		get(position, destination, destination.length);
+	}
+
+	/**
+	 * Copies <code>length</code> bytes starting at <code>position</code> into the beginning of <code>destination</code>
+	 */
+	void get(long position, byte[] destination, int length) {
+
+		for (int i = 0; i < length; i++, position++) {
+			destination[i] = chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+		}
+
+	}
+
+	/**
+	 * Copies <code>length</code> ints starting at <code>position</code> into <code>destination</code>
+	 * starting at <code>offset</code>
+	 */
+	void getInts(long position, int[] destination, int offset, int length) {
+
+		while (length > 0) {
+
+			ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (position & CHUNK_MASK));
+
+			int count = Math.min(length, chunk.remaining() >>> 2);
+			chunk.asIntBuffer().get(destination, offset, count);
+
+			position += count * 4L;
+			offset += count;
+			length -= count;
+
+		}
+
+	}
+
+	void putLong(long position, long value) {
+		chunks[(int) (position >>> CHUNK_BITS)].putLong((int) (position & CHUNK_MASK), value);
+	}
+
+	void putInt(long position, int value) {
+		chunks[(int) (position >>> CHUNK_BITS)].putInt((int) (position & CHUNK_MASK), value);
+	}
+
+	/**
+	 * Writes any changes of a writable mapping to disk
+	 */
+	void force() {
+
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+
+	}
+
+	/**
+	 * Releases the mapping. Any access through this instance afterwards fails, and the caller
+	 * must make sure that no other thread is still reading from it, as accessing an unmapped
+	 * buffer crashes the JVM. If the JDK does not permit unmapping, the mapping is released
+	 * once the buffers are garbage collected.
+	 */
+	void close() {
+
+		MappedByteBuffer[] released = chunks;
+		chunks = new MappedByteBuffer[0];
+		size = 0;
+
+		if (UNMAPPER == null) {
+			return;
+		}
+
+		for (MappedByteBuffer chunk : released) {
+			try {
+				UNMAPPER.unmap(chunk);
+			} catch (Exception e) {
+				AptaLogger.log(Level.WARNING, MappedFile.class, "Could not unmap buffer, " + e.toString());
+				return;
+			}
+		}
+
+	}
+
+	/**
+	 * @return the means to unmap buffers on the running JDK, null if there is none
+	 */
+	private static Unmapper createUnmapper() {
+
+		// Java 9 and later
+		try {
+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+
+		} catch (Exception e) {
+		}
+
+		// Java 8
+		try {
+
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+
+			return buffer -> {
+				Object c = cleaner.invoke(buffer);
+				if (c != null) {
+					clean.invoke(c);
+				}
+			};
+
+		} catch (Exception e) {
+			AptaLogger.log(Level.CONFIG, MappedFile.class, "Memory mapped files cannot be unmapped explicitly on this JDK, " + e.toString());
+		}
+
+		return null;
+	}
+
+}
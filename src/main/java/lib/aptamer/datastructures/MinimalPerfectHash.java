@@ -0,0 +1,332 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * @author Jan Hoinka
+ * Minimal perfect hash function over a static set of 64 bit keys following
+ * the BBHash construction (Limasset et al., 2017). Each level is a bit array of
+ * <code>gamma</code> times the number of keys still to be placed. Keys which hash
+ * to a position no other key of the same level hashes to are placed at that
+ * position, all others are passed on to the next level. The slot of a key is the
+ * rank of its bit over all levels, i.e. slots are in [0, size).
+ *
+ * The structure requires about 3 bits per key for <code>gamma=2</code>. Keys
+ * which cannot be placed after <code>MAX_LEVELS</code> levels, including
+ * duplicates, are stored in a small hash map.
+ *
+ * Keys that are not part of the set map to an arbitrary slot or to
+ * <code>NOT_FOUND</code>, hence membership must be verified by the caller.
+ */
+public class MinimalPerfectHash {
+
+	/**
+	 * Returned by <code>lookup</code> for keys which are certainly not part of the set
+	 */
+	public static final long NOT_FOUND = -1;
+
+	/**
+	 * Returned by <code>lookup</code> for keys which occurred more than once during construction
+	 */
+	public static final long AMBIGUOUS = -2;
+
+	private static final int MAX_LEVELS = 32;
+
+	/**
+	 * Number of 64 bit words covered by one entry of the rank table
+	 */
+	private static final int RANK_BLOCK = 8;
+
+	/**
+	 * Number of keys
+	 */
+	private long size;
+
+	/**
+	 * Bit arrays of all levels, concatenated
+	 */
+	private long[] bits;
+
+	/**
+	 * Start of each level in <code>bits</code>, in bits. Contains one additional entry marking the end.
+	 */
+	private long[] levelOffsets;
+
+	/**
+	 * Number of set bits preceding each block of <code>RANK_BLOCK</code> words
+	 */
+	private long[] ranks;
+
+	/**
+	 * Keys which could not be placed in any level and their slots
+	 */
+	private Long2IntOpenHashMap fallback;
+
+
+	private MinimalPerfectHash() {
+	}
+
+	/**
+	 * Constructs the hash function
+	 * @param keys the keys, the array is not modified
+	 * @param gamma space/time trade off, values around 2 are recommended
+	 */
+	public MinimalPerfectHash(long[] keys, double gamma) {
+
+		this.size = keys.length;
+
+		long[][] levels = new long[MAX_LEVELS][];
+		long[] offsets = new long[MAX_LEVELS + 1];
+		int numberOfLevels = 0;
+
+		long[] remaining = keys;
+		int remainingSize = keys.length;
+
+		while (remainingSize > 0 && numberOfLevels < MAX_LEVELS) {
+
+			long levelSize = Math.max(64, ((long) Math.ceil(gamma * remainingSize) + 63) & ~63L);
+			long[] placed = new long[(int) (levelSize >>> 6)];
+			long[] collisions = new long[placed.length];
+
+			for (int i = 0; i < remainingSize; i++) {
+				long position = position(remaining[i], numberOfLevels, levelSize);
+				if (get(placed, position)) {
+					set(collisions, position);
+				} else {
+					set(placed, position);
+				}
+			}
+
+			for (int i = 0; i < placed.length; i++) {
+				placed[i] &= ~collisions[i];
+			}
+
+			// move the keys which collided to the front of the array for the next level
+			int next = 0;
+			for (int i = 0; i < remainingSize; i++) {
+				if (get(collisions, position(remaining[i], numberOfLevels, levelSize))) {
+					if (remaining == keys && next == 0) {
+						remaining = Arrays.copyOf(keys, remainingSize);
+					}
+					remaining[next++] = remaining[i];
+				}
+			}
+
+			levels[numberOfLevels] = placed;
+			offsets[numberOfLevels + 1] = offsets[numberOfLevels] + levelSize;
+			numberOfLevels++;
+			remainingSize = next;
+
+		}
+
+		// concatenate the levels and compute the rank table
+		levelOffsets = Arrays.copyOf(offsets, numberOfLevels + 1);
+		bits = new long[(int) (levelOffsets[numberOfLevels] >>> 6)];
+		for (int l = 0; l < numberOfLevels; l++) {
+			System.arraycopy(levels[l], 0, bits, (int) (levelOffsets[l] >>> 6), levels[l].length);
+		}
+		computeRanks();
+
+		// the remaining keys are placed after all levels
+		long placedKeys = ranks[ranks.length - 1];
+		fallback = new Long2IntOpenHashMap(remainingSize);
+		fallback.defaultReturnValue((int) NOT_FOUND);
+		for (int i = 0; i < remainingSize; i++) {
+			if (fallback.containsKey(remaining[i])) {
+				fallback.put(remaining[i], (int) AMBIGUOUS);
+			} else {
+				fallback.put(remaining[i], (int) (placedKeys + fallback.size()));
+			}
+		}
+
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>
+	 * @param key
+	 * @return a value in [0, size) or <code>NOT_FOUND</code> if the key was not part of
+	 * the set. Keys which were part of the set more than once yield <code>AMBIGUOUS</code>.
+	 */
+	public long lookup(long key) {
+
+		for (int l = 0; l < levelOffsets.length - 1; l++) {
+
+			long position = levelOffsets[l] + position(key, l, levelOffsets[l + 1] - levelOffsets[l]);
+			if (get(bits, position)) {
+				return rank(position);
+			}
+
+		}
+
+		return fallback.get(key);
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bits used per key
+	 */
+	public double bitsPerKey() {
+		return size == 0 ? 0 : (64.0 * (bits.length + ranks.length) + 96.0 * fallback.size()) / size;
+	}
+
+	/**
+	 * Writes this instance to <code>out</code>
+	 */
+	public void write(DataOutputStream out) throws IOException {
+
+		out.writeLong(size);
+
+		out.writeInt(levelOffsets.length);
+		for (long offset : levelOffsets) {
+			out.writeLong(offset);
+		}
+
+		out.writeInt(bits.length);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+
+		out.writeInt(fallback.size());
+		for (Long2IntOpenHashMap.Entry entry : fallback.long2IntEntrySet()) {
+			out.writeLong(entry.getLongKey());
+			out.writeInt(entry.getIntValue());
+		}
+
+	}
+
+	/**
+	 * Reads an instance previously stored with <code>write</code>
+	 */
+	public static MinimalPerfectHash read(DataInputStream in) throws IOException {
+
+		MinimalPerfectHash mph = new MinimalPerfectHash();
+
+		mph.size = in.readLong();
+
+		mph.levelOffsets = new long[in.readInt()];
+		for (int i = 0; i < mph.levelOffsets.length; i++) {
+			mph.levelOffsets[i] = in.readLong();
+		}
+
+		mph.bits = new long[in.readInt()];
+		for (int i = 0; i < mph.bits.length; i++) {
+			mph.bits[i] = in.readLong();
+		}
+		mph.computeRanks();
+
+		int fallbackSize = in.readInt();
+		mph.fallback = new Long2IntOpenHashMap(fallbackSize);
+		mph.fallback.defaultReturnValue((int) NOT_FOUND);
+		for (int i = 0; i < fallbackSize; i++) {
+			mph.fallback.put(in.readLong(), in.readInt());
+		}
+
+		return mph;
+	}
+
+	/**
+	 * 64 bit hash of a byte array (MurmurHash64A)
+	 */
+	public static long hash(byte[] data) {
+
+		final long m = 0xc6a4a7935bd1e995L;
+		final int r = 47;
+
+		long h = 0x2f6b9b1a0c3e5d47L ^ (data.length * m);
+
+		int blocks = data.length / 8;
+		for (int i = 0; i < blocks; i++) {
+
+			int o = i * 8;
+			long k = (data[o] & 0xffL) | (data[o + 1] & 0xffL) << 8 | (data[o + 2] & 0xffL) << 16 | (data[o + 3] & 0xffL) << 24
+					| (data[o + 4] & 0xffL) << 32 | (data[o + 5] & 0xffL) << 40 | (data[o + 6] & 0xffL) << 48 | (data[o + 7] & 0xffL) << 56;
+
+			k *= m;
+			k ^= k >>> r;
+			k *= m;
+
+			h ^= k;
+			h *= m;
+		}
+
+		int tail = blocks * 8;
+		if (tail < data.length) {
+			for (int i = data.length - 1; i >= tail; i--) {
+				h ^= (data[i] & 0xffL) << (8 * (i - tail));
+			}
+			h *= m;
+		}
+
+		h ^= h >>> r;
+		h *= m;
+		h ^= h >>> r;
+
+		return h;
+	}
+
+	/**
+	 * Position of <code>key</code> within level <code>level</code> of size <code>levelSize</code>
+	 */
+	private static long position(long key, int level, long levelSize) {
+
+		long x = key + (level + 1) * 0x9E3779B97F4A7C15L;
+		x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+		x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+
+		return Long.remainderUnsigned(x, levelSize);
+	}
+
+	private void computeRanks() {
+
+		ranks = new long[(bits.length + RANK_BLOCK - 1) / RANK_BLOCK + 1];
+
+		long count = 0;
+		for (int i = 0; i < bits.length; i++) {
+			if (i % RANK_BLOCK == 0) {
+				ranks[i / RANK_BLOCK] = count;
+			}
+			count += Long.bitCount(bits[i]);
+		}
+		ranks[ranks.length - 1] = count;
+
+	}
+
+	/**
+	 * @return the number of set bits before <code>position</code>
+	 */
+	private long rank(long position) {
+
+		int word = (int) (position >>> 6);
+
+		long rank = ranks[word / RANK_BLOCK];
+		for (int i = word - word % RANK_BLOCK; i < word; i++) {
+			rank += Long.bitCount(bits[i]);
+		}
+
+		return rank + Long.bitCount(bits[word] & ((1L << (position & 63)) - 1));
+	}
+
+	private static boolean get(long[] bits, long position) {
+		return (bits[(int) (position >>> 6)] & (1L << (position & 63))) != 0;
+	}
+
+	private static void set(long[] bits, long position) {
+		bits[(int) (position >>> 6)] |= 1L << (position & 63);
+	}
+
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * @author Jan Hoinka
+ * Immutable nucleotide sequence storing two bits per base. Bases are
+ * stored in order from the most significant bits of the first word, 32 bases per
+ * <code>long</code>. Hashing, equality, and comparison operate on the packed
+ * words directly, hence lookups do not require the sequence to be decoded.
+ *
+ * Sequences containing characters other than A, C, G, and T cannot be packed.
+ * These are kept verbatim so that any <code>byte[]</code> can be represented.
+ */
+public final class PackedSequence implements Comparable<PackedSequence>, Serializable {
+
+	private static final long serialVersionUID = -3170186743867981453L;
+
+	/**
+	 * Number of bases per word
+	 */
+	public static final int BASES_PER_WORD = 32;
+
+	/**
+	 * Maps ASCII characters to their 2-bit code, -1 for characters which cannot be packed
+	 */
+	private static final byte[] CODE = new byte[256];
+	static {
+		Arrays.fill(CODE, (byte) -1);
+		CODE['A'] = 0;
+		CODE['C'] = 1;
+		CODE['G'] = 2;
+		CODE['T'] = 3;
+	}
+
+	/**
+	 * Maps 2-bit codes back to ASCII
+	 */
+	private static final byte[] BASE = { 'A', 'C', 'G', 'T' };
+
+	/**
+	 * Number of nucleotides in the sequence
+	 */
+	private final int length;
+
+	/**
+	 * The packed bases, null if the sequence could not be packed
+	 */
+	private final long[] words;
+
+	/**
+	 * The unpacked sequence if it contains characters other than A, C, G, and T, null otherwise
+	 */
+	private final byte[] raw;
+
+
+	private PackedSequence(int length, long[] words, byte[] raw) {
+		this.length = length;
+		this.words = words;
+		this.raw = raw;
+	}
+
+	/**
+	 * Packs the sequence <code>a</code>
+	 * @param a the sequence in ASCII encoding
+	 * @return the packed representation of <code>a</code>
+	 */
+	public static PackedSequence pack(byte[] a) {
+
+		long[] words = new long[(a.length + BASES_PER_WORD - 1) / BASES_PER_WORD];
+
+		for (int i = 0; i < a.length; i++) {
+
+			int code = CODE[a[i] & 0xff];
+			if (code == -1) {
+				return new PackedSequence(a.length, null, a.clone());
+			}
+
+			words[i / BASES_PER_WORD] |= ((long) code) << shift(i);
+		}
+
+		return new PackedSequence(a.length, words, null);
+	}
+
+	/**
+	 * @see PackedSequence#pack(byte[])
+	 */
+	public static PackedSequence pack(String a) {
+		return pack(a.getBytes());
+	}
+
+	/**
+	 * Decodes the sequence to ASCII
+	 * @return a new array containing the sequence
+	 */
+	public byte[] unpack() {
+
+		if (raw != null) {
+			return raw.clone();
+		}
+
+		byte[] a = new byte[length];
+		for (int i = 0; i < length; i++) {
+			a[i] = BASE[(int) (words[i / BASES_PER_WORD] >>> shift(i)) & 3];
+		}
+
+		return a;
+	}
+
+	/**
+	 * @return the number of nucleotides in this sequence
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return true if the bases are stored with 2 bits each
+	 */
+	public boolean isPacked() {
+		return raw == null;
+	}
+
+	/**
+	 * Returns the compact binary form of this sequence, 4 bases per byte for
+	 * packed sequences and verbatim otherwise. The length header is not included.
+	 */
+	public byte[] toByteArray() {
+
+		if (raw != null) {
+			return raw.clone();
+		}
+
+		byte[] b = new byte[packedSize(length)];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) (words[i / 8] >>> (56 - 8 * (i % 8)));
+		}
+
+		return b;
+	}
+
+	/**
+	 * Returns the binary form of this sequence followed by its length, such
+	 * that sequences differing only in trailing A's are distinguished. Suitable
+	 * as input to hash functions such as bloom filters.
+	 */
+	public byte[] toKeyBytes() {
+
+		byte[] b = toByteArray();
+		byte[] key = Arrays.copyOf(b, b.length + 4);
+		for (int i = 0; i < 4; i++) {
+			key[b.length + i] = (byte) ((raw == null ? length : ~length) >>> (24 - 8 * i));
+		}
+
+		return key;
+	}
+
+	/**
+	 * Inverse of <code>toByteArray()</code>
+	 * @param length the number of nucleotides
+	 * @param packed whether <code>b</code> contains packed bases or the verbatim sequence
+	 * @param b the binary form
+	 */
+	public static PackedSequence fromByteArray(int length, boolean packed, byte[] b) {
+
+		if (!packed) {
+			return new PackedSequence(length, null, b);
+		}
+
+		long[] words = new long[(length + BASES_PER_WORD - 1) / BASES_PER_WORD];
+		for (int i = 0; i < b.length; i++) {
+			words[i / 8] |= (b[i] & 0xffL) << (56 - 8 * (i % 8));
+		}
+
+		return new PackedSequence(length, words, null);
+	}
+
+	/**
+	 * Decodes the binary form of a packed sequence directly to ASCII without
+	 * creating an intermediate <code>PackedSequence</code>
+	 * @param length the number of nucleotides
+	 * @param b the result of <code>toByteArray()</code> of a packed sequence
+	 */
+	public static byte[] unpack(int length, byte[] b) {
+
+		byte[] a = new byte[length];
+		for (int i = 0; i < length; i++) {
+			a[i] = BASE[(b[i / 4] >>> (6 - 2 * (i % 4))) & 3];
+		}
+
+		return a;
+	}
+
+	/**
+	 * @return the number of bytes required to store <code>length</code> packed bases
+	 */
+	public static int packedSize(int length) {
+		return (length + 3) / 4;
+	}
+
+	/**
+	 * @return the bit offset of base <code>i</code> within its word
+	 */
+	private static int shift(int i) {
+		return 62 - 2 * (i % BASES_PER_WORD);
+	}
+
+	@Override
+	public int hashCode() {
+
+		int h = raw != null ? Arrays.hashCode(raw) : Arrays.hashCode(words);
+
+		return 31 * h + length;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PackedSequence)) {
+			return false;
+		}
+
+		PackedSequence other = (PackedSequence) o;
+
+		return length == other.length && Arrays.equals(words, other.words) && Arrays.equals(raw, other.raw);
+	}
+
+	/**
+	 * Orders packed sequences lexicographically by their bases (A < C < G < T),
+	 * shorter sequences first among equal prefixes. Sequences which cannot be
+	 * packed are ordered after all packed sequences.
+	 */
+	@Override
+	public int compareTo(PackedSequence o) {
+
+		if (raw != null || o.raw != null) {
+			if (raw == null) return -1;
+			if (o.raw == null) return 1;
+
+			int l = Math.min(raw.length, o.raw.length);
+			for (int i = 0; i < l; i++) {
+				if (raw[i] != o.raw[i]) return Byte.compare(raw[i], o.raw[i]);
+			}
+			return Integer.compare(raw.length, o.raw.length);
+		}
+
+		// trailing bits of the last word are zero, so words can be compared as unsigned numbers
+		int w = Math.min(words.length, o.words.length);
+		for (int i = 0; i < w; i++) {
+			if (words[i] != o.words[i]) return Long.compareUnsigned(words[i], o.words[i]);
+		}
+
+		return Integer.compare(length, o.length);
+	}
+
+	@Override
+	public String toString() {
+		return new String(unpack());
+	}
+
+}
@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+import org.mapdb.serializer.GroupSerializerObjectArray;
+
+/**
+ * @author Jan Hoinka
+ * MapDB serializer for <code>PackedSequence</code>. Each record consists of a
+ * packed integer holding the sequence length and a flag indicating whether the bases
+ * are packed, followed by 4 bases per byte (or the verbatim sequence if it could not
+ * be packed). Hashes are computed on the packed words, so hash based collections
+ * never have to decode their keys.
+ */
+public class PackedSequenceSerializer extends GroupSerializerObjectArray<PackedSequence> implements Serializable {
+
+	private static final long serialVersionUID = 6146839205417538816L;
+
+	/**
+	 * Shared instance, the serializer is stateless
+	 */
+	public static final PackedSequenceSerializer INSTANCE = new PackedSequenceSerializer();
+
+	@Override
+	public void serialize(DataOutput2 out, PackedSequence value) throws IOException {
+
+		out.packInt((value.length() << 1) | (value.isPacked() ? 0 : 1));
+		out.write(value.toByteArray());
+
+	}
+
+	@Override
+	public PackedSequence deserialize(DataInput2 in, int available) throws IOException {
+
+		int header = in.unpackInt();
+		int length = header >>> 1;
+		boolean packed = (header & 1) == 0;
+
+		byte[] b = new byte[packed ? PackedSequence.packedSize(length) : length];
+		in.readFully(b);
+
+		return PackedSequence.fromByteArray(length, packed, b);
+	}
+
+	@Override
+	public boolean isTrusted() {
+		return true;
+	}
+
+	@Override
+	public boolean equals(PackedSequence first, PackedSequence second) {
+		return first.equals(second);
+	}
+
+	@Override
+	public int hashCode(PackedSequence o, int seed) {
+
+		// murmur3 finalizer, HTreeMap uses the upper bits to select segments
+		int h = o.hashCode() ^ seed;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+
+		return h;
+	}
+
+	@Override
+	public int compare(PackedSequence first, PackedSequence second) {
+		return first.compareTo(second);
+	}
+
+
+	/**
+	 * Stores <code>PackedSequence</code>s in the format of an existing <code>byte[]</code>
+	 * serializer. Used to open pools which were created before sequences were packed, such
+	 * that hashes, records, and BTree nodes remain compatible with the data on disk.
+	 * Value arrays are kept in the representation of the wrapped serializer and
+	 * converted element wise.
+	 */
+	public static class Legacy implements GroupSerializer<PackedSequence>, Serializable {
+
+		private static final long serialVersionUID = -2286526745230683127L;
+
+		private GroupSerializer<byte[]> serializer;
+
+		public Legacy(GroupSerializer<byte[]> serializer) {
+			this.serializer = serializer;
+		}
+
+		@Override
+		public void serialize(DataOutput2 out, PackedSequence value) throws IOException {
+			serializer.serialize(out, value.unpack());
+		}
+
+		@Override
+		public PackedSequence deserialize(DataInput2 in, int available) throws IOException {
+			return PackedSequence.pack(serializer.deserialize(in, available));
+		}
+
+		@Override
+		public boolean isTrusted() {
+			return serializer.isTrusted();
+		}
+
+		@Override
+		public boolean needsAvailableSizeHint() {
+			return serializer.needsAvailableSizeHint();
+		}
+
+		@Override
+		public boolean equals(PackedSequence first, PackedSequence second) {
+			return first.equals(second);
+		}
+
+		@Override
+		public int hashCode(PackedSequence o, int seed) {
+			return serializer.hashCode(o.unpack(), seed);
+		}
+
+		@Override
+		public int compare(PackedSequence first, PackedSequence second) {
+			return first.compareTo(second);
+		}
+
+		@Override
+		public int valueArraySearch(Object keys, PackedSequence key) {
+			return serializer.valueArraySearch(keys, key.unpack());
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int valueArraySearch(Object keys, PackedSequence key, Comparator comparator) {
+			return serializer.valueArraySearch(keys, key.unpack(), unpacked(comparator));
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int valueArrayBinarySearch(PackedSequence key, DataInput2 input, int keysLen, Comparator comparator) throws IOException {
+			return serializer.valueArrayBinarySearch(key.unpack(), input, keysLen, unpacked(comparator));
+		}
+
+		@Override
+		public PackedSequence valueArrayBinaryGet(DataInput2 input, int keysLen, int pos) throws IOException {
+			return PackedSequence.pack(serializer.valueArrayBinaryGet(input, keysLen, pos));
+		}
+
+		@Override
+		public void valueArraySerialize(DataOutput2 out, Object vals) throws IOException {
+			serializer.valueArraySerialize(out, vals);
+		}
+
+		@Override
+		public Object valueArrayDeserialize(DataInput2 in, int size) throws IOException {
+			return serializer.valueArrayDeserialize(in, size);
+		}
+
+		@Override
+		public PackedSequence valueArrayGet(Object vals, int pos) {
+			return PackedSequence.pack(serializer.valueArrayGet(vals, pos));
+		}
+
+		@Override
+		public int valueArraySize(Object vals) {
+			return serializer.valueArraySize(vals);
+		}
+
+		@Override
+		public Object valueArrayEmpty() {
+			return serializer.valueArrayEmpty();
+		}
+
+		@Override
+		public Object valueArrayPut(Object vals, int pos, PackedSequence newValue) {
+			return serializer.valueArrayPut(vals, pos, newValue.unpack());
+		}
+
+		@Override
+		public Object valueArrayUpdateVal(Object vals, int pos, PackedSequence newValue) {
+			return serializer.valueArrayUpdateVal(vals, pos, newValue.unpack());
+		}
+
+		@Override
+		public Object valueArrayFromArray(Object[] objects) {
+
+			Object[] unpacked = new Object[objects.length];
+			for (int i = 0; i < objects.length; i++) {
+				unpacked[i] = ((PackedSequence) objects[i]).unpack();
+			}
+
+			return serializer.valueArrayFromArray(unpacked);
+		}
+
+		@Override
+		public Object valueArrayCopyOfRange(Object vals, int from, int to) {
+			return serializer.valueArrayCopyOfRange(vals, from, to);
+		}
+
+		@Override
+		public Object valueArrayDeleteValue(Object vals, int pos) {
+			return serializer.valueArrayDeleteValue(vals, pos);
+		}
+
+		/**
+		 * Adapts a comparator on <code>PackedSequence</code>s to the unpacked values of the wrapped serializer
+		 */
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private static Comparator<byte[]> unpacked(final Comparator comparator) {
+			return (a, b) -> comparator.compare(PackedSequence.pack(a), PackedSequence.pack(b));
+		}
+
+	}
+
+}
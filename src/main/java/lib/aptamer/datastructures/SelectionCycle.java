@@ -6,6 +6,7 @@ package lib.aptamer.datastructures;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Map.Entry;
+import java.util.Spliterator;
 
 /**
  * @author Jan Hoinka
@@ -221,6 +222,16 @@ public interface SelectionCycle extends Serializable{
 	 */
 	public Iterable<Integer> id_iterator();
 	
+	
+	/**
+	 * Splittable version of <code>iterator()</code>, e.g. for use with 
+	 * <code>StreamSupport.stream(cycle.spliterator(), true)</code>. Implementations
+	 * split along key ranges so that each part can be traversed by a separate thread.
+	 */
+	public default Spliterator<Entry<Integer, Integer>> spliterator() {
+		return iterator().spliterator();
+	}
+	
 	/**
 	 * Sets the 5' barcode used to demultiplex the data
 	 * @param barcode
@@ -0,0 +1,779 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+import utilities.AptaLogger;
+import utilities.Configuration;
+import utilities.Quicksort;
+
+/**
+ * Implements the AptamerPool interface by hash partitioning the sequences over a fixed
+ * number of independent shards. Each shard consists of its own MapDB hash map and bloom
+ * filter and is guarded by its own lock, so that consumers registering different
+ * sequences rarely block each other. Identifiers are drawn from a single atomic counter
+ * and are hence continuous, starting at 1 as in <code>MapDBAptamerPool</code>.
+ *
+ * The inverse view (id->aptamer) and the bounds data are stored in one concurrent
+ * MapDB tree map each, shared by all shards. Ids become part of the pool size once
+ * they and all smaller ids are written. This is tracked outside of the shard locks,
+ * so that a registration never waits for the registrations of other shards.
+ *
+ * Select this backend by setting <code>AptamerPool.backend</code> to <code>ShardedAptamerPool</code>.
+ * The number of shards is defined by <code>ShardedAptamerPool.shards</code> and must not
+ * change for an existing project.
+ *
+ * @author Jan Hoinka
+ *
+ */
+public class ShardedAptamerPool implements AptamerPool {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 2951297364587146221L;
+
+	/**
+	 * Folder in the project path which contains all the sequencing data
+	 */
+	private Path poolDataPath = null;
+
+	/**
+	 * The initial space reserved on disk for each map
+	 */
+	private Integer allocateStartSize = MapDBSettings.getAllocateStartSize("ShardedAptamerPool");
+
+	/**
+	 * The amount by which each map will be incremented once it is full
+	 */
+	private Integer allocateIncrement = MapDBSettings.getAllocateIncrement("ShardedAptamerPool");
+
+	/**
+	 * Number of partitions of the sequence space
+	 */
+	private int numberOfShards = Configuration.getParameters().getInt("ShardedAptamerPool.shards");
+
+	/**
+	 * The total number of expected items over all bloom filters.
+	 */
+	private int bloomFilterCapacity = Configuration.getParameters().getInt("MapDBAptamerPool.bloomFilterCapacity");
+
+	/**
+	 * The expected false positive rate
+	 */
+	private double bloomFilterCollisionProbability = Configuration.getParameters().getDouble("MapDBAptamerPool.bloomFilterCollisionProbability");
+
+	/**
+	 * The partitions of the aptamer->id view
+	 */
+	private transient Shard[] shards = null;
+
+	/**
+	 * The inverse view mapping ids to aptamers
+	 */
+	private transient BTreeMap<Integer, PackedSequence> poolDataInverse = null;
+
+	/**
+	 * Start (inclusive) and end (exclusive) index of the randomized region per id
+	 */
+	private transient BTreeMap<Integer, int[]> boundsData = null;
+
+	/**
+	 * Source of new identifiers. Its value is the largest id handed out so far.
+	 */
+	private AtomicInteger poolSize = new AtomicInteger(0);
+
+	/**
+	 * Largest id such that the data of this and all smaller ids has been written.
+	 * This is what readers see as the size of the pool.
+	 */
+	private AtomicInteger committedSize = new AtomicInteger(0);
+
+	/**
+	 * Ids larger than <code>committedSize + 1</code> which have been written but cannot be
+	 * committed yet, as a smaller id is still being written
+	 */
+	private transient Set<Integer> pendingIds = ConcurrentHashMap.newKeySet();
+
+
+	/**
+	 * A single partition of the pool. All accesses to the map and the bloom filter
+	 * are synchronized on the shard instance.
+	 */
+	private class Shard {
+
+		Path file;
+
+		HTreeMap<PackedSequence, Integer> map;
+
+		BlockedBloomFilter bloomFilter;
+
+		Shard(Path file) {
+			this.file = file;
+			this.bloomFilter = new BlockedBloomFilter(Math.max(1, bloomFilterCapacity / numberOfShards), bloomFilterCollisionProbability);
+		}
+
+		/**
+		 * (Re)opens the map on disk
+		 */
+		void open(boolean create, boolean readonly) {
+
+			DB db = getMapDBInstance(file.toFile(), readonly);
+
+			if (create) {
+				map = db.hashMap("map")
+						.keySerializer(PackedSequenceSerializer.INSTANCE)
+						.valueSerializer(Serializer.INTEGER)
+						.create();
+			} else {
+				map = db.hashMap("map")
+						.keySerializer(PackedSequenceSerializer.INSTANCE)
+						.valueSerializer(Serializer.INTEGER)
+						.open();
+			}
+		}
+
+	}
+
+
+	/**
+	 * Constructor
+	 * @param projectPath must point to the current projects working directory
+	 * all files related to the analysis of the HT-SELEX experiment are stored
+	 * in that path. It must exist and be writable for the user.
+	 * @param newdb if true, a new database is created on file.
+	 * Any previously existing database will be deleted. If false, the existing database
+	 * will be read from disk.
+	 * @throws IOException if the pool data folder cannot be created
+	 */
+	public ShardedAptamerPool(Path projectPath, boolean newdb) throws IOException {
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Instantiating ShardedAptamerPool with " + numberOfShards + " shards");
+
+		long tReadFromDisk = System.currentTimeMillis();
+
+		// Make sure the folder is writable
+		try{
+			File sample = new File(projectPath.toFile(), "deleteme.txt");
+			sample.createNewFile();
+			sample.delete();
+		}
+		catch (IOException e){
+			AptaLogger.log(Level.SEVERE, this.getClass(),"The project path " + projectPath.toString() + " is not writable.");
+			throw (new IllegalStateException("The project path " + projectPath.toString() + " is not writable.") );
+		}
+
+		this.poolDataPath = Files.createDirectories(Paths.get(projectPath.toString(), "pooldata"));
+
+		if (!newdb) {
+
+			// the number of shards is fixed by the existing files
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(poolDataPath, "shard*.mapdb")) {
+				int existing = 0;
+				for (@SuppressWarnings("unused") Path file : stream) {
+					existing++;
+				}
+				if (existing != 0) {
+					numberOfShards = existing;
+				}
+			}
+
+		}
+
+		openAll(newdb, false);
+
+		if (!newdb) {
+
+			// Restore the bloom filters and the id counter from the inverse view
+			AptaLogger.log(Level.INFO, this.getClass(), "Reading existing dataset from " + poolDataPath.toString());
+
+			poolDataInverse.forEach((key, value) -> {
+
+				getShard(value).bloomFilter.add(value.toKeyBytes());
+
+				if (key > poolSize.get()) {
+					poolSize.set(key);
+				}
+
+			});
+
+			committedSize.set(poolSize.get());
+
+			AptaLogger.log(Level.INFO, this.getClass(), "Found and loaded a total of " + poolSize.get() + " aptamers from disk.");
+		}
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), "AptamerPool instantiation took " + ((System.currentTimeMillis() - tReadFromDisk) / 1000.0) + " seconds");
+
+	}
+
+	/**
+	 * Opens the maps of all shards as well as the inverse and bounds views
+	 * @param create if true, new maps are created on disk
+	 * @param readonly whether to open the files in read only mode
+	 */
+	private void openAll(boolean create, boolean readonly) {
+
+		if (shards == null) {
+			shards = new Shard[numberOfShards];
+			for (int x = 0; x < numberOfShards; x++) {
+				shards[x] = new Shard(Paths.get(poolDataPath.toString(), "shard" + String.format("%04d", x) + ".mapdb"));
+			}
+		}
+
+		for (Shard shard : shards) {
+			shard.open(create, readonly);
+		}
+
+		DB db_inverse = getMapDBInstance(Paths.get(poolDataPath.toString(), "inverse_shards.mapdb").toFile(), readonly);
+		DB db_bounds = getMapDBInstance(Paths.get(poolDataPath.toString(), "bounds_shards.mapdb").toFile(), readonly);
+
+		if (create) {
+
+			poolDataInverse = db_inverse.treeMap("map")
+					.valuesOutsideNodesEnable()
+					.keySerializer(Serializer.INTEGER)
+					.valueSerializer(PackedSequenceSerializer.INSTANCE)
+			        .create();
+
+			boundsData = db_bounds.treeMap("map")
+					.valuesOutsideNodesEnable()
+					.keySerializer(Serializer.INTEGER)
+					.valueSerializer(Serializer.INT_ARRAY)
+			        .create();
+
+		} else {
+
+			poolDataInverse = db_inverse.treeMap("map")
+					.valuesOutsideNodesEnable()
+					.keySerializer(Serializer.INTEGER)
+					.valueSerializer(PackedSequenceSerializer.INSTANCE)
+			        .open();
+
+			boundsData = db_bounds.treeMap("map")
+					.valuesOutsideNodesEnable()
+					.keySerializer(Serializer.INTEGER)
+					.valueSerializer(Serializer.INT_ARRAY)
+			        .open();
+
+		}
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), (create ? "Created " : "Opened ") + numberOfShards + " shards in " + poolDataPath.toString() + (readonly ? " as read only" : ""));
+
+	}
+
+	/**
+	 * @return the shard responsible for sequence <code>a</code>
+	 */
+	private Shard getShard(PackedSequence a) {
+
+		return shards[getShardIndex(a)];
+
+	}
+
+	/**
+	 * @return the index of the shard responsible for sequence <code>a</code>
+	 */
+	private int getShardIndex(PackedSequence a) {
+
+		// spread the bits of the hash over the lower bits
+		int h = a.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+
+		return (h & 0x7fffffff) % shards.length;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#registerAptamer(byte[], int, int)
+	 */
+	@Override
+	public int registerAptamer(byte[] a, int rr_start, int rr_end) {
+
+		PackedSequence packed = PackedSequence.pack(a);
+		byte[] bloomKey = packed.toKeyBytes();
+
+		Shard shard = getShard(packed);
+
+		int id;
+		synchronized (shard) {
+
+			// Check if the item is already registered, and if so, return its identifier
+			if (shard.bloomFilter.contains(bloomKey)) {
+				Integer identifier = shard.map.get(packed);
+				if (identifier != null) {
+					return identifier;
+				}
+			}
+
+			id = poolSize.incrementAndGet();
+
+			try {
+
+				// the inverse and bounds data must be present before the id becomes visible
+				// through the forward view or the pool size
+				poolDataInverse.put(id, packed);
+				boundsData.put(id, new int[]{rr_start,rr_end});
+
+				shard.map.put(packed, id);
+				shard.bloomFilter.add(bloomKey);
+
+			} catch (RuntimeException e) {
+
+				// later ids must not wait for this one forever
+				commit(id);
+				throw e;
+
+			}
+
+		}
+
+		commit(id);
+
+		return id;
+
+	}
+
+	/**
+	 * Marks <code>id</code> as written and advances the committed size over all ids
+	 * which are written without gaps. Ids are handed out in order but may be written
+	 * out of order by other shards. Whichever thread writes the id following the
+	 * committed size publishes it along with any pending successors, all other threads
+	 * return immediately.
+	 * @param id the id which has been written
+	 */
+	private void commit(int id) {
+
+		pendingIds.add(id);
+
+		// Only the thread removing committedSize + 1 from the pending ids advances the
+		// committed size, so each step is taken exactly once. An id added after its
+		// predecessor was published is picked up by the adding thread itself.
+		int committed = committedSize.get();
+		while (pendingIds.remove(committed + 1)) {
+			committedSize.set(++committed);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#registerAptamer(java.lang.String, int, int)
+	 */
+	@Override
+	public int registerAptamer(String a, int rr_start, int rr_end) {
+
+		return registerAptamer(a.getBytes(), rr_start, rr_end);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#getIdentifier(byte[])
+	 */
+	@Override
+	public int getIdentifier(byte[] a) {
+
+		PackedSequence packed = PackedSequence.pack(a);
+
+		Shard shard = getShard(packed);
+
+		synchronized (shard) {
+
+			// Check for existence using bloom filter, no false negatives
+			if (!shard.bloomFilter.contains(packed.toKeyBytes())) {
+				return -1;
+			}
+
+			Integer identifier = shard.map.get(packed);
+
+			return identifier == null ? -1 : identifier;
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#getIdentifier(java.lang.String)
+	 */
+	@Override
+	public int getIdentifier(String a) {
+
+		return getIdentifier(a.getBytes());
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamer(int)
+	 */
+	@Override
+	public byte[] getAptamer(int id) {
+
+		if (!containsAptamer(id)) {
+			return null;
+		}
+
+		PackedSequence aptamer = poolDataInverse.get(id);
+
+		return aptamer == null ? null : aptamer.unpack();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamerBounds(int)
+	 */
+	@Override
+	public AptamerBounds getAptamerBounds(int id) {
+
+		if (!containsAptamer(id)) {
+			return null;
+		}
+
+		int[] bounds = boundsData.get(id);
+
+		return bounds == null ? null : new AptamerBounds(bounds);
+
+	}
+
+	/**
+	 * Batch lookup of sequences in ascending order of their ids
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamers(int[], byte[][])
+	 */
+	@Override
+	public void getAptamers(int[] ids, byte[][] aptamers) {
+
+		for (int i : getAscendingOrder(ids)) {
+
+			PackedSequence aptamer = containsAptamer(ids[i]) ? poolDataInverse.get(ids[i]) : null;
+			aptamers[i] = aptamer == null ? null : aptamer.unpack();
+
+		}
+
+	}
+
+	/**
+	 * Batch lookup of bounds in ascending order of their ids
+	 * @see lib.aptamer.datastructures.AptamerPool#getAptamerBounds(int[], AptamerBounds[])
+	 */
+	@Override
+	public void getAptamerBounds(int[] ids, AptamerBounds[] bounds) {
+
+		for (int i : getAscendingOrder(ids)) {
+
+			int[] value = containsAptamer(ids[i]) ? boundsData.get(ids[i]) : null;
+			bounds[i] = value == null ? null : new AptamerBounds(value);
+
+		}
+
+	}
+
+	/**
+	 * Batch lookup of identifiers. The sequences are grouped by shard such that each
+	 * shard is locked only once per batch.
+	 * @see lib.aptamer.datastructures.AptamerPool#getIdentifiers(byte[][], int[])
+	 */
+	@Override
+	public void getIdentifiers(byte[][] aptamers, int[] ids) {
+
+		PackedSequence[] packed = new PackedSequence[aptamers.length];
+		int[] shardIndices = new int[aptamers.length];
+		int[] order = new int[aptamers.length];
+
+		for (int i = 0; i < aptamers.length; i++) {
+			packed[i] = PackedSequence.pack(aptamers[i]);
+			shardIndices[i] = getShardIndex(packed[i]);
+			order[i] = i;
+		}
+
+		if (order.length > 1) {
+			Quicksort.sort(order, shardIndices.clone());
+		}
+
+		int start = 0;
+		while (start < order.length) {
+
+			Shard shard = shards[shardIndices[order[start]]];
+
+			int end = start;
+			synchronized (shard) {
+
+				for (; end < order.length && shardIndices[order[end]] == shardIndices[order[start]]; end++) {
+
+					int i = order[end];
+
+					Integer identifier = shard.bloomFilter.contains(packed[i].toKeyBytes()) ? shard.map.get(packed[i]) : null;
+					ids[i] = identifier == null ? -1 : identifier;
+
+				}
+
+			}
+			start = end;
+
+		}
+
+	}
+
+	/**
+	 * @return the indices of <code>ids</code> such that the referenced ids are in ascending order
+	 */
+	private static int[] getAscendingOrder(int[] ids) {
+
+		int[] order = new int[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+
+		if (ids.length > 1) {
+			Quicksort.sort(order, ids.clone());
+		}
+
+		return order;
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#containsAptamer(byte[])
+	 */
+	@Override
+	public Boolean containsAptamer(byte[] a) {
+
+		return getIdentifier(a) != -1;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#containsAptamer(java.lang.String)
+	 */
+	@Override
+	public Boolean containsAptamer(String a) {
+
+		return getIdentifier(a.getBytes()) != -1;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#containsAptamer(int)
+	 *
+	 * Identifiers are continuous, hence every id up to the committed pool size exists.
+	 */
+	@Override
+	public Boolean containsAptamer(int id) {
+
+		return id > 0 && id <= committedSize.get();
+
+	}
+
+	@Override
+	public int size() {
+
+		return committedSize.get();
+
+	}
+
+	/**
+	 * This function closes all the file handles that where created or opened
+	 * during the lifetime of the class instance.
+	 */
+	@Override
+	public void close() {
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Closing pool file handles.");
+
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				shard.map.close();
+			}
+		}
+
+		poolDataInverse.close();
+		boundsData.close();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#clear()
+	 */
+	@Override
+	public void clear() {
+
+		// Make sure all file handles are closed before deleting the files.
+		this.close();
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Deleting all content in " + poolDataPath.toString());
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(poolDataPath)) {
+
+			for (Path file : directoryStream) {
+				Files.delete(file);
+			}
+
+        } catch (IOException ex) {}
+
+		// Start over with empty shards
+		shards = null;
+		poolSize.set(0);
+		committedSize.set(0);
+		pendingIds.clear();
+
+		openAll(true, false);
+
+	}
+
+	@Override
+	public void setReadOnly() {
+
+		close();
+		openAll(false, true);
+
+	}
+
+	@Override
+	public void setReadWrite() {
+
+		close();
+		openAll(false, false);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see lib.aptamer.datastructures.AptamerPool#iterator()
+	 *
+	 * Iterates the inverse view, as its underlying BTree structure is
+	 * several orders faster to traverse.
+	 */
+	@Override
+	public Iterable<Entry<byte[], Integer>> iterator() {
+
+		return new Iterable<Entry<byte[], Integer>>() {
+
+			@Override
+			public Iterator<Entry<byte[], Integer>> iterator() {
+
+				Iterator<Entry<Integer, PackedSequence>> inverse = poolDataInverse.getEntries().iterator();
+
+				return new Iterator<Entry<byte[], Integer>>() {
+
+					@Override
+					public boolean hasNext() {
+						return inverse.hasNext();
+					}
+
+					@Override
+					public Entry<byte[], Integer> next() {
+						Entry<Integer, PackedSequence> temp = inverse.next();
+						return new AbstractMap.SimpleEntry<byte[], Integer>(temp.getValue().unpack(), temp.getKey());
+					}
+
+				};
+
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, byte[]>> inverse_view_iterator() {
+
+		return () -> {
+
+			Iterator<Entry<Integer, PackedSequence>> inverse = poolDataInverse.getEntries().iterator();
+
+			return new Iterator<Entry<Integer, byte[]>>() {
+
+				@Override
+				public boolean hasNext() {
+					return inverse.hasNext();
+				}
+
+				@Override
+				public Entry<Integer, byte[]> next() {
+					Entry<Integer, PackedSequence> temp = inverse.next();
+					return new AbstractMap.SimpleEntry<Integer, byte[]>(temp.getKey(), temp.getValue().unpack());
+				}
+
+			};
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Integer> id_iterator() {
+
+		return () -> poolDataInverse.getKeys().iterator();
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, int[]>> bounds_iterator() {
+
+		return () -> boundsData.getEntries().iterator();
+
+	}
+
+	/**
+	 * Splits along the id range of the inverse view
+	 */
+	@Override
+	public Spliterator<Entry<byte[], Integer>> spliterator() {
+		return KeyRangeSpliterator.of(poolDataInverse, KeyRangeSpliterator.ofMap(poolDataInverse, (id, sequence) -> new AbstractMap.SimpleEntry<byte[], Integer>(sequence.unpack(), id)));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, byte[]>> inverse_view_spliterator() {
+		return KeyRangeSpliterator.of(poolDataInverse, KeyRangeSpliterator.ofMap(poolDataInverse, (id, sequence) -> new AbstractMap.SimpleEntry<Integer, byte[]>(id, sequence.unpack())));
+	}
+
+	@Override
+	public Spliterator<Integer> id_spliterator() {
+		return KeyRangeSpliterator.of(poolDataInverse, KeyRangeSpliterator.ofKeys(poolDataInverse));
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, int[]>> bounds_spliterator() {
+		return KeyRangeSpliterator.of(boundsData, KeyRangeSpliterator.ofMap(boundsData));
+	}
+
+	/**
+	 * Central getter to open a channel to a mapdb on file
+	 * @param file
+	 */
+	private DB getMapDBInstance(File file, boolean readonly) {
+
+		DBMaker.Maker maker = DBMaker
+			    .fileDB(file)
+			    .allocateStartSize( this.allocateStartSize )
+			    .allocateIncrement( this.allocateIncrement )
+			    .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
+			    .fileMmapPreclearDisable() // Make mmap file faster
+			    .concurrencyScale( MapDBSettings.getConcurrencyScale("ShardedAptamerPool", 2) )
+			    .fileChannelEnable();
+
+		if (readonly) {
+			maker = maker.readOnly();
+		}
+
+		return maker.make();
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Small binary files holding in-memory state which is derived from MapDB files, such as
+ * Bloom filters, bit sets and counters. Loading the state from such a file takes a single
+ * sequential read instead of a full iteration over the map it was computed from.
+ *
+ * Files are written to a temporary location and moved into place once complete. A CRC32
+ * checksum over the content is appended. Files which are missing, of a different version,
+ * truncated, or whose checksum does not match are reported as absent so that the caller
+ * can fall back to recomputing the state.
+ */
+class SidecarFile {
+
+	/**
+	 * Writes the content of a sidecar file
+	 */
+	interface Writer {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Reads the content of a sidecar file
+	 */
+	interface Reader<T> {
+		T read(DataInputStream in) throws IOException;
+	}
+
+	private static final int MAGIC = 0x41505346;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private SidecarFile() {
+	}
+
+	/**
+	 * Writes <code>file</code>, replacing any previous version
+	 * @param file the sidecar file
+	 * @param version format version of the content, checked by <code>read</code>
+	 * @param writer produces the content
+	 * @throws IOException
+	 */
+	static void write(Path file, int version, Writer writer) throws IOException {
+
+		Path temporary = Paths.get(file.toString() + ".tmp");
+
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_SIZE)) {
+
+			CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+
+			out.writeInt(MAGIC);
+			out.writeInt(version);
+			writer.write(out);
+			out.flush();
+
+			new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+
+	}
+
+	/**
+	 * Reads <code>file</code>
+	 * @param file the sidecar file
+	 * @param version the expected format version
+	 * @param reader consumes the content
+	 * @return the value produced by <code>reader</code>, or null if the file does not exist or is not valid
+	 */
+	static <T> T read(Path file, int version, Reader<T> reader) {
+
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try (InputStream stream = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+
+			CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+			DataInputStream in = new DataInputStream(checked);
+
+			if (in.readInt() != MAGIC || in.readInt() != version) {
+				AptaLogger.log(Level.WARNING, SidecarFile.class, "Ignoring " + file.toString() + ", unknown format.");
+				return null;
+			}
+
+			T value = reader.read(in);
+
+			long checksum = checked.getChecksum().getValue();
+			if (new DataInputStream(stream).readLong() != checksum || stream.read() != -1) {
+				AptaLogger.log(Level.WARNING, SidecarFile.class, "Ignoring " + file.toString() + ", checksum mismatch.");
+				return null;
+			}
+
+			return value;
+
+		} catch (EOFException e) {
+			AptaLogger.log(Level.WARNING, SidecarFile.class, "Ignoring " + file.toString() + ", file is truncated.");
+		} catch (IOException | RuntimeException e) {
+			AptaLogger.log(Level.WARNING, SidecarFile.class, "Ignoring " + file.toString() + ", " + e.toString());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes <code>file</code> so that stale content is never read
+	 */
+	static void delete(Path file) {
+
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			AptaLogger.log(Level.WARNING, SidecarFile.class, "Could not delete " + file.toString() + ", " + e.toString());
+		}
+
+	}
+
+	/**
+	 * Writes a bit set, omitting leading and trailing zero words
+	 */
+	static void writeBitSet(DataOutputStream out, BitSet bits) throws IOException {
+
+		long[] words = bits.toLongArray();
+
+		int first = 0;
+		while (first < words.length && words[first] == 0) {
+			first++;
+		}
+
+		out.writeInt(first);
+		out.writeInt(words.length - first);
+		for (int i = first; i < words.length; i++) {
+			out.writeLong(words[i]);
+		}
+
+	}
+
+	/**
+	 * Reads a bit set previously stored with <code>writeBitSet</code>
+	 */
+	static BitSet readBitSet(DataInputStream in) throws IOException {
+
+		int first = in.readInt();
+		long[] words = new long[first + in.readInt()];
+		for (int i = first; i < words.length; i++) {
+			words[i] = in.readLong();
+		}
+
+		return BitSet.valueOf(words);
+	}
+
+}
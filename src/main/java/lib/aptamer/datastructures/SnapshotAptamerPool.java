@@ -0,0 +1,847 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.logging.Level;
+
+import utilities.AptaLogger;
+import utilities.Configuration;
+
+/**
+ * @author Jan Hoinka
+ * Read optimized view of an <code>AptamerPool</code>. Once the pool has been set to
+ * read only, its content is compacted into an immutable, memory mapped snapshot
+ * consisting of the following columns, each indexed by <code>id-1</code>:
+ *
+ * <code>offsets.bin</code> the position of the sequence in <code>sequences.bin</code> (long)
+ * <code>lengths.bin</code> the number of nucleotides, bitwise negated if the sequence is not packed (int)
+ * <code>bounds.bin</code> the start and end of the randomized region (2 x int)
+ * <code>sequences.bin</code> the sequences in the binary form of <code>PackedSequence</code>
+ *
+ * All id based accesses, i.e. <code>getAptamer</code>, <code>getAptamerBounds</code>, and the
+ * iterators, are served from the snapshot by direct array reads. Without the index described
+ * below, sequence based lookups are passed on to the underlying pool. Registering a new
+ * aptamer invalidates the snapshot until the pool is set to read only again.
+ *
+ * If enabled, a minimal perfect hash function over all sequences (<code>index.bin</code>)
+ * maps each sequence to a slot of <code>slots.bin</code> holding its id and a fingerprint.
+ * Sequence lookups are then answered by the snapshot with a fixed number of memory reads
+ * and verified against <code>sequences.bin</code>.
+ *
+ * <code>header.bin</code> is written last and marks a complete snapshot. Besides the size of the
+ * pool it records a fingerprint of a sample of its sequences and bounds, so that a snapshot is not
+ * reused for a pool which was parsed again with the snapshot disabled.
+ */
+public class SnapshotAptamerPool implements AptamerPool {
+
+	private static final long serialVersionUID = -6493285124731690822L;
+
+	/**
+	 * Identifies the file format of <code>header.bin</code>
+	 */
+	private static final long MAGIC = 0x4150544153504F4FL; // APTASPOO
+	private static final int VERSION = 3;
+
+	/**
+	 * Number of aptamers sampled for the content fingerprint of the snapshot
+	 */
+	private static final int FINGERPRINT_SAMPLES = 64;
+
+	/**
+	 * Returned by <code>Columns.getIdentifier</code> if the index cannot decide on the identifier
+	 */
+	private static final int AMBIGUOUS = -2;
+
+	/**
+	 * The pool providing the data and the sequence to id mapping
+	 */
+	private AptamerPool pool;
+
+	/**
+	 * Folder containing the snapshot files
+	 */
+	private Path snapshotPath;
+
+	/**
+	 * Whether new snapshots include the minimal perfect hash index
+	 */
+	private boolean perfectHashIndex = Configuration.getParameters().getBoolean("SnapshotAptamerPool.perfectHashIndex");
+
+	/**
+	 * Bits per key of the first level of the minimal perfect hash function
+	 */
+	private double perfectHashGamma = Configuration.getParameters().getDouble("SnapshotAptamerPool.perfectHashGamma");
+
+	/**
+	 * The current snapshot, null if the pool has been modified since it was written
+	 */
+	private transient volatile Columns columns = null;
+
+	/**
+	 * The memory mapped columns of a complete snapshot
+	 */
+	private static class Columns {
+
+		int size;
+
+		MappedFile offsets;
+		MappedFile lengths;
+		MappedFile bounds;
+		MappedFile sequences;
+
+		/**
+		 * The sequence index, null if not present
+		 */
+		MinimalPerfectHash index;
+		MappedFile slots;
+
+		byte[] getAptamer(int id) {
+
+			long offset = offsets.getLong((id - 1) * 8L);
+			int length = lengths.getInt((id - 1) * 4L);
+
+			if (length < 0) {
+				byte[] aptamer = new byte[~length];
+				sequences.get(offset, aptamer);
+				return aptamer;
+			}
+
+			byte[] packed = new byte[PackedSequence.packedSize(length)];
+			sequences.get(offset, packed);
+
+			return PackedSequence.unpack(length, packed);
+		}
+
+		int[] getAptamerBounds(int id) {
+
+			return new int[] { bounds.getInt((id - 1) * 8L), bounds.getInt((id - 1) * 8L + 4) };
+
+		}
+
+		/**
+		 * @return the stored sequence in the format of <code>PackedSequence.toKeyBytes()</code>
+		 */
+		byte[] getKeyBytes(int id) {
+
+			long offset = offsets.getLong((id - 1) * 8L);
+			int length = lengths.getInt((id - 1) * 4L);
+			int binaryLength = length < 0 ? ~length : PackedSequence.packedSize(length);
+
+			byte[] key = new byte[binaryLength + 4];
+			sequences.get(offset, key, binaryLength);
+			for (int i = 0; i < 4; i++) {
+				key[binaryLength + i] = (byte) (length >>> (24 - 8 * i));
+			}
+
+			return key;
+		}
+
+		/**
+		 * Looks up the identifier of <code>aptamer</code> using the index
+		 * @return the identifier, -1 if the sequence is not part of the snapshot,
+		 * or <code>AMBIGUOUS</code>
+		 */
+		int getIdentifier(PackedSequence aptamer) {
+
+			byte[] key = aptamer.toKeyBytes();
+			long hash = MinimalPerfectHash.hash(key);
+
+			long slot = index.lookup(hash);
+			if (slot == MinimalPerfectHash.AMBIGUOUS) {
+				return AMBIGUOUS;
+			}
+			if (slot == MinimalPerfectHash.NOT_FOUND) {
+				return -1;
+			}
+
+			long entry = slots.getLong(slot * 8);
+			int id = (int) entry;
+			if ((int) (entry >>> 32) != fingerprint(hash) || id < 1 || id > size) {
+				return -1;
+			}
+
+			return Arrays.equals(getKeyBytes(id), key) ? id : -1;
+		}
+
+		/**
+		 * Releases all mappings of the snapshot
+		 */
+		void close() {
+
+			for (MappedFile file : new MappedFile[] { offsets, lengths, bounds, sequences, slots }) {
+				if (file != null) {
+					file.close();
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return the fingerprint stored alongside the identifiers of the index
+	 */
+	private static int fingerprint(long hash) {
+		return (int) (hash >>> 32);
+	}
+
+
+	/**
+	 * Creates the read optimized view of <code>pool</code>. An existing snapshot is
+	 * used if it matches the content of the pool, otherwise a new one is written
+	 * as soon as the pool contains data.
+	 * @param pool the underlying pool
+	 * @param projectPath the project folder, the snapshot is stored in <code>poolsnapshot</code>
+	 * @throws IOException
+	 */
+	public SnapshotAptamerPool(AptamerPool pool, Path projectPath) throws IOException {
+
+		this.pool = pool;
+		this.snapshotPath = Files.createDirectories(Paths.get(projectPath.toString(), "poolsnapshot"));
+
+		if (pool.size() == 0) {
+			return;
+		}
+
+		columns = open();
+
+		if (columns == null) {
+			columns = write();
+		}
+
+	}
+
+	/**
+	 * Maps the snapshot on disk if it is complete and corresponds to the current pool
+	 * @return the snapshot or null if it does not exist or is outdated
+	 */
+	private Columns open() throws IOException {
+
+		Path header = snapshotPath.resolve("header.bin");
+		if (!Files.exists(header)) {
+			return null;
+		}
+
+		long sequencesSize;
+		boolean hasIndex;
+		long fingerprint;
+		Columns c = new Columns();
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(header))) {
+
+			if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+				AptaLogger.log(Level.WARNING, this.getClass(), "Ignoring snapshot with unknown format in " + snapshotPath.toString());
+				return null;
+			}
+
+			c.size = in.readInt();
+			sequencesSize = in.readLong();
+			hasIndex = in.readBoolean();
+			fingerprint = in.readLong();
+
+		}
+
+		if (c.size != pool.size() || fingerprint != contentFingerprint(c.size)) {
+			AptaLogger.log(Level.INFO, this.getClass(), "Snapshot in " + snapshotPath.toString() + " is outdated");
+			return null;
+		}
+
+		c.offsets = new MappedFile(snapshotPath.resolve("offsets.bin"), c.size * 8L, false);
+		c.lengths = new MappedFile(snapshotPath.resolve("lengths.bin"), c.size * 4L, false);
+		c.bounds = new MappedFile(snapshotPath.resolve("bounds.bin"), c.size * 8L, false);
+		c.sequences = new MappedFile(snapshotPath.resolve("sequences.bin"), sequencesSize, false);
+
+		if (hasIndex) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath.resolve("index.bin")), 1 << 20))) {
+				c.index = MinimalPerfectHash.read(in);
+			}
+			c.slots = new MappedFile(snapshotPath.resolve("slots.bin"), c.size * 8L, false);
+		}
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Opened snapshot of " + c.size + " aptamers from " + snapshotPath.toString() + (hasIndex ? " including sequence index" : ""));
+
+		return c;
+	}
+
+	/**
+	 * Writes a new snapshot of the current content of the pool
+	 * @return the mapped snapshot or null if the pool could not be compacted
+	 */
+	private Columns write() throws IOException {
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Writing snapshot of " + pool.size() + " aptamers to " + snapshotPath.toString());
+		long tStart = System.currentTimeMillis();
+
+		// the old snapshot is invalid from here on
+		Path header = snapshotPath.resolve("header.bin");
+		Files.deleteIfExists(header);
+
+		int size = pool.size();
+		long sequencesSize = 0;
+
+		MappedFile offsets = new MappedFile(snapshotPath.resolve("offsets.bin"), size * 8L, true);
+		MappedFile lengths = new MappedFile(snapshotPath.resolve("lengths.bin"), size * 4L, true);
+		MappedFile bounds = new MappedFile(snapshotPath.resolve("bounds.bin"), size * 8L, true);
+
+		// the columns are mapped again read only by open()
+		boolean hasIndex = false;
+		try {
+
+			// the pool does not guarantee any iteration order, hence the id columns are written at random
+			BitSet seen = new BitSet(size + 1);
+			try (OutputStream sequences = new BufferedOutputStream(new FileOutputStream(snapshotPath.resolve("sequences.bin").toFile()), 1 << 20)) {
+
+				for (Entry<Integer, byte[]> entry : pool.inverse_view_iterator()) {
+
+					int id = entry.getKey();
+					if (id < 1 || id > size || seen.get(id)) {
+						AptaLogger.log(Level.WARNING, this.getClass(), "The identifiers of the pool are not continuous, no snapshot is created");
+						return null;
+					}
+					seen.set(id);
+
+					PackedSequence aptamer = PackedSequence.pack(entry.getValue());
+					byte[] binary = aptamer.toByteArray();
+
+					offsets.putLong((id - 1) * 8L, sequencesSize);
+					lengths.putInt((id - 1) * 4L, aptamer.isPacked() ? aptamer.length() : ~aptamer.length());
+
+					sequences.write(binary);
+					sequencesSize += binary.length;
+
+				}
+
+			}
+
+			if (seen.cardinality() != size) {
+				AptaLogger.log(Level.WARNING, this.getClass(), "The pool returned fewer aptamers than its size, no snapshot is created");
+				return null;
+			}
+
+			for (Entry<Integer, int[]> entry : pool.bounds_iterator()) {
+
+				int id = entry.getKey();
+				if (id >= 1 && id <= size) {
+					bounds.putInt((id - 1) * 8L, entry.getValue()[0]);
+					bounds.putInt((id - 1) * 8L + 4, entry.getValue()[1]);
+				}
+
+			}
+
+			offsets.force();
+			lengths.force();
+			bounds.force();
+
+			if (perfectHashIndex) {
+
+				Columns c = new Columns();
+				c.size = size;
+				c.offsets = offsets;
+				c.lengths = lengths;
+				c.sequences = new MappedFile(snapshotPath.resolve("sequences.bin"), sequencesSize, false);
+
+				try {
+					writeIndex(c);
+				} finally {
+					c.sequences.close();
+				}
+				hasIndex = true;
+
+			}
+
+		} finally {
+			offsets.close();
+			lengths.close();
+			bounds.close();
+		}
+
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(header))) {
+
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeLong(sequencesSize);
+			out.writeBoolean(hasIndex);
+			out.writeLong(contentFingerprint(size));
+
+		}
+
+		AptaLogger.log(Level.INFO, this.getClass(), "Snapshot written in " + ((System.currentTimeMillis() - tStart) / 1000.0) + " seconds");
+
+		return open();
+	}
+
+	/**
+	 * Hashes the sequences and bounds of up to <code>FINGERPRINT_SAMPLES</code> evenly spaced
+	 * ids of the underlying pool, including the first and the last one
+	 * @param size the number of aptamers in the pool
+	 * @return the fingerprint of the content of the pool
+	 */
+	private long contentFingerprint(int size) {
+
+		long fingerprint = size;
+
+		int samples = Math.min(size, FINGERPRINT_SAMPLES);
+		for (int i = 0; i < samples; i++) {
+
+			int id = samples == 1 ? size : 1 + (int) ((long) i * (size - 1) / (samples - 1));
+
+			byte[] aptamer = pool.getAptamer(id);
+			AptamerBounds bounds = pool.getAptamerBounds(id);
+
+			long hash = aptamer == null ? 0 : MinimalPerfectHash.hash(aptamer);
+			if (bounds != null) {
+				hash ^= ((long) bounds.startIndex << 32 | (bounds.endIndex & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+			}
+
+			fingerprint = fingerprint * 31 + hash;
+
+		}
+
+		return fingerprint;
+	}
+
+	/**
+	 * Marks the snapshot of the project as outdated, such that it is not used for a 
+	 * newly created pool even if the snapshot is disabled while the pool is populated.
+	 * Only the header is deleted, which is never mapped. The other files are rewritten by the
+	 * next snapshot, which on Windows requires any previous instance on the same project to
+	 * be closed first, since closing releases its mappings.
+	 * @param projectPath the project folder
+	 * @throws IOException
+	 */
+	public static void invalidate(Path projectPath) throws IOException {
+
+		Files.deleteIfExists(Paths.get(projectPath.toString(), "poolsnapshot", "header.bin"));
+
+	}
+
+	/**
+	 * Builds the minimal perfect hash function over all sequences of <code>c</code>
+	 * and writes it together with the slot column
+	 */
+	private void writeIndex(Columns c) throws IOException {
+
+		long tStart = System.currentTimeMillis();
+
+		long[] hashes = new long[c.size];
+		for (int id = 1; id <= c.size; id++) {
+			hashes[id - 1] = MinimalPerfectHash.hash(c.getKeyBytes(id));
+		}
+
+		MinimalPerfectHash index = new MinimalPerfectHash(hashes, perfectHashGamma);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotPath.resolve("index.bin")), 1 << 20))) {
+			index.write(out);
+		}
+
+		MappedFile slots = new MappedFile(snapshotPath.resolve("slots.bin"), c.size * 8L, true);
+		for (int id = 1; id <= c.size; id++) {
+
+			long slot = index.lookup(hashes[id - 1]);
+			if (slot >= 0) {
+				slots.putLong(slot * 8, ((long) fingerprint(hashes[id - 1]) << 32) | id);
+			}
+
+		}
+		slots.force();
+		slots.close();
+
+		AptaLogger.log(Level.INFO, this.getClass(), String.format("Sequence index built in %s seconds using %.2f bits per sequence", (System.currentTimeMillis() - tStart) / 1000.0, index.bitsPerKey()));
+
+	}
+
+	/**
+	 * @return the underlying pool
+	 */
+	public AptamerPool getPool() {
+		return pool;
+	}
+
+	@Override
+	public int registerAptamer(byte[] a, int rr_start, int rr_end) {
+
+		int id = pool.registerAptamer(a, rr_start, rr_end);
+
+		Columns c = columns;
+		if (c != null && id > c.size) {
+			columns = null;
+		}
+
+		return id;
+	}
+
+	@Override
+	public int registerAptamer(String a, int rr_start, int rr_end) {
+
+		return registerAptamer(a.getBytes(), rr_start, rr_end);
+
+	}
+
+	@Override
+	public int getIdentifier(byte[] a) {
+
+		Columns c = columns;
+		if (c == null || c.index == null) {
+			return pool.getIdentifier(a);
+		}
+
+		int id = c.getIdentifier(PackedSequence.pack(a));
+
+		return id == AMBIGUOUS ? pool.getIdentifier(a) : id;
+	}
+
+	@Override
+	public int getIdentifier(String a) {
+
+		return getIdentifier(a.getBytes());
+
+	}
+
+	@Override
+	public byte[] getAptamer(int id) {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.getAptamer(id);
+		}
+
+		return id > 0 && id <= c.size ? c.getAptamer(id) : null;
+	}
+
+	@Override
+	public AptamerBounds getAptamerBounds(int id) {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.getAptamerBounds(id);
+		}
+
+		return id > 0 && id <= c.size ? new AptamerBounds(c.getAptamerBounds(id)) : null;
+	}
+
+	@Override
+	public void getAptamers(int[] ids, byte[][] aptamers) {
+
+		Columns c = columns;
+		if (c == null) {
+			pool.getAptamers(ids, aptamers);
+			return;
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			aptamers[i] = ids[i] > 0 && ids[i] <= c.size ? c.getAptamer(ids[i]) : null;
+		}
+
+	}
+
+	@Override
+	public void getAptamerBounds(int[] ids, AptamerBounds[] bounds) {
+
+		Columns c = columns;
+		if (c == null) {
+			pool.getAptamerBounds(ids, bounds);
+			return;
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			bounds[i] = ids[i] > 0 && ids[i] <= c.size ? new AptamerBounds(c.getAptamerBounds(ids[i])) : null;
+		}
+
+	}
+
+	@Override
+	public void getIdentifiers(byte[][] aptamers, int[] ids) {
+
+		Columns c = columns;
+		if (c == null || c.index == null) {
+			pool.getIdentifiers(aptamers, ids);
+			return;
+		}
+
+		for (int i = 0; i < aptamers.length; i++) {
+
+			ids[i] = c.getIdentifier(PackedSequence.pack(aptamers[i]));
+			if (ids[i] == AMBIGUOUS) {
+				ids[i] = pool.getIdentifier(aptamers[i]);
+			}
+
+		}
+
+	}
+
+	@Override
+	public Boolean containsAptamer(byte[] a) {
+
+		return getIdentifier(a) != -1;
+
+	}
+
+	@Override
+	public Boolean containsAptamer(String a) {
+
+		return containsAptamer(a.getBytes());
+
+	}
+
+	@Override
+	public Boolean containsAptamer(int id) {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.containsAptamer(id);
+		}
+
+		return id > 0 && id <= c.size;
+	}
+
+	@Override
+	public int size() {
+
+		Columns c = columns;
+
+		return c == null ? pool.size() : c.size;
+	}
+
+	@Override
+	public void clear() {
+
+		release();
+		pool.clear();
+
+		try {
+			Files.deleteIfExists(snapshotPath.resolve("header.bin"));
+		} catch (IOException e) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Could not delete snapshot in " + snapshotPath.toString());
+		}
+
+	}
+
+	@Override
+	public void close() {
+
+		release();
+		pool.close();
+
+	}
+
+	/**
+	 * Unmaps the current snapshot. A snapshot which was merely outdated by a registration is
+	 * left to the garbage collector instead, as concurrent readers may still be using it.
+	 */
+	private void release() {
+
+		Columns c = columns;
+		columns = null;
+
+		if (c != null) {
+			c.close();
+		}
+
+	}
+
+	/**
+	 * Sets the underlying pool to read only and compacts its content into a new
+	 * snapshot if it was modified
+	 */
+	@Override
+	public void setReadOnly() {
+
+		pool.setReadOnly();
+
+		if (columns != null || pool.size() == 0) {
+			return;
+		}
+
+		try {
+			columns = write();
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Could not write snapshot to " + snapshotPath.toString());
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+		}
+
+	}
+
+	@Override
+	public void setReadWrite() {
+
+		pool.setReadWrite();
+
+	}
+
+	@Override
+	public Iterable<Entry<byte[], Integer>> iterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.iterator();
+		}
+
+		return () -> new Iterator<Entry<byte[], Integer>>() {
+
+			int id = 0;
+
+			@Override
+			public boolean hasNext() {
+				return id < c.size;
+			}
+
+			@Override
+			public Entry<byte[], Integer> next() {
+				id++;
+				return new AbstractMap.SimpleEntry<byte[], Integer>(c.getAptamer(id), id);
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, byte[]>> inverse_view_iterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.inverse_view_iterator();
+		}
+
+		return () -> new Iterator<Entry<Integer, byte[]>>() {
+
+			int id = 0;
+
+			@Override
+			public boolean hasNext() {
+				return id < c.size;
+			}
+
+			@Override
+			public Entry<Integer, byte[]> next() {
+				id++;
+				return new AbstractMap.SimpleEntry<Integer, byte[]>(id, c.getAptamer(id));
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Integer> id_iterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.id_iterator();
+		}
+
+		return () -> new Iterator<Integer>() {
+
+			int id = 0;
+
+			@Override
+			public boolean hasNext() {
+				return id < c.size;
+			}
+
+			@Override
+			public Integer next() {
+				return ++id;
+			}
+
+		};
+
+	}
+
+	@Override
+	public Iterable<Entry<Integer, int[]>> bounds_iterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.bounds_iterator();
+		}
+
+		return () -> new Iterator<Entry<Integer, int[]>>() {
+
+			int id = 0;
+
+			@Override
+			public boolean hasNext() {
+				return id < c.size;
+			}
+
+			@Override
+			public Entry<Integer, int[]> next() {
+				id++;
+				return new AbstractMap.SimpleEntry<Integer, int[]>(id, c.getAptamerBounds(id));
+			}
+
+		};
+
+	}
+
+	/**
+	 * Splits the id range of the snapshot
+	 */
+	@Override
+	public Spliterator<Entry<byte[], Integer>> spliterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.spliterator();
+		}
+
+		return new KeyRangeSpliterator<Entry<byte[], Integer>>().add(KeyRangeSpliterator.ofIds(id -> new AbstractMap.SimpleEntry<byte[], Integer>(c.getAptamer(id), id)), 1, c.size + 1);
+
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, byte[]>> inverse_view_spliterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.inverse_view_spliterator();
+		}
+
+		return new KeyRangeSpliterator<Entry<Integer, byte[]>>().add(KeyRangeSpliterator.ofIds(id -> new AbstractMap.SimpleEntry<Integer, byte[]>(id, c.getAptamer(id))), 1, c.size + 1);
+
+	}
+
+	@Override
+	public Spliterator<Integer> id_spliterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.id_spliterator();
+		}
+
+		return new KeyRangeSpliterator<Integer>().add(KeyRangeSpliterator.ofIds(id -> id), 1, c.size + 1);
+
+	}
+
+	@Override
+	public Spliterator<Entry<Integer, int[]>> bounds_spliterator() {
+
+		Columns c = columns;
+		if (c == null) {
+			return pool.bounds_spliterator();
+		}
+
+		return new KeyRangeSpliterator<Entry<Integer, int[]>>().add(KeyRangeSpliterator.ofIds(id -> new AbstractMap.SimpleEntry<Integer, int[]>(id, c.getAptamerBounds(id))), 1, c.size + 1);
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+/**
+ * @author Jan Hoinka
+ * Binary encodings of structure profiles and base pair probabilities. An encoded
+ * structure consists of a single byte identifying the encoding, followed by the values
+ * in big endian order.
+ *
+ * <code>DOUBLE</code> stores the values verbatim (8 bytes per value).
+ * <code>FLOAT</code> stores single precision values (4 bytes per value).
+ * <code>FIXED16</code>, <code>FIXED8</code> store probabilities in <code>[0,1]</code> as
+ * fixed-point numbers with 16 and 8 bits respectively (2 and 1 bytes per value). Structures
+ * containing values outside of <code>[0,1]</code> are stored as <code>FLOAT</code> instead.
+ * The encoding is recorded per structure, hence structures of different encodings can be
+ * decoded alike.
+ *
+ * <code>getMaximalError()</code> bounds the absolute difference between a probability and its
+ * decoded value.
+ */
+public enum StructureEncoding {
+
+	DOUBLE(8, 0.0),
+	FLOAT(4, 0x1p-24),
+	FIXED16(2, 0.5 / 0xFFFF),
+	FIXED8(1, 0.5 / 0xFF);
+
+	/**
+	 * Number of bytes per value
+	 */
+	private final int bytes;
+
+	/**
+	 * Largest absolute error for values in <code>[0,1]</code>
+	 */
+	private final double maximalError;
+
+	private StructureEncoding(int bytes, double maximalError) {
+		this.bytes = bytes;
+		this.maximalError = maximalError;
+	}
+
+	/**
+	 * @return the number of bytes required per value
+	 */
+	public int getBytesPerValue() {
+		return bytes;
+	}
+
+	/**
+	 * @return the largest absolute difference between a value in <code>[0,1]</code> and its decoded value
+	 */
+	public double getMaximalError() {
+		return maximalError;
+	}
+
+	/**
+	 * @param name the name of the encoding, case insensitive
+	 * @return the corresponding encoding
+	 * @throws IllegalArgumentException if <code>name</code> is not a valid encoding
+	 */
+	public static StructureEncoding fromString(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	/**
+	 * Encodes <code>structure</code>
+	 * @param structure the values to encode
+	 * @return the encoded structure
+	 */
+	public byte[] encode(double[] structure) {
+
+		StructureEncoding encoding = this;
+
+		// Fixed-point numbers can only represent probabilities. Rounding errors of the
+		// prediction tools just outside [0,1] are clamped, staying within the error bound.
+		if (encoding == FIXED16 || encoding == FIXED8) {
+			for (double value : structure) {
+				if (!(value >= -maximalError && value <= 1.0 + maximalError)) {
+					encoding = FLOAT;
+					break;
+				}
+			}
+		}
+
+		byte[] encoded = new byte[1 + structure.length * encoding.bytes];
+		encoded[0] = (byte) encoding.ordinal();
+
+		int position = 1;
+		switch (encoding) {
+
+		case DOUBLE:
+			for (double value : structure) {
+				long bits = Double.doubleToRawLongBits(value);
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					encoded[position++] = (byte) (bits >>> shift);
+				}
+			}
+			break;
+
+		case FLOAT:
+			for (double value : structure) {
+				int bits = Float.floatToRawIntBits((float) value);
+				encoded[position++] = (byte) (bits >>> 24);
+				encoded[position++] = (byte) (bits >>> 16);
+				encoded[position++] = (byte) (bits >>> 8);
+				encoded[position++] = (byte) bits;
+			}
+			break;
+
+		case FIXED16:
+			for (double value : structure) {
+				int fixed = (int) Math.round(Math.min(Math.max(value, 0.0), 1.0) * 0xFFFF);
+				encoded[position++] = (byte) (fixed >>> 8);
+				encoded[position++] = (byte) fixed;
+			}
+			break;
+
+		case FIXED8:
+			for (double value : structure) {
+				encoded[position++] = (byte) Math.round(Math.min(Math.max(value, 0.0), 1.0) * 0xFF);
+			}
+			break;
+
+		}
+
+		return encoded;
+	}
+
+	/**
+	 * @param encoded an encoded structure
+	 * @return the number of values in <code>encoded</code>
+	 */
+	public static int length(byte[] encoded) {
+		return (encoded.length - 1) / values()[encoded[0]].bytes;
+	}
+
+	/**
+	 * Decodes <code>encoded</code> into a new array
+	 * @param encoded an encoded structure
+	 * @return the decoded values
+	 */
+	public static double[] decode(byte[] encoded) {
+
+		double[] structure = new double[length(encoded)];
+		decode(encoded, structure);
+
+		return structure;
+	}
+
+	/**
+	 * Decodes <code>encoded</code> into <code>destination</code>
+	 * @param encoded an encoded structure
+	 * @param destination receives the values, must hold at least <code>length(encoded)</code> elements
+	 * @return the number of values written to <code>destination</code>
+	 */
+	public static int decode(byte[] encoded, double[] destination) {
+
+		int length = length(encoded);
+		int position = 1;
+
+		switch (values()[encoded[0]]) {
+
+		case DOUBLE:
+			for (int i = 0; i < length; i++) {
+				long bits = 0;
+				for (int b = 0; b < 8; b++) {
+					bits = (bits << 8) | (encoded[position++] & 0xFF);
+				}
+				destination[i] = Double.longBitsToDouble(bits);
+			}
+			break;
+
+		case FLOAT:
+			for (int i = 0; i < length; i++, position += 4) {
+				int bits = (encoded[position] << 24) | ((encoded[position + 1] & 0xFF) << 16) | ((encoded[position + 2] & 0xFF) << 8) | (encoded[position + 3] & 0xFF);
+				destination[i] = Float.intBitsToFloat(bits);
+			}
+			break;
+
+		case FIXED16:
+			for (int i = 0; i < length; i++, position += 2) {
+				destination[i] = (((encoded[position] & 0xFF) << 8) | (encoded[position + 1] & 0xFF)) * (1.0 / 0xFFFF);
+			}
+			break;
+
+		case FIXED8:
+			for (int i = 0; i < length; i++, position++) {
+				destination[i] = (encoded[position] & 0xFF) * (1.0 / 0xFF);
+			}
+			break;
+
+		}
+
+		return length;
+	}
+
+}
@@ -32,6 +32,26 @@ public interface StructurePool {
 	 */
 	public double[] getStructure(int id);
 	
+	/**
+	 * Decodes the structural information belonging to aptamer with id <code>id</code> into
+	 * <code>buffer</code>, avoiding the allocation of a new array per lookup.
+	 * @param id the unique identifier corresponding to the aptamer in question
+	 * @param buffer receives the structural information, must be large enough to hold it
+	 * @return the number of elements written to <code>buffer</code>, -1 if aptamer id does
+	 * not exist in the pool
+	 */
+	public default int getStructure(int id, double[] buffer) {
+		
+		double[] structure = getStructure(id);
+		if (structure == null) {
+			return -1;
+		}
+		
+		System.arraycopy(structure, 0, buffer, 0, structure.length);
+		
+		return structure.length;
+	}
+	
 	
 	/**
 	 * Optional. Closes any file handles the implementing class might have.
@@ -70,6 +90,16 @@ public interface StructurePool {
 	 */
 	public Iterable<Entry<byte[],double[]>> sequence_iterator();
 	
+	/**
+	 * Provides an iterator over every stored structure in ascending order
+	 * of the aptamer ids. Implementations should read their storage sequentially
+	 * rather than looking up each id. Entries with a null structure are skipped
+	 * by the consumers.
+	 */
+	public default Iterable<Entry<Integer, double[]>> sorted_iterator() {
+		return iterator();
+	}
+	
 	/**
 	 * Returns the total number of predicted structures in the database
 	 * @return number of predicted structures
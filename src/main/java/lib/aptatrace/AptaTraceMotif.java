@@ -1,7 +1,6 @@
 package lib.aptatrace;
 
 import java.util.HashMap;
-import java.util.Iterator;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -11,6 +10,8 @@ import java.util.Map.Entry;
 import java.util.logging.Level;
 
 import lib.aptamer.datastructures.AptamerBounds;
+import lib.aptamer.datastructures.AptamerCursor;
+import lib.aptamer.datastructures.CountMatrix;
 import lib.aptamer.datastructures.Experiment;
 import utilities.AptaLogger;
 
@@ -466,6 +467,14 @@ public class AptaTraceMotif {
 			}
 		}
 		
+		// the counts of each aptamer in all cycles are read from a single row of the count matrix
+		CountMatrix countMatrix = experiment.getCountMatrix();
+		int[] rowCounts = new int[countMatrix.getNumberOfCycles()];
+		int[] cycleColumns = new int[cycles.size()];
+		for (int i = 0; i < cycles.size(); i++) {
+			cycleColumns[i] = countMatrix.getColumnIndex(cycles.get(i));
+		}
+		
 		int[] rc = new int[roundArr.size()];
 		int numR = roundArr.size();
 		HashMap<String, Integer> round2Id = new HashMap<String, Integer>();
@@ -534,24 +543,23 @@ public class AptaTraceMotif {
 
 			int poolSize = experiment.getAptamerPool().size();
 			int numDone = 0;
-			int[] bounds_array;
 			
-			Iterator<Entry<Integer, int[]>> bounds_it = experiment.getAptamerPool().bounds_iterator().iterator();
+			// walk sequences, bounds and structures of the pool in a single pass
+			AptamerCursor cursor = experiment.getAptamerPool().cursor(experiment.getStructurePool());
 			
 			startTime = System.nanoTime();
-			for (Entry<Integer,byte[]> aptamerArr : experiment.getAptamerPool().inverse_view_iterator()) {
+			for (AptamerCursor.Record record = cursor.next(); record != null; record = cursor.next()) {
 				seen.clear();
-				aptamer = new String(aptamerArr.getValue());
+				aptamer = new String(record.sequence);
 				aptamerLen = aptamer.length();
-				aptamerId = aptamerArr.getKey();
-				//AptamerBounds aptamerBounds = experiment.getAptamerPool().getAptamerBounds(aptamerId);
-				bounds_array = bounds_it.next().getValue();
+				aptamerId = record.id;
 				
 				numOR = 0;
 				rid = 0;
-				for (SelectionCycle sc : cycles) {
+				countMatrix.getCounts(aptamerId, rowCounts);
+				for (int column : cycleColumns) {
 					
-					cardinality = sc.getAptamerCardinality(aptamerId);
+					cardinality = rowCounts[column];
 					if (cardinality > 0) {
 						occCArr[numOR] = cardinality;
 						occRArr[numOR] = rid;
@@ -585,7 +593,7 @@ public class AptaTraceMotif {
 					}
 				}
 
-				contextLongArr = experiment.getStructurePool().getStructure(aptamerId);
+				contextLongArr = record.structure;
 				for (int j = 0; j < 5; j++) {
 
 					if (aptamerLen != ((int) (contextLongArr.length / 5.0))) {
@@ -600,8 +608,8 @@ public class AptaTraceMotif {
 				}
 
 				// startPos = (klength + fivePrime.length() - 1);
-				startPos = bounds_array[0] + klength - 1;
-				endPos = bounds_array[1];
+				startPos = record.startIndex + klength - 1;
+				endPos = record.endIndex;
 
 				// iterate through every kmer of the aptamer under consideration
 				// and sum up its number of occurrences and the sums of the
@@ -970,24 +978,24 @@ public class AptaTraceMotif {
 
 		int poolSize = experiment.getAptamerPool().size();
 		int numDone = 0;
-		int[] bounds_array;
-		Iterator<Entry<Integer, int[]>> bounds_it = experiment.getAptamerPool().bounds_iterator().iterator();
+		
+		// walk sequences, bounds and structures of the pool in a single pass
+		AptamerCursor cursor = experiment.getAptamerPool().cursor(experiment.getStructurePool());
 		
 		startTime = System.nanoTime();
 		try {
-			for (Entry<byte[], Integer> aptamerArr : experiment.getAptamerPool().iterator()) {
+			for (AptamerCursor.Record record = cursor.next(); record != null; record = cursor.next()) {
 				seen.clear();
-				aptamer = new String(aptamerArr.getKey());
+				aptamer = new String(record.sequence);
 				aptamerLen = aptamer.length();
-				aptamerId = aptamerArr.getValue();
-				//AptamerBounds aptamerBounds = experiment.getAptamerPool().getAptamerBounds(aptamerId);
-				bounds_array = bounds_it.next().getValue();
+				aptamerId = record.id;
 				
 				numOR = 0;
 				rid = 0;
-				for (SelectionCycle sc : cycles) {
+				countMatrix.getCounts(aptamerId, rowCounts);
+				for (int column : cycleColumns) {
 
-					cardinality = sc.getAptamerCardinality(aptamerId);
+					cardinality = rowCounts[column];
 					if (cardinality > 0) {
 						occCArr[numOR] = cardinality;
 						occRArr[numOR] = rid;
@@ -1014,7 +1022,7 @@ public class AptaTraceMotif {
 					}
 				}
 
-				contextLongArr = experiment.getStructurePool().getStructure(aptamerId);
+				contextLongArr = record.structure;
 				for (int j = 0; j < 5; j++) {
 
 					contextProbArr[j][0] = contextLongArr[j * aptamerLen];
@@ -1022,8 +1030,8 @@ public class AptaTraceMotif {
 						contextProbArr[j][k] = contextLongArr[j * aptamerLen + k] + contextProbArr[j][k - 1];
 				}
 
-				startPos = bounds_array[0] + klength - 1;
-				endPos = bounds_array[1];
+				startPos = record.startIndex + klength - 1;
+				endPos = record.endIndex;
  
 				if (occRArr[numOR - 1] == roundArr.size() - 1)
 					lastRoundPool.add(new Pair<Integer, Integer>(aptamerId, occCArr[numOR - 1]));
@@ -43,6 +43,7 @@ import lib.aptacluster.Buckets;
 import lib.aptamer.datastructures.AptamerBounds;
 import lib.aptamer.datastructures.AptamerPool;
 import lib.aptamer.datastructures.ClusterContainer;
+import lib.aptamer.datastructures.CountMatrix;
 import lib.aptamer.datastructures.Experiment;
 import lib.aptamer.datastructures.SelectionCycle;
 import lib.aptamer.datastructures.StructurePool;
@@ -234,17 +235,16 @@ public class Export {
 		
 		Quicksort.sort(aptamer_ids);
 		
-		for ( SelectionCycle cycle : Configuration.getExperiment().getAllSelectionCycles() ){
+		// The ids are dense, hence aptamer_ids[x] = x+1 corresponds to row x of the count matrix
+		CountMatrix counts = Configuration.getExperiment().getCountMatrix();
+		int[] column = new int[1 << 16];
+		for ( int x=0; x<counts.getNumberOfCycles(); x++ ){
 			
-			counter = 0;
-			for ( Entry<Integer, Integer> cycle_it : cycle.iterator()){
-				
-				// this is guaranteed to terminate since cycle ids are a subset 
-				// of the aptamer pool ids
-				while (aptamer_ids[counter] != cycle_it.getKey()){
-					counter++;
+			int read;
+			for ( int from = 1; (read = counts.getColumn(x, from, column)) > 0; from += read ){
+				for ( int i=0; i<read; i++ ){
+					aptamer_sums[from-1+i] += column[i];
 				}
-				aptamer_sums[counter] += cycle_it.getValue();
 			}
 			
 		}
@@ -285,6 +285,7 @@ public class Export {
 		
 		int pool_size = ap.size();
 		int progress = 0;
+		int[] row = new int[counts.getNumberOfCycles()];
 		for ( int aptamer_id : aptamer_ids){
 			
 			
@@ -318,14 +319,15 @@ public class Export {
 			}
 			
 			// Now the counts
+			counts.getCounts(aptamer_id, row);
 			counter = 2;
 			for ( SelectionCycle cycle : Configuration.getExperiment().getAllSelectionCycles() ){
 				
 				if (cardinality_format.equals("counts")) {
-					buffer[counter] = String.format("%s", cycle.getAptamerCardinality(aptamer_id));
+					buffer[counter] = String.format("%s", row[counter-2]);
 				}
 				if (cardinality_format.equals("frequencies")) {
-					buffer[counter] = String.format("%10.3e", new Double(cycle.getAptamerCardinality(aptamer_id)) / new Double(cycle.getSize()) );
+					buffer[counter] = String.format("%10.3e", new Double(row[counter-2]) / new Double(cycle.getSize()) );
 				}
 				
 				counter++;
@@ -573,20 +575,30 @@ public class Export {
 			int[] aptamer_ids = buckets.get(cluster_id).toArray();
 			Quicksort.sort(aptamer_ids, new AptamerSizeQSComparator(sc));
 			
+			// Fetch the sequences of the entire cluster at once
+			byte[][] sequences = new byte[aptamer_ids.length][];
+			AptamerBounds[] bounds = new AptamerBounds[aptamer_ids.length];
+			ap.getAptamers(aptamer_ids, sequences);
+			if (!include_primer_regions){
+				ap.getAptamerBounds(aptamer_ids, bounds);
+			}
+			
 			//Finally we can write the data to file
 			writer.write(">>Cluster_" + cluster_id + "\t" + buckets.get(cluster_id).size() +"\n");
 			
-			for ( int aptamer_id : aptamer_ids){
+			for ( int x=0; x<aptamer_ids.length; x++){
+				
+				int aptamer_id = aptamer_ids[x];
 				
 				writer.write(">Aptamer_" + aptamer_id + "\n");
 				
 				String sequence;
 				if (include_primer_regions){
-					sequence = new String(ap.getAptamer(aptamer_id));
+					sequence = new String(sequences[x]);
 				}
 				else{
-					AptamerBounds ab = ap.getAptamerBounds(aptamer_id);
-					sequence = new String(ap.getAptamer(aptamer_id), ab.startIndex, (ab.endIndex-ab.startIndex));
+					AptamerBounds ab = bounds[x];
+					sequence = new String(sequences[x], ab.startIndex, (ab.endIndex-ab.startIndex));
 				}
 				
 				writer.write(String.format("%s %s\n", sequence, sc.getAptamerCardinality(aptamer_id)));
@@ -748,20 +760,30 @@ public class Export {
 				int[] aptamer_ids = buckets.get(cluster_id).toArray();
 				Quicksort.sort(aptamer_ids, new AptamerSizeQSComparator(sc));
 				
+				// Fetch the sequences of the entire cluster at once
+				byte[][] sequences = new byte[aptamer_ids.length][];
+				AptamerBounds[] bounds = new AptamerBounds[aptamer_ids.length];
+				ap.getAptamers(aptamer_ids, sequences);
+				if (!include_primer_regions){
+					ap.getAptamerBounds(aptamer_ids, bounds);
+				}
+				
 				//Finally we can write the data to file
 				writer.write(">>Cluster_" + cluster_id + "\t" + cluster_sizes.get(cluster_id) + "\n");
 				
-				for ( int aptamer_id : aptamer_ids){
+				for ( int x=0; x<aptamer_ids.length; x++){
+					
+					int aptamer_id = aptamer_ids[x];
 					
 					writer.write(">Aptamer_" + aptamer_id + "\n");
 					
 					String sequence;
 					if (include_primer_regions){
-						sequence = new String(ap.getAptamer(aptamer_id));
+						sequence = new String(sequences[x]);
 					}
 					else{
-						AptamerBounds ab = ap.getAptamerBounds(aptamer_id);
-						sequence = new String(ap.getAptamer(aptamer_id), ab.startIndex, (ab.endIndex-ab.startIndex));
+						AptamerBounds ab = bounds[x];
+						sequence = new String(sequences[x], ab.startIndex, (ab.endIndex-ab.startIndex));
 					}
 					
 					writer.write(String.format("%s %s\n", sequence, sc.getAptamerCardinality(aptamer_id)));
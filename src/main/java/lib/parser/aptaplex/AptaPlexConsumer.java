@@ -12,12 +12,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import com.milaboratory.core.PairedEndReadsLayout;
 import com.milaboratory.core.io.sequence.PairedRead;
 import com.milaboratory.core.io.sequence.SingleReadImpl;
@@ -33,11 +30,8 @@ import lib.export.ExportWriter;
 import lib.export.FastqExportFormat;
 import lib.export.SequencingDirection;
 import lib.export.UncompressedExportWriter;
-import lib.parser.aptaplex.distances.BitapDistance;
 import lib.parser.aptaplex.distances.Distance;
-import lib.parser.aptaplex.distances.EditDistance;
 import lib.parser.aptaplex.distances.Result;
-import utilities.Accumulator;
 import utilities.AptaLogger;
 import utilities.Configuration;
 import utilities.Pair;
@@ -45,7 +39,7 @@ import utilities.Pair;
 /**
  * @author Jan Hoinka
  *
- *         The consumer implementation of aptaplex. The consumer takes reads
+ *         The consumer implementation of aptaplex. The consumer takes batches of reads
  *         from the queue, processes them and adds them to the aptamer pool.
  */
 public class AptaPlexConsumer implements Runnable {
@@ -96,6 +90,13 @@ public class AptaPlexConsumer implements Runnable {
 	 */
 	private List<byte[]> barcodes3 = new ArrayList<byte[]>();
 
+	/**
+	 * Precomputed variants of the 5' and 3' barcodes shared by all consumers. 
+	 * Null if no barcodes are present or the index is disabled.
+	 */
+	private BarcodeIndex barcodeIndex5 = null;
+	private BarcodeIndex barcodeIndex3 = null;
+
 	/**
 	 * List of all cycles in the same order as <code>barcodes</code>
 	 */
@@ -105,7 +106,6 @@ public class AptaPlexConsumer implements Runnable {
 	 * Access to the 5 prime primer
 	 */
 	private byte[] primer5 = Configuration.getParameters().getString("Experiment.primer5").getBytes();
-	private byte[] primer5reverse = Configuration.getParameters().getString("Experiment.primer5").getBytes();
 	
 	/**
 	 * Access to the 3 prime primer
@@ -157,6 +157,18 @@ public class AptaPlexConsumer implements Runnable {
 	 * Quality Scores etc of the data
 	 */
 	private Metadata metadata = Configuration.getExperiment().getMetadata();
+	
+	/**
+	 * Per position statistics of the reads processed by this consumer. These are 
+	 * added to <code>metadata</code> once the consumer terminates.
+	 */
+	private MetadataHistograms histograms = new MetadataHistograms();
+	
+	/**
+	 * Collapses identical accepted sequences of this consumer before they are 
+	 * written to their selection cycles
+	 */
+	private SelectionCycleAggregator aggregator = new SelectionCycleAggregator(Configuration.getParameters().getInt("AptaplexParser.LocalCountTableSize"));
 
 	/**
 	 * Instance of the MiTools merger used to create the contig sequences in
@@ -171,10 +183,16 @@ public class AptaPlexConsumer implements Runnable {
 
 	/**
 	 * Distance class used to determine the best match for barcodes and primers
-	 * in the contig.
+	 * in the contig. The implementation of the bitap matcher is defined by 
+	 * <code>AptaplexParser.distance</code>
+	 */
+	private Distance bitapDistance = null;
+
+	/**
+	 * Distance class used for primers exceeding the 32 nucleotides supported by
+	 * the bitap matchers. Defined by <code>AptaplexParser.longPatternDistance</code>
 	 */
-	private Distance bitapDistance = new BitapDistance();
-	private Distance editDistance = new EditDistance();
+	private Distance editDistance = null;
 
 	/**
 	 * Tolerances, i.e. maximal number of mismatches for matching primer and
@@ -194,10 +212,12 @@ public class AptaPlexConsumer implements Runnable {
 	 */
 	private FastqExportFormat fastqExportFormat = new FastqExportFormat("undetermined");
 	
-	public AptaPlexConsumer(BlockingQueue<Object> queue, AptaPlexProgress progress, Map<Path, Pair<ExportWriter,ExportWriter>> undeterminedExportWriterMap) {
+	public AptaPlexConsumer(BlockingQueue<Object> queue, AptaPlexProgress progress, Map<Path, Pair<ExportWriter,ExportWriter>> undeterminedExportWriterMap, BarcodeIndex barcodeIndex5, BarcodeIndex barcodeIndex3) {
 
 		this.queue = queue;
 		this.progress = progress;
+		this.barcodeIndex5 = barcodeIndex5;
+		this.barcodeIndex3 = barcodeIndex3;
 
 		// get the barcodes in the correct format
 		for (String barcode : Configuration.getParameters().getStringArray("AptaplexParser.barcodes5Prime")) {
@@ -259,127 +279,181 @@ public class AptaPlexConsumer implements Runnable {
 		// instantiate a file writer
 		this.undeterminedExportWriterMap = undeterminedExportWriterMap;
 		
-		// compute the reverse of the 5 primer primer. This is required due to the inner workings of the Bitap algorithm
-		ArrayUtils.reverse(this.primer5reverse);
+		// Create the matcher. Use reflection so we can define the backend in the configuration
+		try {
+			this.bitapDistance = (Distance) Class.forName("lib.parser.aptaplex.distances." + Configuration.getParameters().getString("AptaplexParser.distance")).getConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			throw new InvalidConfigurationException("Error, the backend for AptaplexParser.distance could not be instantiated. Please check your configuration.", e);
+		}
+		
+		try {
+			this.editDistance = (Distance) Class.forName("lib.parser.aptaplex.distances." + Configuration.getParameters().getString("AptaplexParser.longPatternDistance")).getConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			throw new InvalidConfigurationException("Error, the backend for AptaplexParser.longPatternDistance could not be instantiated. Please check your configuration.", e);
+		}
 	}
 
 	@Override
 	public void run() {
 
-		// keep taking elements from the queue
-		byte[] contig = null;
-		
+		try {
+			
+			consumeQueue();
+			
+		} finally {
+			
+			// write the remaining buffered sequences to their cycles...
+			aggregator.flush();
+			
+			// ...and make the statistics of this thread available to the experiment
+			histograms.mergeInto(metadata);
+			
+		}
+
+	}
+	
+	/**
+	 * Keeps taking batches of reads from the queue until the poison pill is encountered
+	 */
+	private void consumeQueue() {
+
+		// keep taking batches of reads from the queue
 		while (isRunning) {
+			
+			Object queueElement = null;
+			
 			try {
-				Object queueElement = queue.take();
+				queueElement = queue.take();
 
 				if (queueElement == Configuration.POISON_PILL) {
 					AptaLogger.log(Level.CONFIG, this.getClass(), "Encountered poison pill. Exiting thread.");
 					queue.put(Configuration.POISON_PILL); // notify other threads to stop
 					return;
 				}
+				
+			} catch (InterruptedException e) {
+				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+				return;
+			}
+			
+			for (Read queueRead : (Read[]) queueElement) {
+				consumeRead(queueRead);
+			}
+			
+		}
 
-				// get the contig...
-				contig = getContig(queueElement);
+	}
+	
+	/**
+	 * Processes a single read taken from the queue and updates the progress accordingly
+	 * @param queueRead the read to process
+	 */
+	private void consumeRead(Read queueRead) {
+		
+		byte[] contig = null;
+		
+		try {
+			// get the contig...
+			contig = getContig(queueRead);
+			
+			// ...check for undetermined nucleotides and fail if present...
+			// getContig returns null if invalid nucleotides are present.
+			if (contig == null) {
+				progress.totalInvalidContigs.incrementAndGet();
+				return;
+			}
+			
+			
+			// Batch mode
+			if (this.batchMode) {
+				this.processBatchMode(contig);
+			}
+			// we need to differentiate between randomized region only mode, 
+			// and fully parsable data
+			else if (this.onlyRandomizedRegionInData) {
 				
-				// ...check for undetermined nucleotides and fail if present...
-				// getContig returns null if invalid nucleotides are present.
-				if (contig == null) {
-					progress.totalInvalidContigs.incrementAndGet();
-					continue;
-				}
+				this.processReadRandomizedRegionOnly(contig);
+				
+			}
+			else {
+			
+				// ...now try to process it
+				AtomicInteger returnCode = processRead(contig, false, null);
 				
+				// only look into reverse complement if configuration indicates it and above matching has failed
+				if (returnCode != null && checkReverseComplement) {
 				
-				// Batch mode
-				if (this.batchMode) {
-					this.processBatchMode(contig);
-				}
-				// we need to differentiate between randomized region only mode, 
-				// and fully parsable data
-				else if (this.onlyRandomizedRegionInData) {
+					// if reverse complement is requested, compute it, in-place
+					// sequence in byte array representation (ASCII)
+					for (int x = 0; x < contig.length; x++) {
+		
+						switch (contig[x]) {
+						case 65:
+							contig[x] = 84;
+							break;
+		
+						case 67:
+							contig[x] = 71;
+							break;
+		
+						case 71:
+							contig[x] = 67;
+							break;
+		
+						case 84:
+							contig[x] = 65;
+							break;
+						}
+					}
 					
-					this.processReadRandomizedRegionOnly(contig);
+					for (int i = 0; i < contig.length / 2; i++) {
+						byte temp_s = contig[i];
+						contig[i] = contig[contig.length - i - 1];
+						contig[contig.length - i - 1] = temp_s;
+					}
 					
+					// process as usual
+					returnCode = processRead(contig, true, returnCode);
+						
 				}
-				else {
 				
-					// ...now try to process it
-					AtomicInteger returnCode = processRead(contig, false, null);
+				// if we could still not parse this read, we write it to the 
+				// undetermined lane if the user requested it
+				if (returnCode != null && undeterminedExportWriterMap != null) {
 					
-					// only look into reverse complement if configuration indicates it and above matching has failed
-					if (returnCode != null && checkReverseComplement) {
+					// Forward 
+					undeterminedExportWriterMap.get(read.source_forward).first.write(fastqExportFormat.format(read, SequencingDirection.FORWARD));
 					
-						// if reverse complement is requested, compute it, in-place
-						// sequence in byte array representation (ASCII)
-						for (int x = 0; x < contig.length; x++) {
-			
-							switch (contig[x]) {
-							case 65:
-								contig[x] = 84;
-								break;
-			
-							case 67:
-								contig[x] = 71;
-								break;
-			
-							case 71:
-								contig[x] = 67;
-								break;
-			
-							case 84:
-								contig[x] = 65;
-								break;
-							}
-						}
-						
-						for (int i = 0; i < contig.length / 2; i++) {
-							byte temp_s = contig[i];
-							contig[i] = contig[contig.length - i - 1];
-							contig[contig.length - i - 1] = temp_s;
-						}
-						
-						// process as usual
-						returnCode = processRead(contig, true, returnCode);
-							
-					}
+					// Reverse
+					if (undeterminedExportWriterMap.get(read.source_forward).second != null) {
 					
-					// if we could still not parse this read, we write it to the 
-					// undetermined lane if the user requested it
-					if (returnCode != null && undeterminedExportWriterMap != null) {
-						
-						// Forward 
-						undeterminedExportWriterMap.get(read.source_forward).first.write(fastqExportFormat.format(read, SequencingDirection.FORWARD));
-						
-						// Reverse
-						if (undeterminedExportWriterMap.get(read.source_forward).second != null) {
-						
-							undeterminedExportWriterMap.get(read.source_forward).second.write(fastqExportFormat.format(read, SequencingDirection.REVERSE));
-							
-						}
+						undeterminedExportWriterMap.get(read.source_forward).second.write(fastqExportFormat.format(read, SequencingDirection.REVERSE));
 						
 					}
 					
 				}
 				
-				// Update the progress in a thread-safe manner
-				progress.totalProcessedReads.incrementAndGet();
+			}
+			
+			// Update the progress in a thread-safe manner
+			progress.totalProcessedReads.incrementAndGet();
 
 
-			} catch (Exception e) {
-				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
-				AptaLogger.log(Level.SEVERE, this.getClass(), String.format("Aptamer: %s", new String(contig)));
-			}
+		} catch (Exception e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			AptaLogger.log(Level.SEVERE, this.getClass(), String.format("Aptamer: %s", contig == null ? "null" : new String(contig)));
 		}
 
 	}
 
-	private byte[] getContig(Object queueElement) {
+	private byte[] getContig(Read queueRead) {
 		
-		// keep taking elements from the queue
 		byte[] contig = null;
 		
-		// process queueElement
-		read = (Read) queueElement;
+		// process queueRead
+		read = queueRead;
 		
 		// Differentiate between single-end and paired-end sequencing
 		if (read.reverse_read != null) {
@@ -439,7 +513,7 @@ public class AptaPlexConsumer implements Runnable {
 		 // and add it to the selection cycle	 
 		 if (!storeReverseComplement) { // Do we have to compute the reverse complement?
 		 
-			read.selection_cycle.addToSelectionCycle(
+			aggregator.add(read.selection_cycle,
 				 contig,
 				 0,
 				 contig.length
@@ -480,7 +554,7 @@ public class AptaPlexConsumer implements Runnable {
 			    contig[contig.length - i - 1] = temp;
 			}
 			
-			read.selection_cycle.addToSelectionCycle(
+			aggregator.add(read.selection_cycle,
 					 contig,
 					 0,
 					 contig.length
@@ -523,7 +597,7 @@ public class AptaPlexConsumer implements Runnable {
 		 // and add it to the selection cycle	 
 		 if (!storeReverseComplement) { // Do we have to compute the reverse complement?
 		 
-			read.selection_cycle.addToSelectionCycle(
+			aggregator.add(read.selection_cycle,
 				 contig,
 				 primer5.length,
 				 primer5.length + (randomized_region_end_index-randomized_region_start_index)
@@ -568,7 +642,7 @@ public class AptaPlexConsumer implements Runnable {
 			int start = contig.length - (primer5.length + (randomized_region_end_index-randomized_region_start_index));
 			int end = contig.length - primer5.length;
 			
-			read.selection_cycle.addToSelectionCycle(
+			aggregator.add(read.selection_cycle,
 					 contig
 					 ,start
 					 ,end
@@ -607,15 +681,9 @@ public class AptaPlexConsumer implements Runnable {
 		
 		// Match the 5' primer
 		// Since the bitab algorithms starts at the 3' end of the sequence
-		// and returns the first element which matches, we need to turn the search 
-		// problem around
-		byte[] contigreverse = contig.clone();
-		ArrayUtils.reverse(contigreverse);		
-		
-		Result primer5_match = matchPrimer(contigreverse, primer5reverse);
-		if (primer5_match != null){
-			primer5_match.index = contig.length - primer5_match.index - primer5reverse.length; 
-		}
+		// and returns the first element which matches, we need to search 
+		// in the opposite direction
+		Result primer5_match = matchPrimer(contig, primer5, true);
 
 		if (primer5_match == null) { // no match
 			progress.totalUnmatchablePrimer5.incrementAndGet();
@@ -628,7 +696,7 @@ public class AptaPlexConsumer implements Runnable {
 		// Match the 3' primer if present
 		Result primer3_match = null;
 		if (primer3 != null) {
-			primer3_match = matchPrimer(contig, primer3);
+			primer3_match = matchPrimer(contig, primer3, false);
 
 			if (primer3_match == null){ // no match
 				progress.totalUnmatchablePrimer3.incrementAndGet();
@@ -656,7 +724,7 @@ public class AptaPlexConsumer implements Runnable {
 		}
 		
 		// the primers need to be checked for overlap
-		 if (primer3 != null && isOverlapped(primer5_match, primer5, primer3_match, primer3)){
+		 if (primer3 != null && isOverlapped(primer5_match, primer3_match)){
 			 progress.totalPrimerOverlaps.incrementAndGet();
 			 if(previous_return_code != null) {
 				 previous_return_code.decrementAndGet();
@@ -664,8 +732,12 @@ public class AptaPlexConsumer implements Runnable {
 			 return progress.totalPrimerOverlaps;
 		 }
 		
-		 // we can now extract the randomized region
-		 randomized_region_start_index = primer5_match.index + primer5.length;
+		 // we can now extract the randomized region. The primers are delimited by the 
+		 // length of their matches which, for matchers tolerating indels, may differ 
+		 // from the primer lengths
+		 int primer5_length = primer5_match.length;
+		 int primer3_length = primer3_match != null ? primer3_match.length : 0;
+		 randomized_region_start_index = primer5_match.index + primer5_length;
 		 randomized_region_end_index = -1;
 		
 		 if (primer3 == null){ //use Experiment.randomizedRegionSize
@@ -679,18 +751,18 @@ public class AptaPlexConsumer implements Runnable {
 		 // add it to the selection cycle
 		 if (		// Sanity checks
 				    (randomized_region_start_index < randomized_region_end_index && randomized_region_end_index <= contig.length) //Primers are in the correct order
-				 && (randomized_region_start_index-primer5.length >= 0) // 5' primer does not overshoot the contig to the left
-				 && (randomized_region_end_index+primer3.length <= contig.length) // 3' primer does not overshoot the contig to the right
+				 && (randomized_region_start_index-primer5_length >= 0) // 5' primer does not overshoot the contig to the left
+				 && (randomized_region_end_index+primer3_length <= contig.length) // 3' primer does not overshoot the contig to the right
 				 && (randomizedRegionSizeExactBound != null ? (randomized_region_end_index-randomized_region_start_index) == randomizedRegionSizeExactBound : true) // if the randomized region is specified, only let those aptamers through that have the desired lenght
 				 && (randomizedRegionSizeLowerBound != null ? randomizedRegionSizeLowerBound <= (randomized_region_end_index-randomized_region_start_index) && (randomized_region_end_index-randomized_region_start_index) <= randomizedRegionSizeUpperBound : true) // if a range of sizes is specified, make sure the aptamer falls into these categories
 			){
 			 
 			 if (!storeReverseComplement) { // Do we have to compute the reverse complement?
 			 
-				read.selection_cycle.addToSelectionCycle(
-					 Arrays.copyOfRange(contig, randomized_region_start_index-primer5.length, randomized_region_end_index+primer3.length)
-					 ,primer5.length
-					 ,primer5.length + (randomized_region_end_index-randomized_region_start_index)
+				aggregator.add(read.selection_cycle,
+					 Arrays.copyOfRange(contig, randomized_region_start_index-primer5_length, randomized_region_end_index+primer3_length)
+					 ,primer5_length
+					 ,primer5_length + (randomized_region_end_index-randomized_region_start_index)
 					 );
 				 
 			 	// Add metadata information
@@ -699,7 +771,7 @@ public class AptaPlexConsumer implements Runnable {
 			 } else { // We do!
 				 
 				// First, extract the relevant region from the read
-				contig = Arrays.copyOfRange(contig, randomized_region_start_index-primer5.length, randomized_region_end_index+primer3.length);
+				contig = Arrays.copyOfRange(contig, randomized_region_start_index-primer5_length, randomized_region_end_index+primer3_length);
 				 
 				// Now compute the reverse complement
 				for (int x = 0; x < contig.length; x++) {
@@ -733,10 +805,10 @@ public class AptaPlexConsumer implements Runnable {
 				
 
 				// We also need tyo recompute the boundaries
-				int start = contig.length - (primer5.length + (randomized_region_end_index-randomized_region_start_index));
-				int end = contig.length - primer5.length;
+				int start = contig.length - (primer5_length + (randomized_region_end_index-randomized_region_start_index));
+				int end = contig.length - primer5_length;
 				
-				read.selection_cycle.addToSelectionCycle(
+				aggregator.add(read.selection_cycle,
 						 contig
 						 ,start
 						 ,end
@@ -759,7 +831,7 @@ public class AptaPlexConsumer implements Runnable {
 			 
 		 }else { // Handle errors
 			 
-			 if (randomized_region_start_index-primer5.length < 0) {
+			 if (randomized_region_start_index-primer5_length < 0) {
 				 
 				 progress.totalUnmatchablePrimer5.incrementAndGet();
 				 if(previous_return_code != null) {
@@ -768,7 +840,7 @@ public class AptaPlexConsumer implements Runnable {
 				 return progress.totalUnmatchablePrimer5;
 				 
 			 }
-			 else if(randomized_region_end_index+primer3.length > contig.length) {
+			 else if(randomized_region_end_index+primer3_length > contig.length) {
 				 
 				 progress.totalUnmatchablePrimer3.incrementAndGet();
 				 if(previous_return_code != null) {
@@ -887,18 +959,21 @@ public class AptaPlexConsumer implements Runnable {
 	 * @param c
 	 *            contig
 	 * @param primer
+	 * @param reverse
+	 *            if true, the contig is searched in the opposite direction of the 
+	 *            matching algorithm, i.e. from the 5' end.
 	 * @return Result object containing the start index of the position and the
 	 *         score. null if no match was found
 	 */
-	private Result matchPrimer(byte[] c, byte[] primer) { 
+	private Result matchPrimer(byte[] c, byte[] primer, boolean reverse) { 
 		
-		if (primer.length > 32) { // we default to the slower edit distance
-			return editDistance.indexOf(c, primer, primerTolerance, 0, c.length);
+		if (primer.length > 32) { // we default to the matcher for long patterns
+			return reverse ? editDistance.reverseIndexOf(c, primer, primerTolerance, 0, c.length) : editDistance.indexOf(c, primer, primerTolerance, 0, c.length);
 		}
 		else{ // we can use the fast bitap algorithm
 			
 			// and an approximate match
-			Result best_match = bitapDistance.indexOf(c, primer, primerTolerance, 0, c.length);
+			Result best_match = reverse ? bitapDistance.reverseIndexOf(c, primer, primerTolerance, 0, c.length) : bitapDistance.indexOf(c, primer, primerTolerance, 0, c.length);
 
 			// if matching failed, there is no need to continue
 			if (best_match == null) {
@@ -933,14 +1008,15 @@ public class AptaPlexConsumer implements Runnable {
 					return best_match;
 				}
 
-				// we have to shift to the left and compare again until the
+				// we have to shift against the search direction and compare again until the
 				// tolerance is reached
 				int best_mismatches = mismatches;
 				int best_index = best_match.index;
+				int direction = reverse ? 1 : -1;
 
 				for (int t = 1; t < primerTolerance; t++) {
 					mismatches = 0;
-					for (int x = best_match.index - t, y = 0; y < primer.length; x++, y++) {
+					for (int x = best_match.index + direction * t, y = 0; y < primer.length; x++, y++) {
 						
 						try{
 							if (c[x] != primer[y]) {
@@ -955,7 +1031,7 @@ public class AptaPlexConsumer implements Runnable {
 					// do we have a better match?
 					if (best_mismatches > mismatches) {
 						best_mismatches = mismatches;
-						best_index = best_match.index - t;
+						best_index = best_match.index + direction * t;
 					}
 				}
 
@@ -976,7 +1052,9 @@ public class AptaPlexConsumer implements Runnable {
 
 	/**
 	 * Align all barcodes to the contig and assign it to the selection cycle
-	 * with the best alignment score.
+	 * with the best alignment score. If a barcode index is available, the 
+	 * region adjacent to the primer is looked up first and the alignment is 
+	 * only performed if that region is not within the tolerance of any barcode.
 	 * 
 	 * @param c
 	 *            contig
@@ -994,7 +1072,13 @@ public class AptaPlexConsumer implements Runnable {
 		Integer barcode_index5 = null;
 		if (barcodes5.size() != 0) {
 
-			for (int x = 0; x < barcodes5.size(); x++) {
+			// a single probe suffices if the barcode is directly adjacent to the primer
+			int indexed_match = barcodeIndex5 == null ? BarcodeIndex.NOT_FOUND : barcodeIndex5.lookupBefore(c, primermatch5.index);
+			if (indexed_match >= 0) {
+				barcode_index5 = indexed_match;
+			}
+
+			for (int x = 0; indexed_match == BarcodeIndex.NOT_FOUND && x < barcodes5.size(); x++) {
 				// restrict the search space to the left side of the 5' primer
 				Result current_match = bitapDistance.indexOf(c, barcodes5.get(x), barcodeTolerance, 0,
 						primermatch5.index);
@@ -1012,10 +1096,16 @@ public class AptaPlexConsumer implements Runnable {
 		Integer barcode_index3 = null;
 		if (barcodes3.size() != 0) {
 
-			for (int x = 0; x < barcodes3.size(); x++) {
+			// a single probe suffices if the barcode is directly adjacent to the primer
+			int indexed_match = barcodeIndex3 == null ? BarcodeIndex.NOT_FOUND : barcodeIndex3.lookupAfter(c, primermatch3.index + primermatch3.length);
+			if (indexed_match >= 0) {
+				barcode_index3 = indexed_match;
+			}
+
+			for (int x = 0; indexed_match == BarcodeIndex.NOT_FOUND && x < barcodes3.size(); x++) {
 				// restrict the search space to the right side of the 3' primer
 				Result current_match = bitapDistance.indexOf(c, barcodes3.get(x), barcodeTolerance,
-						primermatch3.index + primer3.length, c.length);
+						primermatch3.index + primermatch3.length, c.length);
 
 				if (current_match != null && (barcodeMatch3 == null || barcodeMatch3.errors > current_match.errors)
 						&& current_match.errors <= barcodeTolerance) {
@@ -1052,20 +1142,18 @@ public class AptaPlexConsumer implements Runnable {
 	 * Given the alignment of 2 sequences onto the same contig, check if their
 	 * alignment positions overlap.
 	 * 
-	 * @param al1
-	 * @param al2
-	 * @param seq1
-	 * @param seq2
+	 * @param match1
+	 * @param match2
 	 * @return true if overlap is detected, false otherwise
 	 */
-	private boolean isOverlapped(Result match1, byte[] seq1, Result match2, byte[] seq2) {
+	private boolean isOverlapped(Result match1, Result match2) {
 
 		// define the boundary of the sequences in coordinated of the contig
 		int s1start = match1.index;
-		int s1end = s1start + seq1.length - 1;
+		int s1end = s1start + match1.length - 1;
 
 		int s2start = match2.index;
-		int s2end = s2start + seq2.length - 1;
+		int s2end = s2start + match2.length - 1;
 
 		// check for overlap
 		if ( (s1end >= s2start && s1end >= s2end ) || (s1start <= s2end && s1start >= s2start) ) {
@@ -1078,107 +1166,43 @@ public class AptaPlexConsumer implements Runnable {
 	
 	/**
 	 * Takes the quality scores of the current read and adds them to the 
-	 * meta data accumulator of the selection cycle c. Note this function
-	 * assumes all reads are of the same length.
-	 * @param c the selection cycle corresponding to this read
+	 * thread-local histograms of the selection cycle of this read. 
 	 */
 	private void addQualityScores() {
 		
 		// Forward read
 		if (read.forward_quality != null) {
-		
-			ConcurrentHashMap<Integer, Accumulator> forward = metadata.qualityScoresForward.get(read.selection_cycle.getName());
-			
-			// Iterate over the read and add quality scores to the accumulators
-			for (int i= 0; i < read.forward_quality.length; i++) {
-				
-				if(!forward.containsKey(i)) forward.put(i, new Accumulator());
-				forward.get(i).addDataValue(read.forward_quality[i]-33);
-				
-			}
-			
+			histograms.addQualityScores(read.selection_cycle.getName(), read.forward_quality, true);
 		}
 		
 		// Reverse read
 		if (read.reverse_quality != null) {
-		
-			ConcurrentHashMap<Integer, Accumulator> reverse = metadata.qualityScoresReverse.get(read.selection_cycle.getName());
-			
-			// Iterate over the read and add quality scores to the accumulators
-			for (int i= 0; i < read.reverse_quality.length; i++) {
-				
-				if(!reverse.containsKey(i)) reverse.put(i, new Accumulator());
-				reverse.get(i).addDataValue(read.reverse_quality[i]-33);
-				
-			}
-			
+			histograms.addQualityScores(read.selection_cycle.getName(), read.reverse_quality, false);
 		}
 		
 	}
 	
 	/**
 	 * Iterates over the forward and reverse read (if present) and adds 
-	 * the nucleotide counts to the meta data
-	 * @param c
+	 * the nucleotide counts to the thread-local histograms
 	 */
 	private void addNuceotideDistributions() {
 		
 		// Forward read
 		if (read.forward_read != null) {
-		
-			ConcurrentHashMap<Integer,ConcurrentHashMap<Byte,Integer>> forward = metadata.nucleotideDistributionForward.get(read.selection_cycle.getName());
-			
-			// Iterate over the read add add quality scores to the accumulators
-			for (int i= 0; i < read.forward_read.length; i++) {
-				
-				// Make sure the entry exists prior to adding
-				if(!forward.containsKey(i)) {
-					ConcurrentHashMap<Byte,Integer> map = new ConcurrentHashMap<Byte,Integer>();
-					map.put((byte) 'A', 0); 
-					map.put((byte) 'C', 0);
-					map.put((byte) 'G', 0);
-					map.put((byte) 'T', 0);
-					map.put((byte) 'N', 0);
-					forward.put(i, map);
-				}
-				
-				// Add nucleotides
-				forward.get(i).put(read.forward_read[i], forward.get(i).get(read.forward_read[i])+1 );
-			}
-			
+			histograms.addNucleotides(read.selection_cycle.getName(), read.forward_read, true);
 		}
 		
 		// Reverse read
 		if (read.reverse_read != null) {
-		
-			ConcurrentHashMap<Integer,ConcurrentHashMap<Byte,Integer>> reverse = metadata.nucleotideDistributionReverse.get(read.selection_cycle.getName());
-			
-			// Iterate over the read add add quality scores to the accumulators
-			for (int i= 0; i < read.reverse_read.length; i++) {
-				
-				// Make sure the entry exists prior to adding
-				if(!reverse.containsKey(i)) {
-					ConcurrentHashMap<Byte,Integer> map = new ConcurrentHashMap<Byte,Integer>();
-					map.put((byte) 'A', 0); 
-					map.put((byte) 'C', 0);
-					map.put((byte) 'G', 0);
-					map.put((byte) 'T', 0);
-					map.put((byte) 'N', 0);
-					reverse.put(i, map);
-				}
-				
-				// Add nucleotides
-				reverse.get(i).put(read.reverse_read[i], reverse.get(i).get(read.reverse_read[i])+1 );
-				
-			}
-			
+			histograms.addNucleotides(read.selection_cycle.getName(), read.reverse_read, false);
 		}
 		
 	}
 	
 	/**
-	 * Adds the nucleotide distribution of the randomized region to the meta data, categorized 
-	 * by the length of the region
+	 * Adds the nucleotide distribution of the randomized region to the thread-local histograms, 
+	 * categorized by the length of the region
 	 * @param sc
 	 * @param contig
 	 * @param randomized_region_start_index
@@ -1186,38 +1210,7 @@ public class AptaPlexConsumer implements Runnable {
 	 */
 	private void addAcceptedNucleotideDistributions(SelectionCycle sc, byte[] contig, int randomized_region_start_index, int randomized_region_end_index) {
 		
-		int randomized_region_size = randomized_region_end_index - randomized_region_start_index;
-
-		// Make sure we have seen this randomized region size before, else create placeholder
-		if (!metadata.nucleotideDistributionAccepted.get(sc.getName()).containsKey(randomized_region_size)) {
-					
-			metadata.nucleotideDistributionAccepted.get(sc.getName()).put(randomized_region_size, new ConcurrentHashMap<Integer, ConcurrentHashMap<Byte, Integer>>());
-			
-		}
-		
-		ConcurrentHashMap<Integer, ConcurrentHashMap<Byte, Integer>> accepted = metadata.nucleotideDistributionAccepted.get(sc.getName()).get(randomized_region_size);
-		
-		int i = 0;
-		for (int x=randomized_region_start_index; x<randomized_region_end_index; x++) {
-			
-			// Make sure the entry exists prior to adding
-			if (!accepted.containsKey(i)) {
-				
-				ConcurrentHashMap<Byte,Integer> map = new ConcurrentHashMap<Byte,Integer>(5);
-				map.put((byte) 'A', 0); 
-				map.put((byte) 'C', 0);
-				map.put((byte) 'G', 0);
-				map.put((byte) 'T', 0);
-				map.put((byte) 'N', 0);
-				accepted.put(i, map);
-				
-			}
-			
-			// Add nucleotides
-			accepted.get(i).put(contig[x], accepted.get(i).get(contig[x])+1);
-			
-			i++;
-		}
+		histograms.addAcceptedNucleotides(sc.getName(), contig, randomized_region_start_index, randomized_region_end_index);
 		
 	}
 	
@@ -11,8 +11,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -54,8 +56,10 @@ public class AptaPlexParser implements Parser, Runnable{
 	@Override
 	public void parse() {
 
-		// Creating shared object
-		BlockingQueue<Object> sharedQueue = new ArrayBlockingQueue<>(Configuration.getParameters().getInt("AptaplexParser.BlockingQueueSize"));																// this
+		// Creating shared object. The queue holds batches of reads, its capacity is 
+		// derived such that at most AptaplexParser.BlockingQueueSize reads are buffered
+		int queueBatches = Math.max(1, Configuration.getParameters().getInt("AptaplexParser.BlockingQueueSize") / Math.max(1, Configuration.getParameters().getInt("AptaplexParser.ReadBatchSize")));
+		BlockingQueue<Object> sharedQueue = new ArrayBlockingQueue<>(queueBatches);																// this
 
 		// We need to know how many threads we can use on the system
 		int num_threads = Math.min( Runtime.getRuntime().availableProcessors(), Configuration.getParameters().getInt("Performance.maxNumberOfCores"));
@@ -75,13 +79,24 @@ public class AptaPlexParser implements Parser, Runnable{
 			
 		}
 		
+		// Demultiplexing by barcode is shared by all consumers, so the variants are only enumerated once
+		BarcodeIndex barcodeIndex5 = null;
+		BarcodeIndex barcodeIndex3 = null;
+		if (!Configuration.getParameters().getBoolean("AptaplexParser.isPerFile") && Configuration.getParameters().getBoolean("AptaplexParser.BarcodeIndex")) {
+			
+			barcodeIndex5 = createBarcodeIndex("AptaplexParser.barcodes5Prime");
+			barcodeIndex3 = createBarcodeIndex("AptaplexParser.barcodes3Prime");
+			
+		}
+		
 		// Creating Producer and Consumer Threads using the ExecutorService to manage them
+		progress.start();
 		ExecutorService es = Executors.newCachedThreadPool();
-		es.execute(new Thread(new AptaPlexProducer(sharedQueue, undeterminedExportWriterMap), "AptaPlex Producer"));
-		es.execute(new Thread(new AptaPlexConsumer(sharedQueue, progress, undeterminedExportWriterMap), "AptaPlex Consumer 1"));
+		Future<?> producer = es.submit(new Thread(new AptaPlexProducer(sharedQueue, undeterminedExportWriterMap), "AptaPlex Producer"));
+		es.execute(new Thread(new AptaPlexConsumer(sharedQueue, progress, undeterminedExportWriterMap, barcodeIndex5, barcodeIndex3), "AptaPlex Consumer 1"));
 		
 		for (int x=1; x<num_threads-1; x++){
-			es.execute(new Thread(new AptaPlexConsumer(sharedQueue, progress, undeterminedExportWriterMap), "AptaPlex Consumer " + (x+1)));
+			es.execute(new Thread(new AptaPlexConsumer(sharedQueue, progress, undeterminedExportWriterMap, barcodeIndex5, barcodeIndex3), "AptaPlex Consumer " + (x+1)));
 		}
 		
 		// Make sure threads are GCed once completed
@@ -95,6 +110,8 @@ public class AptaPlexParser implements Parser, Runnable{
 			e.printStackTrace();
 		}
 		
+		AptaLogger.log(Level.INFO, this.getClass(), String.format("Processed %s reads at %s reads/s using a read batch size of %s", progress.totalProcessedReads.get(), progress.getReadsPerSecond(), Configuration.getParameters().getInt("AptaplexParser.ReadBatchSize")));
+		
 		// At this point we have to close all file handles in the undetermined lanes
 		if (undeterminedExportWriterMap != null) {
 			
@@ -111,8 +128,51 @@ public class AptaPlexParser implements Parser, Runnable{
 			
 		}
 		
+		// Parsing must not appear successful if the producer failed, e.g. because a file could not be read
+		try {
+			producer.get();
+		} catch (ExecutionException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Parsing was aborted, the data is incomplete.");
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
 	}
 
+	/**
+	 * Builds the barcode index for the barcodes stored under the given configuration key
+	 * @param key either AptaplexParser.barcodes5Prime or AptaplexParser.barcodes3Prime
+	 * @return the index, or null if no barcodes are specified or they cannot be indexed. In the 
+	 * latter case the consumers align every barcode to the reads.
+	 */
+	private BarcodeIndex createBarcodeIndex(String key) {
+		
+		ArrayList<byte[]> barcodes = new ArrayList<byte[]>();
+		for (String barcode : Configuration.getParameters().getStringArray(key)) {
+			barcodes.add(barcode.getBytes());
+		}
+		
+		if (barcodes.isEmpty()) {
+			return null;
+		}
+		
+		try {
+			
+			BarcodeIndex index = new BarcodeIndex(barcodes, Configuration.getParameters().getInt("AptaplexParser.BarcodeTolerance"));
+			
+			if (index.getCollisions() != 0) {
+				AptaLogger.log(Level.WARNING, this.getClass(), String.format("%s variants of %s are within the barcode tolerance of more than one barcode", index.getCollisions(), key));
+			}
+			
+			return index;
+			
+		} catch (IllegalArgumentException e) {
+			AptaLogger.log(Level.WARNING, this.getClass(), "Barcode index disabled for " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
 	@Override
 	public void parsingCompleted() {
 
@@ -124,6 +184,9 @@ public class AptaPlexParser implements Parser, Runnable{
 			}
 		}
 		
+		// Collect the counts of all cycles while the data is still in the page cache
+		Configuration.getExperiment().getCountMatrix();
+		
 		// Store the final progress data to the metadata statistics
 		Metadata metadata = Configuration.getExperiment().getMetadata();
 		
@@ -6,9 +6,17 @@ package lib.parser.aptaplex;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import exceptions.InvalidSequenceReadFileException;
 import lib.export.CompressedExportWriter;
@@ -23,7 +31,8 @@ import utilities.Pair;
  * This class implements the Producer of the parser. 
  * Depending on the specified file format and single/paired end sequencing,
  * it iterates over the file, exacts the relevant information, and add it
- * to a queue for the consumers to process.
+ * to a queue for the consumers to process. Reads are passed on in batches of
+ * <code>AptaplexParser.ReadBatchSize</code> to reduce the contention on the queue.
  *
  */
 public class AptaPlexProducer implements Runnable{
@@ -50,6 +59,16 @@ public class AptaPlexProducer implements Runnable{
 	 */
 	private Path exportPath = Paths.get(Configuration.getParameters().getString("Experiment.projectPath"), "export");
 	
+	/**
+	 * Number of reads which are passed to the consumers as one queue element
+	 */
+	private int readBatchSize = Configuration.getParameters().getInt("AptaplexParser.ReadBatchSize");
+	
+	/**
+	 * Maximal number of forward/reverse file pairs which are read at the same time
+	 */
+	private int concurrentFiles = Configuration.getParameters().getInt("AptaplexParser.ConcurrentFiles");
+	
 	public AptaPlexProducer(BlockingQueue<Object> queue, Map<Path, Pair<ExportWriter,ExportWriter>> undeterminedExportWriterMap){
 		
 		this.queue = queue;
@@ -58,9 +77,9 @@ public class AptaPlexProducer implements Runnable{
 	}
 	
 	/**
-	 * The total number of processed reads
+	 * The total number of processed reads over all files
 	 */
-	public int totalProcessedReads = 0;
+	public AtomicInteger totalProcessedReads = new AtomicInteger(0);
 	
 	@Override
 	public void run() {
@@ -82,9 +101,27 @@ public class AptaPlexProducer implements Runnable{
 			throw new InvalidSequenceReadFileException("The number of forward and reverse read files must be identical.");
 		}
 		
-		//iterate over all files and populate the queue
+		// create the export writers for all files before any reads are processed,
+		// the consumers access this map concurrently
+		if (this.undeterminedExportWriterMap != null) {
+			
+			for (int x=0; x<forward_files.length; x++){
+				
+				createUndeterminedExportWriters(Paths.get(forward_files[x]), reverse_files.length != 0 ? Paths.get(reverse_files[x]) : null);
+				
+			}
+			
+		}
+		
+		//iterate over all files and populate the queue, reading up to concurrentFiles at the same time
+		int num_readers = Math.max(1, Math.min(concurrentFiles, forward_files.length));
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Reading " + forward_files.length + " file(s) using " + num_readers + " concurrent reader(s)");
+		
+		ExecutorService readers = Executors.newFixedThreadPool(num_readers, r -> new Thread(r, "AptaPlex Reader"));
+		CompletionService<Void> files = new ExecutorCompletionService<Void>(readers);
 		for (int x=0; x<forward_files.length; x++){
 			
+			int file_index = x;
 			Path current_forward_file_path = Paths.get(forward_files[x]);
 			
 			Path current_reverse_file_path = null;
@@ -92,113 +129,184 @@ public class AptaPlexProducer implements Runnable{
 			if (reverse_files.length != 0){
 				current_reverse_file_path = Paths.get(reverse_files[x]);
 			}
+			Path reverse_file_path = current_reverse_file_path;
+			
+			files.submit(() -> readFile(file_index, current_forward_file_path, reverse_file_path), null);
+			
+		}
+		readers.shutdown();
+		
+		// Wait until all files have been read. If a reader fails, e.g. due to an IO error or 
+		// a corrupt file, the remaining readers are stopped and the parse is aborted
+		Throwable failure = null;
+		for (int x=0; x<forward_files.length && failure == null; x++){
 			
-			// Create a new Reader instance. Use reflection so we can define the backend in the configuration
-			Reader reader = null;
-			Class reader_class = null;
 			try {
-				reader_class = Class.forName("lib.parser.aptaplex." + Configuration.getParameters().getString("AptaplexParser.reader"));
-			} catch (ClassNotFoundException e) {
-
-				AptaLogger.log(Level.SEVERE, this.getClass(), "Error, the backend for the Reader could not be found.");
-				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+				files.take().get();
+			} catch (ExecutionException e) {
+				failure = e.getCause();
+				AptaLogger.log(Level.SEVERE, this.getClass(), "Error reading the sequencing files, aborting the parse.");
+				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(failure));
+			} catch (InterruptedException e) {
+				failure = e;
 				e.printStackTrace();
-				System.exit(0);
 			}
 			
-			// Try to instantiate the class
-			boolean instanceSuccess = false;
-			try {
-				reader = (Reader)reader_class.getConstructor(Path.class, Path.class).newInstance(current_forward_file_path, current_reverse_file_path);
-				instanceSuccess = true;
-			} catch (InstantiationException e) {
-				AptaLogger.log(Level.SEVERE, this.getClass(), "Error, could not instantiate the backend for the AptaplexParser.reader");
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (InvocationTargetException e) {
-				AptaLogger.log(Level.SEVERE, this.getClass(), "Error invoking construtor of AptaplexParser.reader backend");
-				e.printStackTrace();
-			} catch (NoSuchMethodException e) {
-				e.printStackTrace();
-			} catch (SecurityException e) {
-				e.printStackTrace();
-			} finally{
-				if (!instanceSuccess){
-					AptaLogger.log(Level.SEVERE, this.getClass(), "Error invoking AptaplexParser.reader backend");
-					System.exit(0);
-				}
+		}
+		
+		if (failure != null) {
+			readers.shutdownNow();
+		}
+		
+		try {
+			readers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); //wait forever
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+		// at the end we need to add a poison pill to 
+		// the queue to let the consumers know when to stop
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Added poison pill to parsing queue");
+		try {
+			queue.put(Configuration.POISON_PILL);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+		// the consumers stop at the poison pill, now let the parser know about the failure
+		if (failure != null) {
+			throw new InvalidSequenceReadFileException("Error reading the sequencing files: " + failure.getMessage(), failure);
+		}
+		
+	}
+	
+	/**
+	 * Reads all sequences of one forward/reverse file pair and puts them into the 
+	 * queue in batches. Several instances of this function can run at the same time.
+	 * @param x the index of the file pair in the configuration
+	 * @param current_forward_file_path the forward file
+	 * @param current_reverse_file_path the reverse file, null for single end sequencing
+	 */
+	private void readFile(int x, Path current_forward_file_path, Path current_reverse_file_path) {
+		
+		// Create a new Reader instance. Use reflection so we can define the backend in the configuration
+		Reader reader = null;
+		Class reader_class = null;
+		try {
+			reader_class = Class.forName("lib.parser.aptaplex." + Configuration.getParameters().getString("AptaplexParser.reader"));
+		} catch (ClassNotFoundException e) {
+
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Error, the backend for the Reader could not be found.");
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			e.printStackTrace();
+			System.exit(0);
+		}
+		
+		// Try to instantiate the class
+		boolean instanceSuccess = false;
+		try {
+			reader = (Reader)reader_class.getConstructor(Path.class, Path.class).newInstance(current_forward_file_path, current_reverse_file_path);
+			instanceSuccess = true;
+		} catch (InstantiationException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Error, could not instantiate the backend for the AptaplexParser.reader");
+			e.printStackTrace();
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+		} catch (InvocationTargetException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Error invoking construtor of AptaplexParser.reader backend");
+			e.printStackTrace();
+		} catch (NoSuchMethodException e) {
+			e.printStackTrace();
+		} catch (SecurityException e) {
+			e.printStackTrace();
+		} finally{
+			if (!instanceSuccess){
+				AptaLogger.log(Level.SEVERE, this.getClass(), "Error invoking AptaplexParser.reader backend");
+				System.exit(0);
 			}
+		}
+		
+		// The batch currently being filled and the number of reads therein
+		Read[] batch = new Read[readBatchSize];
+		int batchFill = 0;
+		int file_reads = 0;
+		
+		try {
+			// get the first read
+			Read read = reader.getNextRead();
 			
-			// at this point we can fill the undetermined map if requested by the user
-			if (this.undeterminedExportWriterMap != null) {
-				
-				// first create the export writers
-				Path forward_export_path = Paths.get(exportPath.toString(), "undetermined_"+current_forward_file_path.getFileName().toString() + (Configuration.getParameters().getBoolean("Export.compress") ? ".gz" : "" )); 
-				ExportWriter forward_export_writer = Configuration.getParameters().getBoolean("Export.compress") ? new CompressedExportWriter() : new UncompressedExportWriter();
-				forward_export_writer.open(forward_export_path);
+			// do the same for the remaining reads
+			while (read != null){
 				
-				Path reverse_export_path = null;
-				if (current_reverse_file_path != null) {
-					
-					reverse_export_path = Paths.get(exportPath.toString(), "undetermined_"+current_reverse_file_path.getFileName().toString() + (Configuration.getParameters().getBoolean("Export.compress") ? ".gz" : "" )); 
-					ExportWriter reverse_export_writer = Configuration.getParameters().getBoolean("Export.compress") ? new CompressedExportWriter() : new UncompressedExportWriter();
-					reverse_export_writer.open(reverse_export_path);
+				// are we multiplexing?
+				if(isPerFile){
+
+					// add cycle information to read
+					read.selection_cycle = Configuration.getExperiment().getAllSelectionCycles().get(x);
 					
 				}
 				
-				undeterminedExportWriterMap.put(current_forward_file_path, new Pair(forward_export_writer,reverse_export_path));
+				// add source files
+				read.source_forward = current_forward_file_path;
+				read.source_reverse = current_reverse_file_path;
 				
-			}
-			
-			try {
-				// get the first read
-				Read read = reader.getNextRead();
+				// add read to the current batch and pass it on once full
+				batch[batchFill++] = read;
+				file_reads++;
 				
-				// do the same for the remaining reads
-				while (read != null){
-					
-					// are we multiplexing?
-					if(isPerFile){
-
-						// add cycle information to read
-						read.selection_cycle = Configuration.getExperiment().getAllSelectionCycles().get(x);
-						
-					}
-					
-					// add source files
-					read.source_forward = current_forward_file_path;
-					read.source_reverse = current_reverse_file_path;
-					
-					// put read into to queue
-					queue.put(read);
-					totalProcessedReads++;
-					
-					// get the next read
-					read = reader.getNextRead();
+				if (batchFill == readBatchSize) {
+					queue.put(batch);
+					batch = new Read[readBatchSize];
+					batchFill = 0;
 				}
-			
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				
+				// get the next read
+				read = reader.getNextRead();
 			}
 			
-			reader.close();
-			reader = null;
-			
-		}
+			// pass on the remaining reads of this file
+			if (batchFill != 0) {
+				queue.put(Arrays.copyOf(batch, batchFill));
+			}
 		
-		// at the end we need to add a poison pill to 
-		// the queue to let the consumers know when to stop
-		AptaLogger.log(Level.CONFIG, this.getClass(), "Added poison pill to parsing queue");
-		try {
-			queue.put(Configuration.POISON_PILL);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
+		} finally {
+			reader.close();
 		}
 		
+		reader = null;
+		
+		totalProcessedReads.addAndGet(file_reads);
+		AptaLogger.log(Level.CONFIG, this.getClass(), "Finished reading " + file_reads + " reads from " + current_forward_file_path.toString());
+		
+	}
+	
+	/**
+	 * Creates the writers for the undetermined reads of one forward/reverse file pair 
+	 * and registers them in <code>undeterminedExportWriterMap</code>
+	 * @param current_forward_file_path the forward file
+	 * @param current_reverse_file_path the reverse file, null for single end sequencing
+	 */
+	private void createUndeterminedExportWriters(Path current_forward_file_path, Path current_reverse_file_path) {
+		
+		// first create the export writers
+		Path forward_export_path = Paths.get(exportPath.toString(), "undetermined_"+current_forward_file_path.getFileName().toString() + (Configuration.getParameters().getBoolean("Export.compress") ? ".gz" : "" )); 
+		ExportWriter forward_export_writer = Configuration.getParameters().getBoolean("Export.compress") ? new CompressedExportWriter() : new UncompressedExportWriter();
+		forward_export_writer.open(forward_export_path);
+		
+		ExportWriter reverse_export_writer = null;
+		if (current_reverse_file_path != null) {
+			
+			Path reverse_export_path = Paths.get(exportPath.toString(), "undetermined_"+current_reverse_file_path.getFileName().toString() + (Configuration.getParameters().getBoolean("Export.compress") ? ".gz" : "" )); 
+			reverse_export_writer = Configuration.getParameters().getBoolean("Export.compress") ? new CompressedExportWriter() : new UncompressedExportWriter();
+			reverse_export_writer.open(reverse_export_path);
+			
+		}
 		
+		undeterminedExportWriterMap.put(current_forward_file_path, new Pair<ExportWriter,ExportWriter>(forward_export_writer,reverse_export_writer));
 		
 	}
-}
\ No newline at end of file
+}
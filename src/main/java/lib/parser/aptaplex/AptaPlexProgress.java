@@ -18,13 +18,13 @@ public class AptaPlexProgress implements ParserProgress {
 	/**
 	 * Spacing for formating purposes
 	 */
-	private String spacing = "%1$-23s %2$-23s %3$-23s %4$-23s %5$-23s %6$-23s %7$-23s %8$-23s";
+	private String spacing = "%1$-23s %2$-23s %3$-23s %4$-23s %5$-23s %6$-23s %7$-23s %8$-23s %9$-23s";
 	
 	/**
 	 * Static header for the parser progress
 	 */
 	private String header = String.format(spacing, "Total Reads:", "Accepted Reads:", "Contig Assembly Fails:", "Invalid Alphabet:",
-			"5' Primer Error:", "3' Primer Error:", "Invalid Cycle:", "Total Primer Overlaps:");
+			"5' Primer Error:", "3' Primer Error:", "Invalid Cycle:", "Total Primer Overlaps:", "Reads/s:");
 	
 	/**
 	 * The total number of currently processed reads. This member should
@@ -70,6 +70,31 @@ public class AptaPlexProgress implements ParserProgress {
 	 * selection cycle
 	 */
 	public AtomicInteger totalInvalidCycle = new AtomicInteger(0);
+	
+	/**
+	 * Time in milliseconds at which the parser started processing reads. 
+	 * Used to report the throughput.
+	 */
+	private long startTime = System.currentTimeMillis();
+	
+	/**
+	 * Resets the reference time for the throughput to now. Should be called
+	 * once the parser starts processing reads.
+	 */
+	public void start() {
+		startTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return the average number of processed reads per second since the call to <code>start()</code>
+	 */
+	public long getReadsPerSecond() {
+		
+		long elapsed = System.currentTimeMillis() - startTime;
+		
+		return elapsed == 0 ? 0 : (1000L * totalProcessedReads.get()) / elapsed;
+		
+	}
 
 	@Override
 	public String getHeader() {
@@ -85,7 +110,8 @@ public class AptaPlexProgress implements ParserProgress {
 				totalUnmatchablePrimer5.get(),
 				totalUnmatchablePrimer3.get(),
 				totalInvalidCycle.get(), 
-				totalPrimerOverlaps.get()
+				totalPrimerOverlaps.get(),
+				getReadsPerSecond()
 				);
 	}
 
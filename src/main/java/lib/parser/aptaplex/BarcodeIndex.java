@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package lib.parser.aptaplex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ *
+ *         Precomputed lookup table for demultiplexing reads by their barcodes.
+ *         Every sequence within <code>tolerance</code> mismatches of a barcode is
+ *         enumerated once and stored, 2-bit encoded, in a hash map pointing to the
+ *         index of that barcode. Assigning a read then requires a single hash probe
+ *         per distinct barcode length instead of one fuzzy search per barcode.
+ *
+ *         Variants within the tolerance of more than one barcode at the same, minimal
+ *         distance cannot be assigned unambiguously. These collisions are detected while
+ *         building the index, reported to the log, and resolve to <code>AMBIGUOUS</code>
+ *         on lookup.
+ *
+ *         The index only considers substitutions at the expected position of the
+ *         barcode, i.e. directly adjacent to the primer. It is immutable once
+ *         constructed and can be shared among all consumer threads.
+ */
+public class BarcodeIndex {
+
+	/**
+	 * Returned by <code>lookup</code> if the region does not match any barcode
+	 */
+	public static final int NOT_FOUND = -1;
+
+	/**
+	 * Returned by <code>lookup</code> if the region is equally close to more than one barcode
+	 */
+	public static final int AMBIGUOUS = -2;
+
+	/**
+	 * Barcodes longer than this cannot be 2-bit encoded into a long without
+	 * clashing with the code for invalid regions
+	 */
+	public static final int MAX_BARCODE_LENGTH = 31;
+
+	/**
+	 * Upper bound on the number of variants stored in the index
+	 */
+	public static final int MAX_VARIANTS = 50000000;
+
+	/**
+	 * Values of the hash maps store the barcode index in the lower bits and
+	 * the number of mismatches in the upper bits
+	 */
+	private static final int INDEX_BITS = 20;
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	private static final int AMBIGUOUS_INDEX = INDEX_MASK;
+
+	/**
+	 * Distinct barcode lengths in ascending order
+	 */
+	private int[] lengths;
+
+	/**
+	 * One variant table per entry in <code>lengths</code>
+	 */
+	private Long2IntOpenHashMap[] tables;
+
+	/**
+	 * Number of variants which are shared by at least two barcodes
+	 */
+	private int collisions = 0;
+
+	/**
+	 * Human readable description of every pair of barcodes with shared variants
+	 */
+	private List<String> collisionReport = new ArrayList<String>();
+
+	/**
+	 * Builds the index for the given barcodes
+	 *
+	 * @param barcodes the barcodes in the order of the selection cycles they identify
+	 * @param tolerance maximal number of mismatches between a read and a barcode
+	 * @throws IllegalArgumentException if the barcodes cannot be indexed, i.e. if they are
+	 * too long, contain characters other than A, C, G, and T, or produce too many variants
+	 */
+	public BarcodeIndex(List<byte[]> barcodes, int tolerance) {
+
+		// group barcodes by length
+		TreeMap<Integer, Long2IntOpenHashMap> tables_by_length = new TreeMap<Integer, Long2IntOpenHashMap>();
+		long total_variants = 0;
+
+		for (byte[] barcode : barcodes) {
+
+			if (barcode.length == 0 || barcode.length > MAX_BARCODE_LENGTH) {
+				throw new IllegalArgumentException("Barcode " + new String(barcode) + " must contain between 1 and " + MAX_BARCODE_LENGTH + " nucleotides");
+			}
+			if (encode(barcode, 0, barcode.length) == -1) {
+				throw new IllegalArgumentException("Barcode " + new String(barcode) + " contains characters other than A, C, G, and T");
+			}
+
+			total_variants += countVariants(barcode.length, tolerance);
+
+			if (!tables_by_length.containsKey(barcode.length)) {
+				Long2IntOpenHashMap table = new Long2IntOpenHashMap();
+				table.defaultReturnValue(-1);
+				tables_by_length.put(barcode.length, table);
+			}
+		}
+
+		if (barcodes.size() >= AMBIGUOUS_INDEX) {
+			throw new IllegalArgumentException("Too many barcodes for the barcode index");
+		}
+		if (total_variants > MAX_VARIANTS) {
+			throw new IllegalArgumentException("The barcode tolerance of " + tolerance + " results in " + total_variants + " variants, exceeding the maximum of " + MAX_VARIANTS);
+		}
+
+		// enumerate all variants of all barcodes, keeping track of collisions per pair of barcodes
+		Map<String, Integer> shared_variants = new TreeMap<String, Integer>();
+
+		for (int x = 0; x < barcodes.size(); x++) {
+
+			byte[] barcode = barcodes.get(x);
+			long code = encode(barcode, 0, barcode.length);
+			addVariants(tables_by_length.get(barcode.length), barcodes, x, code, barcode.length, 0, Math.min(tolerance, barcode.length), 0, shared_variants);
+
+		}
+
+		// store the final tables
+		lengths = new int[tables_by_length.size()];
+		tables = new Long2IntOpenHashMap[tables_by_length.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Long2IntOpenHashMap> entry : tables_by_length.entrySet()) {
+			lengths[i] = entry.getKey();
+			tables[i] = entry.getValue();
+			tables[i].trim();
+			i++;
+		}
+
+		for (Map.Entry<String, Integer> entry : shared_variants.entrySet()) {
+			collisionReport.add(String.format("Barcodes %s share %s variants within %s mismatches", entry.getKey(), entry.getValue(), tolerance));
+		}
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), String.format("Created barcode index for %s barcodes with %s variants within %s mismatches", barcodes.size(), total_variants, tolerance));
+		for (String line : collisionReport) {
+			AptaLogger.log(Level.WARNING, this.getClass(), line + ". Reads equally close to both barcodes will not be assigned to a selection cycle.");
+		}
+
+	}
+
+	/**
+	 * Recursively substitutes every position from <code>position</code> onwards
+	 * and registers the resulting codes in the table.
+	 */
+	private void addVariants(Long2IntOpenHashMap table, List<byte[]> barcodes, int index, long code, int length, int position, int remaining, int mismatches, Map<String, Integer> shared_variants) {
+
+		register(table, barcodes, index, code, mismatches, shared_variants);
+
+		if (remaining == 0) {
+			return;
+		}
+
+		for (int p = position; p < length; p++) {
+
+			int shift = 2 * (length - p - 1);
+			long original = (code >>> shift) & 3L;
+
+			for (long base = 0; base < 4; base++) {
+				if (base != original) {
+					long variant = (code & ~(3L << shift)) | (base << shift);
+					addVariants(table, barcodes, index, variant, length, p + 1, remaining - 1, mismatches + 1, shared_variants);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Stores a single variant, resolving conflicts in favor of the closer barcode
+	 */
+	private void register(Long2IntOpenHashMap table, List<byte[]> barcodes, int index, long code, int mismatches, Map<String, Integer> shared_variants) {
+
+		int value = (mismatches << INDEX_BITS) | index;
+		int existing = table.putIfAbsent(code, value);
+
+		if (existing == -1) {
+			return;
+		}
+
+		int existing_index = existing & INDEX_MASK;
+		int existing_mismatches = existing >>> INDEX_BITS;
+
+		// the same barcode twice in the configuration is a collision as well,
+		// the same variant of the same barcode is not
+		if (existing_index == index) {
+			return;
+		}
+
+		if (existing_index != AMBIGUOUS_INDEX) {
+			String pair = new String(barcodes.get(existing_index)) + " (" + (existing_index + 1) + ") and " + new String(barcodes.get(index)) + " (" + (index + 1) + ")";
+			shared_variants.merge(pair, 1, Integer::sum);
+			collisions++;
+		}
+
+		if (mismatches < existing_mismatches) {
+			table.put(code, value);
+		} else if (mismatches == existing_mismatches) {
+			table.put(code, (mismatches << INDEX_BITS) | AMBIGUOUS_INDEX);
+		}
+
+	}
+
+	/**
+	 * Determines the barcode ending directly before <code>end</code>, i.e. a 5' barcode
+	 * preceding the 5' primer
+	 *
+	 * @param c the contig
+	 * @param end exclusive end position of the barcode in the contig
+	 * @return the index of the barcode, <code>NOT_FOUND</code>, or <code>AMBIGUOUS</code>
+	 */
+	public int lookupBefore(byte[] c, int end) {
+
+		int best = NOT_FOUND;
+		int best_value = Integer.MAX_VALUE;
+
+		for (int i = 0; i < lengths.length; i++) {
+
+			int start = end - lengths[i];
+			if (start < 0) {
+				break;
+			}
+
+			int value = tables[i].get(encode(c, start, end));
+			if (value != -1) {
+				best = resolve(best, best_value, value);
+				best_value = Math.min(best_value, value);
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Determines the barcode starting at <code>start</code>, i.e. a 3' barcode
+	 * following the 3' primer
+	 *
+	 * @param c the contig
+	 * @param start start position of the barcode in the contig
+	 * @return the index of the barcode, <code>NOT_FOUND</code>, or <code>AMBIGUOUS</code>
+	 */
+	public int lookupAfter(byte[] c, int start) {
+
+		int best = NOT_FOUND;
+		int best_value = Integer.MAX_VALUE;
+
+		for (int i = 0; i < lengths.length; i++) {
+
+			int end = start + lengths[i];
+			if (start < 0 || end > c.length) {
+				break;
+			}
+
+			int value = tables[i].get(encode(c, start, end));
+			if (value != -1) {
+				best = resolve(best, best_value, value);
+				best_value = Math.min(best_value, value);
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Combines the hits of barcodes with different lengths. The barcode with fewer
+	 * mismatches wins, equal mismatches are ambiguous.
+	 */
+	private int resolve(int best, int best_value, int value) {
+
+		int mismatches = value >>> INDEX_BITS;
+		int index = value & INDEX_MASK;
+		if (index == AMBIGUOUS_INDEX) {
+			index = AMBIGUOUS;
+		}
+
+		if (best == NOT_FOUND || mismatches < (best_value >>> INDEX_BITS)) {
+			return index;
+		}
+		if (mismatches == (best_value >>> INDEX_BITS)) {
+			return AMBIGUOUS;
+		}
+		return best;
+	}
+
+	/**
+	 * 2-bit encodes the region [start,end) of the sequence
+	 * @return the code, or -1 if the region contains characters other than A, C, G, and T
+	 */
+	private static long encode(byte[] seq, int start, int end) {
+
+		long code = 0;
+		for (int i = start; i < end; i++) {
+
+			long base;
+			switch (seq[i]) {
+			case 'A':
+				base = 0;
+				break;
+			case 'C':
+				base = 1;
+				break;
+			case 'G':
+				base = 2;
+				break;
+			case 'T':
+				base = 3;
+				break;
+			default:
+				return -1;
+			}
+
+			code = (code << 2) | base;
+		}
+
+		return code;
+	}
+
+	/**
+	 * @return the number of sequences within <code>tolerance</code> substitutions of a
+	 * sequence of the given length
+	 */
+	private static long countVariants(int length, int tolerance) {
+
+		long total = 0;
+		long binomial = 1;
+		long substitutions = 1;
+		for (int k = 0; k <= Math.min(tolerance, length); k++) {
+			total += binomial * substitutions;
+			binomial = binomial * (length - k) / (k + 1);
+			substitutions *= 3;
+		}
+
+		return total;
+	}
+
+	/**
+	 * @return the number of variants shared by at least two barcodes
+	 */
+	public int getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * @return one line per pair of barcodes with shared variants
+	 */
+	public List<String> getCollisionReport() {
+		return collisionReport;
+	}
+
+}
@@ -10,9 +10,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.logging.Level;
-import java.util.zip.GZIPInputStream;
 
 import utilities.AptaLogger;
+import utilities.Configuration;
 
 /**
  * @author Jan Hoinka Implements the parsing logic for fastq files
@@ -43,6 +43,11 @@ public class FastqReader implements Reader {
 	 * Buffers for forward and reverse lines
 	 */
 	String buffer;
+	
+	/**
+	 * Number of threads used to inflate gzip compressed input
+	 */
+	int decompression_threads = Configuration.getParameters().getInt("AptaplexParser.DecompressionThreads");
 
 
 	/**
@@ -65,7 +70,7 @@ public class FastqReader implements Reader {
 		// Forward file
 		try { // This will fail if the file is not gzip compressed
 			
-			forward_reader = new BufferedReader(new InputStreamReader(new GZIPInputStream((new FileInputStream(forward_file.toFile())))));
+			forward_reader = new BufferedReader(new InputStreamReader(new ParallelGZIPInputStream(forward_file, decompression_threads)));
 			AptaLogger.log(Level.CONFIG, this.getClass(), "Opened gzip compressed forward file in fastq format " + forward_file.toString());
 		
 		} catch (IOException e) {
@@ -85,7 +90,7 @@ public class FastqReader implements Reader {
 		if (reverse_file != null){
 			try {
 				
-				reverse_reader = new BufferedReader(new InputStreamReader(new GZIPInputStream((new FileInputStream(reverse_file.toFile())))));
+				reverse_reader = new BufferedReader(new InputStreamReader(new ParallelGZIPInputStream(reverse_file, decompression_threads)));
 				AptaLogger.log(Level.CONFIG, this.getClass(), "Opened gzip compressed reverse file in fastq format " + reverse_file.toString());
 				
 			} catch (IOException e) {
@@ -0,0 +1,399 @@
+/**
+ *
+ */
+package lib.parser.aptaplex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Implements the parsing logic for uncompressed fastq files by memory mapping
+ * the input and scanning the raw bytes for line boundaries. In contrast to
+ * <code>FastqReader</code>, no character decoding or intermediate <code>String</code>s
+ * are created. Each field of a record is copied exactly once from the mapped
+ * region into the byte arrays of the <code>Read</code>.
+ *
+ * Gzip compressed files cannot be mapped. In this case, the reader transparently
+ * falls back to <code>FastqReader</code>.
+ */
+public class MappedFastqReader implements Reader {
+
+	/**
+	 * Maximal size of a single mapped region of the file. Files larger than
+	 * this are processed in consecutive windows.
+	 */
+	private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * The mapped forward file
+	 */
+	MappedFastqFile forward_mapped = null;
+
+	/**
+	 * The mapped reverse file
+	 */
+	MappedFastqFile reverse_mapped = null;
+
+	/**
+	 * Used instead of the mapped files if the input is gzip compressed
+	 */
+	FastqReader fallback_reader = null;
+
+	/**
+	 * The path for the forward file
+	 */
+	Path forward_file = null;
+
+	/**
+	 * The path for the reverse file
+	 */
+	Path reverse_file = null;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param forward_file
+	 *            forward reads in fastq format, optionally gzip compressed
+	 * @param reverse_file
+	 *            reverse reads in fastq format, optionally gzip compressed.
+	 *            Null if single end sequencing was performed
+	 */
+	public MappedFastqReader(Path forward_file, Path reverse_file) {
+
+		this.forward_file = forward_file;
+		this.reverse_file = reverse_file;
+
+		// Compressed data has to go through the stream based reader
+		if (isGzipCompressed(forward_file) || (reverse_file != null && isGzipCompressed(reverse_file))) {
+
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Input is gzip compressed, falling back to FastqReader for " + forward_file.toString());
+			fallback_reader = new FastqReader(forward_file, reverse_file);
+			return;
+
+		}
+
+		// Forward file
+		try {
+			forward_mapped = new MappedFastqFile(forward_file);
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Mapped forward file in fastq format " + forward_file.toString());
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Error opening forward file " + forward_file.toString());
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		// Reverse file
+		if (reverse_file != null) {
+			try {
+				reverse_mapped = new MappedFastqFile(reverse_file);
+				AptaLogger.log(Level.CONFIG, this.getClass(), "Mapped reverse file in fastq format " + reverse_file.toString());
+			} catch (IOException e) {
+				AptaLogger.log(Level.SEVERE, this.getClass(), "Error opening reverse file " + reverse_file.toString());
+				AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+
+	}
+
+	@Override
+	public Read getNextRead() {
+
+		if (fallback_reader != null) {
+			return fallback_reader.getNextRead();
+		}
+
+		Read r = new Read();
+
+		try {
+
+			// Forward reads
+			if (!forward_mapped.nextRecord()) {
+				return null;
+			}
+
+			r.forward_read = forward_mapped.sequence();
+			r.metadata_forward = forward_mapped.metadata();
+			r.forward_quality = forward_mapped.quality();
+
+			// Reverse reads, if applicable
+			if (reverse_mapped != null) {
+
+				if (!reverse_mapped.nextRecord()) {
+					return null;
+				}
+
+				r.reverse_read = reverse_mapped.sequence();
+				r.metadata_reverse = reverse_mapped.metadata();
+				r.reverse_quality = reverse_mapped.quality();
+
+			}
+
+		} catch (IOException e) {
+			AptaLogger.log(Level.SEVERE, this.getClass(), "Error while parsing files.");
+			AptaLogger.log(Level.SEVERE, this.getClass(), org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(e));
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		return r;
+	}
+
+	@Override
+	public void close() {
+
+		if (fallback_reader != null) {
+			fallback_reader.close();
+			return;
+		}
+
+		try {
+			this.forward_mapped.close();
+		} catch (Exception e) {
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Error on closing forward file " + this.forward_file.toString());
+		}
+
+		if (this.reverse_mapped != null) {
+
+			try {
+				this.reverse_mapped.close();
+			} catch (Exception e) {
+				AptaLogger.log(Level.CONFIG, this.getClass(), "Error on closing reverse file " + this.reverse_file.toString());
+			}
+
+		}
+
+	}
+
+	/**
+	 * Checks the first two bytes of the file for the gzip magic number
+	 * @param file the file to test
+	 * @return true if the file is gzip compressed
+	 */
+	private boolean isGzipCompressed(Path file) {
+
+		try (InputStream is = Files.newInputStream(file)) {
+
+			int b1 = is.read();
+			int b2 = is.read();
+
+			return b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == ((GZIPInputStream.GZIP_MAGIC >> 8) & 0xff);
+
+		} catch (IOException e) {
+			// Let the constructor of the mapped file report the error
+			return false;
+		}
+
+	}
+
+
+	/**
+	 * @author Jan Hoinka
+	 * Sliding, memory mapped window over a single fastq file. After a call to
+	 * <code>nextRecord</code>, the start and end offsets of the four lines of the
+	 * current record are available relative to the current window.
+	 */
+	static class MappedFastqFile {
+
+		/**
+		 * Channel of the underlying file
+		 */
+		private FileChannel channel;
+
+		/**
+		 * Total size of the file in bytes
+		 */
+		private long file_size;
+
+		/**
+		 * The currently mapped region of the file
+		 */
+		private MappedByteBuffer window = null;
+
+		/**
+		 * Offset of <code>window</code> in the file
+		 */
+		private long window_start = 0;
+
+		/**
+		 * Position of the next unread byte inside <code>window</code>
+		 */
+		private int position = 0;
+
+		/**
+		 * Start (inclusive) and end (exclusive, line terminators removed) of the
+		 * header, sequence, plus, and quality line of the current record
+		 */
+		private int[] line_start = new int[4];
+		private int[] line_end = new int[4];
+
+
+		public MappedFastqFile(Path file) throws IOException {
+
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			this.file_size = channel.size();
+
+			map(0);
+
+		}
+
+		/**
+		 * Maps the region of the file starting at <code>offset</code>
+		 * @param offset absolute position in the file
+		 * @throws IOException
+		 */
+		private void map(long offset) throws IOException {
+
+			window_start = offset;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAX_WINDOW_SIZE, file_size - offset));
+			position = 0;
+
+		}
+
+		/**
+		 * Locates the next four lines in the file.
+		 * @return false if the end of the file has been reached
+		 * @throws IOException
+		 */
+		public boolean nextRecord() throws IOException {
+
+			// Skip empty lines between records and at the end of the file
+			while (position < window.limit() && (window.get(position) == '\n' || window.get(position) == '\r')) {
+				position++;
+			}
+
+			if (window_start + position >= file_size) {
+				return false;
+			}
+
+			if (!scanRecord()) {
+
+				// The record crosses the end of the window. Remap starting at the record
+				if (window_start + window.limit() < file_size) {
+					map(window_start + position);
+				}
+
+				if (!scanRecord()) {
+					throw new IOException("Truncated fastq record at byte " + (window_start + position));
+				}
+
+			}
+
+			return true;
+
+		}
+
+		/**
+		 * Scans for four line boundaries starting at the current position.
+		 * @return false if the window ended before the record was complete
+		 */
+		private boolean scanRecord() {
+
+			int limit = window.limit();
+			boolean at_eof = window_start + limit >= file_size;
+			int current = position;
+
+			for (int line = 0; line < 4; line++) {
+
+				line_start[line] = current;
+
+				while (current < limit && window.get(current) != '\n') {
+					current++;
+				}
+
+				// the last line of the file does not need to be terminated
+				if (current == limit && !(at_eof && line == 3)) {
+					return false;
+				}
+
+				// remove carriage returns of windows line endings
+				int end = current;
+				if (end > line_start[line] && window.get(end-1) == '\r') {
+					end--;
+				}
+				line_end[line] = end;
+
+				current++;
+
+			}
+
+			position = Math.min(current, limit);
+
+			return true;
+
+		}
+
+		/**
+		 * Copies the given line of the current record into a new array
+		 */
+		private byte[] copyLine(int line) {
+
+			byte[] dst = new byte[line_end[line] - line_start[line]];
+
+			window.position(line_start[line]);
+			window.get(dst);
+
+			return dst;
+
+		}
+
+		/**
+		 * @return the nucleotide sequence of the current record
+		 */
+		public byte[] sequence() {
+			return copyLine(1);
+		}
+
+		/**
+		 * @return the quality scores of the current record
+		 */
+		public byte[] quality() {
+			return copyLine(3);
+		}
+
+		/**
+		 * @return the header line and the plus line of the current record separated by
+		 * a newline character, identical to the format produced by <code>FastqReader</code>
+		 */
+		public byte[] metadata() {
+
+			int header_length = line_end[0] - line_start[0];
+			int plus_length = line_end[2] - line_start[2];
+
+			byte[] dst = new byte[header_length + 1 + plus_length];
+
+			window.position(line_start[0]);
+			window.get(dst, 0, header_length);
+
+			dst[header_length] = '\n';
+
+			window.position(line_start[2]);
+			window.get(dst, header_length + 1, plus_length);
+
+			return dst;
+
+		}
+
+		public void close() throws IOException {
+
+			window = null;
+			channel.close();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package lib.parser.aptaplex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import lib.aptamer.datastructures.Metadata;
+import utilities.Accumulator;
+
+/**
+ * @author Jan Hoinka
+ *
+ *         Thread-local collection of the per position statistics gathered by a single
+ *         <code>AptaPlexConsumer</code>. Counts are kept in primitive arrays indexed by
+ *         position and nucleotide, so no boxing or synchronization takes place while
+ *         parsing. Once the consumer has finished, <code>mergeInto</code> adds the
+ *         counts to the shared <code>Metadata</code> instance in its usual format.
+ */
+public class MetadataHistograms {
+
+	/**
+	 * Nucleotides in the order of the histogram columns
+	 */
+	private static final byte[] NUCLEOTIDES = { 'A', 'C', 'G', 'T', 'N' };
+
+	/**
+	 * Maps a byte to its column in the histograms, -1 for characters which are not counted
+	 */
+	private static final int[] COLUMN = new int[256];
+	static {
+		Arrays.fill(COLUMN, -1);
+		for (int i = 0; i < NUCLEOTIDES.length; i++) {
+			COLUMN[NUCLEOTIDES[i]] = i;
+		}
+	}
+
+	/**
+	 * Columns of the quality score histograms
+	 */
+	private static final int COUNT = 0;
+	private static final int SUM = 1;
+	private static final int SUM_OF_SQUARES = 2;
+
+	/**
+	 * Statistics of a single selection cycle
+	 */
+	private static class CycleHistograms {
+
+		long[][] nucleotidesForward = new long[0][];
+		long[][] nucleotidesReverse = new long[0][];
+
+		long[][] qualityForward = new long[0][];
+		long[][] qualityReverse = new long[0][];
+
+		/**
+		 * Key: randomized region size
+		 */
+		Int2ObjectMap<long[][]> nucleotidesAccepted = new Int2ObjectOpenHashMap<long[][]>();
+
+	}
+
+	/**
+	 * Key: SelectionCycle name
+	 */
+	private HashMap<String, CycleHistograms> cycles = new HashMap<String, CycleHistograms>();
+
+
+	/**
+	 * Counts the nucleotides of a read
+	 * @param cycle name of the selection cycle
+	 * @param read the nucleotides
+	 * @param forward whether the read is the forward or the reverse read
+	 */
+	public void addNucleotides(String cycle, byte[] read, boolean forward) {
+
+		CycleHistograms histograms = getCycle(cycle);
+
+		long[][] counts = ensureSize(forward ? histograms.nucleotidesForward : histograms.nucleotidesReverse, read.length, NUCLEOTIDES.length);
+		if (forward) {
+			histograms.nucleotidesForward = counts;
+		} else {
+			histograms.nucleotidesReverse = counts;
+		}
+
+		count(counts, read, 0, read.length);
+
+	}
+
+	/**
+	 * Adds the phred scores of a read
+	 * @param cycle name of the selection cycle
+	 * @param quality the quality scores in Phred+33 encoding
+	 * @param forward whether the scores belong to the forward or the reverse read
+	 */
+	public void addQualityScores(String cycle, byte[] quality, boolean forward) {
+
+		CycleHistograms histograms = getCycle(cycle);
+
+		long[][] scores = ensureSize(forward ? histograms.qualityForward : histograms.qualityReverse, quality.length, 3);
+		if (forward) {
+			histograms.qualityForward = scores;
+		} else {
+			histograms.qualityReverse = scores;
+		}
+
+		for (int i = 0; i < quality.length; i++) {
+			long q = quality[i] - 33;
+			scores[i][COUNT]++;
+			scores[i][SUM] += q;
+			scores[i][SUM_OF_SQUARES] += q * q;
+		}
+
+	}
+
+	/**
+	 * Counts the nucleotides of the randomized region
+	 * @param cycle name of the selection cycle
+	 * @param contig the contig containing the randomized region
+	 * @param start inclusive start of the randomized region
+	 * @param end exclusive end of the randomized region
+	 */
+	public void addAcceptedNucleotides(String cycle, byte[] contig, int start, int end) {
+
+		CycleHistograms histograms = getCycle(cycle);
+		int size = end - start;
+
+		long[][] counts = histograms.nucleotidesAccepted.get(size);
+		if (counts == null) {
+			counts = ensureSize(new long[0][], size, NUCLEOTIDES.length);
+			histograms.nucleotidesAccepted.put(size, counts);
+		}
+
+		count(counts, contig, start, end);
+
+	}
+
+	/**
+	 * Adds all statistics collected so far to the metadata and resets this instance.
+	 * Several consumers may call this method concurrently.
+	 * @param metadata the metadata of the current experiment
+	 */
+	public void mergeInto(Metadata metadata) {
+
+		synchronized (metadata) {
+
+			for (Entry<String, CycleHistograms> entry : cycles.entrySet()) {
+
+				String cycle = entry.getKey();
+				CycleHistograms histograms = entry.getValue();
+
+				mergeNucleotides(metadata.nucleotideDistributionForward.get(cycle), histograms.nucleotidesForward);
+				mergeNucleotides(metadata.nucleotideDistributionReverse.get(cycle), histograms.nucleotidesReverse);
+
+				mergeQualityScores(metadata.qualityScoresForward.get(cycle), histograms.qualityForward);
+				mergeQualityScores(metadata.qualityScoresReverse.get(cycle), histograms.qualityReverse);
+
+				ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, ConcurrentHashMap<Byte, Integer>>> accepted = metadata.nucleotideDistributionAccepted.get(cycle);
+				for (Int2ObjectMap.Entry<long[][]> size : histograms.nucleotidesAccepted.int2ObjectEntrySet()) {
+
+					if (!accepted.containsKey(size.getIntKey())) {
+						accepted.put(size.getIntKey(), new ConcurrentHashMap<Integer, ConcurrentHashMap<Byte, Integer>>());
+					}
+					mergeNucleotides(accepted.get(size.getIntKey()), size.getValue());
+
+				}
+
+			}
+
+		}
+
+		cycles.clear();
+
+	}
+
+	private CycleHistograms getCycle(String cycle) {
+
+		CycleHistograms histograms = cycles.get(cycle);
+		if (histograms == null) {
+			histograms = new CycleHistograms();
+			cycles.put(cycle, histograms);
+		}
+
+		return histograms;
+	}
+
+	/**
+	 * Increments the histogram rows for each position in [start,end) of the sequence
+	 */
+	private static void count(long[][] counts, byte[] sequence, int start, int end) {
+
+		for (int x = start, i = 0; x < end; x++, i++) {
+			int column = COLUMN[sequence[x] & 0xff];
+			if (column != -1) {
+				counts[i][column]++;
+			}
+		}
+
+	}
+
+	/**
+	 * Grows the histogram to at least <code>rows</code> positions
+	 */
+	private static long[][] ensureSize(long[][] histogram, int rows, int columns) {
+
+		if (histogram.length >= rows) {
+			return histogram;
+		}
+
+		long[][] grown = Arrays.copyOf(histogram, rows);
+		for (int i = histogram.length; i < rows; i++) {
+			grown[i] = new long[columns];
+		}
+
+		return grown;
+	}
+
+	private static void mergeNucleotides(ConcurrentHashMap<Integer, ConcurrentHashMap<Byte, Integer>> target, long[][] counts) {
+
+		for (int i = 0; i < counts.length; i++) {
+
+			// Make sure the entry exists prior to adding
+			if (!target.containsKey(i)) {
+				ConcurrentHashMap<Byte, Integer> map = new ConcurrentHashMap<Byte, Integer>(5);
+				for (byte nucleotide : NUCLEOTIDES) {
+					map.put(nucleotide, 0);
+				}
+				target.put(i, map);
+			}
+
+			ConcurrentHashMap<Byte, Integer> map = target.get(i);
+			for (int n = 0; n < NUCLEOTIDES.length; n++) {
+				map.put(NUCLEOTIDES[n], (int) (map.get(NUCLEOTIDES[n]) + counts[i][n]));
+			}
+
+		}
+
+	}
+
+	private static void mergeQualityScores(ConcurrentHashMap<Integer, Accumulator> target, long[][] scores) {
+
+		for (int i = 0; i < scores.length; i++) {
+
+			long count = scores[i][COUNT];
+			if (count == 0) {
+				continue;
+			}
+
+			double mean = (double) scores[i][SUM] / count;
+			double m2 = Math.max(0.0, scores[i][SUM_OF_SQUARES] - (double) scores[i][SUM] * scores[i][SUM] / count);
+
+			if (!target.containsKey(i)) target.put(i, new Accumulator());
+			target.get(i).addDataValues((int) count, mean, m2);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,578 @@
+/**
+ *
+ */
+package lib.parser.aptaplex;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import utilities.AptaLogger;
+
+/**
+ * @author Jan Hoinka
+ * Drop-in replacement for <code>GZIPInputStream</code> which inflates independent
+ * gzip members on a pool of worker threads while returning the decompressed data
+ * in file order.
+ *
+ * Two layouts are supported. BGZF files (as written by bgzip or samtools) carry
+ * the size of every block in the gzip header, so the file can be split without
+ * looking at the compressed data. For generic multi-member files (e.g. produced by
+ * concatenating gzip files or by pigz), the next member header is located by scanning
+ * for the gzip magic number. Each worker verifies that its chunk consists of
+ * complete members with valid CRC and size, so a false positive during the scan
+ * is detected before any of its data is returned.
+ *
+ * Whenever no further member boundary can be found, or a chunk fails to verify,
+ * the remainder of the file is inflated sequentially exactly like
+ * <code>GZIPInputStream</code> would do.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+	/**
+	 * Targeted amount of compressed data per task
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Maximal distance scanned for the next member header in generic gzip files
+	 * before switching to sequential decompression
+	 */
+	private static final int MAX_SCAN_SIZE = 32 << 20;
+
+	/**
+	 * Size of the fixed part of the gzip header
+	 */
+	private static final int HEADER_SIZE = 10;
+
+	/**
+	 * Gzip header flags
+	 */
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int FRESERVED = 0xE0;
+
+	/**
+	 * The compressed file
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Size of the compressed file in bytes
+	 */
+	private long file_size;
+
+	/**
+	 * True if every member carries its block size in the BC extra subfield
+	 */
+	private boolean is_bgzf;
+
+	/**
+	 * Workers inflating the chunks
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Maximal number of chunks in flight
+	 */
+	private int max_pending;
+
+	/**
+	 * Chunks which have been submitted but not consumed, in file order
+	 */
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	/**
+	 * File offsets at which the chunks in <code>pending</code> start
+	 */
+	private ArrayDeque<Long> pending_offsets = new ArrayDeque<Long>();
+
+	/**
+	 * Start of the next chunk to be submitted
+	 */
+	private long next_offset = 0;
+
+	/**
+	 * If not negative, the offset from which on the file must be inflated sequentially
+	 * once all pending chunks have been consumed
+	 */
+	private long sequential_offset = -1;
+
+	/**
+	 * The stream used for sequential inflation, null while in parallel mode
+	 */
+	private InputStream sequential_stream = null;
+
+	/**
+	 * The decompressed chunk currently being returned to the caller
+	 */
+	private byte[] current = new byte[0];
+
+	/**
+	 * Read position inside <code>current</code>
+	 */
+	private int current_position = 0;
+
+	/**
+	 * Reusable single byte buffer for <code>read()</code>
+	 */
+	private byte[] single_byte = new byte[1];
+
+
+	/**
+	 * Constructor
+	 * @param file the gzip compressed file
+	 * @param threads the number of worker threads used for inflation
+	 * @throws IOException if the file does not exist or is not in gzip format
+	 */
+	public ParallelGZIPInputStream(Path file, int threads) throws IOException {
+
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.file_size = channel.size();
+
+		// Behave like GZIPInputStream for files which are not compressed
+		byte[] header = readBytes(0, HEADER_SIZE);
+		if (header.length < HEADER_SIZE || !isMemberHeader(header, 0)) {
+			channel.close();
+			throw new ZipException("Not in GZIP format");
+		}
+
+		this.is_bgzf = bgzfBlockSize(0) > 0;
+
+		this.max_pending = 2 * Math.max(1, threads);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "AptaPlex Inflater");
+			t.setDaemon(true);
+			return t;
+		});
+
+		AptaLogger.log(Level.CONFIG, this.getClass(), String.format("Inflating %s %s using %s threads", is_bgzf ? "BGZF" : "gzip", file.toString(), Math.max(1, threads)));
+
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		int n = read(single_byte, 0, 1);
+
+		return n == -1 ? -1 : single_byte[0] & 0xff;
+
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (len == 0) {
+			return 0;
+		}
+
+		while (current_position == current.length) {
+
+			if (sequential_stream != null) {
+				return sequential_stream.read(b, off, len);
+			}
+
+			if (!nextChunk()) {
+				return -1;
+			}
+
+		}
+
+		int n = Math.min(len, current.length - current_position);
+		System.arraycopy(current, current_position, b, off, n);
+		current_position += n;
+
+		return n;
+
+	}
+
+	@Override
+	public int available() throws IOException {
+
+		if (sequential_stream != null) {
+			return sequential_stream.available();
+		}
+
+		return current.length - current_position;
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		executor.shutdownNow();
+
+		if (sequential_stream != null) {
+			sequential_stream.close();
+		}
+
+		channel.close();
+
+	}
+
+	/**
+	 * Advances <code>current</code> to the next decompressed chunk
+	 * @return false if the end of the file has been reached
+	 * @throws IOException
+	 */
+	private boolean nextChunk() throws IOException {
+
+		submitChunks();
+
+		if (pending.isEmpty()) {
+
+			// Nothing more that can be split, continue with the remainder in one piece
+			if (sequential_offset >= 0 && sequential_offset < file_size) {
+				openSequential(sequential_offset);
+				return true;
+			}
+
+			return false;
+
+		}
+
+		long offset = pending_offsets.poll();
+
+		try {
+
+			current = pending.poll().get();
+			current_position = 0;
+
+		} catch (ExecutionException e) {
+
+			// All previous chunks were verified, hence offset is a member boundary
+			AptaLogger.log(Level.CONFIG, this.getClass(), "Could not inflate chunk at byte " + offset + " in parallel, continuing sequentially. " + e.getCause().getMessage());
+
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+			pending.clear();
+			pending_offsets.clear();
+
+			openSequential(offset);
+
+		} catch (InterruptedException e) {
+
+			throw new IOException(e);
+
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Fills the queue of pending chunks up to its capacity
+	 * @throws IOException
+	 */
+	private void submitChunks() throws IOException {
+
+		while (pending.size() < max_pending && next_offset < file_size && sequential_offset < 0) {
+
+			long start = next_offset;
+			long end = is_bgzf ? nextBgzfBoundary(start) : nextMemberBoundary(start);
+
+			if (end <= start) {
+				sequential_offset = start;
+				break;
+			}
+
+			pending.add(executor.submit(() -> inflate(start, end)));
+			pending_offsets.add(start);
+			next_offset = end;
+
+		}
+
+	}
+
+	/**
+	 * Switches to sequential inflation of the file starting at <code>offset</code>
+	 */
+	private void openSequential(long offset) throws IOException {
+
+		channel.position(offset);
+		sequential_stream = new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16), 1 << 16);
+
+		current = new byte[0];
+		current_position = 0;
+
+	}
+
+	/**
+	 * Walks the BGZF block headers starting at <code>start</code> until at least
+	 * <code>CHUNK_SIZE</code> compressed bytes are collected.
+	 * @return the end of the chunk, or <code>start</code> if no BGZF block starts at <code>start</code>
+	 */
+	private long nextBgzfBoundary(long start) throws IOException {
+
+		long end = start;
+
+		while (end < file_size && end - start < CHUNK_SIZE) {
+
+			int block_size = bgzfBlockSize(end);
+
+			if (block_size <= 0) {
+				break;
+			}
+
+			end += block_size;
+
+		}
+
+		return Math.min(end, file_size);
+
+	}
+
+	/**
+	 * Scans for the first plausible member header at least <code>CHUNK_SIZE</code>
+	 * bytes after <code>start</code>.
+	 * @return the end of the chunk, or <code>start</code> if none was found within <code>MAX_SCAN_SIZE</code>
+	 */
+	private long nextMemberBoundary(long start) throws IOException {
+
+		long scan_start = start + CHUNK_SIZE;
+
+		if (scan_start >= file_size) {
+			return file_size;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+		for (long position = scan_start; position < Math.min(file_size, start + MAX_SCAN_SIZE); ) {
+
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n <= 0) {
+				break;
+			}
+
+			byte[] data = buffer.array();
+			for (int x = 0; x + HEADER_SIZE <= n; x++) {
+				if (isMemberHeader(data, x)) {
+					return position + x;
+				}
+			}
+
+			if (position + n >= file_size) {
+				break;
+			}
+
+			// overlap so that headers crossing the buffer end are not missed
+			position += Math.max(1, n - HEADER_SIZE + 1);
+
+		}
+
+		return start;
+
+	}
+
+	/**
+	 * Inflates all members in the given range and verifies that the range ends exactly
+	 * at the end of the last member. Executed by the worker threads.
+	 */
+	private byte[] inflate(long start, long end) throws IOException, DataFormatException {
+
+		byte[] input = readBytes(start, (int) (end - start));
+		if (input.length != end - start) {
+			throw new EOFException("Unexpected end of file");
+		}
+
+		byte[] output = new byte[Math.max(1 << 16, input.length * 4)];
+		int output_length = 0;
+
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+
+		try {
+
+			int position = 0;
+			while (position < input.length) {
+
+				position = skipHeader(input, position);
+
+				inflater.reset();
+				inflater.setInput(input, position, input.length - position);
+				crc.reset();
+
+				int member_start = output_length;
+				while (!inflater.finished()) {
+
+					if (output_length == output.length) {
+						output = Arrays.copyOf(output, output.length * 2);
+					}
+
+					int n = inflater.inflate(output, output_length, output.length - output_length);
+					output_length += n;
+
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new EOFException("Unexpected end of ZLIB input stream");
+					}
+
+				}
+				crc.update(output, member_start, output_length - member_start);
+
+				position = input.length - inflater.getRemaining();
+
+				// Verify the trailer
+				if (position + 8 > input.length) {
+					throw new EOFException("Unexpected end of gzip member");
+				}
+				if (readInt(input, position) != (int) crc.getValue()) {
+					throw new ZipException("Corrupt GZIP trailer");
+				}
+				if (readInt(input, position + 4) != output_length - member_start) {
+					throw new ZipException("Corrupt GZIP trailer");
+				}
+
+				position += 8;
+
+			}
+
+		} finally {
+			inflater.end();
+		}
+
+		return output_length == output.length ? output : Arrays.copyOf(output, output_length);
+
+	}
+
+	/**
+	 * Parses the member header at <code>position</code>
+	 * @return the position of the first byte of compressed data
+	 */
+	private static int skipHeader(byte[] data, int position) throws IOException {
+
+		if (position + HEADER_SIZE > data.length || !isMemberHeader(data, position)) {
+			throw new ZipException("Not in GZIP format");
+		}
+
+		int flags = data[position + 3] & 0xff;
+		position += HEADER_SIZE;
+
+		if ((flags & FEXTRA) != 0) {
+			if (position + 2 > data.length) {
+				throw new EOFException();
+			}
+			position += 2 + readShort(data, position);
+		}
+		if ((flags & FNAME) != 0) {
+			while (position < data.length && data[position] != 0) {
+				position++;
+			}
+			position++;
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (position < data.length && data[position] != 0) {
+				position++;
+			}
+			position++;
+		}
+		if ((flags & FHCRC) != 0) {
+			position += 2;
+		}
+
+		if (position > data.length) {
+			throw new EOFException();
+		}
+
+		return position;
+
+	}
+
+	/**
+	 * @return true if the bytes at <code>position</code> look like the fixed part of a gzip member header
+	 */
+	private static boolean isMemberHeader(byte[] data, int position) {
+
+		return (data[position] & 0xff) == 0x1f
+			&& (data[position + 1] & 0xff) == 0x8b
+			&& data[position + 2] == 8 // deflate
+			&& (data[position + 3] & FRESERVED) == 0;
+
+	}
+
+	/**
+	 * Reads the BSIZE field of the BGZF block starting at <code>offset</code>
+	 * @return the total size of the block in bytes, or -1 if this is not a BGZF block
+	 */
+	private int bgzfBlockSize(long offset) throws IOException {
+
+		byte[] header = readBytes(offset, HEADER_SIZE + 2);
+
+		if (header.length < HEADER_SIZE + 2 || !isMemberHeader(header, 0) || (header[3] & FEXTRA) == 0) {
+			return -1;
+		}
+
+		int extra_length = readShort(header, HEADER_SIZE);
+		byte[] extra = readBytes(offset + HEADER_SIZE + 2, extra_length);
+
+		// Find the BC subfield
+		for (int x = 0; x + 4 <= extra.length; ) {
+
+			int subfield_length = readShort(extra, x + 2);
+
+			if (extra[x] == 'B' && extra[x + 1] == 'C' && subfield_length == 2 && x + 6 <= extra.length) {
+				return readShort(extra, x + 4) + 1;
+			}
+
+			x += 4 + subfield_length;
+
+		}
+
+		return -1;
+
+	}
+
+	/**
+	 * Positional read of <code>length</code> bytes, shorter if the end of file is reached
+	 */
+	private byte[] readBytes(long offset, int length) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0) {
+				break;
+			}
+		}
+
+		return buffer.position() == length ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+
+	}
+
+	/**
+	 * Little endian unsigned 16 bit value
+	 */
+	private static int readShort(byte[] data, int position) {
+		return (data[position] & 0xff) | ((data[position + 1] & 0xff) << 8);
+	}
+
+	/**
+	 * Little endian 32 bit value
+	 */
+	private static int readInt(byte[] data, int position) {
+		return readShort(data, position) | (readShort(data, position + 2) << 16);
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package lib.parser.aptaplex;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import lib.aptamer.datastructures.SelectionCycle;
+
+/**
+ * @author Jan Hoinka
+ *
+ *         Thread-local buffer in front of <code>SelectionCycle.addToSelectionCycle</code>.
+ *         Identical sequences accepted by the same consumer are collapsed in memory into
+ *         a single entry with a count, and only written to the selection cycle, and
+ *         thereby to the aptamer pool, once the buffer reaches its capacity or the consumer
+ *         terminates. Since later selection rounds are dominated by few, highly enriched
+ *         sequences, this reduces the number of synchronized, disk backed updates
+ *         considerably.
+ *
+ *         Instances are not thread-safe and must be owned by a single consumer.
+ */
+public class SelectionCycleAggregator {
+
+	/**
+	 * Maximal number of distinct sequences kept over all cycles before the buffer is flushed
+	 */
+	private int capacity;
+
+	/**
+	 * Number of distinct sequences currently buffered
+	 */
+	private int size = 0;
+
+	/**
+	 * Buffered sequences per selection cycle.
+	 * Value: {count, randomized region start, randomized region end}
+	 */
+	private IdentityHashMap<SelectionCycle, Object2ObjectOpenCustomHashMap<byte[], int[]>> buffers = new IdentityHashMap<SelectionCycle, Object2ObjectOpenCustomHashMap<byte[], int[]>>();
+
+
+	/**
+	 * @param capacity maximal number of distinct sequences to buffer before flushing. If
+	 * smaller than one, every sequence is passed on to the selection cycle immediately
+	 */
+	public SelectionCycleAggregator(int capacity) {
+
+		this.capacity = capacity;
+
+	}
+
+	/**
+	 * Adds a single occurrence of the aptamer to the selection cycle, either immediately
+	 * or when the buffer is flushed. The arguments correspond to
+	 * <code>SelectionCycle.addToSelectionCycle(byte[], int, int)</code>.
+	 */
+	public void add(SelectionCycle cycle, byte[] a, int rr_start, int rr_end) {
+
+		if (capacity < 1) {
+			cycle.addToSelectionCycle(a, rr_start, rr_end);
+			return;
+		}
+
+		Object2ObjectOpenCustomHashMap<byte[], int[]> buffer = buffers.get(cycle);
+		if (buffer == null) {
+			buffer = new Object2ObjectOpenCustomHashMap<byte[], int[]>(ByteArrays.HASH_STRATEGY);
+			buffers.put(cycle, buffer);
+		}
+
+		int[] entry = buffer.get(a);
+		if (entry != null) {
+			entry[0]++;
+			return;
+		}
+
+		// the caller may reuse the array, hence the key must be a copy
+		buffer.put(Arrays.copyOf(a, a.length), new int[] { 1, rr_start, rr_end });
+		size++;
+
+		if (size >= capacity) {
+			flush();
+		}
+
+	}
+
+	/**
+	 * Writes all buffered sequences with their accumulated counts to the
+	 * corresponding selection cycles and empties the buffer
+	 */
+	public void flush() {
+
+		for (Entry<SelectionCycle, Object2ObjectOpenCustomHashMap<byte[], int[]>> cycle : buffers.entrySet()) {
+
+			for (Object2ObjectMap.Entry<byte[], int[]> entry : cycle.getValue().object2ObjectEntrySet()) {
+				int[] value = entry.getValue();
+				cycle.getKey().addToSelectionCycle(entry.getKey(), value[1], value[2], value[0]);
+			}
+
+			cycle.getValue().clear();
+
+		}
+
+		size = 0;
+
+	}
+
+}
@@ -69,6 +69,7 @@ public class BitapDistance implements Distance{
 					result = new Result();
 					result.index = j - 1;
 					result.errors = d;
+					result.length = pattern.length;
 					return result;
 				}
 			}
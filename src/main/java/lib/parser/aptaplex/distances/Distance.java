@@ -3,6 +3,8 @@
  */
 package lib.parser.aptaplex.distances;
 
+import org.apache.commons.lang3.ArrayUtils;
+
 /**
  * @author Jan Hoinka
  * 
@@ -19,8 +21,40 @@ public interface Distance {
 	 * @param tolerance the maximal number of allowed mismatches between the pattern and the document
 	 * @param doc_range_lower Start index (inclusive) of the range to search in the document. 
 	 * @param doc_range_upper End index (exclusive) of the range to search in the document. 
-	 * @return Result instance containing start index of the match and score. null if matching failed.
+	 * @return Result instance containing start index and length of the match and score. null if matching failed.
 	 */
 	public Result indexOf(byte[] doc, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper);
 	
+	/**
+	 * Performs the distance calculation in the opposite direction of <code>indexOf</code>. 
+	 * The result is identical to calling <code>indexOf</code> on the reversed document 
+	 * and the reversed pattern, but the returned index refers to the original document.
+	 * 
+	 * Implementations which can scan the document in both directions should override this 
+	 * method, the default implementation reverses copies of the inputs.
+	 * 
+	 * @param doc the sequence to find the <code>pattern</code> in
+	 * @param pattern the pattern to search for
+	 * @param tolerance the maximal number of allowed mismatches between the pattern and the document
+	 * @param doc_range_lower Start index (inclusive) of the range to search in the document. 
+	 * @param doc_range_upper End index (exclusive) of the range to search in the document. 
+	 * @return Result instance containing start index and length of the match in <code>doc</code> and score. null if matching failed.
+	 */
+	public default Result reverseIndexOf(byte[] doc, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper) {
+		
+		byte[] doc_reverse = doc.clone();
+		ArrayUtils.reverse(doc_reverse);
+		
+		byte[] pattern_reverse = pattern.clone();
+		ArrayUtils.reverse(pattern_reverse);
+		
+		Result result = indexOf(doc_reverse, pattern_reverse, tolerance, doc.length - doc_range_upper, doc.length - doc_range_lower);
+		if (result != null) {
+			result.index = doc.length - result.index - result.length;
+		}
+		
+		return result;
+		
+	}
+	
 }
@@ -49,6 +49,7 @@ public class EditDistance implements Distance{
 		Result best_match = new Result();
 		best_match.index = best_index;
 		best_match.errors = best_score;
+		best_match.length = pattern.length;
 		
 		return best_match;
 	}
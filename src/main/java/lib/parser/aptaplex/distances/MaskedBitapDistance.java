@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package lib.parser.aptaplex.distances;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * @author Jan Hoinka
+ *
+ *         Allocation free implementation of the Bitap algorithm producing the
+ *         same results as <code>BitapDistance</code>.
+ *
+ *         Instead of a boxed alphabet map, every pattern is translated once into a
+ *         table of 256 bit masks indexed by the byte value of the document. The bit
+ *         arrays of the current and the previous tolerance level are kept between
+ *         calls and only grow when a longer document is encountered. Instances
+ *         are therefore not thread-safe and should be owned by a single consumer.
+ *
+ *         <code>reverseIndexOf</code> scans the document from left to right using
+ *         mirrored masks, so the document does not have to be reversed in order to
+ *         find the left-most match.
+ *
+ *         Like <code>BitapDistance</code>, patterns are limited to 32 characters.
+ */
+public class MaskedBitapDistance implements Distance{
+
+	/**
+	 * Mask tables of all patterns seen so far for the right-to-left scan. Patterns
+	 * are primers and barcodes owned by the caller, hence compared by identity.
+	 */
+	private Map<byte[], int[]> masks = new IdentityHashMap<byte[], int[]>();
+
+	/**
+	 * Mask tables of all patterns seen so far for the left-to-right scan
+	 */
+	private Map<byte[], int[]> reverse_masks = new IdentityHashMap<byte[], int[]>();
+
+	/**
+	 * Bit arrays for the current and the previous tolerance level
+	 */
+	private int[] rd = new int[0];
+	private int[] last_rd = new int[0];
+
+
+	@Override
+	public Result indexOf(byte[] text, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper) {
+
+		int[] mask = getMask(pattern, false);
+		int matchmask = 1 << (pattern.length - 1);
+
+		ensureCapacity(text.length + pattern.length + 2);
+
+		for (int d = 0; d <= tolerance; d++) {
+
+			// the sentinel is only reached if the range extends to the end of the text
+			int first = doc_range_upper + pattern.length;
+			rd[first + 1] = first + 1 == text.length + pattern.length + 1 ? (1 << d) - 1 : 0;
+
+			for (int j = first; j > doc_range_lower; j--) {
+
+				int charMatch = text.length <= j - 1 ? 0 : mask[text[j - 1] & 0xff];
+
+				if (d == 0) {
+					// First pass: exact match.
+					rd[j] = ((rd[j + 1] << 1) | 1) & charMatch;
+				} else {
+					// Subsequent passes: fuzzy match.
+					rd[j] = (((rd[j + 1] << 1) | 1) & charMatch) | (((last_rd[j + 1] | last_rd[j]) << 1) | 1)
+							| last_rd[j + 1];
+				}
+				if ((rd[j] & matchmask) != 0) {
+					Result result = new Result();
+					result.index = j - 1;
+					result.errors = d;
+					result.length = pattern.length;
+					return result;
+				}
+			}
+
+			swap();
+		}
+
+		return null;
+	}
+
+	@Override
+	public Result reverseIndexOf(byte[] text, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper) {
+
+		int[] mask = getMask(pattern, true);
+		int matchmask = 1 << (pattern.length - 1);
+
+		// position k of the text is stored at index k + pattern.length + 1
+		int offset = pattern.length + 1;
+		ensureCapacity(doc_range_upper + offset);
+
+		for (int d = 0; d <= tolerance; d++) {
+
+			// the sentinel is only reached if the range extends to the start of the text
+			int first = doc_range_lower - pattern.length;
+			rd[first - 1 + offset] = doc_range_lower == 0 ? (1 << d) - 1 : 0;
+
+			for (int k = first; k < doc_range_upper; k++) {
+
+				int j = k + offset;
+				int charMatch = k < 0 ? 0 : mask[text[k] & 0xff];
+
+				if (d == 0) {
+					// First pass: exact match.
+					rd[j] = ((rd[j - 1] << 1) | 1) & charMatch;
+				} else {
+					// Subsequent passes: fuzzy match.
+					rd[j] = (((rd[j - 1] << 1) | 1) & charMatch) | (((last_rd[j - 1] | last_rd[j]) << 1) | 1)
+							| last_rd[j - 1];
+				}
+				if ((rd[j] & matchmask) != 0) {
+					Result result = new Result();
+					result.index = k + 1 - pattern.length;
+					result.errors = d;
+					result.length = pattern.length;
+					return result;
+				}
+			}
+
+			swap();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the mask table of the pattern, computing it on first use.
+	 * @param pattern the pattern
+	 * @param reverse if true, the masks are mirrored for the left-to-right scan
+	 * @return array of length 256 in which bit i of entry c is set if the pattern
+	 * contains byte c at position i (counted from the pattern start if reverse, from the end otherwise)
+	 */
+	private int[] getMask(byte[] pattern, boolean reverse) {
+
+		Map<byte[], int[]> cache = reverse ? reverse_masks : masks;
+
+		int[] mask = cache.get(pattern);
+		if (mask == null) {
+
+			mask = new int[256];
+			for (int i = 0; i < pattern.length; i++) {
+				mask[pattern[i] & 0xff] |= 1 << (reverse ? i : pattern.length - i - 1);
+			}
+
+			cache.put(pattern, mask);
+
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Makes sure both bit arrays can hold at least <code>size</code> elements. 
+	 * Stale values from previous calls are never read, every position is written
+	 * before it is used.
+	 */
+	private void ensureCapacity(int size) {
+
+		if (rd.length < size) {
+			rd = new int[size];
+			last_rd = new int[size];
+		}
+
+	}
+
+	/**
+	 * Exchanges the bit arrays of the current and the previous tolerance level
+	 */
+	private void swap() {
+
+		int[] tmp = last_rd;
+		last_rd = rd;
+		rd = tmp;
+
+	}
+
+}
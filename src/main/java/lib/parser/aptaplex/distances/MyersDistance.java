@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package lib.parser.aptaplex.distances;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * @author Jan Hoinka
+ *
+ *         Implements Myers' bit-vector algorithm for approximate string matching
+ *         in the block based formulation of Hyyrö (G. Myers, A fast bit-vector
+ *         algorithm for approximate string matching based on dynamic programming,
+ *         J. ACM 46(3), 1999; H. Hyyrö, A bit-vector algorithm for computing
+ *         Levenshtein and Damerau edit distances, Nordic J. of Computing 10, 2003).
+ *
+ *         The pattern is split into words of 64 rows, hence patterns of arbitrary
+ *         length are supported in O(n * ceil(m/64)) time. In contrast to <code>EditDistance</code>,
+ *         which only counts mismatches, <code>Result.errors</code> is the Levenshtein
+ *         distance of the pattern to the best matching substring of the document,
+ *         i.e. insertions and deletions are taken into account as well. Consequently
+ *         <code>Result.length</code> is the length of that substring, which may differ
+ *         from the pattern length.
+ *
+ *         <code>indexOf</code> reports the right-most best match, <code>reverseIndexOf</code>
+ *         the left-most best match. Instances keep scratch arrays between calls and
+ *         are therefore not thread-safe.
+ */
+public class MyersDistance implements Distance{
+
+	/**
+	 * Number of bits per word
+	 */
+	private static final int WORD_SIZE = 64;
+
+	/**
+	 * Match masks of all patterns seen so far, indexed by byte value and block.
+	 * Row i of the pattern corresponds to bit i % 64 of block i / 64.
+	 */
+	private Map<byte[], long[][]> peqs = new IdentityHashMap<byte[], long[][]>();
+
+	/**
+	 * Match masks of the reversed patterns
+	 */
+	private Map<byte[], long[][]> reverse_peqs = new IdentityHashMap<byte[], long[][]>();
+
+	/**
+	 * Vertical positive and negative delta vectors of the current column
+	 */
+	private long[] pv = new long[0];
+	private long[] mv = new long[0];
+
+
+	@Override
+	public Result indexOf(byte[] doc, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper) {
+
+		// Find the right-most end position of a best match...
+		Result result = search(doc, pattern, tolerance, doc_range_lower, doc_range_upper, false);
+
+		// ...and trace it back to its start
+		if (result != null) {
+			int end = result.index;
+			result.index = locate(doc, pattern, result.errors, end, doc_range_lower, doc_range_upper, true);
+			result.length = end - result.index + 1;
+		}
+
+		return result;
+	}
+
+	@Override
+	public Result reverseIndexOf(byte[] doc, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper) {
+
+		// Scanning from right to left with the reversed pattern directly yields the start position...
+		Result result = search(doc, pattern, tolerance, doc_range_lower, doc_range_upper, true);
+
+		// ...and tracing it forward yields the end of the alignment
+		if (result != null) {
+			int end = locate(doc, pattern, result.errors, result.index, doc_range_lower, doc_range_upper, false);
+			result.length = end - result.index + 1;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Computes the edit distance of the pattern to the best matching substring ending
+	 * (or starting, if reverse) at each position of the document range.
+	 *
+	 * @return Result with the position of the last best match in scan direction, null if
+	 * no position is within the tolerance. The length is a placeholder until the alignment is located.
+	 */
+	private Result search(byte[] doc, byte[] pattern, int tolerance, int doc_range_lower, int doc_range_upper, boolean reverse) {
+
+		if (pattern.length == 0 || doc_range_upper <= doc_range_lower) {
+			return null;
+		}
+
+		long[][] peq = getPeq(pattern, reverse);
+		int blocks = reset(pattern.length);
+		long last_mask = 1L << ((pattern.length - 1) % WORD_SIZE);
+
+		int score = pattern.length;
+		int best_score = -1;
+		int best_position = -1;
+
+		int step = reverse ? -1 : 1;
+		for (int j = reverse ? doc_range_upper - 1 : doc_range_lower; j >= doc_range_lower && j < doc_range_upper; j += step) {
+
+			// row 0 is free, alignments may start anywhere
+			score += advance(peq[doc[j] & 0xff], blocks, last_mask, 0);
+
+			if (score <= tolerance && (best_position == -1 || score <= best_score)) {
+				best_score = score;
+				best_position = j;
+			}
+
+		}
+
+		if (best_position == -1) {
+			return null;
+		}
+
+		Result result = new Result();
+		result.index = best_position;
+		result.errors = best_score;
+		result.length = pattern.length;
+
+		return result;
+	}
+
+	/**
+	 * Finds the other end of an alignment with the given score which is anchored at
+	 * <code>anchor</code>. If <code>backward</code>, <code>anchor</code> is the end of the alignment
+	 * and its start is located by aligning the reversed pattern to the document from right to left.
+	 * Otherwise <code>anchor</code> is the start and the pattern is aligned from left to right.
+	 * The shortest such alignment is chosen.
+	 * @return the index of the first (if backward) or last document character of the alignment
+	 */
+	private int locate(byte[] doc, byte[] pattern, int score, int anchor, int doc_range_lower, int doc_range_upper, boolean backward) {
+
+		long[][] peq = getPeq(pattern, backward);
+		int blocks = reset(pattern.length);
+		long last_mask = 1L << ((pattern.length - 1) % WORD_SIZE);
+
+		int current = pattern.length;
+		int step = backward ? -1 : 1;
+		for (int j = anchor; j >= doc_range_lower && j < doc_range_upper; j += step) {
+
+			// row 0 grows by one per column, alignments must start at anchor
+			current += advance(peq[doc[j] & 0xff], blocks, last_mask, 1);
+
+			if (current == score) {
+				return j;
+			}
+
+		}
+
+		// not reached for consistent inputs
+		return anchor - step * (pattern.length - 1);
+	}
+
+	/**
+	 * Advances all blocks by one column of the dynamic programming matrix
+	 * @param eq the match masks of the current document character
+	 * @param blocks the number of blocks of the pattern
+	 * @param last_mask bit of the last pattern row in the last block
+	 * @param hin horizontal delta entering the first block from row 0
+	 * @return horizontal delta of the last pattern row
+	 */
+	private int advance(long[] eq, int blocks, long last_mask, int hin) {
+
+		for (int b = 0; b < blocks; b++) {
+
+			long high_mask = b == blocks - 1 ? last_mask : Long.MIN_VALUE;
+
+			long Pv = pv[b];
+			long Mv = mv[b];
+			long Eq = eq[b];
+			long hin_is_negative = hin < 0 ? 1L : 0L;
+
+			long Xv = Eq | Mv;
+			Eq |= hin_is_negative;
+			long Xh = (((Eq & Pv) + Pv) ^ Pv) | Eq;
+
+			long Ph = Mv | ~(Xh | Pv);
+			long Mh = Pv & Xh;
+
+			int hout = ((Ph & high_mask) != 0 ? 1 : 0) - ((Mh & high_mask) != 0 ? 1 : 0);
+
+			Ph <<= 1;
+			Mh <<= 1;
+			Mh |= hin_is_negative;
+			if (hin > 0) {
+				Ph |= 1L;
+			}
+
+			pv[b] = Mh | ~(Xv | Ph);
+			mv[b] = Ph & Xv;
+
+			hin = hout;
+		}
+
+		return hin;
+	}
+
+	/**
+	 * Initializes the delta vectors for the first column, i.e. D[i][0] = i
+	 * @return the number of blocks required for the pattern
+	 */
+	private int reset(int pattern_length) {
+
+		int blocks = (pattern_length + WORD_SIZE - 1) / WORD_SIZE;
+
+		if (pv.length < blocks) {
+			pv = new long[blocks];
+			mv = new long[blocks];
+		}
+
+		for (int b = 0; b < blocks; b++) {
+			pv[b] = -1L;
+			mv[b] = 0L;
+		}
+
+		return blocks;
+	}
+
+	/**
+	 * Returns the match masks of the pattern, computing them on first use
+	 * @param pattern the pattern
+	 * @param reverse if true, the masks of the reversed pattern are returned
+	 */
+	private long[][] getPeq(byte[] pattern, boolean reverse) {
+
+		Map<byte[], long[][]> cache = reverse ? reverse_peqs : peqs;
+
+		long[][] peq = cache.get(pattern);
+		if (peq == null) {
+
+			int blocks = (pattern.length + WORD_SIZE - 1) / WORD_SIZE;
+			peq = new long[256][blocks];
+
+			for (int i = 0; i < pattern.length; i++) {
+				int c = pattern[reverse ? pattern.length - i - 1 : i] & 0xff;
+				peq[c][i / WORD_SIZE] |= 1L << (i % WORD_SIZE);
+			}
+
+			cache.put(pattern, peq);
+
+		}
+
+		return peq;
+	}
+
+}
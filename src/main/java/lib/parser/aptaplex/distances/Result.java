@@ -5,4 +5,11 @@ public class Result {
     public int index = -1;
 
     public int errors = -1;
+
+    /**
+     * Number of document characters covered by the match, starting at <code>index</code>.
+     * Equals the pattern length for mismatch-only matchers, but may differ from it
+     * for matchers which tolerate insertions and deletions.
+     */
+    public int length = -1;
 }
@@ -242,6 +242,9 @@ public class AptaSimParser implements Parser, Runnable{
 			}
 		}
 		
+		// Collect the counts of all cycles while the data is still in the page cache
+		Configuration.getExperiment().getCountMatrix();
+		
 		// Store the final progress data to the metadata statistics
 		Metadata metadata = Configuration.getExperiment().getMetadata();
 		
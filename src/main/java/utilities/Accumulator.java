@@ -72,6 +72,22 @@ public class Accumulator implements Serializable {
         sum += (double) (n - 1) / n * delta * delta;
     }
 
+    /**
+     * Adds a batch of data values, summarized by their count, mean, and sum of squared
+     * deviations from the mean, to the accumulator (Chan et al. parallel algorithm).
+     * @param  count the number of data values in the batch
+     * @param  mean the mean of the batch
+     * @param  m2 the sum of squared deviations from the batch mean
+     */
+    public synchronized void addDataValues(int count, double mean, double m2) {
+        if (count == 0) return;
+        int total = n + count;
+        double delta = mean - mu;
+        mu  += delta * count / total;
+        sum += m2 + delta * delta * ((double) n * count / total);
+        n = total;
+    }
+
     /**
      * Returns the mean of the data values.
      * @return the mean of the data values
@@ -51,15 +51,30 @@ public class Configuration {
 		defaults.put("Experiment.name", "Sample Experiment");
 
 		// PoolBackend
-		defaults.put("AptamerPool.backend", "MapDBAptamerPool");
+		defaults.put("AptamerPool.backend", "MapDBAptamerPool"); // Current options are MapDBAptamerPool, ShardedAptamerPool, and LogStructuredAptamerPool
+		defaults.put("AptamerPool.cacheSize", 67108864); // Bytes of off-heap memory used to cache sequences by id if AptamerPool.snapshot is disabled, 0 to disable. Allocated on first use
+		defaults.put("AptamerPool.snapshot", true); // Compact the pool into a memory mapped, read only snapshot after parsing
+		defaults.put("SnapshotAptamerPool.perfectHashIndex", true); // Answer sequence lookups from a minimal perfect hash over the snapshot
+		defaults.put("SnapshotAptamerPool.perfectHashGamma", 2.0); // Larger values speed up construction and lookups at the cost of memory
 
 		// PoolMapDB Options
 		defaults.put("MapDBAptamerPool.bloomFilterCapacity", 250000000); // This should be set to a value >= than the total number of unique aptamers in the experiment
 		defaults.put("MapDBAptamerPool.bloomFilterCollisionProbability", 0.001);
 		defaults.put("MapDBAptamerPool.maxTreeMapCapacity", 1000000);
+		defaults.put("MapDBAptamerPool.packedSequences", true); // Store new pools with 2 bits per nucleotide. Existing pools keep their format
+		defaults.put("MapDBAptamerPool.bulkLoad", true); // Build the inverse view and bounds data of new pools in a single sorted pass once parsing is completed
+
+		// ShardedAptamerPool Options (also uses the bloom filter settings of MapDBAptamerPool)
+		defaults.put("ShardedAptamerPool.shards", 16); // Number of independently locked partitions. Cannot be changed for existing projects
 
 		// SelectionCycle Backend
-		defaults.put("SelectionCycle.backend", "MapDBSelectionCycle");
+		defaults.put("SelectionCycle.backend", "MapDBSelectionCycle"); // MapDBSelectionCycle or InMemorySelectionCycle
+
+		// CountMatrix Options
+		defaults.put("CountMatrix.layout", "auto"); // dense, sparse, or auto to choose the smaller of the two
+
+		// InMemorySelectionCycle Options
+		defaults.put("InMemorySelectionCycle.sparseFraction", 0.3); // Cycles containing fewer unique aptamers than this fraction of all ids are kept in a hash map instead of an array
 
 		// StructureBackend
 		defaults.put("StructurePool.backend", "MapDBStructurePool");
@@ -68,6 +83,7 @@ public class Configuration {
 		defaults.put("MapDBStructurePool.bloomFilterCollisionProbability", 0.001);
 		defaults.put("MapDBStructurePool.maxTreeMapCapacity", 500000);
 		defaults.put("MapDBStructurePool.maxTreeMapCapacityBppm", 150000);
+		defaults.put("MapDBStructurePool.encoding", "fixed16"); // Encoding of new structure pools: double, float, fixed16 (error <= 7.7e-6), or fixed8 (error <= 2e-3). Existing pools keep their encoding
 
 		// BloomFilterSelectionCycle Options
 		defaults.put("MapDBSelectionCycle.bloomFilterCollisionProbability", 0.001); // the capacity must be the same as
@@ -86,9 +102,15 @@ public class Configuration {
 		defaults.put("Parser.backend", "AptaplexParser");
 
 		// AptaplexParser Options
-		defaults.put("AptaplexParser.reader", "FastqReader"); //Current options are FastqReader and RawReader
+		defaults.put("AptaplexParser.reader", "FastqReader"); //Current options are FastqReader, MappedFastqReader and RawReader
 		defaults.put("AptaplexParser.isPerFile", true); 
-		defaults.put("AptaplexParser.BlockingQueueSize", 5000); 
+		defaults.put("AptaplexParser.BlockingQueueSize", 5000); // Number of reads the producer can queue ahead of the consumers, rounded down to whole batches
+		defaults.put("AptaplexParser.ReadBatchSize", 1000); // Number of reads passed from the producer to a consumer at once
+		defaults.put("AptaplexParser.ConcurrentFiles", 1); // Maximal number of forward/reverse file pairs read at the same time
+		defaults.put("AptaplexParser.LocalCountTableSize", 100000); // Number of distinct sequences each consumer counts in memory before writing them to the 
+																	// selection cycles. 0 writes every read immediately
+		defaults.put("AptaplexParser.DecompressionThreads", 4); // Number of threads inflating gzip compressed input files. Only BGZF and multi-member
+																// gzip files can be inflated in parallel, other files are inflated sequentially
 		defaults.put("AptaplexParser.PairedEndMinOverlap", 15); // Milab option: smallest overlap required when creating
 																// contig
 		defaults.put("AptaplexParser.PairedEndMaxMutations", 5); // Maximal number of mutations in the overlapping
@@ -97,6 +119,12 @@ public class Configuration {
 																	// 55 for phred
 		defaults.put("AptaplexParser.BarcodeTolerance", 1); // Maximal number of mutations allowed in the barcodes
 		defaults.put("AptaplexParser.PrimerTolerance", 3); // Maximal number of mutations allowed in the primers
+		defaults.put("AptaplexParser.BarcodeIndex", true); // If true, all barcode variants within the BarcodeTolerance are precomputed and reads are
+														  // assigned with a single lookup. Reads without a hit are still aligned to every barcode
+		defaults.put("AptaplexParser.distance", "MaskedBitapDistance"); // Matching algorithm for primers and barcodes of up to 32 nucleotides.
+																	 // Current options are MaskedBitapDistance and BitapDistance
+		defaults.put("AptaplexParser.longPatternDistance", "EditDistance"); // Matching algorithm for primers longer than 32 nucleotides. EditDistance only counts
+																	 // mismatches, MyersDistance also tolerates insertions and deletions
 
 		defaults.put("AptaplexParser.StoreReverseComplement", false); // Useful for DNA aptamers. If set to true, the reverse complement of the
 																	  // of the identified primers and randomized region of the contig is stored in the database 
@@ -162,6 +190,13 @@ public class Configuration {
 		defaults.put("Performance.maxNumberOfCores", 50); // if larger than available, min of both is taken
 		defaults.put("MapDBAllocateStartSize", 1 * 1024*1024*1024); // for each file, initially allocate 1GB of storage, workaround for bug https://github.com/jankotek/mapdb/issues/723
 		defaults.put("MapDBAllocateIncrement", 100 * 1024*1024); // and increment it in 100mb chunks to keep the number of mmap file handles managable
+														// Both can be overridden per store, e.g. MapDBSelectionCycle.allocateStartSize
+		defaults.put("MapDBAptamerPool.concurrencyScale", "auto"); // Number of lock segments per MapDB file [auto, or a power of two]. auto uses two segments
+		defaults.put("ShardedAptamerPool.concurrencyScale", "auto"); // per thread for the aptamer pools and one per thread for all other stores, where the
+		defaults.put("MapDBSelectionCycle.concurrencyScale", "auto"); // number of threads is the minimum of Performance.maxNumberOfCores and the available cores
+		defaults.put("MapDBStructurePool.concurrencyScale", "auto");
+		defaults.put("MapDBClusterContainer.concurrencyScale", "auto");
+		defaults.put("MapDBGenericStorage.concurrencyScale", "auto");
 		
 	}
 
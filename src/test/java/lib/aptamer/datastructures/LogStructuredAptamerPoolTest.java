@@ -0,0 +1,319 @@
+/**
+ *
+ */
+package lib.aptamer.datastructures;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Verifies that <code>LogStructuredAptamerPool</code> fulfills the same contract as
+ * <code>MapDBAptamerPool</code>: continuous ids starting at 1, stable ids for repeated
+ * registrations, and identical content after reopening, recovering from an incomplete
+ * log, switching between read only and read write, and clearing the pool.
+ */
+public class LogStructuredAptamerPoolTest {
+
+	private static final int APTAMERS = 500;
+
+	private Path projectPath;
+
+	private List<byte[]> sequences;
+
+	@Before
+	public void setUp() throws IOException {
+
+		projectPath = Files.createTempDirectory("aptasuite-logpool");
+
+		// Random sequences, some of which cannot be packed and some of which only differ in trailing A's
+		Random r = new Random(42);
+		byte[] alphabet = { 'A', 'C', 'G', 'T' };
+		sequences = new ArrayList<byte[]>();
+		Set<String> unique = new HashSet<String>();
+		while (sequences.size() < APTAMERS) {
+
+			byte[] sequence = new byte[20 + r.nextInt(40)];
+			for (int i = 0; i < sequence.length; i++) {
+				sequence[i] = alphabet[r.nextInt(4)];
+			}
+			if (sequences.size() % 50 == 0) {
+				sequence[r.nextInt(sequence.length)] = 'N';
+			}
+			if (sequences.size() % 70 == 0) {
+				sequence = Arrays.copyOf(sequence, sequence.length + 1);
+				sequence[sequence.length - 1] = 'A';
+			}
+
+			if (unique.add(new String(sequence))) {
+				sequences.add(sequence);
+			}
+
+			// the same sequence without its trailing A
+			if (sequence[sequence.length - 1] == 'A' && sequences.size() < APTAMERS && unique.add(new String(sequence, 0, sequence.length - 1))) {
+				sequences.add(Arrays.copyOf(sequence, sequence.length - 1));
+			}
+
+		}
+
+	}
+
+	@After
+	public void tearDown() throws IOException {
+
+		try (Stream<Path> files = Files.walk(projectPath)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+
+	}
+
+	/**
+	 * Registers the first <code>count</code> sequences, the i-th with the bounds (i, i+10)
+	 */
+	private void register(AptamerPool pool, int count) {
+
+		for (int i = 0; i < count; i++) {
+			assertEquals(i + 1, pool.registerAptamer(sequences.get(i), i, i + 10));
+		}
+
+	}
+
+	/**
+	 * Compares all accessors of the pool against the first <code>count</code> sequences
+	 */
+	private void assertPoolContent(String message, AptamerPool pool, int count) {
+
+		assertEquals(message, count, pool.size());
+
+		for (int i = 0; i < count; i++) {
+
+			int id = i + 1;
+			byte[] sequence = sequences.get(i);
+
+			assertEquals(message, id, pool.getIdentifier(sequence));
+			assertEquals(message, id, pool.getIdentifier(new String(sequence)));
+			assertTrue(message, pool.containsAptamer(sequence));
+			assertTrue(message, pool.containsAptamer(id));
+			assertArrayEquals(message, sequence, pool.getAptamer(id));
+
+			AptamerBounds bounds = pool.getAptamerBounds(id);
+			assertEquals(message, i, bounds.startIndex);
+			assertEquals(message, i + 10, bounds.endIndex);
+
+		}
+
+		for (int i = count; i < sequences.size(); i++) {
+			assertEquals(message, -1, pool.getIdentifier(sequences.get(i)));
+			assertFalse(message, pool.containsAptamer(sequences.get(i)));
+		}
+
+		assertFalse(message, pool.containsAptamer(0));
+		assertFalse(message, pool.containsAptamer(count + 1));
+		assertNull(message, pool.getAptamer(0));
+		assertNull(message, pool.getAptamer(count + 1));
+		assertNull(message, pool.getAptamerBounds(count + 1));
+
+		// The iterators visit every aptamer exactly once
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Entry<byte[], Integer> entry : pool.iterator()) {
+			assertArrayEquals(message, sequences.get(entry.getValue() - 1), entry.getKey());
+			assertTrue(message, ids.add(entry.getValue()));
+		}
+		assertEquals(message, count, ids.size());
+
+		ids.clear();
+		for (Entry<Integer, byte[]> entry : pool.inverse_view_iterator()) {
+			assertArrayEquals(message, sequences.get(entry.getKey() - 1), entry.getValue());
+			assertTrue(message, ids.add(entry.getKey()));
+		}
+		assertEquals(message, count, ids.size());
+
+		ids.clear();
+		for (Integer id : pool.id_iterator()) {
+			assertTrue(message, id >= 1 && id <= count && ids.add(id));
+		}
+		assertEquals(message, count, ids.size());
+
+		ids.clear();
+		for (Entry<Integer, int[]> entry : pool.bounds_iterator()) {
+			assertArrayEquals(message, new int[] { entry.getKey() - 1, entry.getKey() + 9 }, entry.getValue());
+			assertTrue(message, ids.add(entry.getKey()));
+		}
+		assertEquals(message, count, ids.size());
+
+		// The spliterators agree with the iterators when run in parallel
+		assertEquals(message, count, StreamSupport.stream(pool.inverse_view_spliterator(), true)
+				.filter(entry -> Arrays.equals(sequences.get(entry.getKey() - 1), entry.getValue()))
+				.map(Entry::getKey).collect(Collectors.toSet()).size());
+		assertEquals(message, count, StreamSupport.stream(pool.id_spliterator(), true).collect(Collectors.toSet()).size());
+
+	}
+
+	@Test
+	public void registeredAptamersKeepTheirIds() throws IOException {
+
+		LogStructuredAptamerPool pool = new LogStructuredAptamerPool(projectPath, true);
+
+		register(pool, APTAMERS);
+
+		// Registering again returns the existing id and keeps the original bounds
+		for (int i = APTAMERS - 1; i >= 0; i--) {
+			assertEquals(i + 1, pool.registerAptamer(sequences.get(i), 0, 0));
+			assertEquals(i + 1, pool.registerAptamer(new String(sequences.get(i)), 0, 0));
+		}
+
+		assertPoolContent("read write", pool, APTAMERS);
+
+		pool.close();
+
+	}
+
+	@Test
+	public void contentSurvivesReopening() throws IOException {
+
+		LogStructuredAptamerPool pool = new LogStructuredAptamerPool(projectPath, true);
+		register(pool, APTAMERS / 2);
+		pool.close();
+
+		pool = new LogStructuredAptamerPool(projectPath, false);
+		assertPoolContent("reopened", pool, APTAMERS / 2);
+
+		// New registrations continue the ids of the existing pool
+		for (int i = APTAMERS / 2; i < APTAMERS; i++) {
+			assertEquals(i + 1, pool.registerAptamer(sequences.get(i), i, i + 10));
+		}
+		pool.close();
+
+		// Without the index, the pool is recovered from the log alone
+		Files.delete(Paths.get(projectPath.toString(), "poollog", "index.bin"));
+
+		pool = new LogStructuredAptamerPool(projectPath, false);
+		assertPoolContent("rebuilt", pool, APTAMERS);
+		pool.close();
+
+		pool = new LogStructuredAptamerPool(projectPath, true);
+		assertPoolContent("new", pool, 0);
+		pool.close();
+
+	}
+
+	@Test
+	public void truncatedLogTailIsDiscarded() throws IOException {
+
+		LogStructuredAptamerPool pool = new LogStructuredAptamerPool(projectPath, true);
+		register(pool, APTAMERS);
+		pool.close();
+
+		// Simulate a crash while the last record was being written
+		Path log = Paths.get(projectPath.toString(), "poollog", "sequences.log");
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		pool = new LogStructuredAptamerPool(projectPath, false);
+		assertPoolContent("recovered", pool, APTAMERS - 1);
+
+		// The incomplete record was removed, so the lost aptamer is appended with the same id
+		assertEquals(APTAMERS, pool.registerAptamer(sequences.get(APTAMERS - 1), APTAMERS - 1, APTAMERS + 9));
+		pool.close();
+
+		pool = new LogStructuredAptamerPool(projectPath, false);
+		assertPoolContent("reopened", pool, APTAMERS);
+		pool.close();
+
+	}
+
+	@Test
+	public void readOnlyReadWriteAndClear() throws IOException {
+
+		LogStructuredAptamerPool pool = new LogStructuredAptamerPool(projectPath, true);
+		register(pool, APTAMERS / 2);
+
+		pool.setReadOnly();
+		assertPoolContent("read only", pool, APTAMERS / 2);
+
+		// Records appended after the log was mapped are read from the file
+		pool.setReadWrite();
+		for (int i = APTAMERS / 2; i < APTAMERS; i++) {
+			assertEquals(i + 1, pool.registerAptamer(sequences.get(i), i, i + 10));
+		}
+		assertPoolContent("read write", pool, APTAMERS);
+
+		pool.setReadOnly();
+		assertPoolContent("read only again", pool, APTAMERS);
+
+		pool.clear();
+		assertPoolContent("cleared", pool, 0);
+
+		register(pool, 10);
+		assertPoolContent("refilled", pool, 10);
+		pool.close();
+
+		pool = new LogStructuredAptamerPool(projectPath, false);
+		assertPoolContent("reopened", pool, 10);
+		pool.close();
+
+	}
+
+	@Test
+	public void abandonedIteratorsReleaseNoFileHandles() throws IOException {
+
+		Path descriptors = Paths.get("/proc/self/fd");
+		Assume.assumeTrue(Files.isDirectory(descriptors));
+
+		LogStructuredAptamerPool pool = new LogStructuredAptamerPool(projectPath, true);
+		register(pool, APTAMERS);
+
+		long before;
+		try (Stream<Path> files = Files.list(descriptors)) {
+			before = files.count();
+		}
+
+		for (int x = 0; x < 100; x++) {
+			for (Entry<Integer, byte[]> entry : pool.inverse_view_iterator()) {
+				if (entry.getKey() > 0) {
+					break;
+				}
+			}
+		}
+
+		long after;
+		try (Stream<Path> files = Files.list(descriptors)) {
+			after = files.count();
+		}
+
+		assertEquals(before, after);
+
+		pool.close();
+
+	}
+
+}
@@ -0,0 +1,234 @@
+/**
+ * 
+ */
+package lib.aptamer.datastructures;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.SerializerCompressionWrapper;
+
+import utilities.Configuration;
+
+/**
+ * @author Jan Hoinka
+ * 
+ * Round trips structures through <code>MapDBStructurePool</code> for every 
+ * <code>StructureEncoding</code> and verifies that pools created before the 
+ * encodings were introduced remain readable and writable.
+ */
+public class MapDBStructurePoolTest {
+
+	private static final String POOL_NAME = "structuredata";
+
+	/**
+	 * Number of structures per file, small enough for the structures to span several files
+	 */
+	private static final int CAPACITY = 20;
+
+	private static final int STRUCTURES = 50;
+
+	private Path projectPath;
+
+	@Before
+	public void setUp() throws IOException {
+
+		projectPath = Files.createTempDirectory("aptasuite-structurepool");
+
+		Configuration.createConfiguration(projectPath.resolve("configuration.aptasuite"));
+
+		// keep the filters and files of the test pools small
+		Configuration.getParameters().setProperty("MapDBAptamerPool.bloomFilterCapacity", 1000);
+		Configuration.getParameters().setProperty("MapDBAllocateStartSize", 1024 * 1024);
+		Configuration.getParameters().setProperty("MapDBAllocateIncrement", 1024 * 1024);
+
+	}
+
+	@After
+	public void tearDown() throws IOException {
+
+		Configuration.reset();
+
+		try (Stream<Path> files = Files.walk(projectPath)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+
+	}
+
+	private static double[][] randomProfiles(Random r) {
+
+		double[][] profiles = new double[STRUCTURES + 1][];
+		for (int id = 1; id <= STRUCTURES; id++) {
+			profiles[id] = new double[5 * (10 + r.nextInt(30))];
+			for (int i = 0; i < profiles[id].length; i++) {
+				profiles[id][i] = r.nextDouble();
+			}
+		}
+
+		return profiles;
+	}
+
+	/**
+	 * Compares all accessors of the pool against <code>profiles</code>
+	 */
+	private static void assertPoolContent(String message, MapDBStructurePool pool, double[][] profiles, double maximalError) {
+
+		assertEquals(message, STRUCTURES, pool.size());
+
+		double[] buffer = new double[1000];
+		for (int id = 1; id <= STRUCTURES; id++) {
+
+			double[] structure = pool.getStructure(id);
+			assertEquals(message, profiles[id].length, structure.length);
+			assertEquals(message, profiles[id].length, pool.getStructure(id, buffer));
+
+			for (int i = 0; i < profiles[id].length; i++) {
+				assertEquals(message, profiles[id][i], structure[i], maximalError);
+				assertEquals(message, structure[i], buffer[i], 0.0);
+			}
+
+		}
+
+		assertNull(message, pool.getStructure(STRUCTURES + 1));
+		assertEquals(message, -1, pool.getStructure(STRUCTURES + 1, buffer));
+
+		// sorted_iterator traverses all structures in ascending order of their ids
+		int expected = 1;
+		for (Entry<Integer, double[]> entry : pool.sorted_iterator()) {
+
+			assertEquals(message, expected, (int) entry.getKey());
+			assertArrayEquals(message, pool.getStructure(expected), entry.getValue(), 0.0);
+			expected++;
+
+		}
+		assertEquals(message, STRUCTURES + 1, expected);
+
+	}
+
+	@Test
+	public void encodedPoolsSurviveReopening() throws IOException {
+
+		Random r = new Random(42);
+
+		for (StructureEncoding encoding : StructureEncoding.values()) {
+
+			String poolName = POOL_NAME + encoding.name();
+			Configuration.getParameters().setProperty("MapDBStructurePool.encoding", encoding.name().toLowerCase());
+
+			double[][] profiles = randomProfiles(r);
+
+			MapDBStructurePool pool = new MapDBStructurePool(projectPath, poolName, CAPACITY, true);
+			for (int id = 1; id <= STRUCTURES; id++) {
+				pool.registerStructure(id, profiles[id]);
+			}
+			assertPoolContent(encoding + " before reopening", pool, profiles, encoding.getMaximalError());
+			pool.close();
+
+			// the encoding of the pool is recorded on disk and takes precedence over the configuration
+			assertEquals(encoding.name(), new String(Files.readAllBytes(projectPath.resolve(poolName).resolve("encoding")), StandardCharsets.UTF_8));
+			Configuration.getParameters().setProperty("MapDBStructurePool.encoding", "double");
+
+			pool = new MapDBStructurePool(projectPath, poolName, CAPACITY, false);
+			assertPoolContent(encoding + " after reopening", pool, profiles, encoding.getMaximalError());
+
+			pool.setReadOnly();
+			assertPoolContent(encoding + " read only", pool, profiles, encoding.getMaximalError());
+			pool.close();
+
+		}
+
+	}
+
+	/**
+	 * Creates a file of a pool in the format used before structures were encoded
+	 */
+	private BTreeMap<Integer, double[]> openLegacyFile(Path file) {
+
+		DB db = DBMaker
+				.fileDB(file.toFile())
+				.fileMmapEnableIfSupported()
+				.make();
+
+		return db.treeMap("map")
+				.valuesOutsideNodesEnable()
+				.keySerializer(Serializer.INTEGER)
+				.valueSerializer(new SerializerCompressionWrapper<double[]>(Serializer.DOUBLE_ARRAY))
+				.createOrOpen();
+	}
+
+	@Test
+	public void legacyPoolsRemainReadableAndWritable() throws IOException {
+
+		Random r = new Random(7);
+		double[][] profiles = randomProfiles(r);
+
+		// Write the first structures in the old format, one file per CAPACITY ids
+		Path poolPath = Files.createDirectories(projectPath.resolve(POOL_NAME));
+		for (int file = 0; file <= (STRUCTURES - 10) / CAPACITY; file++) {
+
+			BTreeMap<Integer, double[]> map = openLegacyFile(poolPath.resolve("data" + String.format("%04d", file) + ".mapdb"));
+			for (int id = Math.max(1, file * CAPACITY); id < Math.min(STRUCTURES - 10 + 1, (file + 1) * CAPACITY); id++) {
+				map.put(id, profiles[id]);
+			}
+			map.close();
+
+		}
+
+		// The pool reads the old records without loss...
+		MapDBStructurePool pool = new MapDBStructurePool(projectPath, POOL_NAME, CAPACITY, false);
+		assertEquals(STRUCTURES - 10, pool.size());
+		for (int id = 1; id <= STRUCTURES - 10; id++) {
+			assertArrayEquals(profiles[id], pool.getStructure(id), 0.0);
+		}
+
+		// ...and appends new ones, including new files, in the same format
+		for (int id = STRUCTURES - 10 + 1; id <= STRUCTURES; id++) {
+			pool.registerStructure(id, profiles[id]);
+		}
+		assertPoolContent("legacy", pool, profiles, 0.0);
+		pool.close();
+
+		// Opening the pool must not have converted it
+		assertFalse(Files.exists(poolPath.resolve("encoding")));
+
+		pool = new MapDBStructurePool(projectPath, POOL_NAME, CAPACITY, false);
+		assertPoolContent("legacy after reopening", pool, profiles, 0.0);
+		pool.close();
+
+		// All records, old and new, are still plain double arrays on disk
+		for (int file = 0; file <= STRUCTURES / CAPACITY; file++) {
+
+			Path path = poolPath.resolve("data" + String.format("%04d", file) + ".mapdb");
+			assertTrue(path.toString(), Files.exists(path));
+
+			BTreeMap<Integer, double[]> map = openLegacyFile(path);
+			for (Entry<Integer, double[]> entry : map.entrySet()) {
+				assertArrayEquals(profiles[entry.getKey()], entry.getValue(), 0.0);
+			}
+			map.close();
+
+		}
+
+	}
+
+}
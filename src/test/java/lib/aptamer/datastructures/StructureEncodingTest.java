@@ -0,0 +1,161 @@
+/**
+ * 
+ */
+package lib.aptamer.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ * 
+ * Verifies the error bounds of the <code>StructureEncoding</code>s, the clamping of
+ * probabilities just outside of <code>[0,1]</code> and the fallback to <code>FLOAT</code>
+ * for structures which cannot be stored as fixed-point numbers.
+ */
+public class StructureEncodingTest {
+
+	/**
+	 * Random probabilities including the boundaries of the interval
+	 */
+	private static double[] randomProfile(Random r, int length) {
+
+		double[] profile = new double[length];
+		for (int i = 0; i < length; i++) {
+			profile[i] = r.nextDouble();
+		}
+		profile[0] = 0.0;
+		profile[length - 1] = 1.0;
+
+		return profile;
+	}
+
+	@Test
+	public void errorsAreWithinBounds() {
+
+		Random r = new Random(42);
+
+		for (StructureEncoding encoding : StructureEncoding.values()) {
+
+			double maximalError = 0.0;
+
+			for (int x = 0; x < 1000; x++) {
+
+				double[] profile = randomProfile(r, 1 + r.nextInt(200));
+				byte[] encoded = encoding.encode(profile);
+
+				assertEquals(encoding.toString(), encoding.ordinal(), encoded[0]);
+				assertEquals(encoding.toString(), 1 + profile.length * encoding.getBytesPerValue(), encoded.length);
+				assertEquals(encoding.toString(), profile.length, StructureEncoding.length(encoded));
+
+				double[] decoded = StructureEncoding.decode(encoded);
+				assertEquals(encoding.toString(), profile.length, decoded.length);
+
+				for (int i = 0; i < profile.length; i++) {
+					maximalError = Math.max(maximalError, Math.abs(profile[i] - decoded[i]));
+				}
+
+				// decoding into a larger buffer yields the same values
+				double[] buffer = new double[profile.length + 5];
+				assertEquals(encoding.toString(), profile.length, StructureEncoding.decode(encoded, buffer));
+				for (int i = 0; i < profile.length; i++) {
+					assertEquals(encoding.toString(), decoded[i], buffer[i], 0.0);
+				}
+
+			}
+
+			assertTrue(encoding + " error " + maximalError + " exceeds " + encoding.getMaximalError(), maximalError <= encoding.getMaximalError());
+
+		}
+
+		// the boundaries are represented exactly by all encodings
+		for (StructureEncoding encoding : StructureEncoding.values()) {
+			double[] decoded = StructureEncoding.decode(encoding.encode(new double[] { 0.0, 1.0 }));
+			assertEquals(encoding.toString(), 0.0, decoded[0], 0.0);
+			assertEquals(encoding.toString(), 1.0, decoded[1], 0.0);
+		}
+
+	}
+
+	@Test
+	public void valuesJustOutsideTheUnitIntervalAreClamped() {
+
+		for (StructureEncoding encoding : new StructureEncoding[] { StructureEncoding.FIXED16, StructureEncoding.FIXED8 }) {
+
+			double epsilon = encoding.getMaximalError() / 2;
+			double[] profile = { -epsilon, 0.5, 1.0 + epsilon, -encoding.getMaximalError(), 1.0 + encoding.getMaximalError() };
+
+			byte[] encoded = encoding.encode(profile);
+
+			// the structure keeps the fixed-point encoding...
+			assertEquals(encoding.toString(), encoding.ordinal(), encoded[0]);
+
+			// ...and its values are clamped to [0,1], staying within the error bound
+			double[] decoded = StructureEncoding.decode(encoded);
+			assertEquals(encoding.toString(), 0.0, decoded[0], 0.0);
+			assertEquals(encoding.toString(), 1.0, decoded[2], 0.0);
+			assertEquals(encoding.toString(), 0.0, decoded[3], 0.0);
+			assertEquals(encoding.toString(), 1.0, decoded[4], 0.0);
+
+			for (int i = 0; i < profile.length; i++) {
+				assertTrue(encoding.toString(), decoded[i] >= 0.0 && decoded[i] <= 1.0);
+				assertEquals(encoding.toString(), profile[i], decoded[i], encoding.getMaximalError());
+			}
+
+		}
+
+	}
+
+	@Test
+	public void valuesOutsideTheUnitIntervalFallBackToFloat() {
+
+		double[][] profiles = {
+				{ 0.25, 1.5, 0.75 },
+				{ -0.01, 0.5 },
+				{ 0.5, 1.0 + 0.01 },
+				{ 0.5, Double.NaN },
+				{ 3.0, -2.0, 0.5 }
+		};
+
+		for (StructureEncoding encoding : new StructureEncoding[] { StructureEncoding.FIXED16, StructureEncoding.FIXED8 }) {
+
+			for (double[] profile : profiles) {
+
+				byte[] encoded = encoding.encode(profile);
+
+				assertEquals(encoding.toString(), StructureEncoding.FLOAT.ordinal(), encoded[0]);
+				assertEquals(encoding.toString(), profile.length, StructureEncoding.length(encoded));
+
+				double[] decoded = StructureEncoding.decode(encoded);
+				for (int i = 0; i < profile.length; i++) {
+
+					if (Double.isNaN(profile[i])) {
+						assertTrue(Double.isNaN(decoded[i]));
+					}
+					else {
+						// relative to the magnitude for values beyond [0,1]
+						assertEquals(encoding.toString(), profile[i], decoded[i], StructureEncoding.FLOAT.getMaximalError() * Math.max(1.0, Math.abs(profile[i])));
+					}
+
+				}
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void fromStringIsCaseInsensitive() {
+
+		assertEquals(StructureEncoding.FIXED16, StructureEncoding.fromString("fixed16"));
+		assertEquals(StructureEncoding.FLOAT, StructureEncoding.fromString(" Float\n"));
+		assertEquals(StructureEncoding.DOUBLE, StructureEncoding.fromString("DOUBLE"));
+
+	}
+
+}
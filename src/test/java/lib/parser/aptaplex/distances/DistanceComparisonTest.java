@@ -0,0 +1,265 @@
+/**
+ * 
+ */
+package lib.parser.aptaplex.distances;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ * 
+ * Randomized comparison of the optimized matchers against the reference
+ * implementations they replace. <code>MaskedBitapDistance</code> has to
+ * reproduce <code>BitapDistance</code> exactly, while <code>MyersDistance</code>
+ * is checked against a plain dynamic programming solution of the same
+ * semi-global alignment problem.
+ */
+public class DistanceComparisonTest {
+
+	private static final byte[] alphabet = { 'A', 'C', 'G', 'T' };
+
+	private static final int rounds = 20000;
+
+	private static byte[] randomSequence(Random r, int length) {
+
+		byte[] sequence = new byte[length];
+		for (int i = 0; i < length; i++) {
+			sequence[i] = alphabet[r.nextInt(alphabet.length)];
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Returns a document which contains a copy of the pattern with up to <code>mutations</code>
+	 * substitutions, insertions or deletions, surrounded by random nucleotides
+	 */
+	private static byte[] randomDocument(Random r, byte[] pattern, int mutations, boolean indels) {
+
+		StringBuilder mutated = new StringBuilder(new String(pattern));
+		int count = r.nextInt(mutations + 1);
+		for (int i = 0; i < count && mutated.length() > 1; i++) {
+			int pos = r.nextInt(mutated.length());
+			switch (indels ? r.nextInt(3) : 0) {
+			case 0:
+				mutated.setCharAt(pos, (char) alphabet[r.nextInt(alphabet.length)]);
+				break;
+			case 1:
+				mutated.insert(pos, (char) alphabet[r.nextInt(alphabet.length)]);
+				break;
+			default:
+				mutated.deleteCharAt(pos);
+			}
+		}
+
+		StringBuilder document = new StringBuilder(new String(randomSequence(r, r.nextInt(40))));
+		document.insert(r.nextInt(document.length() + 1), mutated);
+		document.append(new String(randomSequence(r, r.nextInt(20))));
+
+		return document.toString().getBytes();
+	}
+
+	/**
+	 * Levenshtein distance of <code>pattern</code> to <code>doc[from, to)</code>
+	 */
+	private static int levenshtein(byte[] doc, int from, int to, byte[] pattern) {
+
+		int n = to - from;
+		int[] previous = new int[n + 1];
+		int[] current = new int[n + 1];
+
+		for (int j = 0; j <= n; j++) {
+			previous[j] = j;
+		}
+
+		for (int i = 1; i <= pattern.length; i++) {
+			current[0] = i;
+			for (int j = 1; j <= n; j++) {
+				int cost = pattern[i - 1] == doc[from + j - 1] ? 0 : 1;
+				current[j] = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+			}
+			int[] tmp = previous;
+			previous = current;
+			current = tmp;
+		}
+
+		return previous[n];
+	}
+
+	/**
+	 * Smallest Levenshtein distance of <code>pattern</code> to any substring of <code>doc[lower, upper)</code>
+	 */
+	private static int semiGlobalDistance(byte[] doc, byte[] pattern, int lower, int upper) {
+
+		int best = pattern.length;
+		for (int from = lower; from <= upper; from++) {
+			for (int to = from; to <= upper; to++) {
+				best = Math.min(best, levenshtein(doc, from, to, pattern));
+			}
+		}
+
+		return best;
+	}
+
+	private static int occurrences(byte[] doc, byte[] pattern) {
+
+		int count = 0;
+		for (int i = 0; i + pattern.length <= doc.length; i++) {
+			int j = 0;
+			while (j < pattern.length && doc[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private static void assertSameResult(String message, Result expected, Result actual) {
+
+		if (expected == null) {
+			assertNull(message, actual);
+			return;
+		}
+
+		assertNotNull(message, actual);
+		assertEquals(message + " index", expected.index, actual.index);
+		assertEquals(message + " errors", expected.errors, actual.errors);
+		assertEquals(message + " length", expected.length, actual.length);
+	}
+
+	@Test
+	public void maskedBitapMatchesBitap() {
+
+		Random r = new Random(42);
+		Distance reference = new BitapDistance();
+		Distance masked = new MaskedBitapDistance();
+
+		for (int x = 0; x < rounds; x++) {
+
+			byte[] pattern = randomSequence(r, 1 + r.nextInt(32));
+			byte[] doc = randomDocument(r, pattern, 4, true);
+			int tolerance = r.nextInt(4);
+
+			int lower = r.nextInt(doc.length / 2 + 1);
+			int upper = lower + r.nextInt(doc.length - lower + 1);
+
+			String message = new String(pattern) + " in " + new String(doc) + " [" + lower + "," + upper + ") tolerance " + tolerance;
+
+			assertSameResult("indexOf " + message, reference.indexOf(doc, pattern, tolerance, lower, upper), masked.indexOf(doc, pattern, tolerance, lower, upper));
+			assertSameResult("reverseIndexOf " + message, reference.reverseIndexOf(doc, pattern, tolerance, lower, upper), masked.reverseIndexOf(doc, pattern, tolerance, lower, upper));
+
+		}
+	}
+
+	@Test
+	public void myersAgreesWithEditDistanceOnExactMatches() {
+
+		Random r = new Random(7);
+		Distance reference = new EditDistance();
+		Distance myers = new MyersDistance();
+
+		for (int x = 0; x < rounds; x++) {
+
+			byte[] pattern = randomSequence(r, 1 + r.nextInt(100));
+			byte[] doc = randomDocument(r, pattern, 0, false);
+			String message = new String(pattern) + " in " + new String(doc);
+
+			for (boolean reverse : new boolean[] { false, true }) {
+
+				Result expected = reverse ? reference.reverseIndexOf(doc, pattern, 0, 0, doc.length) : reference.indexOf(doc, pattern, 0, 0, doc.length);
+				Result actual = reverse ? myers.reverseIndexOf(doc, pattern, 0, 0, doc.length) : myers.indexOf(doc, pattern, 0, 0, doc.length);
+
+				// the matchers break ties differently, hence positions are only 
+				// comparable if the pattern occurs exactly once
+				if (occurrences(doc, pattern) == 1) {
+					assertSameResult(message, expected, actual);
+				}
+				else {
+					assertNotNull(message, actual);
+					assertEquals(message, 0, actual.errors);
+					assertEquals(message, pattern.length, actual.length);
+					assertEquals(message, 0, levenshtein(doc, actual.index, actual.index + actual.length, pattern));
+				}
+
+			}
+		}
+	}
+
+	@Test
+	public void myersReportsValidAlignments() {
+
+		Random r = new Random(13);
+		Distance myers = new MyersDistance();
+
+		for (int x = 0; x < rounds / 20; x++) {
+
+			// include patterns spanning several words
+			byte[] pattern = randomSequence(r, 1 + r.nextInt(x % 10 == 0 ? 150 : 40));
+			byte[] doc = randomDocument(r, pattern, 4, true);
+			int tolerance = r.nextInt(6);
+
+			int lower = r.nextInt(doc.length / 4 + 1);
+			int upper = doc.length - r.nextInt(doc.length / 4 + 1);
+
+			int expected = semiGlobalDistance(doc, pattern, lower, upper);
+			String message = new String(pattern) + " in " + new String(doc) + " [" + lower + "," + upper + ") tolerance " + tolerance;
+
+			for (boolean reverse : new boolean[] { false, true }) {
+
+				Result result = reverse ? myers.reverseIndexOf(doc, pattern, tolerance, lower, upper) : myers.indexOf(doc, pattern, tolerance, lower, upper);
+
+				if (expected > tolerance) {
+					assertNull(message, result);
+					continue;
+				}
+
+				assertNotNull(message, result);
+				assertEquals(message, expected, result.errors);
+
+				// the reported alignment lies within the range and has the reported score
+				assertTrue(message, result.index >= lower && result.length >= 0 && result.index + result.length <= upper);
+				assertEquals(message, result.errors, levenshtein(doc, result.index, result.index + result.length, pattern));
+
+			}
+		}
+	}
+
+	@Test
+	public void myersLengthAccountsForIndels() {
+
+		Distance myers = new MyersDistance();
+
+		byte[] primer = "ACGTACGTTTGCAGGACTAGCATCGATCGGATCGATGCGGGTACTAGC".getBytes();
+
+		// one base of the primer deleted, one inserted into a copy
+		String deleted = new String(primer, 0, 20) + new String(primer, 21, primer.length - 21);
+		String inserted = new String(primer, 0, 20) + "T" + new String(primer, 20, primer.length - 20);
+
+		for (String variant : new String[] { deleted, inserted }) {
+
+			byte[] contig = ("GGCC" + variant + "AAAATTTTCCCCGGGG").getBytes();
+
+			Result match = myers.reverseIndexOf(contig, primer, 2, 0, contig.length);
+
+			assertNotNull(match);
+			assertEquals(1, match.errors);
+			assertEquals(4, match.index);
+			assertEquals(variant.length(), match.length);
+
+			// the randomized region starts right after the matched primer
+			assertEquals(4 + variant.length(), match.index + match.length);
+
+		}
+	}
+
+}